@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.analytics.channel;
+
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.PageLog;
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worst case validation that does not truncate anything: maximum number of properties
+ * with keys and values of maximum length. Each benchmark includes making the copy of properties
+ * that the tracking APIs make anyway, measured alone by the copy benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AnalyticsValidatorBenchmark {
+
+    private TypedPropertyBag mProperties;
+
+    private Map<String, String> mPageProperties;
+
+    @Setup
+    public void setUp() {
+        mProperties = BenchmarkUtils.generateStringProperties(BenchmarkUtils.MAX_PROPERTY_COUNT, BenchmarkUtils.MAX_PROPERTY_ITEM_LENGTH);
+        mPageProperties = new HashMap<>();
+        for (int i = 0; i < mProperties.size(); i++) {
+            mPageProperties.put(mProperties.getKey(i), mProperties.getString(i));
+        }
+    }
+
+    @Benchmark
+    public TypedPropertyBag copyEventProperties() {
+        return new TypedPropertyBag(mProperties);
+    }
+
+    @Benchmark
+    public boolean validateEvent() {
+        EventLog log = new EventLog();
+        log.setName("benchmarkEvent");
+        log.setTypedPropertyBag(new TypedPropertyBag(mProperties));
+        return AnalyticsValidator.validate(log);
+    }
+
+    @Benchmark
+    public Map<String, String> copyPageProperties() {
+        return new HashMap<>(mPageProperties);
+    }
+
+    @Benchmark
+    public boolean validatePage() {
+        PageLog log = new PageLog();
+        log.setName("benchmarkPage");
+        log.setProperties(mPageProperties);
+        return AnalyticsValidator.validate(log);
+    }
+}
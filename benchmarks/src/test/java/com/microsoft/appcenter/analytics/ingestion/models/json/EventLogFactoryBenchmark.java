@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.analytics.ingestion.models.json;
+
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures conversion of an event sent to several transmission targets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventLogFactoryBenchmark {
+
+    @Param({"1", "5", "20"})
+    public int targetCount;
+
+    private EventLogFactory mLogFactory;
+
+    private EventLog mLog;
+
+    @Setup
+    public void setUp() {
+        mLogFactory = new EventLogFactory();
+        mLog = BenchmarkUtils.generateEventLog();
+        for (int i = 0; i < targetCount; i++) {
+            mLog.addTransmissionTarget(BenchmarkUtils.generateString(32, i) + "-39311d37-fb55-479c-b7b6-9893b53d0186-7306");
+        }
+    }
+
+    @Benchmark
+    public Collection<CommonSchemaLog> toCommonSchemaLogs() {
+        return mLogFactory.toCommonSchemaLogs(mLog);
+    }
+}
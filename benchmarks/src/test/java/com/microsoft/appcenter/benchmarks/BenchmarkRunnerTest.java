@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.benchmarks;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Collection;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Entry point running all JMH benchmarks inside the Robolectric sandbox.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 28)
+public class BenchmarkRunnerTest {
+
+    @Test
+    public void runBenchmarks() throws RunnerException {
+        File results = new File(System.getProperty("benchmarks.results", "build/reports/benchmarks/results.json"));
+
+        //noinspection ResultOfMethodCallIgnored
+        results.getParentFile().mkdirs();
+
+        /*
+         * Benchmarks must not be forked: framework classes are provided by the Robolectric
+         * class loader of this JVM and would not be available in a new process.
+         */
+        Options options = new OptionsBuilder()
+                .include(System.getProperty("benchmarks.include", ".*Benchmark.*"))
+                .forks(0)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(1))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(1))
+                .resultFormat(ResultFormatType.JSON)
+                .result(results.getAbsolutePath())
+                .build();
+        Collection<RunResult> runResults = new Runner(options).run();
+        assertFalse(runResults.isEmpty());
+    }
+}
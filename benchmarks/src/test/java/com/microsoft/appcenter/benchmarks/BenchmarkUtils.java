@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.benchmarks;
+
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
+import com.microsoft.appcenter.utils.UUIDUtils;
+
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Fixtures shared by benchmarks.
+ */
+public final class BenchmarkUtils {
+
+    /**
+     * App secret.
+     */
+    public static final String APP_SECRET = "5c9edcf2-d8d8-426d-8c20-817eb9378b08";
+
+    /**
+     * One Collector target token.
+     */
+    public static final String TARGET_TOKEN = "4dacd24d0b1b42db9894926d0db2f4c7-39311d37-fb55-479c-b7b6-9893b53d0186-7306";
+
+    /**
+     * Max number of properties per event.
+     */
+    public static final int MAX_PROPERTY_COUNT = 20;
+
+    /**
+     * Max length of property keys and values.
+     */
+    public static final int MAX_PROPERTY_ITEM_LENGTH = 125;
+
+    private BenchmarkUtils() {
+    }
+
+    /**
+     * Generate a string of the given length, suffixed by an index to make keys unique.
+     */
+    public static String generateString(int length, int index) {
+        char[] chars = new char[length];
+        Arrays.fill(chars, 'a');
+        String suffix = String.valueOf(index);
+        suffix.getChars(0, suffix.length(), chars, length - suffix.length());
+        return new String(chars);
+    }
+
+    /**
+     * Generate string properties of the given count, keys and values having the given length.
+     */
+    public static TypedPropertyBag generateStringProperties(int count, int length) {
+        TypedPropertyBag properties = new TypedPropertyBag(count);
+        for (int i = 0; i < count; i++) {
+            properties.set(generateString(length, i), generateString(length, i));
+        }
+        return properties;
+    }
+
+    /**
+     * Generate the maximum number of properties mixing all types.
+     */
+    public static TypedPropertyBag generateMixedProperties() {
+        TypedPropertyBag properties = new TypedPropertyBag(MAX_PROPERTY_COUNT);
+        for (int i = 0; i < MAX_PROPERTY_COUNT / 5; i++) {
+            properties.set("boolean" + i, i % 2 == 0);
+            properties.set("date" + i, new Date(1500000000000L + i));
+            properties.set("double" + i, i + 0.5);
+            properties.set("long" + i, Long.MAX_VALUE - i);
+            properties.set("string" + i, "value" + i);
+        }
+        return properties;
+    }
+
+    /**
+     * Generate device properties as collected on a typical device.
+     */
+    public static Device generateDevice() {
+        Device device = new Device();
+        device.setSdkName("appcenter.android");
+        device.setSdkVersion("1.11.5");
+        device.setModel("Pixel 3");
+        device.setOemName("Google");
+        device.setOsName("Android");
+        device.setOsVersion("9");
+        device.setOsBuild("PQ2A.190305.002");
+        device.setOsApiLevel(28);
+        device.setLocale("en_US");
+        device.setTimeZoneOffset(-420);
+        device.setScreenSize("1080x2160");
+        device.setAppVersion("2.3.4");
+        device.setAppBuild("57");
+        device.setAppNamespace("com.contoso.benchmark");
+        device.setCarrierName("Contoso Mobile");
+        device.setCarrierCountry("us");
+        return device;
+    }
+
+    /**
+     * Generate an event log ready to be persisted, with device and maximum properties.
+     */
+    public static EventLog generateEventLog() {
+        EventLog log = new EventLog();
+        log.setId(UUIDUtils.randomUUID());
+        log.setSid(UUIDUtils.randomUUID());
+        log.setName("benchmarkEvent");
+        log.setTimestamp(new Date());
+        log.setDevice(generateDevice());
+        log.setTypedPropertyBag(generateMixedProperties());
+        return log;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.json.EventLogFactory;
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+import com.microsoft.appcenter.http.ServiceCall;
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.Persistence;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the end to end cost of enqueuing a log: persistence, batching and the success path
+ * of ingestion. Network is replaced by an ingestion that succeeds synchronously.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DefaultChannelBenchmark {
+
+    private static final String GROUP = "benchmark";
+
+    private static final int MAX_LOGS_PER_BATCH = 50;
+
+    private DefaultChannel mChannel;
+
+    private Persistence mPersistence;
+
+    private int mEnqueued;
+
+    @Setup
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        SharedPreferencesManager.initialize(context);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(EventLog.TYPE, new EventLogFactory());
+        mPersistence = new DatabasePersistence(context);
+        mPersistence.setLogSerializer(logSerializer);
+        mPersistence.deleteLogs(GROUP);
+        mChannel = new DefaultChannel(context, BenchmarkUtils.APP_SECRET, mPersistence, new SucceedingIngestion(), new InlineHandler());
+        mChannel.addGroup(GROUP, MAX_LOGS_PER_BATCH, 3000, 3, null, null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mChannel.shutdown();
+        mPersistence.deleteLogs(GROUP);
+    }
+
+    @Benchmark
+    public void enqueue() {
+        EventLog log = BenchmarkUtils.generateEventLog();
+        mChannel.enqueue(log, GROUP, Flags.DEFAULTS);
+
+        /* Batches are sent from the main thread, run that part when a batch is full. */
+        if (++mEnqueued % MAX_LOGS_PER_BATCH == 0) {
+            ShadowLooper.runUiThreadTasks();
+        }
+    }
+
+    /**
+     * Ingestion that reports success immediately.
+     */
+    private static class SucceedingIngestion implements Ingestion {
+
+        @Override
+        public ServiceCall sendAsync(String authToken, String appSecret, UUID installId, LogContainer logContainer, ServiceCallback serviceCallback) {
+            serviceCallback.onCallSucceeded("", null);
+            return new ServiceCall() {
+
+                @Override
+                public void cancel() {
+                }
+            };
+        }
+
+        @Override
+        public void setLogUrl(String logUrl) {
+        }
+
+        @Override
+        public void reopen() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Handler that runs immediate messages on the calling thread and drops delayed ones,
+     * so that only the batch size triggers sending and no timer skews the measurements.
+     */
+    private static class InlineHandler extends Handler {
+
+        InlineHandler() {
+            super(Looper.getMainLooper());
+        }
+
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            Runnable callback = msg.getCallback();
+            if (callback != null && uptimeMillis <= SystemClock.uptimeMillis()) {
+                callback.run();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.json.EventLogFactory;
+import com.microsoft.appcenter.analytics.ingestion.models.one.CommonSchemaEventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.one.json.CommonSchemaEventLogFactory;
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+import com.microsoft.appcenter.http.ServiceCall;
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.persistence.DatabasePersistence;
+import com.microsoft.appcenter.persistence.Persistence;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowLooper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures One Collector batching when many transmission targets are used:
+ * besides time, reports the number of requests and the size of the apikey header they send.
+ * Network is replaced by an ingestion that succeeds synchronously.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OneCollectorBatchingBenchmark {
+
+    private static final String GROUP = "benchmark" + OneCollectorChannelListener.ONE_COLLECTOR_GROUP_NAME_SUFFIX;
+
+    private static final int TENANT_COUNT = 40;
+
+    private static final int LOGS_PER_TENANT = 5;
+
+    @Param({"1", "10", "40"})
+    public int maxTargetKeysPerBatch;
+
+    @Param({"false", "true"})
+    public boolean fanOut;
+
+    private DefaultChannel mChannel;
+
+    private Persistence mPersistence;
+
+    private CountingIngestion mIngestion;
+
+    private final List<CommonSchemaLog> mLogs = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        Context context = RuntimeEnvironment.application;
+        SharedPreferencesManager.initialize(context);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(CommonSchemaEventLog.TYPE, new CommonSchemaEventLogFactory());
+        mPersistence = new DatabasePersistence(context);
+        mPersistence.setLogSerializer(logSerializer);
+        mPersistence.deleteLogs(GROUP);
+        mIngestion = new CountingIngestion();
+        mChannel = new DefaultChannel(context, BenchmarkUtils.APP_SECRET, mPersistence, mIngestion, new InlineHandler());
+        mChannel.addGroup(GROUP, OneCollectorChannelListener.ONE_COLLECTOR_TRIGGER_COUNT, 3000, OneCollectorChannelListener.ONE_COLLECTOR_TRIGGER_MAX_PARALLEL_REQUESTS, null, null);
+        mChannel.setTargetKeyBatching(GROUP, maxTargetKeysPerBatch, OneCollectorChannelListener.ONE_COLLECTOR_TRIGGER_COUNT, fanOut);
+
+        /* Interleave tenants as applications usually do, which is the worst case for batching. */
+        EventLogFactory eventLogFactory = new EventLogFactory();
+        for (int i = 0; i < LOGS_PER_TENANT; i++) {
+            for (int tenant = 0; tenant < TENANT_COUNT; tenant++) {
+                EventLog log = BenchmarkUtils.generateEventLog();
+                log.addTransmissionTarget(BenchmarkUtils.generateString(32, tenant) + "-39311d37-fb55-479c-b7b6-9893b53d0186-7306");
+                mLogs.addAll(eventLogFactory.toCommonSchemaLogs(log));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mChannel.shutdown();
+        mPersistence.deleteLogs(GROUP);
+    }
+
+    /**
+     * Enqueue one round of logs of all tenants.
+     */
+    @Benchmark
+    public void enqueue(Counters counters) {
+        mIngestion.mCounters = counters;
+        for (int i = 0; i < mLogs.size(); i++) {
+            mChannel.enqueue(mLogs.get(i), GROUP, Flags.DEFAULTS);
+
+            /* Batches are sent from the main thread, run that part when a batch is full. */
+            if ((i + 1) % OneCollectorChannelListener.ONE_COLLECTOR_TRIGGER_COUNT == 0) {
+                ShadowLooper.runUiThreadTasks();
+            }
+        }
+    }
+
+    /**
+     * Requests and header bytes sent during an iteration.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Counters {
+
+        public long requests;
+
+        public long apiKeyHeaderBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+            apiKeyHeaderBytes = 0;
+        }
+    }
+
+    /**
+     * Ingestion that reports success immediately and counts what would be sent.
+     */
+    private static class CountingIngestion implements Ingestion {
+
+        Counters mCounters;
+
+        @Override
+        public ServiceCall sendAsync(String authToken, String appSecret, UUID installId, LogContainer logContainer, ServiceCallback serviceCallback) {
+
+            /* Same header as One Collector ingestion: distinct tokens separated by commas. */
+            Set<String> apiKeys = new LinkedHashSet<>();
+            for (Log log : logContainer.getLogs()) {
+                apiKeys.addAll(log.getTransmissionTargetTokens());
+            }
+            long headerBytes = apiKeys.size() - 1;
+            for (String apiKey : apiKeys) {
+                headerBytes += apiKey.length();
+            }
+            mCounters.requests++;
+            mCounters.apiKeyHeaderBytes += headerBytes;
+            serviceCallback.onCallSucceeded("", null);
+            return new ServiceCall() {
+
+                @Override
+                public void cancel() {
+                }
+            };
+        }
+
+        @Override
+        public void setLogUrl(String logUrl) {
+        }
+
+        @Override
+        public void reopen() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Handler that runs immediate messages on the calling thread and drops delayed ones,
+     * so that only the batch size triggers sending and no timer skews the measurements.
+     */
+    private static class InlineHandler extends Handler {
+
+        InlineHandler() {
+            super(Looper.getMainLooper());
+        }
+
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            Runnable callback = msg.getCallback();
+            if (callback != null && uptimeMillis <= SystemClock.uptimeMillis()) {
+                callback.run();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Error log creation as done in the uncaught exception handler, while the process is crashing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ErrorLogHelperBenchmark {
+
+    private Context mContext;
+
+    private Throwable mThrowable;
+
+    private Map<Thread, StackTraceElement[]> mAllStackTraces;
+
+    @Setup
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mThrowable = new RuntimeException("benchmark", new IllegalStateException("cause"));
+        mAllStackTraces = Thread.getAllStackTraces();
+    }
+
+    @Benchmark
+    public ManagedErrorLog createErrorLog() {
+        return ErrorLogHelper.createErrorLog(mContext, Thread.currentThread(), mThrowable, mAllStackTraces, 0);
+    }
+}
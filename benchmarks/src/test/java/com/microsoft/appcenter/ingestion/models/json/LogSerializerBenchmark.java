@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.json.EventLogFactory;
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+
+import org.json.JSONException;
+import org.json.JSONStringer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LogSerializerBenchmark {
+
+    /**
+     * Default number of logs per App Center batch.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    private LogSerializer mLogSerializer;
+
+    private EventLog mLog;
+
+    private String mPayload;
+
+    private LogContainer mLogContainer;
+
+    private String mContainerPayload;
+
+    @Setup
+    public void setUp() throws JSONException {
+        mLogSerializer = new DefaultLogSerializer();
+        mLogSerializer.addLogFactory(EventLog.TYPE, new EventLogFactory());
+        mLog = BenchmarkUtils.generateEventLog();
+        mPayload = mLogSerializer.serializeLog(mLog);
+
+        /* Logs read back from storage have equal but distinct device instances. */
+        List<Log> logs = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            logs.add(BenchmarkUtils.generateEventLog());
+        }
+        mLogContainer = new LogContainer();
+        mLogContainer.setLogs(logs);
+        mContainerPayload = mLogSerializer.serializeContainer(mLogContainer);
+    }
+
+    @Benchmark
+    public String serializeLog() throws JSONException {
+        return mLogSerializer.serializeLog(mLog);
+    }
+
+    /**
+     * Baseline writing the log field by field, without the cached device block.
+     */
+    @Benchmark
+    public String serializeLogWithoutCache() throws JSONException {
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        mLog.write(writer);
+        writer.endObject();
+        return writer.toString();
+    }
+
+    @Benchmark
+    public Log deserializeLog() throws JSONException {
+        return mLogSerializer.deserializeLog(mPayload, null);
+    }
+
+    @Benchmark
+    public String serializeContainer() throws JSONException {
+        return mLogSerializer.serializeContainer(mLogContainer);
+    }
+
+    @Benchmark
+    public LogContainer deserializeContainer() throws JSONException {
+        return mLogSerializer.deserializeContainer(mContainerPayload, null);
+    }
+
+    @Benchmark
+    public String serializeDevice() throws JSONException {
+        Device device = mLog.getDevice();
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        device.write(writer);
+        writer.endObject();
+        return writer.toString();
+    }
+}
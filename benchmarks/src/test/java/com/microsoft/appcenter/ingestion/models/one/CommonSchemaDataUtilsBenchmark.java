@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.one;
+
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.json.EventLogFactory;
+import com.microsoft.appcenter.analytics.ingestion.models.one.CommonSchemaEventLog;
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+import com.microsoft.appcenter.ingestion.models.json.LogFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CommonSchemaDataUtilsBenchmark {
+
+    private LogFactory mLogFactory;
+
+    private EventLog mLog;
+
+    @Setup
+    public void setUp() {
+        mLogFactory = new EventLogFactory();
+        mLog = BenchmarkUtils.generateEventLog();
+        mLog.addTransmissionTarget(BenchmarkUtils.TARGET_TOKEN);
+    }
+
+    /**
+     * Part B and C conversion only.
+     */
+    @Benchmark
+    public CommonSchemaLog addCommonSchemaData() {
+        CommonSchemaEventLog commonSchemaLog = new CommonSchemaEventLog();
+        CommonSchemaDataUtils.addCommonSchemaData(mLog.getTypedPropertyBag(), commonSchemaLog);
+        return commonSchemaLog;
+    }
+
+    /**
+     * Full conversion of an event log done for every One Collector event.
+     */
+    @Benchmark
+    public Collection<CommonSchemaLog> toCommonSchemaLogs() {
+        return mLogFactory.toCommonSchemaLogs(mLog);
+    }
+}
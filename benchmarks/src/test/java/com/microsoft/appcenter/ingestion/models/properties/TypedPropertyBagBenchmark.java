@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.properties;
+
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+
+import org.json.JSONException;
+import org.json.JSONStringer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the property bag with the list of typed property objects for the maximum number of event properties.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TypedPropertyBagBenchmark {
+
+    private String[] mKeys;
+
+    private String[] mValues;
+
+    private TypedPropertyBag mBag;
+
+    private List<TypedProperty> mList;
+
+    @Setup
+    public void setUp() {
+        mKeys = new String[BenchmarkUtils.MAX_PROPERTY_COUNT];
+        mValues = new String[BenchmarkUtils.MAX_PROPERTY_COUNT];
+        for (int i = 0; i < mKeys.length; i++) {
+            mKeys[i] = "key" + i;
+            mValues[i] = "value" + i;
+        }
+        mBag = BenchmarkUtils.generateMixedProperties();
+        mList = mBag.toTypedProperties();
+    }
+
+    @Benchmark
+    public TypedPropertyBag buildBag() {
+        TypedPropertyBag bag = new TypedPropertyBag(mKeys.length);
+        for (int i = 0; i < mKeys.length; i++) {
+            bag.set(mKeys[i], mValues[i]);
+        }
+        return bag;
+    }
+
+    @Benchmark
+    public List<TypedProperty> buildList() {
+        List<TypedProperty> list = new ArrayList<>(mKeys.length);
+        for (int i = 0; i < mKeys.length; i++) {
+            StringTypedProperty property = new StringTypedProperty();
+            property.setName(mKeys[i]);
+            property.setValue(mValues[i]);
+            list.add(property);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public String writeBag() throws JSONException {
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        mBag.write(writer);
+        writer.endObject();
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String writeList() throws JSONException {
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        JSONUtils.writeArray(writer, "typedProperties", mList);
+        writer.endObject();
+        return writer.toString();
+    }
+}
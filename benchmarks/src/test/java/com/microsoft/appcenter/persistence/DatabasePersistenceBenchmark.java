@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
+import com.microsoft.appcenter.analytics.ingestion.models.json.EventLogFactory;
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DatabasePersistenceBenchmark {
+
+    private static final String GROUP = "benchmark";
+
+    /**
+     * Default number of logs per App Center batch.
+     */
+    private static final int BATCH_SIZE = 50;
+
+    private DatabasePersistence mPersistence;
+
+    private EventLog mLog;
+
+    private List<Log> mOutLogs;
+
+    @Setup
+    public void setUp() {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(EventLog.TYPE, new EventLogFactory());
+        mPersistence = new DatabasePersistence(RuntimeEnvironment.application);
+        mPersistence.setLogSerializer(logSerializer);
+        mLog = BenchmarkUtils.generateEventLog();
+        mOutLogs = new ArrayList<>(BATCH_SIZE);
+    }
+
+    @TearDown(Level.Iteration)
+    public void clearLogs() {
+        mPersistence.deleteLogs(GROUP);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPersistence.close();
+    }
+
+    @Benchmark
+    public long putLog() throws Persistence.PersistenceException {
+        return mPersistence.putLog(mLog, GROUP, Flags.DEFAULTS);
+    }
+
+    /**
+     * A full batch lifecycle: store logs, read them back for sending and delete them on success.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int putGetDeleteBatch() throws Persistence.PersistenceException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mPersistence.putLog(mLog, GROUP, Flags.DEFAULTS);
+        }
+        mOutLogs.clear();
+        String batchId = mPersistence.getLogs(GROUP, Collections.<String>emptyList(), BATCH_SIZE, mOutLogs, null);
+        if (batchId != null) {
+            mPersistence.deleteLogs(GROUP, batchId);
+        }
+        return mOutLogs.size();
+    }
+}
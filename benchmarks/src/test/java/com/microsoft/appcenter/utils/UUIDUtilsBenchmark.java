@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class UUIDUtilsBenchmark {
+
+    @Benchmark
+    public UUID randomUUID() {
+        return UUIDUtils.randomUUID();
+    }
+
+    @Benchmark
+    public UUID fastRandomUUID() {
+        return UUIDUtils.fastRandomUUID();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public UUID randomUUIDContended() {
+        return UUIDUtils.randomUUID();
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public UUID fastRandomUUIDContended() {
+        return UUIDUtils.fastRandomUUID();
+    }
+}
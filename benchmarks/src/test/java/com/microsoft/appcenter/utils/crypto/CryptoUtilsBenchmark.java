@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.utils.crypto;
+
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+
+import com.microsoft.appcenter.benchmarks.BenchmarkUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.robolectric.RuntimeEnvironment;
+
+import java.security.Key;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+
+/**
+ * Encryption as done for every One Collector log target token stored in the database.
+ * The Android key store is replaced by {@link InMemoryKeyStore} and ciphers by the JVM ones,
+ * so this measures the SDK overhead around the cipher rather than the hardware backed key store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CryptoUtilsBenchmark {
+
+    private CryptoUtils mCryptoUtils;
+
+    private String mEncryptedData;
+
+    @Setup
+    public void setUp() {
+        InMemoryKeyStore.install();
+        mCryptoUtils = new CryptoUtils(RuntimeEnvironment.application, new JvmCryptoFactory(), Build.VERSION_CODES.M);
+        mEncryptedData = mCryptoUtils.encrypt(BenchmarkUtils.TARGET_TOKEN);
+    }
+
+    @TearDown
+    public void tearDown() {
+        InMemoryKeyStore.clear();
+    }
+
+    @Benchmark
+    public String encrypt() {
+        return mCryptoUtils.encrypt(BenchmarkUtils.TARGET_TOKEN);
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return mCryptoUtils.decrypt(mEncryptedData, false).getDecryptedData();
+    }
+
+    /**
+     * Crypto factory generating keys into the in memory key store and using JVM ciphers.
+     */
+    private static class JvmCryptoFactory implements CryptoUtils.ICryptoFactory {
+
+        @Override
+        public CryptoUtils.IKeyGenerator getKeyGenerator(final String algorithm, String provider) throws Exception {
+            final KeyGenerator keyGenerator = KeyGenerator.getInstance(algorithm);
+            return new CryptoUtils.IKeyGenerator() {
+
+                private KeyGenParameterSpec mSpec;
+
+                @Override
+                public void init(AlgorithmParameterSpec parameters) {
+                    mSpec = (KeyGenParameterSpec) parameters;
+                    keyGenerator.init(mSpec.getKeySize());
+                }
+
+                @Override
+                public void generateKey() {
+                    InMemoryKeyStore.putKey(mSpec.getKeystoreAlias(), keyGenerator.generateKey());
+                }
+            };
+        }
+
+        @Override
+        public CryptoUtils.ICipher getCipher(String transformation, String provider) throws Exception {
+
+            /* The JVM names PKCS7 padding for AES PKCS5, they are the same for 16 bytes blocks. */
+            final Cipher cipher = Cipher.getInstance(transformation.replace("PKCS7Padding", "PKCS5Padding"));
+            return new CryptoUtils.ICipher() {
+
+                @Override
+                public void init(int opMode, Key key) throws Exception {
+                    cipher.init(opMode, key);
+                }
+
+                @Override
+                public void init(int opMode, Key key, AlgorithmParameterSpec params) throws Exception {
+                    cipher.init(opMode, key, params);
+                }
+
+                @Override
+                public byte[] doFinal(byte[] input) throws Exception {
+                    return cipher.doFinal(input);
+                }
+
+                @Override
+                public byte[] doFinal(byte[] input, int inputOffset, int inputLength) throws Exception {
+                    return cipher.doFinal(input, inputOffset, inputLength);
+                }
+
+                @Override
+                public byte[] getIV() {
+                    return cipher.getIV();
+                }
+
+                @Override
+                public int getBlockSize() {
+                    return cipher.getBlockSize();
+                }
+
+                @Override
+                public String getAlgorithm() {
+                    return cipher.getAlgorithm();
+                }
+
+                @Override
+                public String getProvider() {
+                    return cipher.getProvider().getName();
+                }
+            };
+        }
+    }
+}
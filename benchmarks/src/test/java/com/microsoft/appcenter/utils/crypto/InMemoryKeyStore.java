@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.utils.crypto;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreSpi;
+import java.security.Provider;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.SecretKey;
+
+import static com.microsoft.appcenter.utils.crypto.CryptoConstants.ANDROID_KEY_STORE;
+
+/**
+ * Stand-in for the Android key store, which is not available on the JVM.
+ * Only secret keys are supported, which is what the AES handler needs.
+ */
+public class InMemoryKeyStore extends KeyStoreSpi {
+
+    private static final Map<String, SecretKey> sKeys = new ConcurrentHashMap<>();
+
+    private static final Map<String, Date> sCreationDates = new ConcurrentHashMap<>();
+
+    /**
+     * Register the key store under the Android key store name.
+     */
+    public static synchronized void install() {
+        if (Security.getProvider(ANDROID_KEY_STORE) == null) {
+            Security.insertProviderAt(new InMemoryKeyStoreProvider(), 1);
+        }
+    }
+
+    /**
+     * Store a generated key.
+     */
+    static void putKey(String alias, SecretKey key) {
+        sKeys.put(alias, key);
+        sCreationDates.put(alias, new Date());
+    }
+
+    /**
+     * Remove all keys.
+     */
+    public static void clear() {
+        sKeys.clear();
+        sCreationDates.clear();
+    }
+
+    @Override
+    public KeyStore.Entry engineGetEntry(String alias, KeyStore.ProtectionParameter protParam) {
+        SecretKey key = sKeys.get(alias);
+        return key == null ? null : new KeyStore.SecretKeyEntry(key);
+    }
+
+    @Override
+    public Key engineGetKey(String alias, char[] password) {
+        return sKeys.get(alias);
+    }
+
+    @Override
+    public Certificate[] engineGetCertificateChain(String alias) {
+        return null;
+    }
+
+    @Override
+    public Certificate engineGetCertificate(String alias) {
+        return null;
+    }
+
+    @Override
+    public Date engineGetCreationDate(String alias) {
+        return sCreationDates.get(alias);
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, Key key, char[] password, Certificate[] chain) {
+        putKey(alias, (SecretKey) key);
+    }
+
+    @Override
+    public void engineSetKeyEntry(String alias, byte[] key, Certificate[] chain) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void engineSetCertificateEntry(String alias, Certificate cert) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void engineDeleteEntry(String alias) {
+        sKeys.remove(alias);
+        sCreationDates.remove(alias);
+    }
+
+    @Override
+    public Enumeration<String> engineAliases() {
+        return Collections.enumeration(sKeys.keySet());
+    }
+
+    @Override
+    public boolean engineContainsAlias(String alias) {
+        return sKeys.containsKey(alias);
+    }
+
+    @Override
+    public int engineSize() {
+        return sKeys.size();
+    }
+
+    @Override
+    public boolean engineIsKeyEntry(String alias) {
+        return sKeys.containsKey(alias);
+    }
+
+    @Override
+    public boolean engineIsCertificateEntry(String alias) {
+        return false;
+    }
+
+    @Override
+    public String engineGetCertificateAlias(Certificate cert) {
+        return null;
+    }
+
+    @Override
+    public void engineStore(OutputStream stream, char[] password) {
+    }
+
+    @Override
+    public void engineLoad(InputStream stream, char[] password) {
+    }
+
+    private static class InMemoryKeyStoreProvider extends Provider {
+
+        InMemoryKeyStoreProvider() {
+            super(ANDROID_KEY_STORE, 1.0, "In memory key store for benchmarks");
+            put("KeyStore." + ANDROID_KEY_STORE, InMemoryKeyStore.class.getName());
+        }
+    }
+}
@@ -29,8 +29,7 @@ import com.microsoft.appcenter.analytics.ingestion.models.one.json.CommonSchemaE
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
-import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.UUIDUtils;
 import com.microsoft.appcenter.utils.context.UserIdContext;
@@ -38,9 +37,7 @@ import com.microsoft.appcenter.utils.async.AppCenterFuture;
 import com.microsoft.appcenter.utils.async.DefaultAppCenterFuture;
 
 import java.lang.ref.WeakReference;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -102,8 +99,9 @@ public class Analytics extends AbstractAppCenterService {
 
     /**
      * True if started from app, false if started only from a library or not yet started at all.
+     * Volatile as it is read on the caller thread to validate logs before queuing them.
      */
-    private boolean mStartedFromApp;
+    private volatile boolean mStartedFromApp;
 
     /**
      * Session tracker.
@@ -438,33 +436,32 @@ public class Analytics extends AbstractAppCenterService {
      * Internal conversion for properties.
      *
      * @param properties input properties.
-     * @return copy as a list.
+     * @return copy as a property bag.
      */
-    private static List<TypedProperty> convertProperties(EventProperties properties) {
+    private static TypedPropertyBag convertProperties(EventProperties properties) {
         if (properties == null) {
             return null;
         }
 
         /* Make a copy to avoid concurrent modifications after trackEvent. */
-        return new ArrayList<>(properties.getProperties().values());
+        TypedPropertyBag typedProperties = new TypedPropertyBag();
+        properties.copyTo(typedProperties);
+        return typedProperties;
     }
 
     /**
      * Internal conversion for properties.
      *
      * @param properties input properties.
-     * @return copy as a typed list.
+     * @return copy as a property bag.
      */
-    private static List<TypedProperty> convertProperties(Map<String, String> properties) {
+    private static TypedPropertyBag convertProperties(Map<String, String> properties) {
         if (properties == null) {
             return null;
         }
-        List<TypedProperty> typedProperties = new ArrayList<>(properties.size());
+        TypedPropertyBag typedProperties = new TypedPropertyBag(properties.size());
         for (Map.Entry<String, String> property : properties.entrySet()) {
-            StringTypedProperty typedProperty = new StringTypedProperty();
-            typedProperty.setName(property.getKey());
-            typedProperty.setValue(property.getValue());
-            typedProperties.add(typedProperty);
+            typedProperties.set(property.getKey(), property.getValue());
         }
         return typedProperties;
     }
@@ -719,17 +716,31 @@ public class Analytics extends AbstractAppCenterService {
      * @param properties optional properties.
      */
     private synchronized void trackPageAsync(final String name, final Map<String, String> properties) {
+        final PageLog pageLog = new PageLog();
+        pageLog.setName(name);
+
+        /*
+         * If we already know the validator applies, validate now on the caller thread:
+         * it makes the copy of properties that prevents concurrent modification.
+         */
+        if (mStartedFromApp) {
+            pageLog.setProperties(properties);
+            if (!AnalyticsValidator.validate(pageLog)) {
+                return;
+            }
+        } else {
 
-        /* Make a copy to prevent concurrent modification. */
-        final Map<String, String> propertiesCopy = properties != null ? new HashMap<>(properties) : null;
+            /* Make a copy to prevent concurrent modification. */
+            pageLog.setProperties(properties != null ? new HashMap<>(properties) : null);
+        }
         post(new Runnable() {
 
             @Override
             public void run() {
 
-                /* This flag is always read/written in the background thread. */
+                /* This flag is always written in the background thread. */
                 if (mStartedFromApp) {
-                    queuePage(name, propertiesCopy);
+                    queuePage(pageLog);
                 } else {
                     AppCenterLog.error(LOG_TAG, "Cannot track page if not started from app.");
                 }
@@ -745,6 +756,14 @@ public class Analytics extends AbstractAppCenterService {
         PageLog pageLog = new PageLog();
         pageLog.setName(name);
         pageLog.setProperties(properties);
+        queuePage(pageLog);
+    }
+
+    /**
+     * Enqueue page log now.
+     */
+    @WorkerThread
+    private void queuePage(PageLog pageLog) {
         mChannel.enqueue(pageLog, ANALYTICS_GROUP, Flags.DEFAULTS);
     }
 
@@ -756,14 +775,24 @@ public class Analytics extends AbstractAppCenterService {
      * @param transmissionTarget optional target.
      * @param flags              optional flags.
      */
-    private synchronized void trackEventAsync(final String name, final List<TypedProperty> properties, final AnalyticsTransmissionTarget transmissionTarget, final int flags) {
+    private synchronized void trackEventAsync(final String name, final TypedPropertyBag properties, final AnalyticsTransmissionTarget transmissionTarget, final int flags) {
         final String userId = UserIdContext.getInstance().getUserId();
+        final EventLog eventLog = new EventLog();
+        eventLog.setName(name);
+        eventLog.setTypedPropertyBag(properties);
+
+        /*
+         * If we already know the validator applies, validate now on the caller thread:
+         * the properties are our own copy and can be truncated in place.
+         */
+        if (mStartedFromApp && !AnalyticsValidator.validate(eventLog)) {
+            return;
+        }
         post(new Runnable() {
 
             @Override
             public void run() {
                 AnalyticsTransmissionTarget aTransmissionTarget = (transmissionTarget == null) ? mDefaultTransmissionTarget : transmissionTarget;
-                EventLog eventLog = new EventLog();
                 if (aTransmissionTarget != null) {
                     if (aTransmissionTarget.isEnabled()) {
                         eventLog.addTransmissionTarget(aTransmissionTarget.getTransmissionTargetToken());
@@ -779,9 +808,7 @@ public class Analytics extends AbstractAppCenterService {
                     AppCenterLog.error(LOG_TAG, "Cannot track event using Analytics.trackEvent if not started from app, please start from the application or use Analytics.getTransmissionTarget.");
                     return;
                 }
-                eventLog.setId(UUIDUtils.randomUUID());
-                eventLog.setName(name);
-                eventLog.setTypedProperties(properties);
+                eventLog.setId(UUIDUtils.fastRandomUUID());
 
                 /* Filter and validate flags. For now we support only persistence. */
                 int filteredFlags = Flags.getPersistenceFlag(flags, true);
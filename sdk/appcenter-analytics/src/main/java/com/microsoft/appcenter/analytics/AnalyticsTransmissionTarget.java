@@ -259,7 +259,7 @@ public class AnalyticsTransmissionTarget {
 
         /* Override with parameter. */
         if (properties != null) {
-            mergedProperties.getProperties().putAll(properties.getProperties());
+            properties.copyTo(mergedProperties.getProperties());
         }
 
         /*
@@ -5,17 +5,10 @@
 
 package com.microsoft.appcenter.analytics;
 
-import com.microsoft.appcenter.ingestion.models.properties.BooleanTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.DateTimeTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.DoubleTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.LongTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import static com.microsoft.appcenter.analytics.Analytics.LOG_TAG;
 
@@ -27,17 +20,43 @@ public class EventProperties {
     private static final String VALUE_NULL_ERROR_MESSAGE = "Property value cannot be null";
 
     /**
-     * Properties key/value pairs.
-     * Using a concurrent map to avoid concurrent modification exception when doing the traversal copy.
-     * We also need to traverse a snapshot of properties when doing property inheritance between targets.
-     * There is no need to block in a more global way than the snapshot traversal.
+     * Properties key/value pairs, stored without one object per property.
+     * Access is synchronized on this instance, including the snapshot copy when tracking an event
+     * or doing property inheritance between targets.
      */
-    private final Map<String, TypedProperty> mProperties = new ConcurrentHashMap<>();
+    private final TypedPropertyBag mProperties = new TypedPropertyBag();
 
-    Map<String, TypedProperty> getProperties() {
+    synchronized TypedPropertyBag getProperties() {
         return mProperties;
     }
 
+    /**
+     * Copy a snapshot of the properties into the specified bag, overriding existing keys.
+     *
+     * @param destination where to copy properties.
+     */
+    synchronized void copyTo(TypedPropertyBag destination) {
+        destination.putAll(mProperties);
+    }
+
+    /**
+     * Copy a snapshot of the properties into the specified bag, keeping existing keys.
+     *
+     * @param destination where to copy properties.
+     */
+    synchronized void copyIfAbsentTo(TypedPropertyBag destination) {
+        destination.putAllIfAbsent(mProperties);
+    }
+
+    /**
+     * Remove the specified key.
+     *
+     * @param key key to remove.
+     */
+    synchronized void remove(String key) {
+        mProperties.remove(key);
+    }
+
     /**
      * Set the specified property value with the specified key.
      * If the properties previously contained a property for the key, the old
@@ -47,12 +66,9 @@ public class EventProperties {
      * @param value value to be set with the specified key.
      * @return this instance.
      */
-    public EventProperties set(String key, boolean value) {
+    public synchronized EventProperties set(String key, boolean value) {
         if (isValidKey(key)) {
-            BooleanTypedProperty property = new BooleanTypedProperty();
-            property.setName(key);
-            property.setValue(value);
-            mProperties.put(key, property);
+            mProperties.set(key, value);
         }
         return this;
     }
@@ -66,12 +82,9 @@ public class EventProperties {
      * @param value value to be set with the specified key.
      * @return this instance.
      */
-    public EventProperties set(String key, Date value) {
+    public synchronized EventProperties set(String key, Date value) {
         if (isValidKey(key) && isValidValue(value)) {
-            DateTimeTypedProperty property = new DateTimeTypedProperty();
-            property.setName(key);
-            property.setValue(value);
-            mProperties.put(key, property);
+            mProperties.set(key, value);
         }
         return this;
     }
@@ -85,15 +98,12 @@ public class EventProperties {
      * @param value value to be set with the specified key.
      * @return this instance.
      */
-    public EventProperties set(String key, double value) {
+    public synchronized EventProperties set(String key, double value) {
         if (isValidKey(key)) {
             if (Double.isInfinite(value) || Double.isNaN(value)) {
                 AppCenterLog.error(LOG_TAG, "Double property value cannot be NaN or infinite.");
             } else {
-                DoubleTypedProperty property = new DoubleTypedProperty();
-                property.setName(key);
-                property.setValue(value);
-                mProperties.put(key, property);
+                mProperties.set(key, value);
             }
         }
         return this;
@@ -108,12 +118,9 @@ public class EventProperties {
      * @param value value to be set with the specified key.
      * @return this instance.
      */
-    public EventProperties set(String key, long value) {
+    public synchronized EventProperties set(String key, long value) {
         if (isValidKey(key)) {
-            LongTypedProperty property = new LongTypedProperty();
-            property.setName(key);
-            property.setValue(value);
-            mProperties.put(key, property);
+            mProperties.set(key, value);
         }
         return this;
     }
@@ -127,12 +134,9 @@ public class EventProperties {
      * @param value value to be set with the specified key.
      * @return this instance.
      */
-    public EventProperties set(String key, String value) {
+    public synchronized EventProperties set(String key, String value) {
         if (isValidKey(key) && isValidValue(value)) {
-            StringTypedProperty property = new StringTypedProperty();
-            property.setName(key);
-            property.setValue(value);
-            mProperties.put(key, property);
+            mProperties.set(key, value);
         }
         return this;
     }
@@ -9,21 +9,13 @@ import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
-import com.microsoft.appcenter.analytics.ingestion.models.LogWithNameAndProperties;
 import com.microsoft.appcenter.analytics.ingestion.models.PageLog;
 import com.microsoft.appcenter.channel.AbstractChannelListener;
 import com.microsoft.appcenter.ingestion.models.Log;
-import com.microsoft.appcenter.ingestion.models.properties.BooleanTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.DateTimeTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.DoubleTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.LongTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.util.HashMap;
-import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 
 import static com.microsoft.appcenter.analytics.Analytics.LOG_TAG;
@@ -49,13 +41,16 @@ public class AnalyticsValidator extends AbstractChannelListener {
     static final int MAX_PROPERTY_COUNT = 20;
 
     /**
-     * Validates log.
+     * Validates a page log, truncating name and properties if needed.
+     * Valid logs are marked as validated so that validation is not repeated in {@link #shouldFilter(Log)}.
      *
      * @param log The log.
      * @return true if validation passed, false otherwise.
      */
-    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    private boolean validateLog(@NonNull LogWithNameAndProperties log) {
+    public static boolean validate(@NonNull PageLog log) {
+        if (log.isValidated()) {
+            return true;
+        }
         String name = validateName(log.getName(), log.getType());
         if (name == null) {
             return false;
@@ -63,26 +58,43 @@ public class AnalyticsValidator extends AbstractChannelListener {
         Map<String, String> validatedProperties = validateProperties(log.getProperties(), name, log.getType());
         log.setName(name);
         log.setProperties(validatedProperties);
+        log.setValidated(true);
         return true;
     }
 
     /**
-     * Validates log.
+     * Validates an event log, truncating name and properties in place if needed.
+     * Valid logs are marked as validated so that validation is not repeated in {@link #shouldFilter(Log)}.
      *
      * @param log The log.
      * @return true if validation passed, false otherwise.
      */
-    @SuppressWarnings("BooleanMethodIsAlwaysInverted")
-    private boolean validateLog(@NonNull EventLog log) {
+    public static boolean validate(@NonNull EventLog log) {
+        if (log.isValidated()) {
+            return true;
+        }
         String name = validateName(log.getName(), log.getType());
         if (name == null) {
             return false;
         }
-        validateProperties(log.getTypedProperties());
+        validateProperties(log.getTypedPropertyBag());
         log.setName(name);
+        log.setValidated(true);
         return true;
     }
 
+    /**
+     * Log a warning, formatting the message only if the warning is going to be printed.
+     *
+     * @param format message format.
+     * @param args   message arguments.
+     */
+    private static void warn(String format, Object... args) {
+        if (AppCenterLog.getLogLevel() <= android.util.Log.WARN) {
+            AppCenterLog.warn(LOG_TAG, String.format(format, args));
+        }
+    }
+
     /**
      * Validates name.
      *
@@ -96,7 +108,7 @@ public class AnalyticsValidator extends AbstractChannelListener {
             return null;
         }
         if (name.length() > MAX_NAME_LENGTH) {
-            AppCenterLog.warn(LOG_TAG, String.format("%s '%s' : name length cannot be longer than %s characters. Name will be truncated.", logType, name, MAX_NAME_LENGTH));
+            warn("%s '%s' : name length cannot be longer than %s characters. Name will be truncated.", logType, name, MAX_NAME_LENGTH);
             name = name.substring(0, MAX_NAME_LENGTH);
         }
         return name;
@@ -114,34 +126,28 @@ public class AnalyticsValidator extends AbstractChannelListener {
         if (properties == null) {
             return null;
         }
-        String message;
         Map<String, String> result = new HashMap<>();
         for (Map.Entry<String, String> property : properties.entrySet()) {
             String key = property.getKey();
             String value = property.getValue();
             if (result.size() >= MAX_PROPERTY_COUNT) {
-                message = String.format("%s '%s' : properties cannot contain more than %s items. Skipping other properties.", logType, logName, MAX_PROPERTY_COUNT);
-                AppCenterLog.warn(LOG_TAG, message);
+                warn("%s '%s' : properties cannot contain more than %s items. Skipping other properties.", logType, logName, MAX_PROPERTY_COUNT);
                 break;
             }
             if (key == null || key.isEmpty()) {
-                message = String.format("%s '%s' : a property key cannot be null or empty. Property will be skipped.", logType, logName);
-                AppCenterLog.warn(LOG_TAG, message);
+                warn("%s '%s' : a property key cannot be null or empty. Property will be skipped.", logType, logName);
                 continue;
             }
             if (value == null) {
-                message = String.format("%s '%s' : property '%s' : property value cannot be null. Property '%s' will be skipped.", logType, logName, key, key);
-                AppCenterLog.warn(LOG_TAG, message);
+                warn("%s '%s' : property '%s' : property value cannot be null. Property '%s' will be skipped.", logType, logName, key, key);
                 continue;
             }
             if (key.length() > MAX_PROPERTY_ITEM_LENGTH) {
-                message = String.format("%s '%s' : property '%s' : property key length cannot be longer than %s characters. Property key will be truncated.", logType, logName, key, MAX_PROPERTY_ITEM_LENGTH);
-                AppCenterLog.warn(LOG_TAG, message);
+                warn("%s '%s' : property '%s' : property key length cannot be longer than %s characters. Property key will be truncated.", logType, logName, key, MAX_PROPERTY_ITEM_LENGTH);
                 key = key.substring(0, MAX_PROPERTY_ITEM_LENGTH);
             }
             if (value.length() > MAX_PROPERTY_ITEM_LENGTH) {
-                message = String.format("%s '%s' : property '%s' : property value cannot be longer than %s characters. Property value will be truncated.", logType, logName, key, MAX_PROPERTY_ITEM_LENGTH);
-                AppCenterLog.warn(LOG_TAG, message);
+                warn("%s '%s' : property '%s' : property value cannot be longer than %s characters. Property value will be truncated.", logType, logName, key, MAX_PROPERTY_ITEM_LENGTH);
                 value = value.substring(0, MAX_PROPERTY_ITEM_LENGTH);
             }
             result.put(key, value);
@@ -150,98 +156,45 @@ public class AnalyticsValidator extends AbstractChannelListener {
     }
 
     /**
-     * Validates typed properties.
+     * Validates typed properties, truncating keys and string values in place.
      *
      * @param properties Typed properties collection to validate.
      */
-    private static void validateProperties(List<TypedProperty> properties) {
+    private static void validateProperties(TypedPropertyBag properties) {
         if (properties == null) {
             return;
         }
-        int count = 0;
-        boolean maxCountReached = false;
-        String message;
-        for (ListIterator<TypedProperty> iterator = properties.listIterator(); iterator.hasNext(); ) {
-            boolean copyNeededOnModification = true;
-            TypedProperty property = iterator.next();
-            String key = property.getName();
-            if (count >= MAX_PROPERTY_COUNT) {
-                if (!maxCountReached) {
-                    message = String.format("Typed properties cannot contain more than %s items. Skipping other properties.", MAX_PROPERTY_COUNT);
-                    AppCenterLog.warn(LOG_TAG, message);
-                    maxCountReached = true;
-                }
-                iterator.remove();
-                continue;
+        for (int i = 0; i < properties.size(); ) {
+            if (i >= MAX_PROPERTY_COUNT) {
+                warn("Typed properties cannot contain more than %s items. Skipping other properties.", MAX_PROPERTY_COUNT);
+                properties.truncate(MAX_PROPERTY_COUNT);
+                break;
             }
+            String key = properties.getKey(i);
             if (key == null || key.isEmpty()) {
                 AppCenterLog.warn(LOG_TAG, "A typed property key cannot be null or empty. Property will be skipped.");
-                iterator.remove();
+                properties.removeAt(i);
                 continue;
             }
             if (key.length() > MAX_PROPERTY_ITEM_LENGTH) {
-                message = String.format("Typed property '%s' : property key length cannot be longer than %s characters. Property key will be truncated.", key, MAX_PROPERTY_ITEM_LENGTH);
-                AppCenterLog.warn(LOG_TAG, message);
+                warn("Typed property '%s' : property key length cannot be longer than %s characters. Property key will be truncated.", key, MAX_PROPERTY_ITEM_LENGTH);
                 key = key.substring(0, MAX_PROPERTY_ITEM_LENGTH);
-                property = copyProperty(property, key);
-                iterator.set(property);
-                copyNeededOnModification = false;
+                properties.setKey(i, key);
             }
-            if (property instanceof StringTypedProperty) {
-                StringTypedProperty stringTypedProperty = (StringTypedProperty) property;
-                String value = stringTypedProperty.getValue();
+            if (properties.getType(i) == TypedPropertyBag.TYPE_STRING) {
+                String value = properties.getString(i);
                 if (value == null) {
-                    message = String.format("Typed property '%s' : property value cannot be null. Property '%s' will be skipped.", key, key);
-                    AppCenterLog.warn(LOG_TAG, message);
-                    iterator.remove();
+                    warn("Typed property '%s' : property value cannot be null. Property '%s' will be skipped.", key, key);
+                    properties.removeAt(i);
                     continue;
                 }
                 if (value.length() > MAX_PROPERTY_ITEM_LENGTH) {
-                    message = String.format("A String property '%s' : property value cannot be longer than %s characters. Property value will be truncated.", key, MAX_PROPERTY_ITEM_LENGTH);
-                    AppCenterLog.warn(LOG_TAG, message);
-                    value = value.substring(0, MAX_PROPERTY_ITEM_LENGTH);
-                    if (copyNeededOnModification) {
-                        stringTypedProperty = new StringTypedProperty();
-                        stringTypedProperty.setName(key);
-                        stringTypedProperty.setValue(value);
-                        iterator.set(stringTypedProperty);
-                    } else {
-                        stringTypedProperty.setValue(value);
-                    }
+                    warn("A String property '%s' : property value cannot be longer than %s characters. Property value will be truncated.", key, MAX_PROPERTY_ITEM_LENGTH);
+                    properties.setString(i, value.substring(0, MAX_PROPERTY_ITEM_LENGTH));
                 }
             }
-            count++;
-        }
-    }
-
-    private static TypedProperty copyProperty(TypedProperty property, String newKey) {
-        String type = property.getType();
-        TypedProperty copy;
-        if (BooleanTypedProperty.TYPE.equals(type)) {
-            BooleanTypedProperty typedCopy = new BooleanTypedProperty();
-            typedCopy.setValue(((BooleanTypedProperty) property).getValue());
-            copy = typedCopy;
-        } else if (DateTimeTypedProperty.TYPE.equals(type)) {
-            DateTimeTypedProperty typedCopy = new DateTimeTypedProperty();
-            typedCopy.setValue(((DateTimeTypedProperty) property).getValue());
-            copy = typedCopy;
-        } else if (DoubleTypedProperty.TYPE.equals(type)) {
-            DoubleTypedProperty typedCopy = new DoubleTypedProperty();
-            typedCopy.setValue(((DoubleTypedProperty) property).getValue());
-            copy = typedCopy;
-        } else if (LongTypedProperty.TYPE.equals(type)) {
-            LongTypedProperty typedCopy = new LongTypedProperty();
-            typedCopy.setValue(((LongTypedProperty) property).getValue());
-            copy = typedCopy;
-        } else {
-
-            /* SDK invariant: unknown property type is not possible with public APIs. */
-            StringTypedProperty typedCopy = new StringTypedProperty();
-            typedCopy.setValue(((StringTypedProperty) property).getValue());
-            copy = typedCopy;
+            i++;
         }
-        copy.setName(newKey);
-        return copy;
     }
 
     @Override
@@ -249,9 +202,9 @@ public class AnalyticsValidator extends AbstractChannelListener {
 
         //noinspection SimplifiableIfStatement
         if (log instanceof PageLog) {
-            return !validateLog((LogWithNameAndProperties) log);
+            return !validate((PageLog) log);
         } else if (log instanceof EventLog) {
-            return !validateLog((EventLog) log);
+            return !validate((EventLog) log);
         }
         return false;
     }
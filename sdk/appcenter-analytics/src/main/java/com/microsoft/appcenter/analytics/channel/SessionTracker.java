@@ -123,7 +123,7 @@ public class SessionTracker extends AbstractChannelListener {
         if (mSid == null || hasSessionTimedOut()) {
 
             /* New session: generate a new identifier. */
-            mSid = UUIDUtils.randomUUID();
+            mSid = UUIDUtils.fastRandomUUID();
 
             /* Update session storage. */
             SessionContext.getInstance().addSession(mSid);
@@ -7,7 +7,7 @@ package com.microsoft.appcenter.analytics.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyUtils;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -32,10 +32,15 @@ public class EventLog extends LogWithNameAndProperties {
     private UUID id;
 
     /**
-     * Typed properties.
+     * Typed properties as a list, null while stored in {@link #typedPropertyBag}.
      */
     private List<TypedProperty> typedProperties;
 
+    /**
+     * Typed properties as a bag, null while stored in {@link #typedProperties}.
+     */
+    private TypedPropertyBag typedPropertyBag;
+
     @Override
     public String getType() {
         return TYPE;
@@ -62,10 +67,15 @@ public class EventLog extends LogWithNameAndProperties {
 
     /**
      * Get the typedProperties value.
+     * The returned list is the stored value until {@link #getTypedPropertyBag()} is called.
      *
      * @return the typedProperties value
      */
     public List<TypedProperty> getTypedProperties() {
+        if (typedProperties == null && typedPropertyBag != null) {
+            typedProperties = typedPropertyBag.toTypedProperties();
+            typedPropertyBag = null;
+        }
         return typedProperties;
     }
 
@@ -76,20 +86,49 @@ public class EventLog extends LogWithNameAndProperties {
      */
     public void setTypedProperties(List<TypedProperty> typedProperties) {
         this.typedProperties = typedProperties;
+        typedPropertyBag = null;
+    }
+
+    /**
+     * Get the typedProperties value as a bag.
+     * The returned bag is the stored value until {@link #getTypedProperties()} is called.
+     *
+     * @return the typedProperties value
+     */
+    public TypedPropertyBag getTypedPropertyBag() {
+        if (typedPropertyBag == null && typedProperties != null) {
+            typedPropertyBag = TypedPropertyBag.fromTypedProperties(typedProperties);
+            typedProperties = null;
+        }
+        return typedPropertyBag;
+    }
+
+    /**
+     * Set the typedProperties value as a bag.
+     *
+     * @param typedPropertyBag the typedProperties value to set
+     */
+    public void setTypedPropertyBag(TypedPropertyBag typedPropertyBag) {
+        this.typedPropertyBag = typedPropertyBag;
+        typedProperties = null;
     }
 
     @Override
     public void read(JSONObject object) throws JSONException {
         super.read(object);
         setId(UUID.fromString(object.getString(ID)));
-        setTypedProperties(TypedPropertyUtils.read(object));
+        setTypedPropertyBag(TypedPropertyBag.read(object));
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
         writer.key(ID).value(getId());
-        JSONUtils.writeArray(writer, TYPED_PROPERTIES, getTypedProperties());
+        if (typedPropertyBag != null) {
+            typedPropertyBag.write(writer);
+        } else {
+            JSONUtils.writeArray(writer, TYPED_PROPERTIES, typedProperties);
+        }
     }
 
     @SuppressWarnings("SimplifiableIfStatement")
@@ -102,14 +141,24 @@ public class EventLog extends LogWithNameAndProperties {
         EventLog eventLog = (EventLog) o;
 
         if (id != null ? !id.equals(eventLog.id) : eventLog.id != null) return false;
-        return typedProperties != null ? typedProperties.equals(eventLog.typedProperties) : eventLog.typedProperties == null;
+        TypedPropertyBag bag = peekTypedPropertyBag();
+        TypedPropertyBag otherBag = eventLog.peekTypedPropertyBag();
+        return bag != null ? bag.equals(otherBag) : otherBag == null;
     }
 
     @Override
     public int hashCode() {
         int result = super.hashCode();
         result = 31 * result + (id != null ? id.hashCode() : 0);
-        result = 31 * result + (typedProperties != null ? typedProperties.hashCode() : 0);
+        TypedPropertyBag bag = peekTypedPropertyBag();
+        result = 31 * result + (bag != null ? bag.hashCode() : 0);
         return result;
     }
+
+    /**
+     * Get typed properties as a bag without changing which representation is stored.
+     */
+    private TypedPropertyBag peekTypedPropertyBag() {
+        return typedPropertyBag != null ? typedPropertyBag : TypedPropertyBag.fromTypedProperties(typedProperties);
+    }
 }
@@ -20,6 +20,11 @@ public abstract class LogWithNameAndProperties extends LogWithProperties {
      */
     private String name;
 
+    /**
+     * Whether name and properties were already validated, this is not serialized.
+     */
+    private boolean validated;
+
     /**
      * Get the name value.
      *
@@ -38,6 +43,24 @@ public abstract class LogWithNameAndProperties extends LogWithProperties {
         this.name = name;
     }
 
+    /**
+     * Check whether name and properties were already validated.
+     *
+     * @return true if validated, false otherwise.
+     */
+    public boolean isValidated() {
+        return validated;
+    }
+
+    /**
+     * Mark name and properties as validated.
+     *
+     * @param validated true if validated, false otherwise.
+     */
+    public void setValidated(boolean validated) {
+        this.validated = validated;
+    }
+
     @Override
     public void read(JSONObject object) throws JSONException {
         super.read(object);
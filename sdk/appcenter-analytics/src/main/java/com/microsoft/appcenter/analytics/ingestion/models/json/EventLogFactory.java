@@ -26,20 +26,28 @@ public class EventLogFactory extends AbstractLogFactory {
     @Override
     public Collection<CommonSchemaLog> toCommonSchemaLogs(Log log) {
         Collection<CommonSchemaLog> commonSchemaLogs = new LinkedList<>();
+        EventLog eventLog = (EventLog) log;
+        CommonSchemaEventLog firstLog = null;
         for (String transmissionTarget : log.getTransmissionTargetTokens()) {
-
-            /* Part A common fields. */
             CommonSchemaEventLog commonSchemaEventLog = new CommonSchemaEventLog();
+            if (firstLog == null) {
+
+                /* Event name goes to Part A. */
+                PartAUtils.setName(commonSchemaEventLog, eventLog.getName());
 
-            /* Event name goes to Part A. */
-            EventLog eventLog = (EventLog) log;
-            PartAUtils.setName(commonSchemaEventLog, eventLog.getName());
+                /* Add common Part A fields. */
+                PartAUtils.addPartAFromLog(log, commonSchemaEventLog, transmissionTarget);
 
-            /* Add common Part A fields. */
-            PartAUtils.addPartAFromLog(log, commonSchemaEventLog, transmissionTarget);
+                /* Part B, C and Part A metadata. */
+                CommonSchemaDataUtils.addCommonSchemaData(eventLog.getTypedPropertyBag(), commonSchemaEventLog);
+                firstLog = commonSchemaEventLog;
+            } else {
 
-            /* Part B, C and Part A metadata. */
-            CommonSchemaDataUtils.addCommonSchemaData(eventLog.getTypedProperties(), commonSchemaEventLog);
+                /* Other targets share the content converted once, Part B and C are not modified after conversion. */
+                commonSchemaEventLog.setName(firstLog.getName());
+                PartAUtils.copyPartAFromLog(firstLog, commonSchemaEventLog, transmissionTarget);
+                commonSchemaEventLog.setData(firstLog.getData());
+            }
             commonSchemaLogs.add(commonSchemaEventLog);
 
             /* Copy tag. */
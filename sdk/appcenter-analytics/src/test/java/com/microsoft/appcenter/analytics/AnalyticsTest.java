@@ -29,6 +29,7 @@ import com.microsoft.appcenter.ingestion.models.properties.DoubleTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.LongTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.test.TestUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.context.UserIdContext;
 import com.microsoft.appcenter.utils.async.AppCenterConsumer;
@@ -439,6 +440,41 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         verify(channel, times(2)).enqueue(isA(EventLog.class), anyString(), eq(DEFAULTS));
     }
 
+    @Test
+    public void trackEventFromAppValidatedOnCallerThread() {
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        ArgumentCaptor<EventLog> argumentCaptor = ArgumentCaptor.forClass(EventLog.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Invalid name is discarded without going to background. */
+        Analytics.trackEvent("");
+        verify(channel, never()).enqueue(isA(EventLog.class), anyString(), anyInt());
+
+        /* Valid log is truncated and marked as validated. */
+        Analytics.trackEvent(TestUtils.generateString(300, '*'));
+        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        assertEquals(TestUtils.generateString(256, '*'), argumentCaptor.getValue().getName());
+        assertTrue(argumentCaptor.getValue().isValidated());
+    }
+
+    @Test
+    public void trackEventFromLibraryNotValidated() {
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        ArgumentCaptor<EventLog> argumentCaptor = ArgumentCaptor.forClass(EventLog.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, null, null, false);
+
+        /* App Center validation does not apply to One Collector only events. */
+        String name = TestUtils.generateString(300, '*');
+        Analytics.getTransmissionTarget("t").trackEvent(name);
+        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        assertEquals(name, argumentCaptor.getValue().getName());
+        assertFalse(argumentCaptor.getValue().isValidated());
+    }
+
     @Test
     public void trackPageFromApp() {
         Analytics analytics = Analytics.getInstance();
@@ -449,6 +485,29 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         verify(channel).enqueue(isA(PageLog.class), anyString(), eq(DEFAULTS));
     }
 
+    @Test
+    public void trackPageFromAppValidatedOnCallerThread() {
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        ArgumentCaptor<PageLog> argumentCaptor = ArgumentCaptor.forClass(PageLog.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Invalid name is discarded without going to background. */
+        Analytics.trackPage(null);
+        verify(channel, never()).enqueue(isA(PageLog.class), anyString(), anyInt());
+
+        /* Valid log gets a validated copy of properties. */
+        Map<String, String> properties = new HashMap<>();
+        properties.put("", "empty");
+        properties.put("key", "value");
+        Analytics.trackPage("pageName", properties);
+        verify(channel).enqueue(argumentCaptor.capture(), anyString(), eq(DEFAULTS));
+        assertTrue(argumentCaptor.getValue().isValidated());
+        assertEquals(Collections.singletonMap("key", "value"), argumentCaptor.getValue().getProperties());
+        assertEquals(2, properties.size());
+    }
+
     @Test
     public void trackPageFromLibrary() {
         Analytics analytics = Analytics.getInstance();
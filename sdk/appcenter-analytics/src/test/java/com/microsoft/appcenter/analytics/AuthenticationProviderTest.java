@@ -72,13 +72,13 @@ public class AuthenticationProviderTest {
         /* When callback parameters are invalid, don't update cache. */
         callback.getValue().onAuthenticationResult(null, new Date());
         verifyStatic(never());
-        TicketCache.putTicket(anyString(), anyString());
+        TicketCache.putTicket(anyString(), anyString(), any(Date.class));
 
         /* Ignore calling callback more than once, even if parameters are valid the second time. */
         long freshDate = System.currentTimeMillis() + 15 * 60 * 1000;
         callback.getValue().onAuthenticationResult("test", new Date(freshDate));
         verifyStatic(never());
-        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("p:test"));
+        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("p:test"), any(Date.class));
     }
 
     @Test
@@ -95,13 +95,13 @@ public class AuthenticationProviderTest {
         /* When callback parameters are invalid, don't update cache. */
         callback.getValue().onAuthenticationResult("test", null);
         verifyStatic(never());
-        TicketCache.putTicket(anyString(), anyString());
+        TicketCache.putTicket(anyString(), anyString(), any(Date.class));
 
         /* Ignore calling callback more than once, even if parameters are valid the second time. */
         long freshDate = System.currentTimeMillis() + 15 * 60 * 1000;
         callback.getValue().onAuthenticationResult("test", new Date(freshDate));
         verifyStatic(never());
-        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("p:test"));
+        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("p:test"), any(Date.class));
     }
 
     @Test
@@ -119,12 +119,12 @@ public class AuthenticationProviderTest {
         long freshDate = System.currentTimeMillis() + 15 * 60 * 1000;
         callback.getValue().onAuthenticationResult("test", new Date(freshDate));
         verifyStatic();
-        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("p:test"));
+        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("p:test"), eq(new Date(freshDate)));
 
         /* Duplicate calls are ignored. */
         callback.getValue().onAuthenticationResult("test2", new Date(freshDate));
         verifyStatic(never());
-        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("p:test2"));
+        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("p:test2"), any(Date.class));
     }
 
     @Test
@@ -144,7 +144,7 @@ public class AuthenticationProviderTest {
         verify(tokenProvider).acquireToken(anyString(), callback.capture());
         callback.getValue().onAuthenticationResult("test", expiryDate);
         verifyStatic();
-        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("d:test"));
+        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("d:test"), eq(expiryDate));
 
         /* Then refresh does nothing. */
         reset(authenticationProvider);
@@ -172,7 +172,7 @@ public class AuthenticationProviderTest {
 
         /* Verify cache updated. */
         verifyStatic(times(2));
-        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("d:test"));
+        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("d:test"), eq(expiryDate));
 
         /* Now that called back, we can refresh again. */
         reset(authenticationProvider);
@@ -182,6 +182,6 @@ public class AuthenticationProviderTest {
         verify(tokenProvider).acquireToken(anyString(), callback.capture());
         callback.getValue().onAuthenticationResult("test", expiryDate);
         verifyStatic(times(3));
-        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("d:test"));
+        TicketCache.putTicket(eq(authenticationProvider.getTicketKeyHash()), eq("d:test"), eq(expiryDate));
     }
 }
@@ -53,6 +53,18 @@ public class AnalyticsValidatorForEventLogTest {
         assertTrue(mAnalyticsValidator.shouldFilter(mEventLog));
     }
 
+    @Test
+    public void shouldNotValidateTwice() {
+        mEventLog.setName(generateString(MAX_NAME_LENGTH + 1, '*'));
+        assertTrue(AnalyticsValidator.validate(mEventLog));
+        assertTrue(mEventLog.isValidated());
+        assertEquals(MAX_NAME_LENGTH, mEventLog.getName().length());
+
+        /* Validated log is not checked again. */
+        mEventLog.setName(null);
+        assertFalse(mAnalyticsValidator.shouldFilter(mEventLog));
+    }
+
     @Test
     public void shouldFilterWhitespaceName() {
         mEventLog.setName(" ");
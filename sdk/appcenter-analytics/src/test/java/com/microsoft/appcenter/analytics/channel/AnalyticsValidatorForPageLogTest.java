@@ -44,6 +44,18 @@ public class AnalyticsValidatorForPageLogTest {
         assertTrue(mAnalyticsValidator.shouldFilter(mPageLog));
     }
 
+    @Test
+    public void shouldNotValidateTwice() {
+        mPageLog.setName(generateString(MAX_NAME_LENGTH + 1, '*'));
+        assertTrue(AnalyticsValidator.validate(mPageLog));
+        assertTrue(mPageLog.isValidated());
+        assertEquals(MAX_NAME_LENGTH, mPageLog.getName().length());
+
+        /* Validated log is not checked again. */
+        mPageLog.setName(null);
+        assertFalse(mAnalyticsValidator.shouldFilter(mPageLog));
+    }
+
     @Test
     public void shouldFilterWhitespaceName() {
         mPageLog.setName(" ");
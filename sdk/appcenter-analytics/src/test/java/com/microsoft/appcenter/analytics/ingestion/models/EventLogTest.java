@@ -8,6 +8,7 @@ package com.microsoft.appcenter.analytics.ingestion.models;
 import com.microsoft.appcenter.analytics.EventProperties;
 import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
 import com.microsoft.appcenter.test.TestUtils;
 
 import org.junit.Test;
@@ -21,6 +22,8 @@ import java.util.UUID;
 
 import static com.microsoft.appcenter.test.TestUtils.checkEquals;
 import static com.microsoft.appcenter.test.TestUtils.checkNotEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 @SuppressWarnings("unused")
 public class EventLogTest {
@@ -77,4 +80,29 @@ public class EventLogTest {
         a.setTypedProperties(new ArrayList<TypedProperty>());
         checkEquals(a, b);
     }
+
+    @Test
+    public void typedPropertiesAreStoredValue() {
+        EventLog log = new EventLog();
+        TypedPropertyBag bag = new TypedPropertyBag();
+        bag.set("a", "b");
+        log.setTypedPropertyBag(bag);
+
+        /* The list returned by the getter is the stored value. */
+        List<TypedProperty> typedProperties = log.getTypedProperties();
+        assertSame(typedProperties, log.getTypedProperties());
+        StringTypedProperty property = new StringTypedProperty();
+        property.setName("c");
+        property.setValue("d");
+        typedProperties.add(property);
+        assertEquals(2, log.getTypedProperties().size());
+
+        /* Mutations of the list are seen by the bag accessor. */
+        assertEquals("d", log.getTypedPropertyBag().getString(1));
+
+        /* And the other way around. */
+        log.getTypedPropertyBag().remove("a");
+        assertEquals(1, log.getTypedProperties().size());
+        assertEquals("c", log.getTypedProperties().get(0).getName());
+    }
 }
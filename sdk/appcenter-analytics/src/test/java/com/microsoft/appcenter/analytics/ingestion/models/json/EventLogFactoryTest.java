@@ -7,30 +7,39 @@ package com.microsoft.appcenter.analytics.ingestion.models.json;
 
 import com.microsoft.appcenter.analytics.ingestion.models.EventLog;
 import com.microsoft.appcenter.analytics.ingestion.models.one.json.CommonSchemaEventLogFactory;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.Data;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaDataUtils;
 import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.times;
+import static org.powermock.api.mockito.PowerMockito.doAnswer;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 
@@ -96,24 +105,68 @@ public class EventLogFactoryTest {
         assertEquals(2, convertedLogs.size());
 
         /* For each target. */
+        CommonSchemaLog firstLog = null;
         for (CommonSchemaLog commonSchemaLog : convertedLogs) {
-
-            /* Check name was added. */
-            verifyStatic();
-            PartAUtils.setName(same(commonSchemaLog), eq("test"));
+            if (firstLog == null) {
+                firstLog = commonSchemaLog;
+            }
 
             /* Check tag was added. */
             assertSame(tag, commonSchemaLog.getTag());
         }
 
-        /* Check Part A was added with target tokens. */
+        /* Check name was validated once. */
+        verifyStatic();
+        PartAUtils.setName(same(firstLog), eq("test"));
+
+        /* Check Part A was converted for first target and copied for the other. */
         verifyStatic();
-        PartAUtils.addPartAFromLog(eq(log), notNull(CommonSchemaLog.class), eq("t1"));
+        PartAUtils.addPartAFromLog(eq(log), same(firstLog), eq("t1"));
         verifyStatic();
-        PartAUtils.addPartAFromLog(eq(log), notNull(CommonSchemaLog.class), eq("t2"));
+        PartAUtils.copyPartAFromLog(same(firstLog), notNull(CommonSchemaLog.class), eq("t2"));
 
-        /* Check data was added with typed properties (and thus not old ones). */
-        verifyStatic(times(2));
-        CommonSchemaDataUtils.addCommonSchemaData(eq(properties), notNull(CommonSchemaLog.class));
+        /* Check data was added once with typed properties (and thus not old ones). */
+        verifyStatic(times(1));
+        CommonSchemaDataUtils.addCommonSchemaData(eq(TypedPropertyBag.fromTypedProperties(properties)), same(firstLog));
+    }
+
+    @Test
+    @PrepareForTest(CommonSchemaDataUtils.class)
+    public void convertEventToMultipleTargetsSharesData() throws Exception {
+
+        /* Mock Part B and C conversion. */
+        mockStatic(CommonSchemaDataUtils.class);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ((CommonSchemaLog) invocation.getArguments()[1]).setData(new Data());
+                return null;
+            }
+        }).when(CommonSchemaDataUtils.class, "addCommonSchemaData", any(TypedPropertyBag.class), any(CommonSchemaLog.class));
+        EventLog log = new EventLog();
+        log.setName("test");
+        log.setTimestamp(new Date());
+        Device device = new Device();
+        device.setLocale("en_US");
+        device.setTimeZoneOffset(0);
+        log.setDevice(device);
+        TypedPropertyBag properties = new TypedPropertyBag();
+        properties.set("a", "b");
+        log.setTypedPropertyBag(properties);
+        log.addTransmissionTarget("t1-x");
+        log.addTransmissionTarget("t2-x");
+        log.addTransmissionTarget("t3-x");
+        List<CommonSchemaLog> convertedLogs = new ArrayList<>(new EventLogFactory().toCommonSchemaLogs(log));
+        assertEquals(3, convertedLogs.size());
+        for (int i = 0; i < convertedLogs.size(); i++) {
+            CommonSchemaLog commonSchemaLog = convertedLogs.get(i);
+            assertEquals("o:t" + (i + 1), commonSchemaLog.getIKey());
+            assertEquals("test", commonSchemaLog.getName());
+            assertSame(convertedLogs.get(0).getData(), commonSchemaLog.getData());
+            assertNotNull(commonSchemaLog.getExt().getSdk());
+        }
+        assertNotSame(convertedLogs.get(0).getExt().getSdk(), convertedLogs.get(1).getExt().getSdk());
+        assertNotSame(convertedLogs.get(1).getExt().getSdk(), convertedLogs.get(2).getExt().getSdk());
     }
 }
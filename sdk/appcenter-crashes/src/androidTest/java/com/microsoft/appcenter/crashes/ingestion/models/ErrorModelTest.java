@@ -28,6 +28,9 @@ import static com.microsoft.appcenter.test.TestUtils.checkNotEquals;
 import static com.microsoft.appcenter.test.TestUtils.compareSelfNullClass;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 @SuppressWarnings("unused")
@@ -596,6 +599,33 @@ public class ErrorModelTest {
         }
     }
 
+    @Test
+    public void errorAttachmentLogWithDataFile() throws JSONException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(ErrorAttachmentLog.TYPE, ErrorAttachmentLogFactory.getInstance());
+        ErrorAttachmentLog attachmentLog = new ErrorAttachmentLog();
+        attachmentLog.setTimestamp(new Date());
+        attachmentLog.setId(UUID.randomUUID());
+        attachmentLog.setErrorId(UUID.randomUUID());
+        attachmentLog.setContentType("text/plain");
+        attachmentLog.setDataFile("/data/log.txt");
+        attachmentLog.setDataLength(20);
+
+        /* Reference is persisted until data is loaded. */
+        checkSerialization(attachmentLog, serializer);
+        String json = serializer.serializeLog(attachmentLog);
+        assertTrue(json.contains(ErrorAttachmentLog.DATA_FILE));
+        assertFalse(json.contains("\"" + DATA + "\""));
+
+        /* Only data is sent once loaded. */
+        attachmentLog.setData("1".getBytes(CHARSET));
+        json = serializer.serializeLog(attachmentLog);
+        assertFalse(json.contains(ErrorAttachmentLog.DATA_FILE));
+        ErrorAttachmentLog deserializedLog = (ErrorAttachmentLog) serializer.deserializeLog(json, null);
+        assertNull(deserializedLog.getDataFile());
+        assertEquals("1", new String(deserializedLog.getData(), CHARSET));
+    }
+
     @Test
     public void deserializeInvalidBase64forErrorAttachment() throws JSONException {
         ErrorAttachmentLog log = new ErrorAttachmentLog();
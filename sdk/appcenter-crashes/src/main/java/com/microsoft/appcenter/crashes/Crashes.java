@@ -6,7 +6,9 @@
 package com.microsoft.appcenter.crashes;
 
 import android.annotation.SuppressLint;
+import android.app.Activity;
 import android.content.Context;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
@@ -26,7 +28,12 @@ import com.microsoft.appcenter.crashes.ingestion.models.json.ManagedErrorLogFact
 import com.microsoft.appcenter.crashes.model.ErrorReport;
 import com.microsoft.appcenter.crashes.model.NativeException;
 import com.microsoft.appcenter.crashes.model.TestCrashException;
+import com.microsoft.appcenter.crashes.utils.CrashRecorder;
 import com.microsoft.appcenter.crashes.utils.ErrorLogHelper;
+import com.microsoft.appcenter.crashes.utils.ErrorRateLimiter;
+import com.microsoft.appcenter.crashes.utils.ErrorReportCache;
+import com.microsoft.appcenter.crashes.utils.MainThreadWatchdog;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
@@ -43,16 +50,30 @@ import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 import org.json.JSONException;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Crashes service.
@@ -102,6 +123,52 @@ public class Crashes extends AbstractAppCenterService {
      */
     private static final int MAX_ATTACHMENT_PER_CRASH = 2;
 
+    /**
+     * Max number of pending error reports loaded in parallel at startup.
+     */
+    private static final int MAX_PARALLEL_ERROR_REPORT_LOADS = 4;
+
+    /**
+     * Time in seconds after which idle threads of the background executor stop.
+     */
+    private static final long BACKGROUND_THREAD_KEEP_ALIVE_TIME = 30;
+
+    /**
+     * Property of a handled error with the number of identical errors dropped before it.
+     */
+    @VisibleForTesting
+    static final String SUPPRESSED_DUPLICATES_PROPERTY = "suppressedDuplicates";
+
+    /**
+     * Name of the attachment of a crash with the number of identical crashes dropped before it.
+     */
+    @VisibleForTesting
+    static final String SUPPRESSED_DUPLICATES_ATTACHMENT = "suppressedDuplicates.txt";
+
+    /**
+     * Exception type of main thread stall errors.
+     */
+    @VisibleForTesting
+    static final String MAIN_THREAD_STALL_TYPE = "MainThreadStall";
+
+    /**
+     * Property of a main thread stall error with the number of stalls blocked at the same place.
+     */
+    @VisibleForTesting
+    static final String STALL_COUNT_PROPERTY = "stallCount";
+
+    /**
+     * Property of a main thread stall error with the longest stall duration in milliseconds.
+     */
+    @VisibleForTesting
+    static final String STALL_MAX_DURATION_PROPERTY = "stallMaxDurationMillis";
+
+    /**
+     * Property of a main thread stall error with the total stall duration in milliseconds.
+     */
+    @VisibleForTesting
+    static final String STALL_TOTAL_DURATION_PROPERTY = "stallTotalDurationMillis";
+
     /**
      * Default crashes listener.
      */
@@ -124,9 +191,29 @@ public class Crashes extends AbstractAppCenterService {
     private final Map<UUID, ErrorLogReport> mUnprocessedErrorReports;
 
     /**
-     * Cache for reports that are queued to channel but not yet sent.
+     * Cache for reports that are queued to channel but not yet sent, evicted reports are read again from disk.
+     */
+    private final ErrorReportCache mErrorReportCache;
+
+    /**
+     * Limits duplicate errors, created on first use once limits are set.
+     */
+    private ErrorRateLimiter mErrorRateLimiter;
+
+    /**
+     * Maximum number of reports sent per error fingerprint in an interval, 0 to not limit duplicate errors.
+     */
+    private int mMaxDuplicateReports;
+
+    /**
+     * Duplicate errors interval in milliseconds.
+     */
+    private long mDuplicateInterval = ErrorRateLimiter.DEFAULT_INTERVAL;
+
+    /**
+     * Probability of sending a duplicate error within the limit.
      */
-    private final Map<UUID, ErrorLogReport> mErrorReportCache;
+    private double mDuplicateSampleRate = ErrorRateLimiter.DEFAULT_SAMPLE_RATE;
 
     /**
      * Log serializer.
@@ -163,6 +250,53 @@ public class Crashes extends AbstractAppCenterService {
      */
     private boolean mSavedUncaughtException;
 
+    /**
+     * Crash recorder prepared at startup, null when disabled or if it could not be prepared.
+     * Checking it on the crashing thread avoids waiting for the background thread to read the enabled state.
+     */
+    private volatile CrashRecorder mCrashRecorder;
+
+    /**
+     * Maximum number of threads saved with a crash.
+     */
+    private int mMaxThreads = CrashRecorder.DEFAULT_MAX_THREADS;
+
+    /**
+     * Maximum number of frames saved per thread with a crash.
+     */
+    private int mMaxFramesPerThread = CrashRecorder.DEFAULT_MAX_FRAMES_PER_THREAD;
+
+    /**
+     * Maximum size in bytes of a crash record.
+     */
+    private int mMaxRecordBytes = CrashRecorder.DEFAULT_MAX_BYTES;
+
+    /**
+     * Duration in milliseconds after which a blocked main thread is reported, 0 if not detected.
+     */
+    private long mMainThreadStallThreshold;
+
+    /**
+     * Main thread watchdog, null when stall detection is disabled.
+     */
+    private MainThreadWatchdog mMainThreadWatchdog;
+
+    /**
+     * False after an activity is paused until one is resumed.
+     * Assumed true before any callback as the SDK may start after an activity resumed.
+     */
+    private boolean mActivityResumed = true;
+
+    /**
+     * Conversion of new minidump files running in background, null if none.
+     */
+    private MinidumpProcessing mMinidumpProcessing;
+
+    /**
+     * Executor for file work too long for the background handler thread, created on first use.
+     */
+    private ExecutorService mBackgroundExecutor;
+
     /**
      * Automatic processing flag (automatic is the default).
      */
@@ -181,7 +315,7 @@ public class Crashes extends AbstractAppCenterService {
         mLogSerializer.addLogFactory(ErrorAttachmentLog.TYPE, ErrorAttachmentLogFactory.getInstance());
         mCrashesListener = DEFAULT_ERROR_REPORTING_LISTENER;
         mUnprocessedErrorReports = new LinkedHashMap<>();
-        mErrorReportCache = new LinkedHashMap<>();
+        mErrorReportCache = new ErrorReportCache(ErrorReportCache.DEFAULT_MAX_WEIGHT);
     }
 
     @NonNull
@@ -267,6 +401,58 @@ public class Crashes extends AbstractAppCenterService {
         getInstance().setInstanceListener(listener);
     }
 
+    /**
+     * Set limits of thread states saved with a Java crash.
+     * The crashing thread is saved first, then the main thread, then other threads until a limit is reached.
+     *
+     * @param maxThreads         maximum number of threads, including the crashing thread.
+     * @param maxFramesPerThread maximum number of frames per thread, from the top of the stack.
+     * @param maxBytes           maximum crash record size in bytes.
+     */
+    public static void setThreadCaptureLimits(int maxThreads, int maxFramesPerThread, int maxBytes) {
+        if (maxThreads <= 0 || maxFramesPerThread <= 0 || maxBytes <= 0) {
+            AppCenterLog.error(LOG_TAG, "Thread capture limits must be positive.");
+            return;
+        }
+        getInstance().setInstanceThreadCaptureLimits(maxThreads, maxFramesPerThread, maxBytes);
+    }
+
+    /**
+     * Set how many identical errors are sent, to avoid uploading the same crash on every launch of a crash loop.
+     * Errors are identical when they have the same exception type and top stack frames.
+     * Dropped errors are counted and the count is sent with the next identical error.
+     * Identical errors are not limited by default.
+     *
+     * @param maxReports     maximum number of identical errors sent per interval, 0 to not limit identical errors.
+     * @param intervalMillis interval in milliseconds.
+     * @param sampleRate     probability between 0 and 1 of sending an identical error within the limit,
+     *                       the first error of an interval is always sent.
+     */
+    public static void setDuplicateErrorLimits(int maxReports, long intervalMillis, double sampleRate) {
+        if (maxReports < 0 || intervalMillis <= 0 || sampleRate < 0 || sampleRate > 1) {
+            AppCenterLog.error(LOG_TAG, "Invalid duplicate error limits.");
+            return;
+        }
+        getInstance().setInstanceDuplicateErrorLimits(maxReports, intervalMillis, sampleRate);
+    }
+
+    /**
+     * Report main thread stalls as handled errors with the stack where the main thread was blocked.
+     * Stalls blocked at the same place are aggregated and reported at most once a minute with their count and durations.
+     * A stall is saved as soon as it is detected, so it is reported on next launch if the application is killed before.
+     * While enabled, a runnable is posted to the main thread once per threshold, detection is paused while no activity is resumed.
+     * Stall detection is disabled by default.
+     *
+     * @param thresholdMillis duration in milliseconds after which a blocked main thread is reported, 0 to disable detection.
+     */
+    public static void setMainThreadStallThreshold(long thresholdMillis) {
+        if (thresholdMillis < 0) {
+            AppCenterLog.error(LOG_TAG, "Main thread stall threshold must not be negative.");
+            return;
+        }
+        getInstance().setInstanceMainThreadStallThreshold(thresholdMillis);
+    }
+
     /**
      * Get the path where NDK minidump files should be created.
      * <p>
@@ -324,6 +510,43 @@ public class Crashes extends AbstractAppCenterService {
         return future;
     }
 
+    /**
+     * Implements {@link #setThreadCaptureLimits(int, int, int)} at instance level.
+     */
+    private synchronized void setInstanceThreadCaptureLimits(int maxThreads, int maxFramesPerThread, int maxBytes) {
+        mMaxThreads = maxThreads;
+        mMaxFramesPerThread = maxFramesPerThread;
+        mMaxRecordBytes = maxBytes;
+        CrashRecorder crashRecorder = mCrashRecorder;
+        if (crashRecorder != null) {
+            crashRecorder.setLimits(maxThreads, maxFramesPerThread, maxBytes);
+        }
+    }
+
+    /**
+     * Implements {@link #setDuplicateErrorLimits(int, long, double)} at instance level.
+     */
+    private synchronized void setInstanceDuplicateErrorLimits(int maxReports, long intervalMillis, double sampleRate) {
+        mMaxDuplicateReports = maxReports;
+        mDuplicateInterval = intervalMillis;
+        mDuplicateSampleRate = sampleRate;
+        if (mErrorRateLimiter != null && maxReports > 0) {
+            mErrorRateLimiter.setLimits(maxReports, intervalMillis, sampleRate);
+        }
+    }
+
+    /**
+     * Implements {@link #setMainThreadStallThreshold(long)} at instance level.
+     */
+    private synchronized void setInstanceMainThreadStallThreshold(long thresholdMillis) {
+        mMainThreadStallThreshold = thresholdMillis;
+
+        /* Apply immediately if started and enabled. */
+        if (mUncaughtExceptionHandler != null) {
+            startMainThreadWatchdog();
+        }
+    }
+
     /**
      * Implements {@link #hasCrashedInLastSession()} at instance level.
      */
@@ -333,7 +556,13 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void run() {
-                future.complete(mLastSessionErrorReport != null);
+                runAfterMinidumpProcessing(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        future.complete(mLastSessionErrorReport != null);
+                    }
+                });
             }
         }, future, false);
         return future;
@@ -348,7 +577,13 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void run() {
-                future.complete(mLastSessionErrorReport);
+                runAfterMinidumpProcessing(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        future.complete(mLastSessionErrorReport);
+                    }
+                });
             }
         }, future, null);
         return future;
@@ -378,6 +613,36 @@ public class Crashes extends AbstractAppCenterService {
         }
     }
 
+    @Override
+    public synchronized void onActivityResumed(Activity activity) {
+        mActivityResumed = true;
+        if (mMainThreadWatchdog != null) {
+            mMainThreadWatchdog.resume();
+        }
+    }
+
+    @Override
+    public synchronized void onActivityPaused(Activity activity) {
+
+        /* Don't watch main thread in background. */
+        mActivityResumed = false;
+        if (mMainThreadWatchdog != null) {
+            mMainThreadWatchdog.pause();
+        }
+
+        /* Write duplicate error limits not written yet by handled errors tracked while in foreground. */
+        final ErrorRateLimiter errorRateLimiter = mErrorRateLimiter;
+        if (errorRateLimiter != null) {
+            post(new Runnable() {
+
+                @Override
+                public void run() {
+                    errorRateLimiter.save();
+                }
+            });
+        }
+    }
+
     @Override
     public Map<String, LogFactory> getLogFactories() {
         return mFactories;
@@ -539,11 +804,31 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void run() {
+                Exception exception = exceptionModelBuilder.buildExceptionModel();
+                Map<String, String> errorProperties = properties;
+
+                /* Drop identical errors beyond limits, the next one sent tells how many were dropped. */
+                ErrorRateLimiter errorRateLimiter = getErrorRateLimiter();
+                String fingerprint = errorRateLimiter != null ? ErrorRateLimiter.getFingerprint(exception) : null;
+                if (fingerprint != null) {
+                    boolean send = errorRateLimiter.shouldSend(fingerprint);
+                    int suppressed = send ? errorRateLimiter.getSuppressedCount(fingerprint) : 0;
+                    if (suppressed > 0) {
+                        errorProperties = properties != null ? new HashMap<>(properties) : new HashMap<String, String>();
+                        errorProperties.put(SUPPRESSED_DUPLICATES_PROPERTY, String.valueOf(suppressed));
+                        errorRateLimiter.removeSuppressedCount(fingerprint, suppressed);
+                    }
+                    errorRateLimiter.saveThrottled();
+                    if (!send) {
+                        AppCenterLog.debug(LOG_TAG, "Dropping handled error identical to previous ones.");
+                        return;
+                    }
+                }
                 HandledErrorLog errorLog = new HandledErrorLog();
                 errorLog.setId(UUID.randomUUID());
                 errorLog.setUserId(UserIdContext.getInstance().getUserId());
-                errorLog.setException(exceptionModelBuilder.buildExceptionModel());
-                errorLog.setProperties(properties);
+                errorLog.setException(exception);
+                errorLog.setProperties(errorProperties);
                 mChannel.enqueue(errorLog, ERROR_GROUP, Flags.DEFAULTS);
             }
         });
@@ -553,6 +838,9 @@ public class Crashes extends AbstractAppCenterService {
         boolean enabled = isInstanceEnabled();
         mInitializeTimestamp = enabled ? System.currentTimeMillis() : -1;
         if (!enabled) {
+            mCrashRecorder = null;
+            cancelMinidumpProcessing();
+            stopMainThreadWatchdog();
             if (mUncaughtExceptionHandler != null) {
                 mUncaughtExceptionHandler.unregister();
                 mUncaughtExceptionHandler = null;
@@ -563,21 +851,158 @@ public class Crashes extends AbstractAppCenterService {
             mUncaughtExceptionHandler = new UncaughtExceptionHandler();
             mUncaughtExceptionHandler.register();
 
+            /* Convert crash records of the previous launch before processing last session crash. */
+            processCrashRecords();
+
+            /* Capture what is needed to save a crash ahead of time. */
+            CrashRecorder crashRecorder = CrashRecorder.prepare(mContext, ErrorLogHelper.getErrorStorageDirectory(), mInitializeTimestamp);
+            if (crashRecorder != null) {
+                crashRecorder.setLimits(mMaxThreads, mMaxFramesPerThread, mMaxRecordBytes);
+            }
+            mCrashRecorder = crashRecorder;
+
             /* Process minidump files. */
             processMinidumpFiles();
+
+            /* Watch main thread if requested. */
+            startMainThreadWatchdog();
+        }
+    }
+
+    /**
+     * Start watching the main thread if stall detection is enabled, replacing any previous watchdog.
+     */
+    private void startMainThreadWatchdog() {
+        stopMainThreadWatchdog();
+        if (mMainThreadStallThreshold > 0) {
+            mMainThreadWatchdog = new MainThreadWatchdog(HandlerUtils.getMainHandler(), mMainThreadStallThreshold, MainThreadWatchdog.DEFAULT_REPORT_INTERVAL, ErrorLogHelper.getMainThreadStallsFile(), new MainThreadWatchdog.Listener() {
+
+                @Override
+                public void onStall(@NonNull MainThreadWatchdog.Stall stall) {
+                    queueMainThreadStall(stall);
+                }
+            });
+            if (!mActivityResumed) {
+                mMainThreadWatchdog.pause();
+            }
+            mMainThreadWatchdog.start();
+        }
+    }
+
+    private void stopMainThreadWatchdog() {
+        if (mMainThreadWatchdog != null) {
+            mMainThreadWatchdog.stop();
+            mMainThreadWatchdog = null;
+        }
+    }
+
+    /**
+     * Send main thread stalls blocked at the same place as a handled error with their count and durations.
+     */
+    private void queueMainThreadStall(MainThreadWatchdog.Stall stall) {
+        String message = "Main thread blocked for " + stall.getMaxDuration() + "ms.";
+        Exception exception = ErrorLogHelper.getModelExceptionFromStackTrace(MAIN_THREAD_STALL_TYPE, message, stall.getStackTrace());
+        Map<String, String> properties = new HashMap<>();
+        properties.put(STALL_COUNT_PROPERTY, String.valueOf(stall.getCount()));
+        properties.put(STALL_MAX_DURATION_PROPERTY, String.valueOf(stall.getMaxDuration()));
+        properties.put(STALL_TOTAL_DURATION_PROPERTY, String.valueOf(stall.getTotalDuration()));
+        queueException(exception, properties);
+    }
+
+    private void processCrashRecords() {
+        for (File recordFile : CrashRecorder.getRecordFiles(ErrorLogHelper.getErrorStorageDirectory())) {
+            AppCenterLog.debug(LOG_TAG, "Process crash record file: " + recordFile);
+            try {
+                ManagedErrorLog errorLog = CrashRecorder.read(recordFile);
+                String filename = errorLog.getId().toString();
+                File errorLogFile = new File(recordFile.getParentFile(), filename + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+                FileManager.write(errorLogFile, mLogSerializer.serializeLog(errorLog));
+
+                /* The throwable is saved after the record and can be missing, use a placeholder file then. */
+                File throwableFile = new File(recordFile.getParentFile(), filename + ErrorLogHelper.THROWABLE_FILE_EXTENSION);
+                if (!throwableFile.exists() && !throwableFile.createNewFile()) {
+                    throw new IOException(throwableFile.getName());
+                }
+
+                /* Keep modification time of the crash to find the last session crash. */
+                //noinspection ResultOfMethodCallIgnored
+                errorLogFile.setLastModified(errorLog.getTimestamp().getTime());
+            } catch (IOException | JSONException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to process crash record file: " + recordFile, e);
+            }
+
+            //noinspection ResultOfMethodCallIgnored
+            recordFile.delete();
         }
     }
 
     private void processMinidumpFiles() {
+        final File[] minidumpFiles = ErrorLogHelper.getNewMinidumpFiles();
+        if (minidumpFiles.length == 0) {
+            processLastSessionCrash();
+            return;
+        }
+
+        /*
+         * Convert minidump files in background so that a native crash loop leaving many files does not delay startup.
+         * The last session crash can be a native crash, so it is looked up once conversion completes.
+         */
+        final MinidumpProcessing processing = new MinidumpProcessing(minidumpFiles.length);
+        mMinidumpProcessing = processing;
+        final Context context = mContext;
+        final File pendingDirectory = ErrorLogHelper.getPendingMinidumpDirectory();
+        getBackgroundExecutor().execute(new Runnable() {
+
+            @Override
+            public void run() {
+                final List<ManagedErrorLog> errorLogs = convertMinidumpFiles(context, minidumpFiles, pendingDirectory, processing);
+                Runnable cancelRunnable = new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (processing == mMinidumpProcessing) {
+                            cancelMinidumpProcessing();
+                        }
+                    }
+                };
+                post(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        completeMinidumpProcessing(processing, errorLogs);
+                    }
+                }, cancelRunnable, cancelRunnable);
+            }
+        });
+    }
+
+    /**
+     * Get the executor for file work too long for the background handler thread, creating it on first use.
+     * Its threads stop when idle so that it costs nothing after startup.
+     */
+    private synchronized ExecutorService getBackgroundExecutor() {
+        if (mBackgroundExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_PARALLEL_ERROR_REPORT_LOADS, MAX_PARALLEL_ERROR_REPORT_LOADS, BACKGROUND_THREAD_KEEP_ALIVE_TIME, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            mBackgroundExecutor = executor;
+        }
+        return mBackgroundExecutor;
+    }
 
-        /* Convert minidump files to App Center crash files. */
-        for (File logFile : ErrorLogHelper.getNewMinidumpFiles()) {
+    /**
+     * Convert new minidump files to error logs and move them to the pending directory, this runs in background.
+     *
+     * @return error logs of converted files, they are not saved yet.
+     */
+    private List<ManagedErrorLog> convertMinidumpFiles(Context context, File[] minidumpFiles, File pendingDirectory, MinidumpProcessing processing) {
+        List<ManagedErrorLog> errorLogs = new ArrayList<>(minidumpFiles.length);
+        Device device = null;
+        for (File logFile : minidumpFiles) {
 
             /* Create missing files from the native crash that we detected. */
             AppCenterLog.debug(LOG_TAG, "Process pending minidump file: " + logFile);
             long minidumpDate = logFile.lastModified();
-            File dest = new File(ErrorLogHelper.getPendingMinidumpDirectory(), logFile.getName());
-            NativeException nativeException = new NativeException();
+            File dest = new File(pendingDirectory, logFile.getName());
             Exception modelException = new Exception();
             modelException.setType("minidump");
             modelException.setWrapperSdkName(Constants.WRAPPER_SDK_NAME_NDK);
@@ -619,20 +1044,116 @@ public class Crashes extends AbstractAppCenterService {
              */
             errorLog.setUserId(UserIdContext.getInstance().getUserId());
             try {
-                errorLog.setDevice(DeviceInfoHelper.getDeviceInfo(mContext));
-                errorLog.getDevice().setWrapperSdkName(Constants.WRAPPER_SDK_NAME_NDK);
-                saveErrorLogFiles(nativeException, errorLog);
-                if (!logFile.renameTo(dest)) {
-                    throw new IOException("Failed to move file");
+
+                /* Device properties are the same for every file. */
+                if (device == null) {
+                    device = DeviceInfoHelper.getDeviceInfo(context);
+                    device.setWrapperSdkName(Constants.WRAPPER_SDK_NAME_NDK);
                 }
+                errorLog.setDevice(device);
+                moveMinidumpFile(logFile, dest);
+                errorLogs.add(errorLog);
             } catch (java.lang.Exception e) {
 
                 //noinspection ResultOfMethodCallIgnored
                 logFile.delete();
-                removeAllStoredErrorLogFiles(errorLog.getId());
                 AppCenterLog.error(LOG_TAG, "Failed to process new minidump file: " + logFile, e);
             }
+            processing.onFileProcessed();
         }
+        return errorLogs;
+    }
+
+    /**
+     * Move a minidump file to the pending directory.
+     * Renaming only updates file system metadata, the file is copied if the directories are not on the same volume.
+     */
+    private static void moveMinidumpFile(File source, File dest) throws IOException {
+        if (source.renameTo(dest)) {
+            return;
+        }
+        try {
+            FileInputStream inputStream = new FileInputStream(source);
+            try {
+                FileOutputStream outputStream = new FileOutputStream(dest);
+                try {
+                    FileChannel inputChannel = inputStream.getChannel();
+                    FileChannel outputChannel = outputStream.getChannel();
+                    long size = inputChannel.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += inputChannel.transferTo(position, size - position, outputChannel);
+                    }
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (IOException e) {
+
+            //noinspection ResultOfMethodCallIgnored
+            dest.delete();
+            throw e;
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        source.delete();
+    }
+
+    /**
+     * Save error logs of converted minidump files then process them and the last session crash.
+     */
+    private void completeMinidumpProcessing(MinidumpProcessing processing, List<ManagedErrorLog> errorLogs) {
+        if (processing != mMinidumpProcessing) {
+            return;
+        }
+        List<File> logFiles = new ArrayList<>(errorLogs.size());
+        for (ManagedErrorLog errorLog : errorLogs) {
+            try {
+                UUID id = saveErrorLogFiles(new NativeException(), errorLog);
+                logFiles.add(new File(ErrorLogHelper.getErrorStorageDirectory(), id + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION));
+            } catch (java.lang.Exception e) {
+
+                //noinspection ResultOfMethodCallIgnored
+                new File(errorLog.getException().getStackTrace()).delete();
+                removeAllStoredErrorLogFiles(errorLog.getId());
+                AppCenterLog.error(LOG_TAG, "Failed to save minidump error log: " + errorLog.getId(), e);
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Processed " + processing.total + " minidump files in " + (SystemClock.elapsedRealtime() - processing.startTime) + "ms.");
+        processLastSessionCrash();
+        if (!logFiles.isEmpty()) {
+            processPendingErrors(logFiles.toArray(new File[0]));
+        }
+        cancelMinidumpProcessing();
+    }
+
+    /**
+     * Stop waiting for minidump processing and run waiting commands.
+     */
+    private void cancelMinidumpProcessing() {
+        MinidumpProcessing processing = mMinidumpProcessing;
+        if (processing != null) {
+            mMinidumpProcessing = null;
+            for (Runnable callback : processing.callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    /**
+     * Run a command once minidump files are processed, as the last session crash can be a native crash.
+     */
+    private void runAfterMinidumpProcessing(Runnable runnable) {
+        if (mMinidumpProcessing != null) {
+            mMinidumpProcessing.callbacks.add(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    private void processLastSessionCrash() {
 
         /* Check last session crash. */
         File logFile = ErrorLogHelper.getLastErrorLogFile();
@@ -661,39 +1182,127 @@ public class Crashes extends AbstractAppCenterService {
     }
 
     private void processPendingErrors() {
-        for (File logFile : ErrorLogHelper.getStoredErrorLogFiles()) {
-            AppCenterLog.debug(LOG_TAG, "Process pending error file: " + logFile);
-            String logfileContents = FileManager.read(logFile);
-            if (logfileContents != null) {
-                try {
-                    ManagedErrorLog log = (ManagedErrorLog) mLogSerializer.deserializeLog(logfileContents, null);
-                    UUID id = log.getId();
-                    ErrorReport report = buildErrorReport(log);
-                    if (report == null) {
-                        removeAllStoredErrorLogFiles(id);
-                    } else if (!mAutomaticProcessing || mCrashesListener.shouldProcess(report)) {
-                        if (!mAutomaticProcessing) {
-                            AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned true, continue processing log: " + id.toString());
-                        }
-                        mUnprocessedErrorReports.put(id, mErrorReportCache.get(id));
-                    } else {
-                        AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned false, clean up and ignore log: " + id.toString());
-                        removeAllStoredErrorLogFiles(id);
+        processPendingErrors(ErrorLogHelper.getStoredErrorLogFiles());
+
+        /* If automatic processing is enabled, proceed to check if user confirmation is needed once native crashes are loaded too. */
+        if (mAutomaticProcessing) {
+            runAfterMinidumpProcessing(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (isInstanceEnabled()) {
+                        sendCrashReportsOrAwaitUserConfirmation();
                     }
-                } catch (JSONException e) {
-                    AppCenterLog.error(LOG_TAG, "Error parsing error log. Deleting invalid file: " + logFile, e);
+                }
+            });
+        }
+    }
+
+    private void processPendingErrors(File[] logFiles) {
+        long startTime = SystemClock.elapsedRealtime();
+
+        /* Process oldest reports first without reading files, a log file is not modified after being written. */
+        final Map<File, Long> lastModifiedTimes = new HashMap<>();
+        for (File logFile : logFiles) {
+            lastModifiedTimes.put(logFile, logFile.lastModified());
+        }
+        Arrays.sort(logFiles, new Comparator<File>() {
+
+            @Override
+            public int compare(File file1, File file2) {
+                long lastModified1 = lastModifiedTimes.get(file1);
+                long lastModified2 = lastModifiedTimes.get(file2);
+                return lastModified1 < lastModified2 ? -1 : (lastModified1 == lastModified2 ? 0 : 1);
+            }
+        });
 
-                    //noinspection ResultOfMethodCallIgnored
-                    logFile.delete();
+        /* Load reports in parallel, reusing reports already loaded such as the last session crash. */
+        final Set<UUID> loadedIds = mErrorReportCache.getIds();
+        List<FutureTask<ErrorLogReport>> loads = new ArrayList<>(logFiles.length);
+        ExecutorService executor = logFiles.length > 1 ? getBackgroundExecutor() : null;
+        int reusedCount = 0;
+        try {
+            for (final File logFile : logFiles) {
+                UUID cachedId = getErrorLogId(logFile);
+                ErrorReportCache.Entry cachedReport = cachedId != null ? mErrorReportCache.get(cachedId) : null;
+                final ErrorLogReport loadedReport = cachedReport != null ? new ErrorLogReport(cachedReport.getLog(), cachedReport.getReport()) : null;
+                FutureTask<ErrorLogReport> load = new FutureTask<>(new Callable<ErrorLogReport>() {
+
+                    @Override
+                    public ErrorLogReport call() throws JSONException {
+                        return loadedReport != null ? loadedReport : loadErrorLogReport(logFile, loadedIds);
+                    }
+                });
+                if (loadedReport != null) {
+                    reusedCount++;
+                    load.run();
+                } else if (executor == null) {
+                    load.run();
+                } else {
+                    executor.execute(load);
                 }
+                loads.add(load);
             }
-        }
 
-        /* If automatic processing is enabled. */
-        if (mAutomaticProcessing) {
+            /* Filter reports in order on this thread. */
+            for (int i = 0; i < logFiles.length; i++) {
+                File logFile = logFiles[i];
+                ErrorLogReport errorLogReport;
+                try {
+                    errorLogReport = loads.get(i).get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof JSONException) {
+                        AppCenterLog.error(LOG_TAG, "Error parsing error log. Deleting invalid file: " + logFile, e.getCause());
+
+                        //noinspection ResultOfMethodCallIgnored
+                        logFile.delete();
+                        continue;
+                    }
+                    if (e.getCause() instanceof Error) {
+                        throw (Error) e.getCause();
+                    }
+                    throw (RuntimeException) e.getCause();
+                } catch (InterruptedException e) {
+                    AppCenterLog.warn(LOG_TAG, "Interrupted while loading pending error reports.");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (errorLogReport == null) {
+                    continue;
+                }
+                UUID id = errorLogReport.log.getId();
+                ErrorReport report = errorLogReport.report;
+                if (report != null) {
+                    mErrorReportCache.put(errorLogReport.log, report);
+                } else {
+
+                    /* Report was already loaded or throwable file is missing. */
+                    report = buildErrorReport(errorLogReport.log);
+                }
+                if (report == null) {
+                    removeAllStoredErrorLogFiles(id);
+                    continue;
+                }
+                if (!mAutomaticProcessing || mCrashesListener.shouldProcess(report)) {
+                    if (!mAutomaticProcessing) {
+                        AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned true, continue processing log: " + id.toString());
+                    }
+                    mUnprocessedErrorReports.put(id, new ErrorLogReport(errorLogReport.log, report));
+                } else {
+                    AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned false, clean up and ignore log: " + id.toString());
+                    removeAllStoredErrorLogFiles(id);
+                }
+            }
+        } finally {
 
-            /* Proceed to check if user confirmation is needed. */
-            sendCrashReportsOrAwaitUserConfirmation();
+            /* Stop loads not needed anymore if interrupted or failed. */
+            for (FutureTask<ErrorLogReport> load : loads) {
+                load.cancel(true);
+            }
+        }
+        if (logFiles.length > 0) {
+            AppCenterLog.debug(LOG_TAG, "Loaded " + logFiles.length + " pending error reports (" + reusedCount + " already loaded) in " + (SystemClock.elapsedRealtime() - startTime) + "ms.");
+            AppCenterLog.debug(LOG_TAG, "Error report cache: " + mErrorReportCache);
         }
     }
 
@@ -764,28 +1373,89 @@ public class Crashes extends AbstractAppCenterService {
     @VisibleForTesting
     @Nullable
     ErrorReport buildErrorReport(ManagedErrorLog log) {
-        UUID id = log.getId();
-        if (mErrorReportCache.containsKey(id)) {
-            ErrorReport report = mErrorReportCache.get(id).report;
+        ErrorReportCache.Entry cachedReport = mErrorReportCache.get(log.getId());
+        if (cachedReport != null) {
+            ErrorReport report = cachedReport.getReport();
             report.setDevice(log.getDevice());
             return report;
         } else {
-            File file = ErrorLogHelper.getStoredThrowableFile(id);
-            if (file != null) {
-                Throwable throwable = null;
-                if (file.length() > 0) {
-                    try {
-                        throwable = FileManager.readObject(file);
-                    } catch (IOException | ClassNotFoundException | StackOverflowError e) {
-                        AppCenterLog.error(LOG_TAG, "Cannot read throwable file " + file.getName(), e);
-                    }
-                }
-                ErrorReport report = ErrorLogHelper.getErrorReportFromErrorLog(log, throwable);
-                mErrorReportCache.put(id, new ErrorLogReport(log, report));
-                return report;
+            ErrorReport report = readErrorReport(log);
+            if (report != null) {
+                mErrorReportCache.put(log, report);
+            }
+            return report;
+        }
+    }
+
+    /**
+     * Get the error log identifier from its file name.
+     *
+     * @return identifier or null if the file name is not an identifier.
+     */
+    private static UUID getErrorLogId(File logFile) {
+        String name = logFile.getName();
+        if (name == null || !name.endsWith(ErrorLogHelper.ERROR_LOG_FILE_EXTENSION)) {
+            return null;
+        }
+        try {
+            return UUID.fromString(name.substring(0, name.length() - ErrorLogHelper.ERROR_LOG_FILE_EXTENSION.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read an error log and its report, this can be called from any thread.
+     *
+     * @param logFile   error log file.
+     * @param loadedIds identifiers of reports already loaded, their report is not read again.
+     * @return error log and report (the report being null if already loaded or the throwable file is missing) or null if the file cannot be read.
+     */
+    private ErrorLogReport loadErrorLogReport(File logFile, Set<UUID> loadedIds) throws JSONException {
+        AppCenterLog.debug(LOG_TAG, "Process pending error file: " + logFile);
+        String logfileContents = FileManager.read(logFile);
+        if (logfileContents == null) {
+            return null;
+        }
+        ManagedErrorLog log = (ManagedErrorLog) mLogSerializer.deserializeLog(logfileContents, null);
+        return new ErrorLogReport(log, loadedIds.contains(log.getId()) ? null : readErrorReport(log));
+    }
+
+    /**
+     * Build an error report using the throwable file, this can be called from any thread.
+     *
+     * @return report or null if the throwable file is missing.
+     */
+    private ErrorReport readErrorReport(ManagedErrorLog log) {
+        File file = ErrorLogHelper.getStoredThrowableFile(log.getId());
+        if (file == null) {
+            return null;
+        }
+        Throwable throwable = null;
+        if (file.length() > 0) {
+            try {
+                throwable = FileManager.readObject(file);
+            } catch (IOException | ClassNotFoundException | StackOverflowError e) {
+                AppCenterLog.error(LOG_TAG, "Cannot read throwable file " + file.getName(), e);
             }
         }
-        return null;
+        return ErrorLogHelper.getErrorReportFromErrorLog(log, throwable);
+    }
+
+    /**
+     * Get the duplicate errors limiter, created on first use.
+     *
+     * @return limiter or null if duplicate errors are not limited.
+     */
+    private synchronized ErrorRateLimiter getErrorRateLimiter() {
+        if (mMaxDuplicateReports == 0) {
+            return null;
+        }
+        if (mErrorRateLimiter == null) {
+            mErrorRateLimiter = new ErrorRateLimiter(ErrorLogHelper.getErrorRateLimitsFile());
+            mErrorRateLimiter.setLimits(mMaxDuplicateReports, mDuplicateInterval, mDuplicateSampleRate);
+        }
+        return mErrorRateLimiter;
     }
 
     @VisibleForTesting
@@ -828,14 +1498,28 @@ public class Crashes extends AbstractAppCenterService {
                     }
 
                     /* Send every pending report. */
+                    ErrorRateLimiter errorRateLimiter = getErrorRateLimiter();
                     Iterator<Map.Entry<UUID, ErrorLogReport>> unprocessedIterator = mUnprocessedErrorReports.entrySet().iterator();
                     while (unprocessedIterator.hasNext()) {
+                        Map.Entry<UUID, ErrorLogReport> unprocessedEntry = unprocessedIterator.next();
+                        ErrorLogReport errorLogReport = unprocessedEntry.getValue();
+
+                        /* Drop crashes identical to too many previous ones, such as a crash loop, before storing them and their attachments. */
+                        String fingerprint = errorRateLimiter != null ? ErrorRateLimiter.getFingerprint(errorLogReport.log.getException()) : null;
+                        int suppressed = 0;
+                        if (fingerprint != null) {
+                            if (!errorRateLimiter.shouldSend(fingerprint)) {
+                                AppCenterLog.debug(LOG_TAG, "Dropping crash report identical to previous ones: " + unprocessedEntry.getKey());
+                                unprocessedIterator.remove();
+                                removeAllStoredErrorLogFiles(unprocessedEntry.getKey());
+                                continue;
+                            }
+                            suppressed = errorRateLimiter.getSuppressedCount(fingerprint);
+                        }
 
                         /* If native crash, send dump as attachment and remove the fake stack trace. */
                         File dumpFile = null;
                         ErrorAttachmentLog dumpAttachment = null;
-                        Map.Entry<UUID, ErrorLogReport> unprocessedEntry = unprocessedIterator.next();
-                        ErrorLogReport errorLogReport = unprocessedEntry.getValue();
                         if (errorLogReport.report.getThrowable() instanceof NativeException) {
                             Exception exception = errorLogReport.log.getException();
                             dumpFile = new File(exception.getStackTrace());
@@ -848,8 +1532,9 @@ public class Crashes extends AbstractAppCenterService {
                         mChannel.enqueue(errorLogReport.log, ERROR_GROUP, Flags.PERSISTENCE_CRITICAL);
 
                         /* Send dump attachment and remove file. */
+                        int attachmentCount = 0;
                         if (dumpAttachment != null) {
-                            sendErrorAttachment(errorLogReport.log.getId(), Collections.singleton(dumpAttachment));
+                            attachmentCount += sendErrorAttachment(errorLogReport.log.getId(), Collections.singleton(dumpAttachment));
 
                             //noinspection ResultOfMethodCallIgnored
                             dumpFile.delete();
@@ -858,13 +1543,31 @@ public class Crashes extends AbstractAppCenterService {
                         /* Get attachments from callback in automatic processing. */
                         if (mAutomaticProcessing) {
                             Iterable<ErrorAttachmentLog> attachments = mCrashesListener.getErrorAttachments(errorLogReport.report);
-                            sendErrorAttachment(errorLogReport.log.getId(), attachments);
+                            attachmentCount += sendErrorAttachment(errorLogReport.log.getId(), attachments);
+                        }
+
+                        /*
+                         * Tell how many identical crashes were dropped only with a spare attachment slot,
+                         * in manual processing the application may send attachments later.
+                         * Otherwise the count is kept for the next report sent with a spare slot.
+                         */
+                        if (suppressed > 0) {
+                            if (mAutomaticProcessing && attachmentCount < MAX_ATTACHMENT_PER_CRASH) {
+                                ErrorAttachmentLog suppressedAttachment = ErrorAttachmentLog.attachmentWithText(String.valueOf(suppressed), SUPPRESSED_DUPLICATES_ATTACHMENT);
+                                sendErrorAttachment(errorLogReport.log.getId(), Collections.singleton(suppressedAttachment));
+                                errorRateLimiter.removeSuppressedCount(fingerprint, suppressed);
+                            } else {
+                                AppCenterLog.debug(LOG_TAG, suppressed + " crash reports identical to " + unprocessedEntry.getKey() + " were dropped, no attachment left to report it with this report.");
+                            }
                         }
 
                         /* Clean up an error log file and map entry. */
                         unprocessedIterator.remove();
                         ErrorLogHelper.removeStoredErrorLogFile(unprocessedEntry.getKey());
                     }
+                    if (errorRateLimiter != null) {
+                        errorRateLimiter.save();
+                    }
                 }
             }
         });
@@ -872,12 +1575,14 @@ public class Crashes extends AbstractAppCenterService {
 
     /**
      * Send error attachment logs through channel.
+     *
+     * @return number of attachments sent.
      */
-    private void sendErrorAttachment(UUID errorId, Iterable<ErrorAttachmentLog> attachments) {
+    private int sendErrorAttachment(UUID errorId, Iterable<ErrorAttachmentLog> attachments) {
+        int totalErrorAttachments = 0;
         if (attachments == null) {
             AppCenterLog.debug(LOG_TAG, "CrashesListener.getErrorAttachments returned null, no additional information will be attached to log: " + errorId.toString());
         } else {
-            int totalErrorAttachments = 0;
             for (ErrorAttachmentLog attachment : attachments) {
                 if (attachment != null) {
                     attachment.setId(UUID.randomUUID());
@@ -896,6 +1601,12 @@ public class Crashes extends AbstractAppCenterService {
                 AppCenterLog.warn(LOG_TAG, "A limit of " + MAX_ATTACHMENT_PER_CRASH + " attachments per error report might be enforced by server.");
             }
         }
+        return totalErrorAttachments;
+    }
+
+    @VisibleForTesting
+    ErrorReportCache getErrorReportCache() {
+        return mErrorReportCache;
     }
 
     @VisibleForTesting
@@ -910,6 +1621,16 @@ public class Crashes extends AbstractAppCenterService {
      * @param throwable uncaught exception or error.
      */
     void saveUncaughtException(Thread thread, Throwable throwable) {
+
+        /* Write a raw record without waiting for the background thread if prepared at startup. */
+        CrashRecorder crashRecorder = mCrashRecorder;
+        if (crashRecorder != null) {
+            if (!mSavedUncaughtException) {
+                mSavedUncaughtException = true;
+                saveCrashRecord(crashRecorder, thread, throwable);
+            }
+            return;
+        }
         try {
             saveUncaughtException(thread, throwable, ErrorLogHelper.getModelExceptionFromThrowable(throwable));
         } catch (JSONException e) {
@@ -919,6 +1640,31 @@ public class Crashes extends AbstractAppCenterService {
         }
     }
 
+    /**
+     * Save a crash as a raw record, the error log is built on next launch.
+     *
+     * @param crashRecorder crash recorder.
+     * @param thread        thread where crash occurred.
+     * @param throwable     uncaught exception or error.
+     */
+    private void saveCrashRecord(CrashRecorder crashRecorder, Thread thread, Throwable throwable) {
+        File throwableFile = null;
+        try {
+            UUID errorId = crashRecorder.record(thread, throwable);
+
+            /* Save Throwable as is for client side inspection, the record is already safe if that fails. */
+            throwableFile = new File(crashRecorder.getDirectory(), errorId + ErrorLogHelper.THROWABLE_FILE_EXTENSION);
+            FileManager.writeObject(throwableFile, throwable);
+        } catch (IOException | StackOverflowError | OutOfMemoryError e) {
+            AppCenterLog.error(Crashes.LOG_TAG, "Error writing crash record", e);
+            if (throwableFile != null) {
+
+                //noinspection ResultOfMethodCallIgnored
+                throwableFile.delete();
+            }
+        }
+    }
+
     /**
      * Save uncaught exception to disk.
      *
@@ -1003,11 +1749,17 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void run() {
-                Collection<ErrorReport> reports = new ArrayList<>(mUnprocessedErrorReports.size());
-                for (ErrorLogReport entry : mUnprocessedErrorReports.values()) {
-                    reports.add(entry.report);
-                }
-                future.complete(reports);
+                runAfterMinidumpProcessing(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        Collection<ErrorReport> reports = new ArrayList<>(mUnprocessedErrorReports.size());
+                        for (ErrorLogReport entry : mUnprocessedErrorReports.values()) {
+                            reports.add(entry.report);
+                        }
+                        future.complete(reports);
+                    }
+                });
             }
         }, future, Collections.<ErrorReport>emptyList());
         return future;
@@ -1022,24 +1774,30 @@ public class Crashes extends AbstractAppCenterService {
 
             @Override
             public void run() {
+                runAfterMinidumpProcessing(new Runnable() {
 
-                /* Apply the filtering. */
-                Iterator<Map.Entry<UUID, ErrorLogReport>> iterator = mUnprocessedErrorReports.entrySet().iterator();
-                while (iterator.hasNext()) {
-                    Map.Entry<UUID, ErrorLogReport> entry = iterator.next();
-                    UUID id = entry.getKey();
-                    String idString = entry.getValue().report.getId();
-                    if (filteredReportIds != null && filteredReportIds.contains(idString)) {
-                        AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned true, continue processing log: " + idString);
-                    } else {
-                        AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned false, clean up and ignore log: " + idString);
-                        removeAllStoredErrorLogFiles(id);
-                        iterator.remove();
-                    }
-                }
+                    @Override
+                    public void run() {
+
+                        /* Apply the filtering. */
+                        Iterator<Map.Entry<UUID, ErrorLogReport>> iterator = mUnprocessedErrorReports.entrySet().iterator();
+                        while (iterator.hasNext()) {
+                            Map.Entry<UUID, ErrorLogReport> entry = iterator.next();
+                            UUID id = entry.getKey();
+                            String idString = entry.getValue().report.getId();
+                            if (filteredReportIds != null && filteredReportIds.contains(idString)) {
+                                AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned true, continue processing log: " + idString);
+                            } else {
+                                AppCenterLog.debug(LOG_TAG, "CrashesListener.shouldProcess returned false, clean up and ignore log: " + idString);
+                                removeAllStoredErrorLogFiles(id);
+                                iterator.remove();
+                            }
+                        }
 
-                /* Proceed to check if user confirmation is needed. */
-                future.complete(sendCrashReportsOrAwaitUserConfirmation());
+                        /* Proceed to check if user confirmation is needed. */
+                        future.complete(sendCrashReportsOrAwaitUserConfirmation());
+                    }
+                });
             }
         }, future, false);
         return future;
@@ -1108,6 +1866,44 @@ public class Crashes extends AbstractAppCenterService {
 
     }
 
+    /**
+     * State of minidump files conversion.
+     */
+    private static class MinidumpProcessing {
+
+        /**
+         * Number of files to convert.
+         */
+        private final int total;
+
+        /**
+         * Start time, for timing logs.
+         */
+        private final long startTime = SystemClock.elapsedRealtime();
+
+        /**
+         * Commands waiting for conversion to complete.
+         */
+        private final List<Runnable> callbacks = new ArrayList<>();
+
+        /**
+         * Number of files converted so far.
+         */
+        private volatile int processed;
+
+        private MinidumpProcessing(int total) {
+            this.total = total;
+        }
+
+        /**
+         * Report progress after a file is converted.
+         */
+        private void onFileProcessed() {
+            processed++;
+            AppCenterLog.debug(LOG_TAG, "Converted " + processed + "/" + total + " minidump files in " + (SystemClock.elapsedRealtime() - startTime) + "ms.");
+        }
+    }
+
     /**
      * Class holding an error log and its corresponding error report.
      */
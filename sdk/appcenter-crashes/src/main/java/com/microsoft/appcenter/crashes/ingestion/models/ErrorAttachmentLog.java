@@ -9,12 +9,16 @@ import android.support.annotation.VisibleForTesting;
 import android.util.Base64;
 
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
+import com.microsoft.appcenter.ingestion.models.LogWithDeferredData;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.UUID;
@@ -24,7 +28,7 @@ import static com.microsoft.appcenter.ingestion.models.CommonProperties.ID;
 /**
  * Error attachment log.
  */
-public class ErrorAttachmentLog extends AbstractLog {
+public class ErrorAttachmentLog extends AbstractLog implements LogWithDeferredData {
 
     /**
      * Plain text mime type.
@@ -46,6 +50,12 @@ public class ErrorAttachmentLog extends AbstractLog {
     @VisibleForTesting
     static final String DATA = "data";
 
+    @VisibleForTesting
+    static final String DATA_FILE = "dataFile";
+
+    @VisibleForTesting
+    static final String DATA_LENGTH = "dataLength";
+
     /**
      * Error attachment identifier.
      */
@@ -71,6 +81,16 @@ public class ErrorAttachmentLog extends AbstractLog {
      */
     private byte[] data;
 
+    /**
+     * Path of the file containing data when data is kept on disk until sent.
+     */
+    private String dataFile;
+
+    /**
+     * Length of data in the data file.
+     */
+    private long dataLength;
+
     /**
      * Build an error attachment log with text suitable for using in {link CrashesListener#getErrorAttachments(ErrorReport)}.
      *
@@ -98,6 +118,25 @@ public class ErrorAttachmentLog extends AbstractLog {
         return attachmentLog;
     }
 
+    /**
+     * Build an error attachment log with a file suitable for using in {link CrashesListener#getErrorAttachments(ErrorReport)}.
+     * File content is not loaded in memory until sent, so the file must be kept until the error report has been sent.
+     * If the file cannot be read when sending, the attachment is not sent.
+     *
+     * @param file        file to attach.
+     * @param fileName    file name to use in error attachment log.
+     * @param contentType file MIME type.
+     * @return ErrorAttachmentLog built attachment.
+     */
+    public static ErrorAttachmentLog attachmentWithFile(File file, String fileName, String contentType) {
+        ErrorAttachmentLog attachmentLog = new ErrorAttachmentLog();
+        attachmentLog.setDataFile(file.getAbsolutePath());
+        attachmentLog.setDataLength(file.length());
+        attachmentLog.setFileName(fileName);
+        attachmentLog.setContentType(contentType);
+        return attachmentLog;
+    }
+
     @Override
     public String getType() {
         return TYPE;
@@ -195,13 +234,72 @@ public class ErrorAttachmentLog extends AbstractLog {
         this.data = data;
     }
 
+    /**
+     * Get the dataFile value.
+     *
+     * @return the dataFile value
+     */
+    public String getDataFile() {
+        return this.dataFile;
+    }
+
+    /**
+     * Set the dataFile value.
+     *
+     * @param dataFile the dataFile value to set
+     */
+    public void setDataFile(String dataFile) {
+        this.dataFile = dataFile;
+    }
+
+    /**
+     * Get the dataLength value.
+     *
+     * @return the dataLength value
+     */
+    public long getDataLength() {
+        return this.dataLength;
+    }
+
+    /**
+     * Set the dataLength value.
+     *
+     * @param dataLength the dataLength value to set
+     */
+    public void setDataLength(long dataLength) {
+        this.dataLength = dataLength;
+    }
+
+    /**
+     * Read data from the data file if not already in memory, this is done by the channel just before sending.
+     *
+     * @throws IOException if the data file cannot be read or is too large to fit in an array.
+     */
+    @Override
+    public void loadData() throws IOException {
+        if (getData() != null || getDataFile() == null) {
+            return;
+        }
+        if (getDataLength() < 0 || getDataLength() > Integer.MAX_VALUE) {
+            throw new IOException("Invalid attachment data length: " + getDataLength());
+        }
+        byte[] data = new byte[(int) getDataLength()];
+        RandomAccessFile file = new RandomAccessFile(getDataFile(), "r");
+        try {
+            file.readFully(data);
+        } finally {
+            file.close();
+        }
+        setData(data);
+    }
+
     /**
      * Checks if the log's values are valid.
      *
      * @return true if validation succeeded, otherwise false.
      */
     public boolean isValid() {
-        return getId() != null && getErrorId() != null && getContentType() != null && getData() != null;
+        return getId() != null && getErrorId() != null && getContentType() != null && (getData() != null || getDataFile() != null);
     }
 
     @Override
@@ -211,6 +309,13 @@ public class ErrorAttachmentLog extends AbstractLog {
         setErrorId(UUID.fromString(object.getString(ERROR_ID)));
         setContentType(object.getString(CONTENT_TYPE));
         setFileName(object.optString(FILE_NAME, null));
+
+        /* Data kept in a file is stored as a reference until loaded to be sent. */
+        if (!object.has(DATA) && object.has(DATA_FILE)) {
+            setDataFile(object.getString(DATA_FILE));
+            setDataLength(object.getLong(DATA_LENGTH));
+            return;
+        }
         try {
             setData(Base64.decode(object.getString(DATA), Base64.DEFAULT));
         } catch (IllegalArgumentException e) {
@@ -225,7 +330,12 @@ public class ErrorAttachmentLog extends AbstractLog {
         JSONUtils.write(writer, ERROR_ID, getErrorId());
         JSONUtils.write(writer, CONTENT_TYPE, getContentType());
         JSONUtils.write(writer, FILE_NAME, getFileName());
-        JSONUtils.write(writer, DATA, Base64.encodeToString(getData(), Base64.NO_WRAP));
+        if (getData() == null && getDataFile() != null) {
+            JSONUtils.write(writer, DATA_FILE, getDataFile());
+            JSONUtils.write(writer, DATA_LENGTH, getDataLength());
+        } else {
+            JSONUtils.write(writer, DATA, Base64.encodeToString(getData(), Base64.NO_WRAP));
+        }
     }
 
     @SuppressWarnings("SimplifiableIfStatement")
@@ -253,6 +363,12 @@ public class ErrorAttachmentLog extends AbstractLog {
         if (fileName != null ? !fileName.equals(that.fileName) : that.fileName != null) {
             return false;
         }
+        if (dataFile != null ? !dataFile.equals(that.dataFile) : that.dataFile != null) {
+            return false;
+        }
+        if (dataLength != that.dataLength) {
+            return false;
+        }
         return Arrays.equals(data, that.data);
 
     }
@@ -265,6 +381,8 @@ public class ErrorAttachmentLog extends AbstractLog {
         result = 31 * result + (contentType != null ? contentType.hashCode() : 0);
         result = 31 * result + (fileName != null ? fileName.hashCode() : 0);
         result = 31 * result + Arrays.hashCode(data);
+        result = 31 * result + (dataFile != null ? dataFile.hashCode() : 0);
+        result = 31 * result + (int) (dataLength ^ (dataLength >>> 32));
         return result;
     }
 }
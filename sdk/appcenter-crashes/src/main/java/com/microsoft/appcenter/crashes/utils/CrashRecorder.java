@@ -0,0 +1,672 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.content.Context;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.crashes.Crashes;
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+import com.microsoft.appcenter.crashes.ingestion.models.Thread;
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.DeviceInfoHelper;
+import com.microsoft.appcenter.utils.UUIDUtils;
+import com.microsoft.appcenter.utils.context.UserIdContext;
+import com.microsoft.appcenter.utils.storage.FileManager;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Saves an uncaught exception as a compact raw record using only data and memory prepared at startup.
+ * The error log is built from the record on next launch.
+ */
+public class CrashRecorder {
+
+    /**
+     * Raw crash record file extension.
+     */
+    public static final String RECORD_FILE_EXTENSION = ".record";
+
+    /**
+     * Size of the buffer allocated at startup. Exception frames that do not fit are dropped,
+     * thread states are streamed to the file when it is full.
+     */
+    @VisibleForTesting
+    static final int BUFFER_SIZE = 128 * 1024;
+
+    /**
+     * Default maximum number of threads saved, including the crashing thread.
+     */
+    public static final int DEFAULT_MAX_THREADS = 100;
+
+    /**
+     * Default maximum number of frames saved per thread, from the top of the stack.
+     */
+    public static final int DEFAULT_MAX_FRAMES_PER_THREAD = ErrorLogHelper.FRAME_LIMIT;
+
+    /**
+     * Default maximum record size in bytes, thread states that would exceed it are dropped.
+     */
+    public static final int DEFAULT_MAX_BYTES = 1024 * 1024;
+
+    /**
+     * Maximum number of characters kept from exception messages.
+     */
+    @VisibleForTesting
+    static final int MAX_MESSAGE_LENGTH = 4096;
+
+    /**
+     * Record file header.
+     */
+    private static final int MAGIC = 0x41435243;
+
+    /**
+     * Record format version.
+     */
+    private static final int VERSION = 3;
+
+    /**
+     * Marker for null strings.
+     */
+    private static final int NULL_STRING = -1;
+
+    /**
+     * Maximum number of class and file names written once per record, frames then refer to them by index.
+     */
+    @VisibleForTesting
+    static final int MAX_INTERNED_STRINGS = 2048;
+
+    /**
+     * Size of the hash table of interned strings, twice their number to keep probing short.
+     */
+    private static final int INTERN_SLOT_COUNT = MAX_INTERNED_STRINGS * 2;
+
+    /**
+     * Directory where records are written.
+     */
+    private final File mDirectory;
+
+    /**
+     * Process name captured at startup.
+     */
+    private final String mProcessName;
+
+    /**
+     * CPU architecture captured at startup.
+     */
+    private final String mArchitecture;
+
+    /**
+     * Device properties serialized at startup.
+     */
+    private final String mDeviceJson;
+
+    /**
+     * Application launch time.
+     */
+    private final long mAppLaunchTimestamp;
+
+    /**
+     * Error identifier generated at startup.
+     */
+    private final UUID mId;
+
+    /**
+     * Record file, resolved at startup.
+     */
+    private final File mFile;
+
+    /**
+     * Buffer allocated at startup.
+     */
+    private final ByteBuffer mBuffer;
+
+    /**
+     * Maximum number of threads saved.
+     */
+    private int mMaxThreads = DEFAULT_MAX_THREADS;
+
+    /**
+     * Maximum number of frames saved per thread.
+     */
+    private int mMaxFramesPerThread = DEFAULT_MAX_FRAMES_PER_THREAD;
+
+    /**
+     * Maximum record size in bytes.
+     */
+    private int mMaxBytes = DEFAULT_MAX_BYTES;
+
+    /**
+     * Bytes already written to the file for the current record.
+     */
+    private long mWrittenBytes;
+
+    /**
+     * Strings already written in the current record, by index.
+     */
+    private final String[] mInternedStrings = new String[MAX_INTERNED_STRINGS];
+
+    /**
+     * Hash table of interned string indexes plus one, 0 for empty slots.
+     * Slots referring to indexes beyond the interned count are empty too, which makes rolling back writes free.
+     */
+    private final int[] mInternSlots = new int[INTERN_SLOT_COUNT];
+
+    /**
+     * Number of strings interned in the current record.
+     */
+    private int mInternedCount;
+
+    /**
+     * Whether class and file names are interned.
+     */
+    private boolean mInternStrings = true;
+
+    @VisibleForTesting
+    CrashRecorder(@NonNull File directory, @NonNull String processName, String architecture, @NonNull String deviceJson, long appLaunchTimestamp) {
+        mDirectory = directory;
+        mProcessName = processName;
+        mArchitecture = architecture;
+        mDeviceJson = deviceJson;
+        mAppLaunchTimestamp = appLaunchTimestamp;
+        mId = UUIDUtils.randomUUID();
+        mFile = new File(directory, mId + RECORD_FILE_EXTENSION);
+        mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    }
+
+    /**
+     * Capture device and process information and allocate the buffer.
+     *
+     * @param context            context.
+     * @param directory          directory where to write the record.
+     * @param appLaunchTimestamp application launch time.
+     * @return recorder or null if device information could not be captured.
+     */
+    @Nullable
+    public static CrashRecorder prepare(@NonNull Context context, @NonNull File directory, long appLaunchTimestamp) {
+        try {
+            Device device = DeviceInfoHelper.getDeviceInfo(context);
+            JSONStringer writer = new JSONStringer();
+            writer.object();
+            device.write(writer);
+            writer.endObject();
+            String deviceJson = writer.toString();
+            if (deviceJson != null) {
+                return new CrashRecorder(directory, ErrorLogHelper.getProcessName(context), ErrorLogHelper.getArchitecture(), deviceJson, appLaunchTimestamp);
+            }
+        } catch (DeviceInfoHelper.DeviceInfoException | JSONException | RuntimeException e) {
+            AppCenterLog.error(Crashes.LOG_TAG, "Could not prepare crash recorder, crashes will be saved as error logs.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Get the directory where the record is written.
+     *
+     * @return directory.
+     */
+    @NonNull
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * Set limits of thread states saved with a crash.
+     *
+     * @param maxThreads         maximum number of threads, including the crashing thread.
+     * @param maxFramesPerThread maximum number of frames per thread.
+     * @param maxBytes           maximum record size in bytes.
+     */
+    public synchronized void setLimits(int maxThreads, int maxFramesPerThread, int maxBytes) {
+        mMaxThreads = maxThreads;
+        mMaxFramesPerThread = maxFramesPerThread;
+        mMaxBytes = maxBytes;
+    }
+
+    @VisibleForTesting
+    synchronized void setInternStrings(boolean internStrings) {
+        mInternStrings = internStrings;
+    }
+
+    /**
+     * Write the raw record of an uncaught exception.
+     *
+     * @param thread    thread where the exception occurred.
+     * @param throwable uncaught exception.
+     * @return error identifier.
+     * @throws IOException if the record could not be written.
+     */
+    @NonNull
+    public synchronized UUID record(@NonNull java.lang.Thread thread, @NonNull Throwable throwable) throws IOException {
+        ByteBuffer buffer = mBuffer;
+        buffer.clear();
+        mInternedCount = 0;
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(mId.getMostSignificantBits());
+        buffer.putLong(mId.getLeastSignificantBits());
+        buffer.putLong(System.currentTimeMillis());
+        buffer.putLong(mAppLaunchTimestamp);
+        buffer.putInt(Process.myPid());
+        buffer.putLong(thread.getId());
+        int causeCountPosition = reserveCount();
+        try {
+            putString(mProcessName, Integer.MAX_VALUE);
+            putString(mArchitecture, Integer.MAX_VALUE);
+            putString(mDeviceJson, Integer.MAX_VALUE);
+            putString(UserIdContext.getInstance().getUserId(), Integer.MAX_VALUE);
+            putString(thread.getName(), Integer.MAX_VALUE);
+            putCauses(throwable, causeCountPosition);
+        } catch (BufferOverflowException e) {
+
+            /* Counts are up to date, keep what fits. */
+            AppCenterLog.warn(Crashes.LOG_TAG, "Crash exception truncated to " + BUFFER_SIZE + " bytes.");
+        }
+        mWrittenBytes = 0;
+        FileOutputStream outputStream = new FileOutputStream(mFile);
+        try {
+            FileChannel channel = outputStream.getChannel();
+            try {
+                putThreads(channel, thread);
+            } catch (OutOfMemoryError e) {
+
+                /* Keep the record without more thread states. */
+                AppCenterLog.error(Crashes.LOG_TAG, "Not enough memory to save thread states.", e);
+            }
+
+            /* End of thread states. */
+            if (!buffer.hasRemaining()) {
+                flush(channel);
+            }
+            buffer.put((byte) 0);
+            flush(channel);
+        } finally {
+            outputStream.close();
+        }
+        AppCenterLog.debug(Crashes.LOG_TAG, "Saved crash record of " + mWrittenBytes + " bytes into " + mFile);
+        return mId;
+    }
+
+    /**
+     * Write buffer content to the file and reset the buffer.
+     */
+    private void flush(FileChannel channel) throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mWrittenBytes += channel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+    private void putCauses(Throwable throwable, int countPosition) {
+
+        /* Keep beginning and end of huge cause chains like error logs do. */
+        int causeCount = 0;
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            causeCount++;
+        }
+        int count = 0;
+        int index = 0;
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause(), index++) {
+            if (causeCount > ErrorLogHelper.CAUSE_LIMIT && index >= ErrorLogHelper.CAUSE_LIMIT / 2 && index < causeCount - ErrorLogHelper.CAUSE_LIMIT / 2) {
+                continue;
+            }
+            int start = mBuffer.position();
+            int frameCountPosition;
+            try {
+                putString(cause.getClass().getName(), Integer.MAX_VALUE);
+                putString(cause.getMessage(), MAX_MESSAGE_LENGTH);
+                frameCountPosition = reserveCount();
+            } catch (BufferOverflowException e) {
+                mBuffer.position(start);
+                throw e;
+            }
+            mBuffer.putInt(countPosition, ++count);
+            putFrames(cause.getStackTrace(), frameCountPosition, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Stream thread states to the file: crashing thread first, then main thread, then others until a limit is reached.
+     */
+    private void putThreads(FileChannel channel, java.lang.Thread crashThread) throws IOException {
+        Map<java.lang.Thread, StackTraceElement[]> allStackTraces = java.lang.Thread.getAllStackTraces();
+        Looper mainLooper = Looper.getMainLooper();
+        java.lang.Thread mainThread = mainLooper != null ? mainLooper.getThread() : null;
+        int count = 0;
+        if (putThread(channel, crashThread, allStackTraces.get(crashThread))) {
+            count++;
+        }
+        if (mainThread != crashThread && count < mMaxThreads && putThread(channel, mainThread, allStackTraces.get(mainThread))) {
+            count++;
+        }
+        for (Map.Entry<java.lang.Thread, StackTraceElement[]> entry : allStackTraces.entrySet()) {
+            if (count >= mMaxThreads) {
+                AppCenterLog.warn(Crashes.LOG_TAG, "Crash thread states truncated to " + count + " threads.");
+                return;
+            }
+            java.lang.Thread thread = entry.getKey();
+            if (thread != crashThread && thread != mainThread) {
+                if (!putThread(channel, thread, entry.getValue())) {
+                    return;
+                }
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Write a thread state, flushing the buffer to the file if needed.
+     *
+     * @return false if the thread did not fit in the maximum record size.
+     */
+    private boolean putThread(FileChannel channel, java.lang.Thread thread, StackTraceElement[] frames) throws IOException {
+        if (thread == null || frames == null) {
+            return false;
+        }
+        int start = mBuffer.position();
+        int internedCount = mInternedCount;
+        try {
+            putThread(thread, frames);
+        } catch (BufferOverflowException e) {
+
+            /* Flush what precedes this thread and try again with a whole buffer, keeping the frames that fit. */
+            mBuffer.position(start);
+            mInternedCount = internedCount;
+            flush(channel);
+            start = 0;
+            try {
+                putThread(thread, frames);
+            } catch (BufferOverflowException ignore) {
+            }
+        }
+        if (mWrittenBytes + mBuffer.position() > mMaxBytes) {
+            mBuffer.position(start);
+            mInternedCount = internedCount;
+            AppCenterLog.warn(Crashes.LOG_TAG, "Crash thread states truncated to " + mMaxBytes + " bytes.");
+            return false;
+        }
+        return true;
+    }
+
+    private void putThread(java.lang.Thread thread, StackTraceElement[] frames) {
+        int start = mBuffer.position();
+        int frameCountPosition;
+        try {
+            mBuffer.put((byte) 1);
+            mBuffer.putLong(thread.getId());
+            putString(thread.getName(), Integer.MAX_VALUE);
+            frameCountPosition = reserveCount();
+        } catch (BufferOverflowException e) {
+            mBuffer.position(start);
+            throw e;
+        }
+        putFrames(frames, frameCountPosition, mMaxFramesPerThread);
+    }
+
+    private int reserveCount() {
+        int position = mBuffer.position();
+        mBuffer.putInt(0);
+        return position;
+    }
+
+    private void putFrames(StackTraceElement[] frames, int countPosition, int maxFrames) {
+        int count = 0;
+        for (int i = 0; i < frames.length && count < maxFrames; i++) {
+
+            /* Keep beginning and end of huge stack traces like error logs do. */
+            if (frames.length > ErrorLogHelper.FRAME_LIMIT && i >= ErrorLogHelper.FRAME_LIMIT / 2 && i < frames.length - ErrorLogHelper.FRAME_LIMIT / 2) {
+                continue;
+            }
+            int start = mBuffer.position();
+            int internedCount = mInternedCount;
+            try {
+                putInternedString(frames[i].getClassName());
+                putString(frames[i].getMethodName(), Integer.MAX_VALUE);
+                putInternedString(frames[i].getFileName());
+                mBuffer.putInt(frames[i].getLineNumber());
+            } catch (BufferOverflowException e) {
+                mBuffer.position(start);
+                mInternedCount = internedCount;
+                throw e;
+            }
+            mBuffer.putInt(countPosition, ++count);
+        }
+    }
+
+    /**
+     * Write a string repeated across frames: the first occurrence is written as is and defines the next index,
+     * later ones are written as an index, without allocating.
+     */
+    private void putInternedString(String value) {
+        if (value == null || !mInternStrings) {
+            putString(value, Integer.MAX_VALUE);
+            return;
+        }
+        int hash = value.hashCode();
+        int mask = INTERN_SLOT_COUNT - 1;
+        for (int slot = (hash ^ (hash >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+            int index = mInternSlots[slot] - 1;
+            if (index < 0 || index >= mInternedCount) {
+                if (mInternedCount < MAX_INTERNED_STRINGS) {
+                    mInternedStrings[mInternedCount] = value;
+                    mInternSlots[slot] = ++mInternedCount;
+                }
+                putString(value, Integer.MAX_VALUE);
+                return;
+            }
+            if (mInternedStrings[index].equals(value)) {
+                mBuffer.putInt(NULL_STRING - 1 - index);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write a string as its byte length followed by modified UTF-8 bytes, without allocating.
+     */
+    private void putString(String value, int maxLength) {
+        ByteBuffer buffer = mBuffer;
+        if (value == null) {
+            buffer.putInt(NULL_STRING);
+            return;
+        }
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        int length = Math.min(value.length(), maxLength);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c > 0 && c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    /**
+     * Get crash record files.
+     *
+     * @param directory directory to look into.
+     * @return record files, empty if none.
+     */
+    @NonNull
+    public static File[] getRecordFiles(@Nullable File directory) {
+        File[] files = directory == null ? null : directory.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String filename) {
+                return filename.endsWith(RECORD_FILE_EXTENSION);
+            }
+        });
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Build an error log from a crash record.
+     *
+     * @param file record file.
+     * @return error log.
+     * @throws IOException if the file cannot be read or is not a valid record.
+     */
+    @NonNull
+    public static ManagedErrorLog read(@NonNull File file) throws IOException {
+        byte[] bytes = FileManager.readBytes(file);
+        if (bytes == null) {
+            throw new IOException("Cannot read crash record " + file);
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Invalid crash record " + file);
+            }
+            ManagedErrorLog errorLog = new ManagedErrorLog();
+            errorLog.setId(new UUID(buffer.getLong(), buffer.getLong()));
+            errorLog.setTimestamp(new Date(buffer.getLong()));
+            errorLog.setAppLaunchTimestamp(new Date(buffer.getLong()));
+            errorLog.setProcessId(buffer.getInt());
+            errorLog.setErrorThreadId(buffer.getLong());
+            int causeCount = buffer.getInt();
+            errorLog.setProcessName(getString(buffer));
+            errorLog.setArchitecture(getString(buffer));
+            String deviceJson = getString(buffer);
+            errorLog.setUserId(getString(buffer));
+            errorLog.setErrorThreadName(getString(buffer));
+            errorLog.setFatal(true);
+
+            /* Device properties are attached at sending time if they cannot be read. */
+            try {
+                Device device = new Device();
+                device.read(new JSONObject(deviceJson));
+                errorLog.setDevice(device);
+            } catch (JSONException | RuntimeException e) {
+                AppCenterLog.error(Crashes.LOG_TAG, "Could not read device properties of crash record.", e);
+            }
+
+            /* Causes. */
+            List<String> internedStrings = new ArrayList<>();
+            Exception parentException = null;
+            for (int i = 0; i < causeCount; i++) {
+                Exception exception = new Exception();
+                exception.setType(getString(buffer));
+                exception.setMessage(getString(buffer));
+                exception.setFrames(getFrames(buffer, internedStrings));
+                if (parentException == null) {
+                    errorLog.setException(exception);
+                } else {
+                    parentException.setInnerExceptions(Collections.singletonList(exception));
+                }
+                parentException = exception;
+            }
+
+            /* Threads. */
+            List<Thread> threads = new ArrayList<>();
+            while (buffer.get() == 1) {
+                Thread thread = new Thread();
+                thread.setId(buffer.getLong());
+                thread.setName(getString(buffer));
+                thread.setFrames(getFrames(buffer, internedStrings));
+                threads.add(thread);
+            }
+            errorLog.setThreads(threads);
+            return errorLog;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Invalid crash record " + file, e);
+        }
+    }
+
+    @NonNull
+    private static List<StackFrame> getFrames(ByteBuffer buffer, List<String> internedStrings) {
+        int count = buffer.getInt();
+        List<StackFrame> frames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StackFrame frame = new StackFrame();
+            frame.setClassName(getInternedString(buffer, internedStrings));
+            frame.setMethodName(getString(buffer));
+            frame.setFileName(getInternedString(buffer, internedStrings));
+            frame.setLineNumber(buffer.getInt());
+            frames.add(frame);
+        }
+        return frames;
+    }
+
+    /**
+     * Read a string written by {@link #putInternedString(String)}, frames then share the same string instances.
+     */
+    @Nullable
+    private static String getInternedString(ByteBuffer buffer, List<String> internedStrings) {
+        int position = buffer.position();
+        int length = buffer.getInt();
+        if (length < NULL_STRING) {
+            int index = NULL_STRING - 1 - length;
+            if (index >= internedStrings.size()) {
+                throw new BufferUnderflowException();
+            }
+            return internedStrings.get(index);
+        }
+        buffer.position(position);
+        String value = getString(buffer);
+        if (value != null && internedStrings.size() < MAX_INTERNED_STRINGS) {
+            internedStrings.add(value);
+        }
+        return value;
+    }
+
+    @Nullable
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        char[] chars = new char[length];
+        int charCount = 0;
+        int end = buffer.position() + length;
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                chars[charCount++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[charCount++] = (char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F));
+            } else {
+                chars[charCount++] = (char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F));
+            }
+        }
+        return new String(chars, 0, charCount);
+    }
+}
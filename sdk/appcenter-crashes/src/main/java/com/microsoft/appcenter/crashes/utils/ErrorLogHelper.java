@@ -96,6 +96,16 @@ public class ErrorLogHelper {
     @VisibleForTesting
     static final String ERROR_DIRECTORY = "error";
 
+    /**
+     * File name of the error rate limits state.
+     */
+    private static final String ERROR_RATE_LIMITS_FILE_NAME = "error_rate_limits";
+
+    /**
+     * File name of the main thread stalls not reported yet.
+     */
+    private static final String MAIN_THREAD_STALLS_FILE_NAME = "main_thread_stalls";
+
     /**
      * Root directory for error log and throwable files.
      */
@@ -148,25 +158,7 @@ public class ErrorLogHelper {
 
         /* Process information. Parent one is not available on Android. */
         errorLog.setProcessId(Process.myPid());
-        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
-        if (activityManager != null) {
-            List<ActivityManager.RunningAppProcessInfo> runningAppProcesses = activityManager.getRunningAppProcesses();
-            if (runningAppProcesses != null) {
-                for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
-                    if (info.pid == Process.myPid()) {
-                        errorLog.setProcessName(info.processName);
-                    }
-                }
-            }
-        }
-
-        /*
-         * Process name is required field for crash processing but cannot always be available,
-         * make sure we send a default value if not found.
-         */
-        if (errorLog.getProcessName() == null) {
-            errorLog.setProcessName("");
-        }
+        errorLog.setProcessName(getProcessName(context));
 
         /* CPU architecture. */
         errorLog.setArchitecture(getArchitecture());
@@ -197,9 +189,37 @@ public class ErrorLogHelper {
         return errorLog;
     }
 
+    /**
+     * Get the name of the current process.
+     *
+     * @param context context.
+     * @return process name, empty if not found.
+     */
+    @NonNull
+    static String getProcessName(@NonNull Context context) {
+        String processName = null;
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager != null) {
+            List<ActivityManager.RunningAppProcessInfo> runningAppProcesses = activityManager.getRunningAppProcesses();
+            if (runningAppProcesses != null) {
+                for (ActivityManager.RunningAppProcessInfo info : runningAppProcesses) {
+                    if (info.pid == Process.myPid()) {
+                        processName = info.processName;
+                    }
+                }
+            }
+        }
+
+        /*
+         * Process name is required field for crash processing but cannot always be available,
+         * make sure we send a default value if not found.
+         */
+        return processName != null ? processName : "";
+    }
+
     @SuppressWarnings("deprecation")
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
-    private static String getArchitecture() {
+    static String getArchitecture() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             return Build.SUPPORTED_ABIS[0];
         } else {
@@ -216,6 +236,16 @@ public class ErrorLogHelper {
         return sErrorLogDirectory;
     }
 
+    @NonNull
+    public static File getErrorRateLimitsFile() {
+        return new File(getErrorStorageDirectory(), ERROR_RATE_LIMITS_FILE_NAME);
+    }
+
+    @NonNull
+    public static File getMainThreadStallsFile() {
+        return new File(getErrorStorageDirectory(), MAIN_THREAD_STALLS_FILE_NAME);
+    }
+
     @NonNull
     public static synchronized File getNewMinidumpDirectory() {
         if (sNewMinidumpDirectory == null) {
@@ -349,18 +379,43 @@ public class ErrorLogHelper {
         return topException;
     }
 
+    /**
+     * Get an exception model from a stack trace that was not thrown, like the sampled stack of a blocked thread.
+     *
+     * @param type       exception type.
+     * @param message    exception message.
+     * @param stackTrace stack trace, truncated like the ones of throwables.
+     * @return exception model.
+     */
+    @NonNull
+    public static Exception getModelExceptionFromStackTrace(@NonNull String type, String message, @NonNull StackTraceElement[] stackTrace) {
+        Exception exception = new Exception();
+        exception.setType(type);
+        exception.setMessage(message);
+        exception.setFrames(getModelFramesFromStackTrace(truncateStackTrace(stackTrace)));
+        return exception;
+    }
+
     @NonNull
     private static List<StackFrame> getModelFramesFromStackTrace(@NonNull Throwable throwable) {
         StackTraceElement[] stackTrace = throwable.getStackTrace();
-        if (stackTrace.length > FRAME_LIMIT) {
-            StackTraceElement[] stackTraceTruncated = new StackTraceElement[FRAME_LIMIT];
-            System.arraycopy(stackTrace, 0, stackTraceTruncated, 0, FRAME_LIMIT_HALF);
-            System.arraycopy(stackTrace, stackTrace.length - FRAME_LIMIT_HALF, stackTraceTruncated, FRAME_LIMIT_HALF, FRAME_LIMIT_HALF);
+        StackTraceElement[] stackTraceTruncated = truncateStackTrace(stackTrace);
+        if (stackTraceTruncated != stackTrace) {
             throwable.setStackTrace(stackTraceTruncated);
-            AppCenterLog.warn(Crashes.LOG_TAG, "Crash frames truncated from " + stackTrace.length + " to " + stackTraceTruncated.length + " frames.");
-            stackTrace = stackTraceTruncated;
         }
-        return getModelFramesFromStackTrace(stackTrace);
+        return getModelFramesFromStackTrace(stackTraceTruncated);
+    }
+
+    @NonNull
+    private static StackTraceElement[] truncateStackTrace(@NonNull StackTraceElement[] stackTrace) {
+        if (stackTrace.length <= FRAME_LIMIT) {
+            return stackTrace;
+        }
+        StackTraceElement[] stackTraceTruncated = new StackTraceElement[FRAME_LIMIT];
+        System.arraycopy(stackTrace, 0, stackTraceTruncated, 0, FRAME_LIMIT_HALF);
+        System.arraycopy(stackTrace, stackTrace.length - FRAME_LIMIT_HALF, stackTraceTruncated, FRAME_LIMIT_HALF, FRAME_LIMIT_HALF);
+        AppCenterLog.warn(Crashes.LOG_TAG, "Crash frames truncated from " + stackTrace.length + " to " + stackTraceTruncated.length + " frames.");
+        return stackTraceTruncated;
     }
 
     @NonNull
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.crashes.Crashes;
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HashUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Limits how many errors with the same fingerprint are sent, counting the others for the next sent report.
+ */
+public class ErrorRateLimiter {
+
+    /**
+     * Default maximum number of reports sent per fingerprint in an interval.
+     */
+    public static final int DEFAULT_MAX_REPORTS = 10;
+
+    /**
+     * Default interval in milliseconds.
+     */
+    public static final long DEFAULT_INTERVAL = 24 * 60 * 60 * 1000;
+
+    /**
+     * Default probability of sending a duplicate within the limit.
+     */
+    public static final double DEFAULT_SAMPLE_RATE = 1.0;
+
+    /**
+     * Number of top frames included in a fingerprint.
+     */
+    @VisibleForTesting
+    static final int FINGERPRINT_FRAME_COUNT = 5;
+
+    /**
+     * Maximum number of fingerprints tracked.
+     */
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 100;
+
+    /**
+     * Minimum interval in milliseconds between writes of the state file by {@link #saveThrottled()}.
+     */
+    @VisibleForTesting
+    static final long SAVE_INTERVAL = 10 * 1000;
+
+    /**
+     * State file format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * State file, null to keep state in memory only.
+     */
+    private final File mFile;
+
+    /**
+     * State by fingerprint, least recently used first.
+     */
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Random used for sampling.
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Maximum number of reports sent per fingerprint in an interval.
+     */
+    private int mMaxReports = DEFAULT_MAX_REPORTS;
+
+    /**
+     * Interval in milliseconds.
+     */
+    private long mInterval = DEFAULT_INTERVAL;
+
+    /**
+     * Probability of sending a duplicate within the limit.
+     */
+    private double mSampleRate = DEFAULT_SAMPLE_RATE;
+
+    /**
+     * Whether the state file was read.
+     */
+    private boolean mLoaded;
+
+    /**
+     * Whether state changed since the state file was last written.
+     */
+    private boolean mDirty;
+
+    /**
+     * Time the state file was last written.
+     */
+    private long mLastSaveTime;
+
+    /**
+     * Init.
+     *
+     * @param file state file, null to keep state in memory only.
+     */
+    public ErrorRateLimiter(@Nullable File file) {
+        mFile = file;
+    }
+
+    /**
+     * Get the fingerprint of an error, built from the exception type and its top frames.
+     *
+     * @param exception exception model.
+     * @return fingerprint or null if the exception has no frames to tell errors apart.
+     */
+    @Nullable
+    public static String getFingerprint(@Nullable Exception exception) {
+        if (exception == null) {
+            return null;
+        }
+        List<StackFrame> frames = exception.getFrames();
+        if (frames == null || frames.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(String.valueOf(exception.getType()));
+        for (int i = 0; i < Math.min(frames.size(), FINGERPRINT_FRAME_COUNT); i++) {
+            StackFrame frame = frames.get(i);
+            builder.append('\n').append(frame.getClassName()).append('.').append(frame.getMethodName())
+                    .append('(').append(frame.getFileName()).append(':').append(frame.getLineNumber()).append(')');
+        }
+        return HashUtils.sha256(builder.toString());
+    }
+
+    /**
+     * Set limits.
+     *
+     * @param maxReports maximum number of reports sent per fingerprint in an interval.
+     * @param interval   interval in milliseconds.
+     * @param sampleRate probability of sending a duplicate within the limit, the first error of an interval is always sent.
+     */
+    public synchronized void setLimits(int maxReports, long interval, double sampleRate) {
+        mMaxReports = maxReports;
+        mInterval = interval;
+        mSampleRate = sampleRate;
+    }
+
+    /**
+     * Check whether an error should be sent, counting it as suppressed otherwise.
+     *
+     * @param fingerprint error fingerprint.
+     * @return true to send the error, false to drop it.
+     */
+    public synchronized boolean shouldSend(@NonNull String fingerprint) {
+        load();
+        long now = System.currentTimeMillis();
+        Entry entry = mEntries.get(fingerprint);
+        if (entry == null) {
+            if (mEntries.size() >= MAX_ENTRIES) {
+                evictEntry();
+            }
+            entry = new Entry();
+            mEntries.put(fingerprint, entry);
+        }
+        if (now < entry.mWindowStart || now - entry.mWindowStart >= mInterval) {
+            entry.mWindowStart = now;
+            entry.mCount = 0;
+        }
+        mDirty = true;
+        if (entry.mCount == 0 || (entry.mCount < mMaxReports && mRandom.nextDouble() < mSampleRate)) {
+            entry.mCount++;
+            return true;
+        }
+        entry.mSuppressed++;
+        return false;
+    }
+
+    /**
+     * Get the number of suppressed errors of a fingerprint, to report it with the next sent error.
+     * It is kept until reported with {@link #removeSuppressedCount}.
+     *
+     * @param fingerprint error fingerprint.
+     * @return number of errors dropped and not reported yet.
+     */
+    public synchronized int getSuppressedCount(@NonNull String fingerprint) {
+        load();
+        Entry entry = mEntries.get(fingerprint);
+        return entry != null ? entry.mSuppressed : 0;
+    }
+
+    /**
+     * Forget suppressed errors of a fingerprint once their count is attached to a sent error.
+     *
+     * @param fingerprint error fingerprint.
+     * @param count       number of suppressed errors reported, as returned by {@link #getSuppressedCount}.
+     */
+    public synchronized void removeSuppressedCount(@NonNull String fingerprint, int count) {
+        load();
+        Entry entry = mEntries.get(fingerprint);
+        if (entry == null || count <= 0) {
+            return;
+        }
+        entry.mSuppressed = Math.max(0, entry.mSuppressed - count);
+        mDirty = true;
+    }
+
+    /**
+     * Forget a fingerprint to make room for a new one, the least recently used without suppressed errors to report if any.
+     */
+    private void evictEntry() {
+        Iterator<Entry> iterator = mEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().mSuppressed == 0) {
+                iterator.remove();
+                return;
+            }
+        }
+        iterator = mEntries.values().iterator();
+        iterator.next();
+        iterator.remove();
+    }
+
+    /**
+     * Write the state file if state changed and it was not written recently, to write once per burst of errors.
+     * Changes not written yet are written by the next call to {@link #save()}.
+     */
+    public synchronized void saveThrottled() {
+        long now = System.currentTimeMillis();
+        if (now < mLastSaveTime || now - mLastSaveTime >= SAVE_INTERVAL) {
+            save();
+        }
+    }
+
+    /**
+     * Write the state file if state changed.
+     */
+    public synchronized void save() {
+        if (!mDirty || mFile == null) {
+            return;
+        }
+
+        /* Forget fingerprints that no longer limit anything. */
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> iterator = mEntries.values().iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (entry.mSuppressed == 0 && now - entry.mWindowStart >= mInterval) {
+                iterator.remove();
+            }
+        }
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try {
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                outputStream.writeInt(VERSION);
+                outputStream.writeInt(mEntries.size());
+                for (Map.Entry<String, Entry> entry : mEntries.entrySet()) {
+                    outputStream.writeUTF(entry.getKey());
+                    outputStream.writeLong(entry.getValue().mWindowStart);
+                    outputStream.writeInt(entry.getValue().mCount);
+                    outputStream.writeInt(entry.getValue().mSuppressed);
+                }
+            } finally {
+                outputStream.close();
+            }
+            if (!tempFile.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + tempFile);
+            }
+            mDirty = false;
+            mLastSaveTime = now;
+        } catch (IOException e) {
+            AppCenterLog.warn(Crashes.LOG_TAG, "Failed to save error rate limits.", e);
+
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Read the state file once, a missing or corrupted file resets limits.
+     */
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (mFile == null) {
+            return;
+        }
+        try {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                if (inputStream.readInt() != VERSION) {
+                    throw new IOException("Unsupported version");
+                }
+                int count = inputStream.readInt();
+                for (int i = 0; i < count; i++) {
+                    String fingerprint = inputStream.readUTF();
+                    Entry entry = new Entry();
+                    entry.mWindowStart = inputStream.readLong();
+                    entry.mCount = inputStream.readInt();
+                    entry.mSuppressed = inputStream.readInt();
+                    mEntries.put(fingerprint, entry);
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (FileNotFoundException ignore) {
+
+            /* Nothing limited yet. */
+        } catch (IOException e) {
+            AppCenterLog.warn(Crashes.LOG_TAG, "Ignoring invalid error rate limits.", e);
+            mEntries.clear();
+            mDirty = true;
+        }
+    }
+
+    /**
+     * State of a fingerprint.
+     */
+    private static class Entry {
+
+        /**
+         * Start time of the current interval.
+         */
+        private long mWindowStart;
+
+        /**
+         * Number of errors sent in the current interval.
+         */
+        private int mCount;
+
+        /**
+         * Number of errors dropped since the last one sent.
+         */
+        private int mSuppressed;
+    }
+}
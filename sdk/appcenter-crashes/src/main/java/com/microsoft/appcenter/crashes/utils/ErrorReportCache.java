@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
+import com.microsoft.appcenter.crashes.ingestion.models.Thread;
+import com.microsoft.appcenter.crashes.model.ErrorReport;
+
+import java.lang.ref.SoftReference;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Least recently used cache of error reports bounded by the number of stack frames they hold.
+ * Reports are softly referenced so that memory pressure can release them, they can be read again from disk.
+ */
+public class ErrorReportCache {
+
+    /**
+     * Default maximum weight, in stack frames.
+     */
+    public static final int DEFAULT_MAX_WEIGHT = 10000;
+
+    /**
+     * Maximum total weight.
+     */
+    private final int mMaxWeight;
+
+    /**
+     * Entries by error log identifier, least recently used first.
+     */
+    private final Map<UUID, CacheEntry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Total weight of entries.
+     */
+    private int mWeight;
+
+    /**
+     * Number of lookups that found a report.
+     */
+    private long mHitCount;
+
+    /**
+     * Number of lookups that did not find a report.
+     */
+    private long mMissCount;
+
+    /**
+     * Init.
+     *
+     * @param maxWeight maximum total weight, in stack frames.
+     */
+    public ErrorReportCache(int maxWeight) {
+        mMaxWeight = maxWeight;
+    }
+
+    /**
+     * Get the weight of an error log and its report, based on the number of stack frames.
+     */
+    private static int getWeight(@NonNull ManagedErrorLog log) {
+        int weight = 1 + getWeight(log.getException());
+        List<Thread> threads = log.getThreads();
+        if (threads != null) {
+            for (Thread thread : threads) {
+                weight += thread.getFrames() != null ? thread.getFrames().size() : 0;
+            }
+        }
+
+        /* The throwable holds about as many frames as the exception model. */
+        return weight * 2;
+    }
+
+    private static int getWeight(@Nullable Exception exception) {
+        if (exception == null) {
+            return 0;
+        }
+        int weight = exception.getFrames() != null ? exception.getFrames().size() : 0;
+        if (exception.getInnerExceptions() != null) {
+            for (Exception innerException : exception.getInnerExceptions()) {
+                weight += getWeight(innerException);
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Cache an error report.
+     *
+     * @param log    error log.
+     * @param report error report built from the log.
+     */
+    public synchronized void put(@NonNull ManagedErrorLog log, @NonNull ErrorReport report) {
+        remove(log.getId());
+        int weight = getWeight(log);
+        if (weight > mMaxWeight) {
+            return;
+        }
+        mEntries.put(log.getId(), new CacheEntry(log, report, weight));
+        mWeight += weight;
+        Iterator<CacheEntry> iterator = mEntries.values().iterator();
+        while (mWeight > mMaxWeight && iterator.hasNext()) {
+            mWeight -= iterator.next().mWeight;
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Get a cached error report.
+     *
+     * @param id error log identifier.
+     * @return error log and report or null if not cached or released.
+     */
+    @Nullable
+    public synchronized Entry get(@NonNull UUID id) {
+        CacheEntry cacheEntry = mEntries.get(id);
+        ErrorReport report = cacheEntry != null ? cacheEntry.mReport.get() : null;
+        if (report == null) {
+            remove(id);
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return new Entry(cacheEntry.mLog, report);
+    }
+
+    /**
+     * Remove an error report.
+     *
+     * @param id error log identifier.
+     */
+    public synchronized void remove(@NonNull UUID id) {
+        CacheEntry cacheEntry = mEntries.remove(id);
+        if (cacheEntry != null) {
+            mWeight -= cacheEntry.mWeight;
+        }
+    }
+
+    /**
+     * @return identifiers of cached error reports, including ones released but not yet removed.
+     */
+    @NonNull
+    public synchronized Set<UUID> getIds() {
+        return new HashSet<>(mEntries.keySet());
+    }
+
+    /**
+     * @return total weight of entries.
+     */
+    public synchronized int getWeight() {
+        return mWeight;
+    }
+
+    /**
+     * @return number of lookups that found a report.
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of lookups that did not find a report.
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + mEntries.size() + " weight=" + mWeight + " hits=" + mHitCount + " misses=" + mMissCount;
+    }
+
+    /**
+     * Cached error log and its report.
+     */
+    public static class Entry {
+
+        private final ManagedErrorLog mLog;
+
+        private final ErrorReport mReport;
+
+        private Entry(ManagedErrorLog log, ErrorReport report) {
+            mLog = log;
+            mReport = report;
+        }
+
+        /**
+         * @return error log.
+         */
+        public ManagedErrorLog getLog() {
+            return mLog;
+        }
+
+        /**
+         * @return error report.
+         */
+        public ErrorReport getReport() {
+            return mReport;
+        }
+    }
+
+    /**
+     * Cache entry holding the report softly.
+     */
+    private static class CacheEntry {
+
+        private final ManagedErrorLog mLog;
+
+        private final SoftReference<ErrorReport> mReport;
+
+        private final int mWeight;
+
+        private CacheEntry(ManagedErrorLog log, ErrorReport report, int weight) {
+            mLog = log;
+            mReport = new SoftReference<>(report);
+            mWeight = weight;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.crashes.Crashes;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects main thread stalls by posting a ping to the main looper from a background thread.
+ * When the ping is not run within the threshold, the stall is recorded with the main thread stack and saved,
+ * then its duration is updated until the ping runs.
+ * Stalls blocked at the same place are aggregated and reported at most once per report interval.
+ * Stalls saved but not reported, like when the process is killed while the main thread is blocked, are reported on next start.
+ * Without stalls, the only cost is one posted runnable per threshold while not paused.
+ * It is meant to be paused while the application is in background.
+ */
+public class MainThreadWatchdog implements Runnable {
+
+    /**
+     * Default interval in milliseconds between reports of aggregated stalls.
+     */
+    public static final long DEFAULT_REPORT_INTERVAL = 60 * 1000;
+
+    /**
+     * Number of top frames telling similar stalls apart.
+     */
+    @VisibleForTesting
+    static final int STALL_KEY_FRAME_COUNT = 5;
+
+    /**
+     * Maximum number of distinct stalls aggregated between reports.
+     */
+    @VisibleForTesting
+    static final int MAX_STALLS = 20;
+
+    /**
+     * Minimum interval in milliseconds between saves of a stall while the main thread is still blocked.
+     */
+    @VisibleForTesting
+    static final long SAVE_INTERVAL = 1000;
+
+    /**
+     * Number of checks of the ping per threshold while the main thread is blocked.
+     */
+    private static final int CHECKS_PER_THRESHOLD = 4;
+
+    /**
+     * Stalls file format version.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Thread name.
+     */
+    private static final String THREAD_NAME = "AppCenter.MainThreadWatchdog";
+
+    /**
+     * Main looper handler.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Duration in milliseconds after which a blocked main thread is a stall.
+     */
+    private final long mThreshold;
+
+    /**
+     * Interval in milliseconds between reports.
+     */
+    private final long mReportInterval;
+
+    /**
+     * File keeping stalls not reported yet, null to keep them in memory only.
+     */
+    private final File mFile;
+
+    /**
+     * Listener called with aggregated stalls on the watchdog thread.
+     */
+    private final Listener mListener;
+
+    /**
+     * Stalls not reported yet by key.
+     */
+    private final Map<String, Stall> mStalls = new LinkedHashMap<>();
+
+    /**
+     * Ping run by the main thread.
+     */
+    private final Runnable mPing = new Runnable() {
+
+        @Override
+        public void run() {
+            mPingRunTime = SystemClock.uptimeMillis();
+        }
+    };
+
+    /**
+     * Time the last ping ran on the main thread, 0 while pending.
+     */
+    private volatile long mPingRunTime;
+
+    /**
+     * Time of the last report.
+     */
+    private long mLastReportTime;
+
+    /**
+     * Watchdog thread, null if not running.
+     */
+    private Thread mThread;
+
+    /**
+     * True while watching is paused, guarded by this.
+     */
+    private boolean mPaused;
+
+    /**
+     * Init.
+     *
+     * @param handler        main looper handler.
+     * @param threshold      duration in milliseconds after which a blocked main thread is a stall.
+     * @param reportInterval interval in milliseconds between reports of aggregated stalls.
+     * @param file           file keeping stalls not reported yet, null to keep them in memory only.
+     * @param listener       listener called with aggregated stalls on the watchdog thread.
+     */
+    public MainThreadWatchdog(@NonNull Handler handler, long threshold, long reportInterval, @Nullable File file, @NonNull Listener listener) {
+        mHandler = handler;
+        mThreshold = threshold;
+        mReportInterval = reportInterval;
+        mFile = file;
+        mListener = listener;
+    }
+
+    /**
+     * Get the key of similar stalls, built from the top frames of the main thread.
+     */
+    @NonNull
+    private static String getStallKey(@NonNull StackTraceElement[] stackTrace) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < Math.min(stackTrace.length, STALL_KEY_FRAME_COUNT); i++) {
+            builder.append(stackTrace[i]).append('\n');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Start watching the main thread.
+     */
+    public synchronized void start() {
+        if (mThread == null) {
+            mThread = new Thread(this, THREAD_NAME);
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Stop watching the main thread, stalls not reported yet are reported on next start if saved.
+     */
+    public synchronized void stop() {
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    /**
+     * Pause watching the main thread, the watchdog thread waits without posting pings until resumed.
+     */
+    public synchronized void pause() {
+        mPaused = true;
+    }
+
+    /**
+     * Resume watching the main thread after {@link #pause()}.
+     */
+    public synchronized void resume() {
+        mPaused = false;
+        notifyAll();
+    }
+
+    /**
+     * Wait until resumed if paused.
+     */
+    private synchronized void waitWhilePaused() throws InterruptedException {
+        while (mPaused) {
+            wait();
+        }
+    }
+
+    @Override
+    public void run() {
+        mLastReportTime = SystemClock.uptimeMillis();
+        reportSavedStalls();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                waitWhilePaused();
+                watch();
+            }
+        } catch (InterruptedException ignore) {
+
+            /* Stopped. */
+        }
+    }
+
+    /**
+     * Post a ping and wait for it, recording a stall if it is not run within the threshold.
+     */
+    @VisibleForTesting
+    void watch() throws InterruptedException {
+        mPingRunTime = 0;
+        long postTime = SystemClock.uptimeMillis();
+        if (!mHandler.post(mPing)) {
+
+            /* Looper is quitting. */
+            throw new InterruptedException();
+        }
+        Thread.sleep(mThreshold);
+        if (mPingRunTime == 0) {
+            trackStall(postTime);
+        }
+        if (!mStalls.isEmpty() && SystemClock.uptimeMillis() - mLastReportTime >= mReportInterval) {
+            report();
+        }
+    }
+
+    /**
+     * Record a stall at the current main thread stack and save it right away, in case the process is killed
+     * while the main thread is blocked, then update its duration until the ping runs.
+     */
+    private void trackStall(long postTime) throws InterruptedException {
+        StackTraceElement[] stackTrace = mHandler.getLooper().getThread().getStackTrace();
+        String stallKey = getStallKey(stackTrace);
+        Stall stall = mStalls.get(stallKey);
+        if (stall == null && mStalls.size() < MAX_STALLS) {
+            stall = new Stall(stackTrace);
+            mStalls.put(stallKey, stall);
+        }
+        long now = SystemClock.uptimeMillis();
+        long lastSaveTime = now;
+        if (stall != null) {
+            stall.add(now - postTime);
+            save();
+        }
+        while (mPingRunTime == 0) {
+            Thread.sleep(Math.max(1, mThreshold / CHECKS_PER_THRESHOLD));
+            now = SystemClock.uptimeMillis();
+            if (stall != null && mPingRunTime == 0) {
+                stall.update(now - postTime);
+                if (now - lastSaveTime >= SAVE_INTERVAL) {
+                    lastSaveTime = now;
+                    save();
+                }
+            }
+        }
+        long duration = mPingRunTime - postTime;
+        AppCenterLog.debug(Crashes.LOG_TAG, "Main thread was blocked for " + duration + "ms.");
+        if (stall != null) {
+            stall.update(duration);
+            save();
+        }
+    }
+
+    /**
+     * Report aggregated stalls.
+     */
+    private void report() {
+        List<Stall> stalls = new ArrayList<>(mStalls.values());
+        mStalls.clear();
+        mLastReportTime = SystemClock.uptimeMillis();
+        for (Stall stall : stalls) {
+            mListener.onStall(stall);
+        }
+        save();
+    }
+
+    /**
+     * Report stalls saved but not reported by a previous watchdog, then delete the file.
+     */
+    @VisibleForTesting
+    void reportSavedStalls() {
+        if (mFile == null) {
+            return;
+        }
+        List<Stall> stalls = new ArrayList<>();
+        try {
+            DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                if (inputStream.readInt() != VERSION) {
+                    throw new IOException("Unsupported version");
+                }
+                int count = inputStream.readInt();
+                for (int i = 0; i < count; i++) {
+                    StackTraceElement[] stackTrace = new StackTraceElement[inputStream.readInt()];
+                    for (int j = 0; j < stackTrace.length; j++) {
+                        String className = inputStream.readUTF();
+                        String methodName = inputStream.readUTF();
+                        String fileName = inputStream.readBoolean() ? inputStream.readUTF() : null;
+                        stackTrace[j] = new StackTraceElement(className, methodName, fileName, inputStream.readInt());
+                    }
+                    Stall stall = new Stall(stackTrace);
+                    stall.mCount = inputStream.readInt();
+                    stall.mTotalDuration = inputStream.readLong();
+                    stall.mMaxDuration = inputStream.readLong();
+                    stalls.add(stall);
+                }
+            } finally {
+                inputStream.close();
+            }
+        } catch (FileNotFoundException ignore) {
+
+            /* Nothing saved. */
+        } catch (IOException e) {
+            AppCenterLog.warn(Crashes.LOG_TAG, "Ignoring invalid main thread stalls file.", e);
+            stalls.clear();
+        }
+        for (Stall stall : stalls) {
+            mListener.onStall(stall);
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        mFile.delete();
+    }
+
+    /**
+     * Write stalls not reported yet, deleting the file if there are none.
+     */
+    private void save() {
+        if (mFile == null) {
+            return;
+        }
+        if (mStalls.isEmpty()) {
+
+            //noinspection ResultOfMethodCallIgnored
+            mFile.delete();
+            return;
+        }
+        File tempFile = new File(mFile.getPath() + ".tmp");
+        try {
+            DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                outputStream.writeInt(VERSION);
+                outputStream.writeInt(mStalls.size());
+                for (Stall stall : mStalls.values()) {
+                    outputStream.writeInt(stall.mStackTrace.length);
+                    for (StackTraceElement frame : stall.mStackTrace) {
+                        outputStream.writeUTF(frame.getClassName());
+                        outputStream.writeUTF(frame.getMethodName());
+                        outputStream.writeBoolean(frame.getFileName() != null);
+                        if (frame.getFileName() != null) {
+                            outputStream.writeUTF(frame.getFileName());
+                        }
+                        outputStream.writeInt(frame.getLineNumber());
+                    }
+                    outputStream.writeInt(stall.mCount);
+                    outputStream.writeLong(stall.mTotalDuration);
+                    outputStream.writeLong(stall.mMaxDuration);
+                }
+            } finally {
+                outputStream.close();
+            }
+            if (!tempFile.renameTo(mFile)) {
+                throw new IOException("Failed to rename " + tempFile);
+            }
+        } catch (IOException e) {
+            AppCenterLog.warn(Crashes.LOG_TAG, "Failed to save main thread stalls.", e);
+
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Listener of main thread stalls.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the watchdog thread with stalls blocked at the same place since the last report.
+         *
+         * @param stall aggregated stalls.
+         */
+        void onStall(@NonNull Stall stall);
+    }
+
+    /**
+     * Stalls blocked at the same place.
+     */
+    public static class Stall {
+
+        /**
+         * Main thread stack when the first stall passed the threshold.
+         */
+        private final StackTraceElement[] mStackTrace;
+
+        /**
+         * Number of stalls.
+         */
+        private int mCount;
+
+        /**
+         * Total duration in milliseconds.
+         */
+        private long mTotalDuration;
+
+        /**
+         * Longest duration in milliseconds.
+         */
+        private long mMaxDuration;
+
+        /**
+         * Duration in milliseconds of the last stall, updated while it lasts.
+         */
+        private long mLastDuration;
+
+        private Stall(StackTraceElement[] stackTrace) {
+            mStackTrace = stackTrace;
+        }
+
+        private void add(long duration) {
+            mCount++;
+            mLastDuration = 0;
+            update(duration);
+        }
+
+        private void update(long duration) {
+            mTotalDuration += duration - mLastDuration;
+            mLastDuration = duration;
+            mMaxDuration = Math.max(mMaxDuration, duration);
+        }
+
+        /**
+         * @return main thread stack when the first stall passed the threshold.
+         */
+        @NonNull
+        public StackTraceElement[] getStackTrace() {
+            return mStackTrace;
+        }
+
+        /**
+         * @return number of stalls.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return total duration in milliseconds.
+         */
+        public long getTotalDuration() {
+            return mTotalDuration;
+        }
+
+        /**
+         * @return longest duration in milliseconds.
+         */
+        public long getMaxDuration() {
+            return mMaxDuration;
+        }
+    }
+}
@@ -5,7 +5,9 @@
 
 package com.microsoft.appcenter.crashes;
 
+import android.app.Activity;
 import android.content.Context;
+import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
 
@@ -24,7 +26,9 @@ import com.microsoft.appcenter.crashes.ingestion.models.json.ManagedErrorLogFact
 import com.microsoft.appcenter.crashes.model.ErrorReport;
 import com.microsoft.appcenter.crashes.model.NativeException;
 import com.microsoft.appcenter.crashes.model.TestCrashException;
+import com.microsoft.appcenter.crashes.utils.CrashRecorder;
 import com.microsoft.appcenter.crashes.utils.ErrorLogHelper;
+import com.microsoft.appcenter.crashes.utils.MainThreadWatchdog;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
@@ -61,8 +65,10 @@ import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.powermock.reflect.Whitebox;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -74,6 +80,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static com.microsoft.appcenter.Flags.DEFAULTS;
 import static com.microsoft.appcenter.Flags.PERSISTENCE_CRITICAL;
@@ -81,8 +89,10 @@ import static com.microsoft.appcenter.test.TestUtils.generateString;
 import static java.util.Collections.singletonList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
@@ -99,19 +109,22 @@ import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doAnswer;
+import static org.powermock.api.mockito.PowerMockito.doReturn;
 import static org.powermock.api.mockito.PowerMockito.doThrow;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 import static org.powermock.api.mockito.PowerMockito.verifyNoMoreInteractions;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @SuppressWarnings("unused")
-@PrepareForTest({ErrorLogHelper.class, SystemClock.class, FileManager.class, SharedPreferencesManager.class, AppCenterLog.class, AppCenter.class, Crashes.class, HandlerUtils.class, Looper.class})
+@PrepareForTest({ErrorLogHelper.class, CrashRecorder.class, SystemClock.class, FileManager.class, SharedPreferencesManager.class, AppCenterLog.class, AppCenter.class, Crashes.class, HandlerUtils.class, Looper.class})
 public class CrashesTest {
 
     @SuppressWarnings("ThrowableInstanceNeverThrown")
@@ -923,6 +936,29 @@ public class CrashesTest {
         assertNull(report);
     }
 
+    @Test
+    public void buildErrorReportAfterEviction() throws IOException, ClassNotFoundException {
+        mockStatic(ErrorLogHelper.class);
+        File throwableFile = mock(File.class);
+        when(throwableFile.length()).thenReturn(1L);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(throwableFile);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION)).thenReturn(new ErrorReport());
+        when(FileManager.readObject(any(File.class))).thenReturn(EXCEPTION);
+        Crashes crashes = Crashes.getInstance();
+        assertNotNull(crashes.buildErrorReport(mErrorLog));
+        assertNotNull(crashes.buildErrorReport(mErrorLog));
+        verifyStatic();
+        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        assertEquals(1, crashes.getErrorReportCache().getHitCount());
+
+        /* Evicted report is read again from disk. */
+        crashes.getErrorReportCache().remove(mErrorLog.getId());
+        assertNotNull(crashes.buildErrorReport(mErrorLog));
+        verifyStatic(times(2));
+        ErrorLogHelper.getErrorReportFromErrorLog(mErrorLog, EXCEPTION);
+        assertEquals(2, crashes.getErrorReportCache().getMissCount());
+    }
+
     @Test
     public void buildErrorReportError() throws IOException, ClassNotFoundException {
         mockStatic(ErrorLogHelper.class);
@@ -1229,6 +1265,214 @@ public class CrashesTest {
         AppCenterLog.warn(Crashes.LOG_TAG, expectedMessage);
     }
 
+    @Test
+    public void sendFileAttachment() throws Exception {
+
+        /* Large attachment file. */
+        File attachmentFile = errorStorageDirectory.newFile("log.txt");
+        RandomAccessFile randomAccessFile = new RandomAccessFile(attachmentFile, "rw");
+        randomAccessFile.setLength(4 * 1024 * 1024);
+        randomAccessFile.close();
+        ErrorAttachmentLog attachment = ErrorAttachmentLog.attachmentWithFile(attachmentFile, "log.txt", ErrorAttachmentLog.CONTENT_TYPE_TEXT_PLAIN);
+        CrashesListener listener = mock(CrashesListener.class);
+        when(listener.shouldProcess(any(ErrorReport.class))).thenReturn(true);
+        when(listener.getErrorAttachments(any(ErrorReport.class))).thenReturn(Collections.singletonList(attachment));
+        ManagedErrorLog log = mock(ManagedErrorLog.class);
+        when(log.getId()).thenReturn(UUID.randomUUID());
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(log);
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class)});
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(new ErrorReport());
+        when(FileManager.read(any(File.class))).thenReturn("");
+
+        /* Start and send crash. */
+        Channel channel = mock(Channel.class);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setInstanceListener(listener);
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), channel, "", null, true);
+
+        /* Attachment is enqueued once without reading the file. */
+        ArgumentCaptor<ErrorAttachmentLog> captor = ArgumentCaptor.forClass(ErrorAttachmentLog.class);
+        verify(channel).enqueue(captor.capture(), eq(crashes.getGroupName()), eq(DEFAULTS));
+        ErrorAttachmentLog sentAttachment = captor.getValue();
+        assertEquals("log.txt", sentAttachment.getFileName());
+        assertEquals(log.getId(), sentAttachment.getErrorId());
+        assertEquals(4 * 1024 * 1024, sentAttachment.getDataLength());
+        assertNull(sentAttachment.getData());
+
+        /* Data is loaded by the channel only when really sending, not in callbacks. */
+        crashes.getChannelListener().onBeforeSending(sentAttachment);
+        assertNull(sentAttachment.getData());
+    }
+
+
+    @Test
+    public void dropDuplicateCrashes() throws Exception {
+        StackFrame frame = new StackFrame();
+        frame.setClassName("com.contoso.Foo");
+        frame.setMethodName("bar");
+        com.microsoft.appcenter.crashes.ingestion.models.Exception exception = new com.microsoft.appcenter.crashes.ingestion.models.Exception();
+        exception.setType("java.lang.IllegalStateException");
+        exception.setFrames(singletonList(frame));
+        final Map<String, ManagedErrorLog> logs = new HashMap<>();
+        for (String content : new String[]{"1", "2", "3"}) {
+            ManagedErrorLog log = mock(ManagedErrorLog.class);
+            when(log.getId()).thenReturn(UUID.randomUUID());
+            when(log.getException()).thenReturn(exception);
+            logs.put(content, log);
+        }
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) {
+                return logs.get(invocation.getArguments()[0]);
+            }
+        });
+        File file1 = mock(File.class);
+        File file2 = mock(File.class);
+        File file3 = mock(File.class);
+        when(FileManager.read(file1)).thenReturn("1");
+        when(FileManager.read(file2)).thenReturn("2");
+        when(FileManager.read(file3)).thenReturn("3");
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{file1, file2});
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(new ErrorReport());
+        when(ErrorLogHelper.getErrorRateLimitsFile()).thenReturn(new File(errorStorageDirectory.getRoot(), "limits"));
+
+        /* Crash loop: only the first crash is sent. */
+        Crashes.setDuplicateErrorLimits(1, 60000, 1);
+        Channel channel = mock(Channel.class);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), channel, "", null, true);
+        ArgumentCaptor<Log> captor = ArgumentCaptor.forClass(Log.class);
+        verify(channel).enqueue(captor.capture(), eq(crashes.getGroupName()), anyInt());
+        assertTrue(captor.getValue() instanceof ManagedErrorLog);
+        verifyStatic();
+        ErrorLogHelper.removeStoredThrowableFile(any(UUID.class));
+
+        /* Next launch sends the count of dropped crashes with the next crash. */
+        Crashes.unsetInstance();
+        Crashes.setDuplicateErrorLimits(2, 60000, 1);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{file3});
+        channel = mock(Channel.class);
+        crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), channel, "", null, true);
+        captor = ArgumentCaptor.forClass(Log.class);
+        verify(channel, times(2)).enqueue(captor.capture(), eq(crashes.getGroupName()), anyInt());
+        assertEquals(logs.get("3"), captor.getAllValues().get(0));
+        ErrorAttachmentLog attachment = (ErrorAttachmentLog) captor.getAllValues().get(1);
+        assertEquals(Crashes.SUPPRESSED_DUPLICATES_ATTACHMENT, attachment.getFileName());
+        assertEquals("1", new String(attachment.getData(), "UTF-8"));
+        assertEquals(logs.get("3").getId(), attachment.getErrorId());
+
+        /* Drop 2 more crashes. */
+        Crashes.unsetInstance();
+        Crashes.setDuplicateErrorLimits(1, 60000, 1);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{file1, file2});
+        channel = mock(Channel.class);
+        crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), channel, "", null, true);
+        verify(channel, never()).enqueue(any(Log.class), anyString(), anyInt());
+
+        /* The count is not sent when the application attachments use all the slots. */
+        Crashes.unsetInstance();
+        Crashes.setDuplicateErrorLimits(3, 60000, 1);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{file3});
+        CrashesListener listener = mock(CrashesListener.class);
+        when(listener.shouldProcess(any(ErrorReport.class))).thenReturn(true);
+        when(listener.getErrorAttachments(any(ErrorReport.class))).thenReturn(Arrays.asList(
+                ErrorAttachmentLog.attachmentWithText("a", "a.txt"), ErrorAttachmentLog.attachmentWithText("b", "b.txt")));
+        channel = mock(Channel.class);
+        crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.setInstanceListener(listener);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), channel, "", null, true);
+        captor = ArgumentCaptor.forClass(Log.class);
+        verify(channel, times(3)).enqueue(captor.capture(), eq(crashes.getGroupName()), anyInt());
+        for (Log log : captor.getAllValues().subList(1, 3)) {
+            assertNotEquals(Crashes.SUPPRESSED_DUPLICATES_ATTACHMENT, ((ErrorAttachmentLog) log).getFileName());
+        }
+
+        /* The count is kept for the next crash with a spare slot. */
+        Crashes.unsetInstance();
+        Crashes.setDuplicateErrorLimits(10, 60000, 1);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{file3});
+        channel = mock(Channel.class);
+        crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), channel, "", null, true);
+        captor = ArgumentCaptor.forClass(Log.class);
+        verify(channel, times(2)).enqueue(captor.capture(), eq(crashes.getGroupName()), anyInt());
+        attachment = (ErrorAttachmentLog) captor.getAllValues().get(1);
+        assertEquals(Crashes.SUPPRESSED_DUPLICATES_ATTACHMENT, attachment.getFileName());
+        assertEquals("2", new String(attachment.getData(), "UTF-8"));
+    }
+
+    @Test
+    public void dropDuplicateHandledErrors() {
+        StackFrame frame = new StackFrame();
+        frame.setClassName("com.contoso.Foo");
+        frame.setMethodName("bar");
+        com.microsoft.appcenter.crashes.ingestion.models.Exception exception = new com.microsoft.appcenter.crashes.ingestion.models.Exception();
+        exception.setType("java.lang.IllegalStateException");
+        exception.setFrames(singletonList(frame));
+        Crashes.setDuplicateErrorLimits(-1, 60000, 1);
+        Crashes.setDuplicateErrorLimits(1, 0, 1);
+        Crashes.setDuplicateErrorLimits(1, 60000, 2);
+        verifyStatic(times(3));
+        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString());
+        Crashes crashes = Crashes.getInstance();
+        Channel channel = mock(Channel.class);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), channel, "", null, true);
+        mockStatic(ErrorLogHelper.class);
+
+        /* Identical errors are not limited by default. */
+        for (int i = 0; i < 2; i++) {
+            WrapperSdkExceptionManager.trackException(exception);
+        }
+        verify(channel, times(2)).enqueue(any(HandledErrorLog.class), eq(crashes.getGroupName()), eq(DEFAULTS));
+        Crashes.setDuplicateErrorLimits(1, 60000, 1);
+        for (int i = 0; i < 3; i++) {
+            WrapperSdkExceptionManager.trackException(exception);
+        }
+        verify(channel, times(3)).enqueue(any(HandledErrorLog.class), eq(crashes.getGroupName()), eq(DEFAULTS));
+
+        /* Exceptions without frames are not limited. */
+        WrapperSdkExceptionManager.trackException(new com.microsoft.appcenter.crashes.ingestion.models.Exception());
+        verify(channel, times(4)).enqueue(any(HandledErrorLog.class), eq(crashes.getGroupName()), eq(DEFAULTS));
+
+        /* Next error sent tells how many were dropped. */
+        Crashes.setDuplicateErrorLimits(2, 60000, 1);
+        WrapperSdkExceptionManager.trackException(exception);
+        ArgumentCaptor<HandledErrorLog> captor = ArgumentCaptor.forClass(HandledErrorLog.class);
+        verify(channel, times(5)).enqueue(captor.capture(), eq(crashes.getGroupName()), eq(DEFAULTS));
+        assertEquals("2", captor.getValue().getProperties().get(Crashes.SUPPRESSED_DUPLICATES_PROPERTY));
+
+        /* Limits can be removed. */
+        Crashes.setDuplicateErrorLimits(0, 60000, 1);
+        for (int i = 0; i < 3; i++) {
+            WrapperSdkExceptionManager.trackException(exception);
+        }
+        verify(channel, times(8)).enqueue(any(HandledErrorLog.class), eq(crashes.getGroupName()), eq(DEFAULTS));
+    }
+
     @Test
     public void manualProcessing() throws Exception {
 
@@ -1239,22 +1483,25 @@ public class CrashesTest {
         report1.setId(UUIDUtils.randomUUID().toString());
         ErrorReport report2 = new ErrorReport();
         mockStatic(ErrorLogHelper.class);
-        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class), mock(File.class)});
+
+        /* Reports are loaded in parallel, so map each file to its report. */
+        File file1 = mock(File.class);
+        File file2 = mock(File.class);
+        ManagedErrorLog log1 = mock(ManagedErrorLog.class);
+        ManagedErrorLog log2 = mock(ManagedErrorLog.class);
+        when(log1.getId()).thenReturn(UUID.randomUUID());
+        when(log2.getId()).thenReturn(UUID.randomUUID());
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{file1, file2});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report1).thenReturn(report2);
-        when(FileManager.read(any(File.class))).thenReturn("");
+        when(ErrorLogHelper.getErrorReportFromErrorLog(eq(log1), any(Throwable.class))).thenReturn(report1);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(eq(log2), any(Throwable.class))).thenReturn(report2);
+        when(FileManager.read(file1)).thenReturn("1");
+        when(FileManager.read(file2)).thenReturn("2");
         when(FileManager.readObject(any(File.class))).thenReturn(new RuntimeException());
         LogSerializer logSerializer = mock(LogSerializer.class);
-        when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<ManagedErrorLog>() {
-
-            @Override
-            public ManagedErrorLog answer(InvocationOnMock invocation) {
-                ManagedErrorLog log = mock(ManagedErrorLog.class);
-                when(log.getId()).thenReturn(UUID.randomUUID());
-                return log;
-            }
-        });
+        when(logSerializer.deserializeLog(eq("1"), anyString())).thenReturn(log1);
+        when(logSerializer.deserializeLog(eq("2"), anyString())).thenReturn(log2);
         Crashes crashes = Crashes.getInstance();
         crashes.setLogSerializer(logSerializer);
 
@@ -1323,7 +1570,6 @@ public class CrashesTest {
         /* Reset instance to test another tine with always send. */
         Crashes.unsetInstance();
         crashes = Crashes.getInstance();
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report1).thenReturn(report2);
         WrapperSdkExceptionManager.setAutomaticProcessing(false);
         crashes.setLogSerializer(logSerializer);
         crashes.onStarting(mAppCenterHandler);
@@ -1347,22 +1593,25 @@ public class CrashesTest {
         report1.setId(UUIDUtils.randomUUID().toString());
         ErrorReport report2 = new ErrorReport();
         mockStatic(ErrorLogHelper.class);
-        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{mock(File.class), mock(File.class)});
+
+        /* Reports are loaded in parallel, so map each file to its report. */
+        File file1 = mock(File.class);
+        File file2 = mock(File.class);
+        ManagedErrorLog log1 = mock(ManagedErrorLog.class);
+        ManagedErrorLog log2 = mock(ManagedErrorLog.class);
+        when(log1.getId()).thenReturn(UUID.randomUUID());
+        when(log2.getId()).thenReturn(UUID.randomUUID());
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{file1, file2});
         when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[0]);
         when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
-        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(report1).thenReturn(report2);
-        when(FileManager.read(any(File.class))).thenReturn("");
+        when(ErrorLogHelper.getErrorReportFromErrorLog(eq(log1), any(Throwable.class))).thenReturn(report1);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(eq(log2), any(Throwable.class))).thenReturn(report2);
+        when(FileManager.read(file1)).thenReturn("1");
+        when(FileManager.read(file2)).thenReturn("2");
         when(FileManager.readObject(any(File.class))).thenReturn(new RuntimeException());
         LogSerializer logSerializer = mock(LogSerializer.class);
-        when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<ManagedErrorLog>() {
-
-            @Override
-            public ManagedErrorLog answer(InvocationOnMock invocation) {
-                ManagedErrorLog log = mock(ManagedErrorLog.class);
-                when(log.getId()).thenReturn(UUID.randomUUID());
-                return log;
-            }
-        });
+        when(logSerializer.deserializeLog(eq("1"), anyString())).thenReturn(log1);
+        when(logSerializer.deserializeLog(eq("2"), anyString())).thenReturn(log2);
         Crashes crashes = Crashes.getInstance();
         crashes.setLogSerializer(logSerializer);
 
@@ -1391,12 +1640,103 @@ public class CrashesTest {
         verify(mockChannel, never()).enqueue(any(ManagedErrorLog.class), eq(crashes.getGroupName()), anyInt());
     }
 
+    @Test
+    @PrepareForTest(DeviceInfoHelper.class)
+    public void processMinidumpFilesInBackground() throws Exception {
+
+        /* One minidump is renamed, the other one is copied as if on another volume. */
+        File newDirectory = errorStorageDirectory.newFolder("new");
+        File pendingDirectory = errorStorageDirectory.newFolder("pending");
+        File minidumpFile1 = new File(newDirectory, "1.dmp");
+        FileOutputStream outputStream = new FileOutputStream(minidumpFile1);
+        outputStream.write(new byte[]{1});
+        outputStream.close();
+        File copiedFile = new File(newDirectory, "2.dmp");
+        outputStream = new FileOutputStream(copiedFile);
+        outputStream.write(new byte[]{2, 2});
+        outputStream.close();
+        File minidumpFile2 = spy(copiedFile);
+        doReturn(false).when(minidumpFile2).renameTo(any(File.class));
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{minidumpFile1, minidumpFile2});
+        when(ErrorLogHelper.getPendingMinidumpDirectory()).thenReturn(pendingDirectory);
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[0]);
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(mock(File.class));
+        when(ErrorLogHelper.getErrorReportFromErrorLog(any(ManagedErrorLog.class), any(Throwable.class))).thenReturn(new ErrorReport());
+
+        /* Block conversion until released. */
+        final CountDownLatch latch = new CountDownLatch(1);
+        final Thread testThread = Thread.currentThread();
+        mockStatic(DeviceInfoHelper.class);
+        when(DeviceInfoHelper.getDeviceInfo(any(Context.class))).thenAnswer(new Answer<Device>() {
+
+            @Override
+            public Device answer(InvocationOnMock invocation) throws Throwable {
+                if (Thread.currentThread() != testThread) {
+                    latch.await();
+                }
+                return mock(Device.class);
+            }
+        });
+        final List<ManagedErrorLog> errorLogs = new ArrayList<>();
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(any(Log.class))).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                errorLogs.add((ManagedErrorLog) invocation.getArguments()[0]);
+                return String.valueOf(errorLogs.size() - 1);
+            }
+        });
+        when(FileManager.read(any(File.class))).thenReturn("0", "1");
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) {
+                return errorLogs.get(Integer.parseInt(invocation.getArguments()[0].toString()));
+            }
+        });
+        CrashesListener listener = mock(CrashesListener.class);
+        when(listener.shouldProcess(any(ErrorReport.class))).thenReturn(true);
+        when(listener.shouldAwaitUserConfirmation()).thenReturn(true);
+
+        /* Startup does not wait for conversion. */
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.setInstanceListener(listener);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        AppCenterFuture<Boolean> crashedInLastSession = Crashes.hasCrashedInLastSession();
+        AppCenterFuture<Collection<ErrorReport>> unprocessedReports = crashes.getUnprocessedErrorReports();
+        assertFalse(crashedInLastSession.isDone());
+        assertFalse(unprocessedReports.isDone());
+        verify(listener, never()).shouldProcess(any(ErrorReport.class));
+        verify(listener, never()).shouldAwaitUserConfirmation();
+
+        /* Last session and pending reports are processed after conversion, user confirmation is checked once. */
+        latch.countDown();
+        assertFalse(crashedInLastSession.get());
+        assertEquals(2, unprocessedReports.get().size());
+        verify(listener, times(2)).shouldProcess(any(ErrorReport.class));
+        verify(listener).shouldAwaitUserConfirmation();
+        assertEquals(2, errorLogs.size());
+        assertEquals(new File(pendingDirectory, "1.dmp").getPath(), errorLogs.get(0).getException().getStackTrace());
+        assertFalse(minidumpFile1.exists());
+        assertEquals(1, new File(pendingDirectory, "1.dmp").length());
+        assertEquals(2, new File(pendingDirectory, "2.dmp").length());
+        assertFalse(copiedFile.exists());
+        assertEquals("minidump", errorLogs.get(1).getException().getType());
+        assertTrue(errorLogs.get(1).getFatal());
+    }
+
     private ManagedErrorLog testNativeCrashLog(long appStartTime, long crashTime, boolean correlateSession) throws Exception {
 
         /* Setup mock for a crash in disk. */
         File minidumpFile = mock(File.class);
         when(minidumpFile.getName()).thenReturn("mockFile");
         when(minidumpFile.lastModified()).thenReturn(crashTime);
+        when(minidumpFile.renameTo(any(File.class))).thenReturn(true);
         mockStatic(SessionContext.class);
         SessionContext sessionContext = mock(SessionContext.class);
         when(SessionContext.getInstance()).thenReturn(sessionContext);
@@ -1531,4 +1871,247 @@ public class CrashesTest {
         verifyStatic();
         FileManager.write(any(File.class), eq(jsonCrash));
     }
+
+    @Test
+    public void setThreadCaptureLimits() {
+
+        /* Limits set before start are applied to the prepared recorder. */
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
+        mockStatic(CrashRecorder.class);
+        when(CrashRecorder.getRecordFiles(any(File.class))).thenReturn(new File[]{});
+        CrashRecorder crashRecorder = mock(CrashRecorder.class);
+        when(CrashRecorder.prepare(any(Context.class), eq(errorStorageDirectory.getRoot()), anyLong())).thenReturn(crashRecorder);
+        Crashes.setThreadCaptureLimits(10, 20, 30);
+        Crashes crashes = Crashes.getInstance();
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        verify(crashRecorder).setLimits(10, 20, 30);
+
+        /* Limits set after start are applied immediately. */
+        Crashes.setThreadCaptureLimits(1, 2, 3);
+        verify(crashRecorder).setLimits(1, 2, 3);
+
+        /* Invalid limits are ignored. */
+        Crashes.setThreadCaptureLimits(0, 2, 3);
+        Crashes.setThreadCaptureLimits(1, -1, 3);
+        Crashes.setThreadCaptureLimits(1, 2, 0);
+        verify(crashRecorder, times(2)).setLimits(anyInt(), anyInt(), anyInt());
+        verifyStatic(times(3));
+        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString());
+    }
+
+    @Test
+    public void reportMainThreadStalls() throws Exception {
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
+        com.microsoft.appcenter.crashes.ingestion.models.Exception exception = new com.microsoft.appcenter.crashes.ingestion.models.Exception();
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        when(ErrorLogHelper.getModelExceptionFromStackTrace(Crashes.MAIN_THREAD_STALL_TYPE, "Main thread blocked for 3000ms.", stackTrace)).thenReturn(exception);
+        final MainThreadWatchdog watchdog = mock(MainThreadWatchdog.class);
+        final AtomicReference<MainThreadWatchdog.Listener> listener = new AtomicReference<>();
+        whenNew(MainThreadWatchdog.class).withArguments(any(Handler.class), eq(2000L), eq(MainThreadWatchdog.DEFAULT_REPORT_INTERVAL), any(File.class), any(MainThreadWatchdog.Listener.class)).thenAnswer(new Answer<MainThreadWatchdog>() {
+
+            @Override
+            public MainThreadWatchdog answer(InvocationOnMock invocation) {
+                listener.set((MainThreadWatchdog.Listener) invocation.getArguments()[4]);
+                return watchdog;
+            }
+        });
+
+        /* Detection is disabled by default. */
+        Crashes crashes = Crashes.getInstance();
+        Channel channel = mock(Channel.class);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), channel, "", null, true);
+        verifyNew(MainThreadWatchdog.class, never()).withArguments(any(Handler.class), anyLong(), anyLong(), any(File.class), any(MainThreadWatchdog.Listener.class));
+
+        /* Invalid threshold is ignored. */
+        Crashes.setMainThreadStallThreshold(-1);
+        verifyStatic();
+        AppCenterLog.error(eq(Crashes.LOG_TAG), anyString());
+
+        /* Start watching when enabled after start. */
+        Crashes.setMainThreadStallThreshold(2000);
+        verify(watchdog).start();
+
+        /* Aggregated stalls are sent as a handled error with durations. */
+        MainThreadWatchdog.Stall stall = mock(MainThreadWatchdog.Stall.class);
+        when(stall.getStackTrace()).thenReturn(stackTrace);
+        when(stall.getCount()).thenReturn(2);
+        when(stall.getMaxDuration()).thenReturn(3000L);
+        when(stall.getTotalDuration()).thenReturn(5000L);
+        listener.get().onStall(stall);
+        ArgumentCaptor<HandledErrorLog> captor = ArgumentCaptor.forClass(HandledErrorLog.class);
+        verify(channel).enqueue(captor.capture(), eq(crashes.getGroupName()), eq(DEFAULTS));
+        assertSame(exception, captor.getValue().getException());
+        assertEquals("2", captor.getValue().getProperties().get(Crashes.STALL_COUNT_PROPERTY));
+        assertEquals("3000", captor.getValue().getProperties().get(Crashes.STALL_MAX_DURATION_PROPERTY));
+        assertEquals("5000", captor.getValue().getProperties().get(Crashes.STALL_TOTAL_DURATION_PROPERTY));
+
+        /* Paused in background. */
+        verify(watchdog, never()).pause();
+        crashes.onActivityPaused(mock(Activity.class));
+        verify(watchdog).pause();
+        crashes.onActivityResumed(mock(Activity.class));
+        verify(watchdog).resume();
+
+        /* Stop watching when disabled. */
+        Crashes.setEnabled(false);
+        verify(watchdog).stop();
+
+        /* Not started while disabled. */
+        Crashes.setMainThreadStallThreshold(2000);
+        verify(watchdog).start();
+
+        /* Restart paused when enabled again in background, and stop when detection is disabled. */
+        crashes.onActivityPaused(mock(Activity.class));
+        Crashes.setEnabled(true);
+        verify(watchdog, times(2)).start();
+        verify(watchdog, times(2)).pause();
+        Crashes.setMainThreadStallThreshold(0);
+        verify(watchdog, times(2)).stop();
+        verifyNew(MainThreadWatchdog.class, times(2)).withArguments(any(Handler.class), anyLong(), anyLong(), any(File.class), any(MainThreadWatchdog.Listener.class));
+    }
+
+    @Test
+    public void saveCrashRecordWhenPrepared() throws Exception {
+
+        /* Mock error log utils and a prepared crash recorder. */
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
+        mockStatic(CrashRecorder.class);
+        when(CrashRecorder.getRecordFiles(any(File.class))).thenReturn(new File[]{});
+        CrashRecorder crashRecorder = mock(CrashRecorder.class);
+        UUID errorId = UUID.randomUUID();
+        when(crashRecorder.getDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(CrashRecorder.prepare(any(Context.class), eq(errorStorageDirectory.getRoot()), anyLong())).thenReturn(crashRecorder);
+
+        /* Simulate start SDK. */
+        Crashes crashes = Crashes.getInstance();
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+
+        /* Simulate crash. */
+        Throwable throwable = new Throwable();
+        when(crashRecorder.record(Thread.currentThread(), throwable)).thenReturn(errorId);
+        crashes.saveUncaughtException(Thread.currentThread(), throwable);
+
+        /* Verify the record is written without building an error log. */
+        verify(crashRecorder).record(Thread.currentThread(), throwable);
+        verifyStatic();
+        FileManager.writeObject(new File(errorStorageDirectory.getRoot(), errorId + ErrorLogHelper.THROWABLE_FILE_EXTENSION), throwable);
+        verifyStatic(never());
+        ErrorLogHelper.createErrorLog(any(Context.class), any(Thread.class), any(com.microsoft.appcenter.crashes.ingestion.models.Exception.class), anyMapOf(Thread.class, StackTraceElement[].class), anyLong(), anyBoolean());
+
+        /* Only 1 crash is saved. */
+        crashes.saveUncaughtException(Thread.currentThread(), new Throwable());
+        verify(crashRecorder).record(any(Thread.class), any(Throwable.class));
+
+        /* Failing to save the throwable is ignored. */
+        Whitebox.setInternalState(crashes, "mSavedUncaughtException", false);
+        doThrow(new StackOverflowError()).when(FileManager.class);
+        FileManager.writeObject(any(File.class), any(Serializable.class));
+        crashes.saveUncaughtException(Thread.currentThread(), throwable);
+        verify(crashRecorder, times(2)).record(Thread.currentThread(), throwable);
+
+        /* Same for failing to write the record. */
+        Whitebox.setInternalState(crashes, "mSavedUncaughtException", false);
+        when(crashRecorder.record(any(Thread.class), any(Throwable.class))).thenThrow(new IOException());
+        crashes.saveUncaughtException(Thread.currentThread(), throwable);
+        verifyStatic(times(2));
+        AppCenterLog.error(eq(Crashes.LOG_TAG), eq("Error writing crash record"), any(Throwable.class));
+
+        /* Disabling drops the recorder. */
+        Crashes.setEnabled(false);
+        assertNull(Whitebox.getInternalState(crashes, "mCrashRecorder"));
+    }
+
+    @Test
+    public void processCrashRecordsOnStart() throws Exception {
+
+        /* Mock error log utils and records of a previous launch. */
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getErrorStorageDirectory()).thenReturn(errorStorageDirectory.getRoot());
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{});
+        File recordFile = errorStorageDirectory.newFile("1" + CrashRecorder.RECORD_FILE_EXTENSION);
+        File invalidRecordFile = errorStorageDirectory.newFile("2" + CrashRecorder.RECORD_FILE_EXTENSION);
+        mockStatic(CrashRecorder.class);
+        when(CrashRecorder.getRecordFiles(errorStorageDirectory.getRoot())).thenReturn(new File[]{recordFile, invalidRecordFile});
+        when(CrashRecorder.read(recordFile)).thenReturn(mErrorLog);
+        when(CrashRecorder.read(invalidRecordFile)).thenThrow(new IOException());
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLog(mErrorLog)).thenReturn("{}");
+
+        /* Simulate start SDK. */
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+
+        /* Verify error log saved with a placeholder throwable file and records deleted. */
+        verifyStatic();
+        FileManager.write(new File(errorStorageDirectory.getRoot(), mErrorLog.getId() + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION), "{}");
+        assertTrue(new File(errorStorageDirectory.getRoot(), mErrorLog.getId() + ErrorLogHelper.THROWABLE_FILE_EXTENSION).exists());
+        assertFalse(recordFile.exists());
+        assertFalse(invalidRecordFile.exists());
+    }
+
+    @Test
+    public void processPendingErrorsOldestFirst() throws Exception {
+
+        /* Mock 2 stored error logs, listed newest first. */
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getNewMinidumpFiles()).thenReturn(new File[]{});
+        when(ErrorLogHelper.getStoredThrowableFile(any(UUID.class))).thenReturn(errorStorageDirectory.newFile());
+        ManagedErrorLog oldLog = new ManagedErrorLog();
+        oldLog.setId(UUID.randomUUID());
+        oldLog.setTimestamp(new Date(1000));
+        ManagedErrorLog newLog = new ManagedErrorLog();
+        newLog.setId(UUID.randomUUID());
+        newLog.setTimestamp(new Date(2000));
+        File oldLogFile = new File(errorStorageDirectory.getRoot(), oldLog.getId() + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+        File newLogFile = new File(errorStorageDirectory.getRoot(), newLog.getId() + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+        for (File file : new File[]{oldLogFile, newLogFile}) {
+            FileOutputStream outputStream = new FileOutputStream(file);
+            outputStream.write(file == oldLogFile ? 'o' : 'n');
+            outputStream.close();
+        }
+        assertTrue(oldLogFile.setLastModified(1000000));
+        assertTrue(newLogFile.setLastModified(2000000));
+        when(ErrorLogHelper.getStoredErrorLogFiles()).thenReturn(new File[]{newLogFile, oldLogFile});
+        when(ErrorLogHelper.getLastErrorLogFile()).thenReturn(newLogFile);
+        when(FileManager.read(oldLogFile)).thenReturn("o");
+        when(FileManager.read(newLogFile)).thenReturn("n");
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(eq("o"), anyString())).thenReturn(oldLog);
+        when(logSerializer.deserializeLog(eq("n"), anyString())).thenReturn(newLog);
+        ErrorReport oldReport = new ErrorReport();
+        ErrorReport newReport = new ErrorReport();
+        when(ErrorLogHelper.getErrorReportFromErrorLog(eq(oldLog), any(Throwable.class))).thenReturn(oldReport);
+        when(ErrorLogHelper.getErrorReportFromErrorLog(eq(newLog), any(Throwable.class))).thenReturn(newReport);
+        CrashesListener listener = mock(CrashesListener.class);
+        when(listener.shouldProcess(any(ErrorReport.class))).thenReturn(true);
+        when(listener.shouldAwaitUserConfirmation()).thenReturn(true);
+
+        /* Start processes oldest first and does not read again the last session crash. */
+        Crashes.setListener(listener);
+        Crashes crashes = Crashes.getInstance();
+        crashes.setLogSerializer(logSerializer);
+        crashes.onStarting(mAppCenterHandler);
+        crashes.onStarted(mock(Context.class), mock(Channel.class), "", null, true);
+        assertEquals(newReport, Crashes.getLastSessionCrashReport().get());
+        InOrder inOrder = inOrder(listener);
+        inOrder.verify(listener).shouldProcess(oldReport);
+        inOrder.verify(listener).shouldProcess(newReport);
+        verify(logSerializer).deserializeLog("o", null);
+        verify(logSerializer).deserializeLog("n", null);
+    }
 }
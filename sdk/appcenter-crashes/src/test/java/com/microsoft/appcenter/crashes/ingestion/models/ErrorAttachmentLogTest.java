@@ -5,8 +5,13 @@
 
 package com.microsoft.appcenter.crashes.ingestion.models;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.crashes.ingestion.models.ErrorAttachmentLog.CHARSET;
@@ -14,11 +19,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @SuppressWarnings({"unused", "ConstantConditions"})
 public class ErrorAttachmentLogTest {
 
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
     @Test
     public void attachmentWithText() {
         String text = "Hello World!";
@@ -80,4 +90,59 @@ public class ErrorAttachmentLogTest {
             assertTrue(log.isValid());
         }
     }
+
+    @Test
+    public void attachmentWithFile() throws IOException {
+        File file = mTemporaryFolder.newFile("log.txt");
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write("0123456789".getBytes(CHARSET));
+        outputStream.close();
+        ErrorAttachmentLog attachment = ErrorAttachmentLog.attachmentWithFile(file, "log.txt", ErrorAttachmentLog.CONTENT_TYPE_TEXT_PLAIN);
+        assertNull(attachment.getData());
+        assertEquals(file.getAbsolutePath(), attachment.getDataFile());
+        assertEquals(10, attachment.getDataLength());
+        attachment.setId(UUID.randomUUID());
+        attachment.setErrorId(UUID.randomUUID());
+        assertTrue(attachment.isValid());
+
+        /* Data is loaded from the file. */
+        attachment.loadData();
+        assertEquals("0123456789", new String(attachment.getData(), CHARSET));
+
+        /* Loaded data is kept. */
+        byte[] data = attachment.getData();
+        attachment.loadData();
+        assertSame(data, attachment.getData());
+
+        /* Data in memory is kept as is. */
+        ErrorAttachmentLog binaryAttachment = ErrorAttachmentLog.attachmentWithBinary(new byte[10], null, "application/octet-stream");
+        binaryAttachment.loadData();
+        assertEquals(10, binaryAttachment.getData().length);
+
+        /* Only the length recorded when attaching is read. */
+        attachment.setData(null);
+        attachment.setDataLength(2);
+        attachment.loadData();
+        assertEquals("01", new String(attachment.getData(), CHARSET));
+
+        /* Length that does not fit in an array. */
+        attachment.setData(null);
+        attachment.setDataLength(Integer.MAX_VALUE + 1L);
+        try {
+            attachment.loadData();
+            fail();
+        } catch (IOException ignore) {
+        }
+        assertNull(attachment.getData());
+        attachment.setDataLength(10);
+
+        /* Missing file. */
+        attachment.setData(null);
+        assertTrue(file.delete());
+        try {
+            attachment.loadData();
+            fail();
+        } catch (IOException ignore) {
+        }
+    }
 }
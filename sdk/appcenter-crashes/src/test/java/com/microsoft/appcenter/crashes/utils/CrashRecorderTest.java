@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.content.Context;
+import android.os.Looper;
+
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.DeviceInfoHelper;
+import com.microsoft.appcenter.utils.context.UserIdContext;
+import com.microsoft.appcenter.utils.storage.FileManager;
+
+import org.json.JSONStringer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import static com.microsoft.appcenter.test.TestUtils.generateString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+@SuppressWarnings("unused")
+@PrepareForTest({CrashRecorder.class, DeviceInfoHelper.class, ErrorLogHelper.class, AppCenterLog.class, Looper.class})
+public class CrashRecorderTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        mockStatic(AppCenterLog.class);
+    }
+
+    @After
+    public void tearDown() {
+        UserIdContext.unsetInstance();
+    }
+
+    @Test
+    public void recordAndRead() throws java.lang.Exception {
+        UserIdContext.getInstance().setUserId("alice");
+        CrashRecorder crashRecorder = new CrashRecorder(mTemporaryFolder.getRoot(), "my.process", "arm64-v8a", "{}", 1234L);
+        assertEquals(mTemporaryFolder.getRoot(), crashRecorder.getDirectory());
+        Throwable throwable = new IllegalStateException("failed é中", new RuntimeException());
+        UUID errorId = crashRecorder.record(Thread.currentThread(), throwable);
+
+        /* Read record. */
+        File[] recordFiles = CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot());
+        assertEquals(1, recordFiles.length);
+        assertEquals(errorId + CrashRecorder.RECORD_FILE_EXTENSION, recordFiles[0].getName());
+        ManagedErrorLog errorLog = CrashRecorder.read(recordFiles[0]);
+        assertEquals(errorId, errorLog.getId());
+        assertNotNull(errorLog.getTimestamp());
+        assertEquals(1234L, errorLog.getAppLaunchTimestamp().getTime());
+        assertEquals("my.process", errorLog.getProcessName());
+        assertEquals("arm64-v8a", errorLog.getArchitecture());
+        assertEquals("alice", errorLog.getUserId());
+        assertEquals(Thread.currentThread().getId(), errorLog.getErrorThreadId().longValue());
+        assertEquals(Thread.currentThread().getName(), errorLog.getErrorThreadName());
+        assertTrue(errorLog.getFatal());
+
+        /* Check exceptions. */
+        Exception exception = errorLog.getException();
+        assertEquals(IllegalStateException.class.getName(), exception.getType());
+        assertEquals("failed é中", exception.getMessage());
+        assertEquals(throwable.getStackTrace().length, exception.getFrames().size());
+        StackFrame frame = exception.getFrames().get(0);
+        assertEquals(throwable.getStackTrace()[0].getClassName(), frame.getClassName());
+        assertEquals(throwable.getStackTrace()[0].getMethodName(), frame.getMethodName());
+        assertEquals(throwable.getStackTrace()[0].getFileName(), frame.getFileName());
+        assertEquals(Integer.valueOf(throwable.getStackTrace()[0].getLineNumber()), frame.getLineNumber());
+        Exception cause = exception.getInnerExceptions().get(0);
+        assertEquals(RuntimeException.class.getName(), cause.getType());
+        assertNull(cause.getMessage());
+        assertNull(cause.getInnerExceptions());
+
+        /* Check threads. */
+        assertEquals(Thread.getAllStackTraces().size(), errorLog.getThreads().size());
+    }
+
+    @Test
+    public void truncateLikeErrorLogs() throws java.lang.Exception {
+
+        /* Huge stack trace and cause chain. */
+        Throwable throwable = new RuntimeException();
+        for (int i = 0; i < ErrorLogHelper.CAUSE_LIMIT * 2; i++) {
+            throwable = new RuntimeException(Integer.toString(i), throwable);
+        }
+        StackTraceElement[] stackTrace = new StackTraceElement[ErrorLogHelper.FRAME_LIMIT * 2];
+        Arrays.fill(stackTrace, new StackTraceElement("Class", "method", "File.java", 1));
+        throwable.setStackTrace(stackTrace);
+        throwable = new RuntimeException(generateString(CrashRecorder.MAX_MESSAGE_LENGTH + 1, '*'), throwable);
+        CrashRecorder crashRecorder = new CrashRecorder(mTemporaryFolder.getRoot(), "", null, "{}", 0);
+        crashRecorder.record(Thread.currentThread(), throwable);
+        ManagedErrorLog errorLog = CrashRecorder.read(CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0]);
+        assertNull(errorLog.getArchitecture());
+        Exception exception = errorLog.getException();
+        assertEquals(CrashRecorder.MAX_MESSAGE_LENGTH, exception.getMessage().length());
+        exception = exception.getInnerExceptions().get(0);
+        assertEquals(ErrorLogHelper.FRAME_LIMIT, exception.getFrames().size());
+        int causeCount = 2;
+        while (exception.getInnerExceptions() != null) {
+            exception = exception.getInnerExceptions().get(0);
+            causeCount++;
+        }
+        assertEquals(ErrorLogHelper.CAUSE_LIMIT, causeCount);
+    }
+
+    @Test
+    public void keepWhatFitsInBuffer() throws java.lang.Exception {
+
+        /* Frames do not fit in the buffer, class names are distinct so that they are not interned. */
+        Throwable throwable = new RuntimeException();
+        StackTraceElement[] stackTrace = new StackTraceElement[ErrorLogHelper.FRAME_LIMIT];
+        for (int i = 0; i < stackTrace.length; i++) {
+            stackTrace[i] = new StackTraceElement(generateString(CrashRecorder.BUFFER_SIZE / 100, 'c') + i, "method", "File.java", 1);
+        }
+        throwable.setStackTrace(stackTrace);
+        CrashRecorder crashRecorder = new CrashRecorder(mTemporaryFolder.getRoot(), "", "x86", "{}", 0);
+        crashRecorder.record(Thread.currentThread(), throwable);
+        ManagedErrorLog errorLog = CrashRecorder.read(CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0]);
+        int frameCount = errorLog.getException().getFrames().size();
+        assertTrue(frameCount > 0 && frameCount < ErrorLogHelper.FRAME_LIMIT);
+
+        /* Thread states are streamed after the exception. */
+        assertEquals(Thread.currentThread().getId(), errorLog.getThreads().get(0).getId());
+
+        /* Buffer is reused if called again. */
+        throwable = new RuntimeException();
+        crashRecorder.record(Thread.currentThread(), throwable);
+        errorLog = CrashRecorder.read(CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0]);
+        assertEquals(throwable.getStackTrace().length, errorLog.getException().getFrames().size());
+        assertTrue(errorLog.getThreads().size() > 0);
+    }
+
+    @Test
+    public void threadCaptureLimits() throws java.lang.Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        Runnable waiter = new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    latch.await();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        };
+        Thread mainThread = new Thread(waiter, "main");
+        Thread otherThread = new Thread(waiter, "other");
+        mainThread.start();
+        otherThread.start();
+        try {
+            Looper mainLooper = mock(Looper.class);
+            mockStatic(Looper.class);
+            when(Looper.getMainLooper()).thenReturn(mainLooper);
+            when(mainLooper.getThread()).thenReturn(mainThread);
+
+            /* Crashing thread then main thread are kept first. */
+            CrashRecorder crashRecorder = new CrashRecorder(mTemporaryFolder.getRoot(), "", "", "{}", 0);
+            crashRecorder.setLimits(2, 1, CrashRecorder.DEFAULT_MAX_BYTES);
+            crashRecorder.record(Thread.currentThread(), new RuntimeException());
+            ManagedErrorLog errorLog = CrashRecorder.read(CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0]);
+            assertEquals(2, errorLog.getThreads().size());
+            assertEquals(Thread.currentThread().getId(), errorLog.getThreads().get(0).getId());
+            assertEquals(mainThread.getId(), errorLog.getThreads().get(1).getId());
+            assertEquals(1, errorLog.getThreads().get(0).getFrames().size());
+
+            /* Exception is not affected by thread limits. */
+            assertTrue(errorLog.getException().getFrames().size() > 1);
+
+            /* No room for thread states. */
+            crashRecorder.setLimits(2, 1, 1);
+            crashRecorder.record(Thread.currentThread(), new RuntimeException());
+            errorLog = CrashRecorder.read(CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0]);
+            assertTrue(errorLog.getThreads().isEmpty());
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void streamThreadsBeyondBuffer() throws java.lang.Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        latch.await();
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+            }, generateString(CrashRecorder.BUFFER_SIZE / 2, (char) ('a' + i)));
+            thread.start();
+            threads.add(thread);
+        }
+        try {
+            CrashRecorder crashRecorder = new CrashRecorder(mTemporaryFolder.getRoot(), "", "", "{}", 0);
+            crashRecorder.record(Thread.currentThread(), new RuntimeException());
+            File recordFile = CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0];
+            assertTrue(recordFile.length() > CrashRecorder.BUFFER_SIZE);
+            ManagedErrorLog errorLog = CrashRecorder.read(recordFile);
+            List<Long> threadIds = new ArrayList<>();
+            for (com.microsoft.appcenter.crashes.ingestion.models.Thread thread : errorLog.getThreads()) {
+                threadIds.add(thread.getId());
+            }
+            for (Thread thread : threads) {
+                assertTrue(threadIds.contains(thread.getId()));
+            }
+
+            /* Total size limit drops threads that do not fit. */
+            crashRecorder.setLimits(CrashRecorder.DEFAULT_MAX_THREADS, CrashRecorder.DEFAULT_MAX_FRAMES_PER_THREAD, CrashRecorder.BUFFER_SIZE);
+            crashRecorder.record(Thread.currentThread(), new RuntimeException());
+            assertTrue(recordFile.length() <= CrashRecorder.BUFFER_SIZE);
+            errorLog = CrashRecorder.read(recordFile);
+            assertEquals(Thread.currentThread().getId(), errorLog.getThreads().get(0).getId());
+            assertTrue(errorLog.getThreads().size() < threadIds.size());
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    private static void park(int depth, CountDownLatch started, CountDownLatch latch) throws InterruptedException {
+        if (depth > 0) {
+            park(depth - 1, started, latch);
+        } else {
+            started.countDown();
+            latch.await();
+        }
+    }
+
+    @Test
+    public void internClassAndFileNames() throws java.lang.Exception {
+
+        /* Synthetic dump of 200 threads parked in the same deep frames. */
+        int threadCount = 200;
+        final CountDownLatch started = new CountDownLatch(threadCount);
+        final CountDownLatch latch = new CountDownLatch(1);
+        for (int i = 0; i < threadCount; i++) {
+            final int depth = 20 + i % 20;
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        park(depth, started, latch);
+                    } catch (InterruptedException ignore) {
+                    }
+                }
+            }).start();
+        }
+        try {
+            started.await();
+            CrashRecorder crashRecorder = new CrashRecorder(mTemporaryFolder.getRoot(), "", "", "{}", 0);
+            crashRecorder.setLimits(threadCount * 2, CrashRecorder.DEFAULT_MAX_FRAMES_PER_THREAD, Integer.MAX_VALUE);
+            Throwable throwable = new RuntimeException(new IllegalStateException());
+            crashRecorder.setInternStrings(false);
+            crashRecorder.record(Thread.currentThread(), throwable);
+            File recordFile = CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0];
+            long plainLength = recordFile.length();
+            ManagedErrorLog plainErrorLog = CrashRecorder.read(recordFile);
+            crashRecorder.setInternStrings(true);
+            crashRecorder.record(Thread.currentThread(), throwable);
+            recordFile = CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0];
+            long compactLength = recordFile.length();
+            ManagedErrorLog errorLog = CrashRecorder.read(recordFile);
+            assertTrue("compact=" + compactLength + " plain=" + plainLength, compactLength * 2 < plainLength);
+
+            /* Same frames once expanded, across causes and threads. */
+            assertTrue(errorLog.getThreads().size() > threadCount);
+            assertEquals(plainErrorLog.getException().getFrames().size(), errorLog.getException().getFrames().size());
+            for (int i = 0; i < errorLog.getException().getFrames().size(); i++) {
+                StackFrame frame = errorLog.getException().getFrames().get(i);
+                StackTraceElement element = throwable.getStackTrace()[i];
+                assertEquals(element.getClassName(), frame.getClassName());
+                assertEquals(element.getMethodName(), frame.getMethodName());
+                assertEquals(element.getFileName(), frame.getFileName());
+            }
+            StackFrame causeFrame = errorLog.getException().getInnerExceptions().get(0).getFrames().get(0);
+            assertEquals(throwable.getCause().getStackTrace()[0].getClassName(), causeFrame.getClassName());
+            assertSame(errorLog.getException().getFrames().get(0).getClassName(), causeFrame.getClassName());
+            int parkedFrames = 0;
+            for (com.microsoft.appcenter.crashes.ingestion.models.Thread thread : errorLog.getThreads()) {
+                for (StackFrame frame : thread.getFrames()) {
+                    if ("park".equals(frame.getMethodName()) && CrashRecorderTest.class.getName().equals(frame.getClassName())) {
+                        assertEquals("CrashRecorderTest.java", frame.getFileName());
+                        parkedFrames++;
+                    }
+                }
+            }
+            assertTrue(parkedFrames > threadCount * 20);
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void internedStringsLimit() throws java.lang.Exception {
+
+        /* Distinct names in each cause fill the table, names beyond it are written as is. */
+        int causeCount = CrashRecorder.MAX_INTERNED_STRINGS / ErrorLogHelper.FRAME_LIMIT;
+        Throwable throwable = null;
+        for (int cause = 0; cause <= causeCount; cause++) {
+            StackTraceElement[] stackTrace = new StackTraceElement[ErrorLogHelper.FRAME_LIMIT];
+            for (int i = 0; i < stackTrace.length; i++) {
+
+                /* The first cause written repeats the names of the last one, which were interned. */
+                int id = cause == 0 ? causeCount * stackTrace.length + i : cause * stackTrace.length + i;
+                stackTrace[i] = new StackTraceElement("Class" + id, "method", "File" + id + ".java", i);
+            }
+            throwable = new RuntimeException(throwable);
+            throwable.setStackTrace(stackTrace);
+        }
+        CrashRecorder crashRecorder = new CrashRecorder(mTemporaryFolder.getRoot(), "", "", "{}", 0);
+        crashRecorder.setLimits(0, 0, Integer.MAX_VALUE);
+        crashRecorder.record(Thread.currentThread(), throwable);
+        Exception exception = CrashRecorder.read(CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0]).getException();
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause()) {
+            assertEquals(cause.getStackTrace().length, exception.getFrames().size());
+            for (int i = 0; i < exception.getFrames().size(); i++) {
+                assertEquals(cause.getStackTrace()[i].getClassName(), exception.getFrames().get(i).getClassName());
+                assertEquals(cause.getStackTrace()[i].getFileName(), exception.getFrames().get(i).getFileName());
+            }
+            exception = exception.getInnerExceptions() != null ? exception.getInnerExceptions().get(0) : null;
+        }
+        assertNull(exception);
+    }
+
+    @Test
+    public void readInvalidRecords() throws java.lang.Exception {
+
+        /* Missing file. */
+        try {
+            CrashRecorder.read(new File(mTemporaryFolder.getRoot(), "missing"));
+            fail();
+        } catch (IOException ignore) {
+        }
+
+        /* Wrong header. */
+        File file = mTemporaryFolder.newFile();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        outputStream.close();
+        try {
+            CrashRecorder.read(file);
+            fail();
+        } catch (IOException ignore) {
+        }
+
+        /* Truncated record. */
+        new CrashRecorder(mTemporaryFolder.getRoot(), "", "", "{}", 0).record(Thread.currentThread(), new RuntimeException());
+        File recordFile = CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0];
+        outputStream = new FileOutputStream(file);
+        outputStream.write(Arrays.copyOf(FileManager.readBytes(recordFile), 70));
+        outputStream.close();
+        try {
+            CrashRecorder.read(file);
+            fail();
+        } catch (IOException ignore) {
+        }
+    }
+
+    @Test
+    public void getRecordFiles() throws IOException {
+        assertEquals(0, CrashRecorder.getRecordFiles(null).length);
+        assertEquals(0, CrashRecorder.getRecordFiles(new File(mTemporaryFolder.getRoot(), "missing")).length);
+        mTemporaryFolder.newFile("a" + ErrorLogHelper.ERROR_LOG_FILE_EXTENSION);
+        File recordFile = mTemporaryFolder.newFile("a" + CrashRecorder.RECORD_FILE_EXTENSION);
+        assertEquals(Arrays.asList(recordFile), Arrays.asList(CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())));
+    }
+
+    @Test
+    public void prepare() throws java.lang.Exception {
+        Context context = mock(Context.class);
+        mockStatic(DeviceInfoHelper.class);
+        mockStatic(ErrorLogHelper.class);
+        when(ErrorLogHelper.getProcessName(context)).thenReturn("my.process");
+
+        /* Device information cannot be read. */
+        Device device = mock(Device.class);
+        when(DeviceInfoHelper.getDeviceInfo(context)).thenThrow(new DeviceInfoHelper.DeviceInfoException("mock", new RuntimeException())).thenReturn(device);
+        assertNull(CrashRecorder.prepare(context, mTemporaryFolder.getRoot(), 0));
+
+        /* Device information is serialized at startup. */
+        JSONStringer writer = mock(JSONStringer.class);
+        whenNew(JSONStringer.class).withAnyArguments().thenReturn(writer);
+        when(writer.toString()).thenReturn("{}");
+        CrashRecorder crashRecorder = CrashRecorder.prepare(context, mTemporaryFolder.getRoot(), 0);
+        assertNotNull(crashRecorder);
+        assertSame(mTemporaryFolder.getRoot(), crashRecorder.getDirectory());
+        verify(device).write(writer);
+        crashRecorder.record(Thread.currentThread(), new RuntimeException());
+        assertEquals("my.process", CrashRecorder.read(CrashRecorder.getRecordFiles(mTemporaryFolder.getRoot())[0]).getProcessName());
+    }
+}
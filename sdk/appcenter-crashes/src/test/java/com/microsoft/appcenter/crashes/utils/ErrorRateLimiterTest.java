@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest(AppCenterLog.class)
+public class ErrorRateLimiterTest {
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mockStatic(AppCenterLog.class);
+        mFile = new File(mTemporaryFolder.getRoot(), "limits");
+    }
+
+    private static Exception createException(String type, int frameCount, int firstLine) {
+        Exception exception = new Exception();
+        exception.setType(type);
+        exception.setMessage("message " + firstLine);
+        List<StackFrame> frames = new ArrayList<>();
+        for (int i = 0; i < frameCount; i++) {
+            StackFrame frame = new StackFrame();
+            frame.setClassName("com.contoso.Foo");
+            frame.setMethodName("bar" + i);
+            frame.setFileName("Foo.java");
+            frame.setLineNumber(firstLine + i);
+            frames.add(frame);
+        }
+        exception.setFrames(frames);
+        return exception;
+    }
+
+    @Test
+    public void fingerprint() {
+        assertNull(ErrorRateLimiter.getFingerprint(null));
+        assertNull(ErrorRateLimiter.getFingerprint(new Exception()));
+        assertNull(ErrorRateLimiter.getFingerprint(createException("a", 0, 1)));
+        String fingerprint = ErrorRateLimiter.getFingerprint(createException("a", 3, 1));
+        assertNotNull(fingerprint);
+
+        /* Message is not part of the fingerprint. */
+        Exception exception = createException("a", 3, 1);
+        exception.setMessage("other");
+        assertEquals(fingerprint, ErrorRateLimiter.getFingerprint(exception));
+        assertNotEquals(fingerprint, ErrorRateLimiter.getFingerprint(createException("b", 3, 1)));
+        assertNotEquals(fingerprint, ErrorRateLimiter.getFingerprint(createException("a", 3, 2)));
+
+        /* Only top frames are used. */
+        exception = createException("a", ErrorRateLimiter.FINGERPRINT_FRAME_COUNT + 1, 1);
+        exception.getFrames().get(ErrorRateLimiter.FINGERPRINT_FRAME_COUNT).setLineNumber(100);
+        assertEquals(ErrorRateLimiter.getFingerprint(createException("a", ErrorRateLimiter.FINGERPRINT_FRAME_COUNT + 1, 1)), ErrorRateLimiter.getFingerprint(exception));
+    }
+
+    @Test
+    public void limitAndCountSuppressed() {
+        ErrorRateLimiter errorRateLimiter = new ErrorRateLimiter(mFile);
+        errorRateLimiter.setLimits(2, 60000, 1);
+        assertTrue(errorRateLimiter.shouldSend("a"));
+        assertTrue(errorRateLimiter.shouldSend("a"));
+        assertFalse(errorRateLimiter.shouldSend("a"));
+        assertFalse(errorRateLimiter.shouldSend("a"));
+        assertTrue(errorRateLimiter.shouldSend("b"));
+        assertEquals(0, errorRateLimiter.getSuppressedCount("b"));
+        assertEquals(0, errorRateLimiter.getSuppressedCount("c"));
+        errorRateLimiter.removeSuppressedCount("c", 1);
+        errorRateLimiter.save();
+
+        /* State is kept across launches. */
+        errorRateLimiter = new ErrorRateLimiter(mFile);
+        errorRateLimiter.setLimits(2, 60000, 1);
+        assertFalse(errorRateLimiter.shouldSend("a"));
+        assertEquals(3, errorRateLimiter.getSuppressedCount("a"));
+
+        /* Count is kept until reported, errors suppressed meanwhile are kept. */
+        assertEquals(3, errorRateLimiter.getSuppressedCount("a"));
+        assertFalse(errorRateLimiter.shouldSend("a"));
+        errorRateLimiter.removeSuppressedCount("a", 3);
+        assertEquals(1, errorRateLimiter.getSuppressedCount("a"));
+        errorRateLimiter.removeSuppressedCount("a", 1);
+        assertEquals(0, errorRateLimiter.getSuppressedCount("a"));
+
+        /* A new interval starts when the previous one ends. */
+        errorRateLimiter.setLimits(2, 0, 1);
+        assertTrue(errorRateLimiter.shouldSend("a"));
+    }
+
+    @Test
+    public void sampling() {
+        ErrorRateLimiter errorRateLimiter = new ErrorRateLimiter(null);
+        errorRateLimiter.setLimits(10, 60000, 0);
+
+        /* First error of an interval is always sent. */
+        assertTrue(errorRateLimiter.shouldSend("a"));
+        for (int i = 0; i < 5; i++) {
+            assertFalse(errorRateLimiter.shouldSend("a"));
+        }
+        assertEquals(5, errorRateLimiter.getSuppressedCount("a"));
+        errorRateLimiter.removeSuppressedCount("a", 5);
+        errorRateLimiter.save();
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void boundedEntries() {
+        ErrorRateLimiter errorRateLimiter = new ErrorRateLimiter(mFile);
+        errorRateLimiter.setLimits(1, 60000, 1);
+        assertTrue(errorRateLimiter.shouldSend("first"));
+        assertFalse(errorRateLimiter.shouldSend("first"));
+        assertTrue(errorRateLimiter.shouldSend("second"));
+        for (int i = 0; i < ErrorRateLimiter.MAX_ENTRIES - 2; i++) {
+            assertTrue(errorRateLimiter.shouldSend("other" + i));
+        }
+
+        /* Oldest fingerprint without suppressed errors is forgotten first. */
+        assertTrue(errorRateLimiter.shouldSend("new"));
+        assertEquals(1, errorRateLimiter.getSuppressedCount("first"));
+        assertTrue(errorRateLimiter.shouldSend("second"));
+
+        /* Least recently used is forgotten when all have suppressed errors. */
+        errorRateLimiter = new ErrorRateLimiter(null);
+        errorRateLimiter.setLimits(1, 60000, 1);
+        for (int i = 0; i < ErrorRateLimiter.MAX_ENTRIES; i++) {
+            assertTrue(errorRateLimiter.shouldSend("key" + i));
+            assertFalse(errorRateLimiter.shouldSend("key" + i));
+        }
+        assertFalse(errorRateLimiter.shouldSend("key0"));
+        assertTrue(errorRateLimiter.shouldSend("new"));
+        assertEquals(2, errorRateLimiter.getSuppressedCount("key0"));
+        assertEquals(0, errorRateLimiter.getSuppressedCount("key1"));
+    }
+
+    @Test
+    public void saveThrottled() {
+        ErrorRateLimiter errorRateLimiter = new ErrorRateLimiter(mFile);
+        errorRateLimiter.setLimits(1, 60000, 1);
+        assertTrue(errorRateLimiter.shouldSend("a"));
+        errorRateLimiter.saveThrottled();
+        assertTrue(mFile.exists());
+
+        /* A burst of errors is not written until the next full save. */
+        assertFalse(errorRateLimiter.shouldSend("a"));
+        errorRateLimiter.saveThrottled();
+        assertEquals(0, new ErrorRateLimiter(mFile).getSuppressedCount("a"));
+        errorRateLimiter.save();
+        assertEquals(1, new ErrorRateLimiter(mFile).getSuppressedCount("a"));
+    }
+
+    @Test
+    public void invalidFile() throws IOException {
+        FileOutputStream outputStream = new FileOutputStream(mFile);
+        outputStream.write(new byte[]{0, 0, 0, 1, 0, 0, 0, 5, 1, 2});
+        outputStream.close();
+        ErrorRateLimiter errorRateLimiter = new ErrorRateLimiter(mFile);
+        errorRateLimiter.setLimits(1, 60000, 1);
+        assertTrue(errorRateLimiter.shouldSend("a"));
+        assertFalse(errorRateLimiter.shouldSend("a"));
+        errorRateLimiter.save();
+        assertEquals(1, new ErrorRateLimiter(mFile).getSuppressedCount("a"));
+    }
+}
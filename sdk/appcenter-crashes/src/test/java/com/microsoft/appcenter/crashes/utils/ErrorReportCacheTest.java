@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import com.microsoft.appcenter.crashes.ingestion.models.Exception;
+import com.microsoft.appcenter.crashes.ingestion.models.ManagedErrorLog;
+import com.microsoft.appcenter.crashes.ingestion.models.StackFrame;
+import com.microsoft.appcenter.crashes.ingestion.models.Thread;
+import com.microsoft.appcenter.crashes.model.ErrorReport;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ErrorReportCacheTest {
+
+    private static List<StackFrame> createFrames(int count) {
+        List<StackFrame> frames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            frames.add(new StackFrame());
+        }
+        return frames;
+    }
+
+    private static ManagedErrorLog createErrorLog(int exceptionFrames, int threadFrames) {
+        ManagedErrorLog errorLog = new ManagedErrorLog();
+        errorLog.setId(UUID.randomUUID());
+        Exception exception = new Exception();
+        exception.setFrames(createFrames(exceptionFrames));
+        Exception innerException = new Exception();
+        innerException.setFrames(createFrames(1));
+        exception.setInnerExceptions(Collections.singletonList(innerException));
+        errorLog.setException(exception);
+        Thread thread = new Thread();
+        thread.setFrames(createFrames(threadFrames));
+        errorLog.setThreads(Collections.singletonList(thread));
+        return errorLog;
+    }
+
+    @Test
+    public void putGetAndRemove() {
+        ErrorReportCache cache = new ErrorReportCache(100);
+        ManagedErrorLog errorLog = createErrorLog(3, 5);
+        ErrorReport report = new ErrorReport();
+        assertNull(cache.get(errorLog.getId()));
+        cache.put(errorLog, report);
+
+        /* 1 + 3 + 1 inner + 5 thread frames, doubled for the throwable. */
+        assertEquals(20, cache.getWeight());
+        ErrorReportCache.Entry entry = cache.get(errorLog.getId());
+        assertNotNull(entry);
+        assertSame(errorLog, entry.getLog());
+        assertSame(report, entry.getReport());
+        assertTrue(cache.getIds().contains(errorLog.getId()));
+
+        /* Replacing does not count twice. */
+        cache.put(errorLog, report);
+        assertEquals(20, cache.getWeight());
+        cache.remove(errorLog.getId());
+        assertEquals(0, cache.getWeight());
+        assertNull(cache.get(errorLog.getId()));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals("count=0 weight=0 hits=1 misses=2", cache.toString());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() {
+        ErrorReportCache cache = new ErrorReportCache(50);
+        ManagedErrorLog errorLog1 = createErrorLog(8, 0);
+        ManagedErrorLog errorLog2 = createErrorLog(8, 0);
+        ManagedErrorLog errorLog3 = createErrorLog(8, 0);
+        cache.put(errorLog1, new ErrorReport());
+        cache.put(errorLog2, new ErrorReport());
+        assertNotNull(cache.get(errorLog1.getId()));
+        cache.put(errorLog3, new ErrorReport());
+        assertEquals(40, cache.getWeight());
+        assertNotNull(cache.get(errorLog1.getId()));
+        assertNull(cache.get(errorLog2.getId()));
+        assertNotNull(cache.get(errorLog3.getId()));
+
+        /* Too heavy to be cached. */
+        ManagedErrorLog heavyErrorLog = createErrorLog(30, 0);
+        cache.put(heavyErrorLog, new ErrorReport());
+        assertNull(cache.get(heavyErrorLog.getId()));
+        assertEquals(40, cache.getWeight());
+    }
+}
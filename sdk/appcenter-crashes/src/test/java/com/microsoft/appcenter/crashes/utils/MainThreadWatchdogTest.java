@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.crashes.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.powermock.reflect.Whitebox;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({Handler.class, Looper.class, SystemClock.class, AppCenterLog.class})
+public class MainThreadWatchdogTest {
+
+    private static final long THRESHOLD = 40;
+
+    @Rule
+    public PowerMockRule mRule = new PowerMockRule();
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private final List<Runnable> mPendingPings = new ArrayList<>();
+
+    private final CountDownLatch mBlockedLatch = new CountDownLatch(1);
+
+    private final CountDownLatch mUnblockLatch = new CountDownLatch(1);
+
+    private Handler mHandler;
+
+    private Thread mMainThread;
+
+    private boolean mMainThreadBlocked;
+
+    private void block() throws InterruptedException {
+        mBlockedLatch.countDown();
+        mUnblockLatch.await();
+    }
+
+    @Before
+    public void setUp() throws InterruptedException {
+        mockStatic(AppCenterLog.class);
+        mockStatic(SystemClock.class);
+        when(SystemClock.uptimeMillis()).thenAnswer(new Answer<Long>() {
+
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                return System.nanoTime() / 1000000;
+            }
+        });
+
+        /* Fake main looper: pings run immediately unless the main thread is blocked. */
+        mMainThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    block();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        mMainThread.start();
+        mBlockedLatch.await();
+        Looper looper = mock(Looper.class);
+        when(looper.getThread()).thenReturn(mMainThread);
+        mHandler = mock(Handler.class);
+        when(mHandler.getLooper()).thenReturn(looper);
+        when(mHandler.post(any(Runnable.class))).thenAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                Runnable ping = (Runnable) invocation.getArguments()[0];
+                synchronized (mPendingPings) {
+                    if (mMainThreadBlocked) {
+                        mPendingPings.add(ping);
+                    } else {
+                        ping.run();
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        mUnblockLatch.countDown();
+    }
+
+    private void setMainThreadBlocked(boolean blocked) {
+        synchronized (mPendingPings) {
+            mMainThreadBlocked = blocked;
+            if (!blocked) {
+                for (Runnable ping : mPendingPings) {
+                    ping.run();
+                }
+                mPendingPings.clear();
+            }
+        }
+    }
+
+    private void unblockLater(final long delay) {
+        new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ignore) {
+                }
+                setMainThreadBlocked(false);
+            }
+        }).start();
+    }
+
+    @Test
+    public void noStall() throws InterruptedException {
+        MainThreadWatchdog.Listener listener = mock(MainThreadWatchdog.Listener.class);
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(mHandler, THRESHOLD, 0, null, listener);
+        for (int i = 0; i < 3; i++) {
+            watchdog.watch();
+        }
+        verify(mHandler, never()).getLooper();
+        verify(listener, never()).onStall(any(MainThreadWatchdog.Stall.class));
+    }
+
+    @Test
+    public void aggregateSimilarStalls() throws InterruptedException {
+        MainThreadWatchdog.Listener listener = mock(MainThreadWatchdog.Listener.class);
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(mHandler, THRESHOLD, Long.MAX_VALUE, null, listener);
+
+        /* Two stalls at the same place are aggregated. */
+        for (int i = 0; i < 2; i++) {
+            setMainThreadBlocked(true);
+            unblockLater(THRESHOLD * 3);
+            watchdog.watch();
+        }
+        verify(listener, never()).onStall(any(MainThreadWatchdog.Stall.class));
+
+        /* Reported on next check when the report interval is reached. */
+        Whitebox.setInternalState(watchdog, "mReportInterval", 0L);
+        watchdog.watch();
+        ArgumentCaptor<MainThreadWatchdog.Stall> captor = ArgumentCaptor.forClass(MainThreadWatchdog.Stall.class);
+        verify(listener).onStall(captor.capture());
+        MainThreadWatchdog.Stall stall = captor.getValue();
+        assertEquals(2, stall.getCount());
+        assertTrue(stall.getMaxDuration() >= THRESHOLD * 2);
+        assertTrue(stall.getTotalDuration() >= stall.getMaxDuration() + THRESHOLD * 2);
+
+        /* Stack is sampled from the main thread. */
+        boolean blockedFrameFound = false;
+        for (StackTraceElement frame : stall.getStackTrace()) {
+            blockedFrameFound |= frame.getMethodName().equals("block") && frame.getClassName().equals(MainThreadWatchdogTest.class.getName());
+        }
+        assertTrue(blockedFrameFound);
+
+        /* Reported stalls are cleared. */
+        watchdog.watch();
+        verify(listener).onStall(any(MainThreadWatchdog.Stall.class));
+    }
+
+    @Test
+    public void reportSavedStallOnNextStart() throws InterruptedException, IOException {
+        final File file = new File(mTemporaryFolder.getRoot(), "stalls");
+        final MainThreadWatchdog watchdog = new MainThreadWatchdog(mHandler, THRESHOLD, Long.MAX_VALUE, file, mock(MainThreadWatchdog.Listener.class));
+        setMainThreadBlocked(true);
+        Thread watchThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    watchdog.watch();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        watchThread.start();
+
+        /* Stall is saved once the threshold passes, while the main thread is still blocked. */
+        while (!file.exists()) {
+            Thread.sleep(THRESHOLD / 4);
+        }
+
+        /* As if the process was killed, the next watchdog reports it. */
+        MainThreadWatchdog.Listener listener = mock(MainThreadWatchdog.Listener.class);
+        new MainThreadWatchdog(mHandler, THRESHOLD, Long.MAX_VALUE, file, listener).reportSavedStalls();
+        ArgumentCaptor<MainThreadWatchdog.Stall> captor = ArgumentCaptor.forClass(MainThreadWatchdog.Stall.class);
+        verify(listener).onStall(captor.capture());
+        MainThreadWatchdog.Stall stall = captor.getValue();
+        assertEquals(1, stall.getCount());
+        assertTrue(stall.getMaxDuration() >= THRESHOLD);
+        assertEquals(stall.getMaxDuration(), stall.getTotalDuration());
+        boolean blockedFrameFound = false;
+        for (StackTraceElement frame : stall.getStackTrace()) {
+            blockedFrameFound |= frame.getMethodName().equals("block") && frame.getClassName().equals(MainThreadWatchdogTest.class.getName());
+        }
+        assertTrue(blockedFrameFound);
+        assertFalse(file.exists());
+
+        /* Duration is updated when the main thread unblocks. */
+        Thread.sleep(THRESHOLD * 2);
+        setMainThreadBlocked(false);
+        watchThread.join();
+        listener = mock(MainThreadWatchdog.Listener.class);
+        new MainThreadWatchdog(mHandler, THRESHOLD, Long.MAX_VALUE, file, listener).reportSavedStalls();
+        verify(listener).onStall(captor.capture());
+        assertTrue(captor.getValue().getMaxDuration() >= THRESHOLD * 3);
+        assertFalse(file.exists());
+
+        /* Invalid file is ignored. */
+        assertTrue(file.createNewFile());
+        listener = mock(MainThreadWatchdog.Listener.class);
+        new MainThreadWatchdog(mHandler, THRESHOLD, Long.MAX_VALUE, file, listener).reportSavedStalls();
+        verify(listener, never()).onStall(any(MainThreadWatchdog.Stall.class));
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void startAndStop() throws InterruptedException {
+        MainThreadWatchdog.Listener listener = mock(MainThreadWatchdog.Listener.class);
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(mHandler, THRESHOLD, 0, null, listener);
+        setMainThreadBlocked(true);
+        unblockLater(THRESHOLD * 3);
+        watchdog.start();
+        watchdog.start();
+        verify(listener, timeout(TimeUnit.SECONDS.toMillis(5))).onStall(any(MainThreadWatchdog.Stall.class));
+        watchdog.stop();
+        watchdog.stop();
+    }
+
+    @Test
+    public void pauseAndResume() throws InterruptedException {
+        MainThreadWatchdog.Listener listener = mock(MainThreadWatchdog.Listener.class);
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(mHandler, THRESHOLD, 0, null, listener);
+        watchdog.pause();
+        watchdog.start();
+
+        /* No ping posted while paused. */
+        Thread.sleep(THRESHOLD * 3);
+        verify(mHandler, never()).post(any(Runnable.class));
+
+        /* Watch again when resumed. */
+        setMainThreadBlocked(true);
+        unblockLater(THRESHOLD * 3);
+        watchdog.resume();
+        verify(listener, timeout(TimeUnit.SECONDS.toMillis(5))).onStall(any(MainThreadWatchdog.Stall.class));
+
+        /* Stop while paused. */
+        watchdog.pause();
+        watchdog.stop();
+    }
+
+    @Test
+    public void stopWhenLooperQuits() {
+        doReturn(false).when(mHandler).post(any(Runnable.class));
+        MainThreadWatchdog.Listener listener = mock(MainThreadWatchdog.Listener.class);
+        new MainThreadWatchdog(mHandler, THRESHOLD, 0, null, listener).run();
+        verify(listener, never()).onStall(any(MainThreadWatchdog.Stall.class));
+    }
+}
@@ -65,8 +65,10 @@ import java.lang.ref.WeakReference;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.text.NumberFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static android.content.pm.ApplicationInfo.FLAG_DEBUGGABLE;
@@ -200,6 +202,11 @@ public class Distribute extends AbstractAppCenterService {
      */
     private Object mCheckReleaseCallId;
 
+    /**
+     * Identifier of the update token being encrypted in background, used to ignore it once canceled or replaced.
+     */
+    private Object mStoreUpdateTokenCallId;
+
     /**
      * Current API call to check latest release from server.
      */
@@ -511,6 +518,7 @@ public class Distribute extends AbstractAppCenterService {
             mBrowserOpenedOrAborted = false;
             mWorkflowCompleted = false;
             cancelPreviousTasks();
+            mStoreUpdateTokenCallId = null;
             SharedPreferencesManager.remove(PREFERENCE_KEY_REQUEST_ID);
             SharedPreferencesManager.remove(PREFERENCE_KEY_POSTPONE_TIME);
             SharedPreferencesManager.remove(PREFERENCE_KEY_UPDATE_SETUP_FAILED_PACKAGE_HASH_KEY);
@@ -839,25 +847,88 @@ public class Distribute extends AbstractAppCenterService {
         return true;
     }
 
-    private void decryptAndGetReleaseDetails(String updateToken, String distributionGroupId, boolean mobileCenterFailOver) {
+    private void decryptAndGetReleaseDetails(String updateToken, final String distributionGroupId, final boolean mobileCenterFailOver) {
 
-        /* Decrypt token if any. */
+        /* Decrypt token if any, in background as this runs when the application starts and crypto may still be initializing. */
         if (updateToken != null) {
-            CryptoUtils.DecryptedData decryptedData = CryptoUtils.getInstance(mContext).decrypt(updateToken, mobileCenterFailOver);
-            String newEncryptedData = decryptedData.getNewEncryptedData();
 
-            /* Store new encrypted value if updated. */
-            if (newEncryptedData != null) {
-                SharedPreferencesManager.putString(PREFERENCE_KEY_UPDATE_TOKEN, newEncryptedData);
-            }
-            updateToken = decryptedData.getDecryptedData();
-            if (mobileCenterFailOver) {
+            /* Track decryption as the release call so that it's not started twice and can be canceled. */
+            final Object decryptCallId = mCheckReleaseCallId = new Object();
+            final DecryptUpdateTokenCall decryptCall = new DecryptUpdateTokenCall();
+            mCheckReleaseApiCall = decryptCall;
+            final List<String> encryptedData = Collections.singletonList(updateToken);
+            CryptoUtils.getInstanceAsync(mContext).thenAccept(new AppCenterConsumer<CryptoUtils>() {
+
+                @Override
+                public void accept(CryptoUtils cryptoUtils) {
+                    cryptoUtils.decryptAsync(encryptedData, mobileCenterFailOver).thenAccept(new AppCenterConsumer<List<CryptoUtils.DecryptedData>>() {
+
+                        @Override
+                        public void accept(List<CryptoUtils.DecryptedData> decryptedData) {
+                            handleDecryptedUpdateToken(decryptCallId, decryptCall, decryptedData.get(0), distributionGroupId, mobileCenterFailOver);
+                        }
+                    });
+                }
+            });
+        } else {
+            storeDistributionGroupAndGetReleaseDetails(null, distributionGroupId, mobileCenterFailOver);
+        }
+    }
+
+    private synchronized void handleDecryptedUpdateToken(Object decryptCallId, DecryptUpdateTokenCall decryptCall, CryptoUtils.DecryptedData decryptedData, String distributionGroupId, boolean mobileCenterFailOver) {
+
+        /* Check release check was not canceled while decrypting. */
+        if (mCheckReleaseCallId != decryptCallId || decryptCall.mCanceled) {
+            return;
+        }
+        String newEncryptedData = decryptedData.getNewEncryptedData();
+
+        /* Store new encrypted value if updated. */
+        if (newEncryptedData != null) {
+            SharedPreferencesManager.putString(PREFERENCE_KEY_UPDATE_TOKEN, newEncryptedData);
+        }
+        String updateToken = decryptedData.getDecryptedData();
+        if (mobileCenterFailOver) {
+
+            /* Store the token from Mobile Center into App Center storage, re-encrypting it */
+            encryptAndStoreUpdateToken(updateToken);
+        }
+        storeDistributionGroupAndGetReleaseDetails(updateToken, distributionGroupId, mobileCenterFailOver);
+    }
 
-                /* Store the token from Mobile Center into App Center storage, re-encrypting it */
-                String encryptedUpdateToken = CryptoUtils.getInstance(mContext).encrypt(updateToken);
-                SharedPreferencesManager.putString(PREFERENCE_KEY_UPDATE_TOKEN, encryptedUpdateToken);
+    /**
+     * Encrypt the update token in background and store it, this runs on the UI thread and key store access can be slow.
+     * The encrypted token is not stored if the token is removed, replaced or the service disabled meanwhile.
+     */
+    private void encryptAndStoreUpdateToken(String updateToken) {
+        final Object storeCallId = mStoreUpdateTokenCallId = new Object();
+        final List<String> data = Collections.singletonList(updateToken);
+        CryptoUtils.getInstanceAsync(mContext).thenAccept(new AppCenterConsumer<CryptoUtils>() {
+
+            @Override
+            public void accept(CryptoUtils cryptoUtils) {
+                cryptoUtils.encryptAsync(data).thenAccept(new AppCenterConsumer<List<String>>() {
+
+                    @Override
+                    public void accept(List<String> encryptedData) {
+                        storeEncryptedUpdateToken(storeCallId, encryptedData.get(0));
+                    }
+                });
             }
+        });
+    }
+
+    private synchronized void storeEncryptedUpdateToken(Object storeCallId, String encryptedUpdateToken) {
+
+        /* Check token was not removed or replaced while encrypting. */
+        if (mStoreUpdateTokenCallId != storeCallId || !isInstanceEnabled()) {
+            return;
         }
+        mStoreUpdateTokenCallId = null;
+        SharedPreferencesManager.putString(PREFERENCE_KEY_UPDATE_TOKEN, encryptedUpdateToken);
+    }
+
+    private void storeDistributionGroupAndGetReleaseDetails(String updateToken, String distributionGroupId, boolean mobileCenterFailOver) {
 
         /* If the group was from Mobile Center storage, save it in the new storage. */
         if (mobileCenterFailOver) {
@@ -957,9 +1028,9 @@ public class Distribute extends AbstractAppCenterService {
             mBeforeStartDistributionGroupId = distributionGroupId;
         } else if (requestId.equals(SharedPreferencesManager.getString(PREFERENCE_KEY_REQUEST_ID))) {
             if (updateToken != null) {
-                String encryptedToken = CryptoUtils.getInstance(mContext).encrypt(updateToken);
-                SharedPreferencesManager.putString(PREFERENCE_KEY_UPDATE_TOKEN, encryptedToken);
+                encryptAndStoreUpdateToken(updateToken);
             } else {
+                mStoreUpdateTokenCallId = null;
                 SharedPreferencesManager.remove(PREFERENCE_KEY_UPDATE_TOKEN);
             }
             SharedPreferencesManager.putString(PREFERENCE_KEY_DISTRIBUTION_GROUP_ID, distributionGroupId);
@@ -1083,6 +1154,7 @@ public class Distribute extends AbstractAppCenterService {
                 } else {
                     AppCenterLog.error(LOG_TAG, "Failed to check latest release:", e);
                     SharedPreferencesManager.remove(PREFERENCE_KEY_DISTRIBUTION_GROUP_ID);
+                    mStoreUpdateTokenCallId = null;
                     SharedPreferencesManager.remove(PREFERENCE_KEY_UPDATE_TOKEN);
                     mDistributeInfoTracker.removeDistributionGroupId();
                 }
@@ -1907,4 +1979,21 @@ public class Distribute extends AbstractAppCenterService {
             }
         });
     }
+
+    /**
+     * Stands for the release check call while the update token is decrypted in background.
+     * Accessed only while holding the {@link Distribute} lock.
+     */
+    private static class DecryptUpdateTokenCall implements ServiceCall {
+
+        /**
+         * True if canceled, decrypted token must then be ignored.
+         */
+        private boolean mCanceled;
+
+        @Override
+        public void cancel() {
+            mCanceled = true;
+        }
+    }
 }
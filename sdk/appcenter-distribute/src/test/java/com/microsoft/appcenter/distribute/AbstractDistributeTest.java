@@ -29,6 +29,7 @@ import com.microsoft.appcenter.utils.HashUtils;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
 import com.microsoft.appcenter.utils.UUIDUtils;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
+import com.microsoft.appcenter.utils.async.DefaultAppCenterFuture;
 import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
@@ -43,11 +44,16 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.powermock.reflect.Whitebox;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import static com.microsoft.appcenter.distribute.DistributeConstants.INVALID_DOWNLOAD_IDENTIFIER;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCES_NAME_MOBILE_CENTER;
 import static com.microsoft.appcenter.distribute.DistributeConstants.PREFERENCE_KEY_DOWNLOAD_ID;
 import static com.microsoft.appcenter.utils.PrefStorageConstants.KEY_ENABLED;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
@@ -226,6 +232,9 @@ public class AbstractDistributeTest {
         /* Mock Crypto to not crypt. */
         mockStatic(CryptoUtils.class);
         when(CryptoUtils.getInstance(any(Context.class))).thenReturn(mCryptoUtils);
+        DefaultAppCenterFuture<CryptoUtils> cryptoUtilsFuture = new DefaultAppCenterFuture<>();
+        cryptoUtilsFuture.complete(mCryptoUtils);
+        when(CryptoUtils.getInstanceAsync(any(Context.class))).thenReturn(cryptoUtilsFuture);
         when(mCryptoUtils.decrypt(anyString(), anyBoolean())).thenAnswer(new Answer<CryptoUtils.DecryptedData>() {
 
             @Override
@@ -241,6 +250,32 @@ public class AbstractDistributeTest {
                 return invocation.getArguments()[0].toString();
             }
         });
+        when(mCryptoUtils.encryptAsync(anyCollectionOf(String.class))).thenAnswer(new Answer<AppCenterFuture<List<String>>>() {
+
+            @Override
+            public AppCenterFuture<List<String>> answer(InvocationOnMock invocation) {
+                List<String> encryptedData = new ArrayList<>();
+                for (Object item : (Collection<?>) invocation.getArguments()[0]) {
+                    encryptedData.add(mCryptoUtils.encrypt((String) item));
+                }
+                DefaultAppCenterFuture<List<String>> future = new DefaultAppCenterFuture<>();
+                future.complete(encryptedData);
+                return future;
+            }
+        });
+        when(mCryptoUtils.decryptAsync(anyCollectionOf(String.class), anyBoolean())).thenAnswer(new Answer<AppCenterFuture<List<CryptoUtils.DecryptedData>>>() {
+
+            @Override
+            public AppCenterFuture<List<CryptoUtils.DecryptedData>> answer(InvocationOnMock invocation) {
+                List<CryptoUtils.DecryptedData> decryptedData = new ArrayList<>();
+                for (Object item : (Collection<?>) invocation.getArguments()[0]) {
+                    decryptedData.add(mCryptoUtils.decrypt((String) item, (Boolean) invocation.getArguments()[1]));
+                }
+                DefaultAppCenterFuture<List<CryptoUtils.DecryptedData>> future = new DefaultAppCenterFuture<>();
+                future.complete(decryptedData);
+                return future;
+            }
+        });
 
         /* Dialog. */
         whenNew(AlertDialog.Builder.class).withAnyArguments().thenReturn(mDialogBuilder);
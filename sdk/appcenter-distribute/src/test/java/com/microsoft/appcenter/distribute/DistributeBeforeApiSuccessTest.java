@@ -29,6 +29,7 @@ import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.UUIDUtils;
 import com.microsoft.appcenter.utils.async.AppCenterConsumer;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
+import com.microsoft.appcenter.utils.async.DefaultAppCenterFuture;
 import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
@@ -45,7 +46,9 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
@@ -79,6 +82,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
@@ -334,6 +338,30 @@ public class DistributeBeforeApiSuccessTest extends AbstractDistributeTest {
         verify(mHttpClient).callAsync(anyString(), anyString(), eq(headers), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
     }
 
+    @Test
+    public void ignoreEncryptedTokenAfterTokenRemoved() {
+
+        /* Encryption completes after the token was replaced by a public redirection. */
+        DefaultAppCenterFuture<List<String>> future = new DefaultAppCenterFuture<>();
+        when(mCryptoUtils.encryptAsync(anyCollectionOf(String.class))).thenReturn(future);
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_REQUEST_ID)).thenReturn("r");
+        start();
+        Distribute.getInstance().storeRedirectionParameters("r", "g", "some token");
+        Distribute.getInstance().storeRedirectionParameters("r", "g", null);
+        future.complete(Collections.singletonList("some encrypted token"));
+        verifyStatic(never());
+        SharedPreferencesManager.putString(eq(PREFERENCE_KEY_UPDATE_TOKEN), anyString());
+
+        /* Or after disabling. */
+        future = new DefaultAppCenterFuture<>();
+        when(mCryptoUtils.encryptAsync(anyCollectionOf(String.class))).thenReturn(future);
+        Distribute.getInstance().storeRedirectionParameters("r", "g", "some token");
+        Distribute.setEnabled(false);
+        future.complete(Collections.singletonList("some encrypted token"));
+        verifyStatic(never());
+        SharedPreferencesManager.putString(eq(PREFERENCE_KEY_UPDATE_TOKEN), anyString());
+    }
+
     @Test
     public void postponeBrowserIfNoNetwork() throws Exception {
         when(mPackageManager.getPackageInfo(DistributeUtils.TESTER_APP_PACKAGE_NAME, 0)).thenThrow(new PackageManager.NameNotFoundException());
@@ -1340,6 +1368,47 @@ public class DistributeBeforeApiSuccessTest extends AbstractDistributeTest {
         SharedPreferencesManager.putString(PREFERENCE_KEY_UPDATE_TOKEN, "some better encrypted token");
     }
 
+    @Test
+    public void decryptUpdateTokenInBackground() {
+
+        /* Mock we already have token and decryption does not complete right away. */
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_UPDATE_TOKEN)).thenReturn("some encrypted token");
+        DefaultAppCenterFuture<List<CryptoUtils.DecryptedData>> future = new DefaultAppCenterFuture<>();
+        when(mCryptoUtils.decryptAsync(anyCollectionOf(String.class), anyBoolean())).thenReturn(future);
+        HashMap<String, String> headers = new HashMap<>();
+        headers.put(DistributeConstants.HEADER_API_TOKEN, "some token");
+
+        /* Resuming again while decrypting does not decrypt twice. */
+        start();
+        Distribute.getInstance().onActivityResumed(mActivity);
+        Distribute.getInstance().onActivityPaused(mActivity);
+        Distribute.getInstance().onActivityResumed(mActivity);
+        verify(mCryptoUtils).decryptAsync(Collections.singletonList("some encrypted token"), false);
+        verify(mHttpClient, never()).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Call starts when token is decrypted. */
+        future.complete(Collections.singletonList(new CryptoUtils.DecryptedData("some token", null)));
+        verify(mHttpClient).callAsync(anyString(), anyString(), eq(headers), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void disableWhileDecryptingUpdateToken() {
+
+        /* Mock we already have token and decryption does not complete right away. */
+        when(SharedPreferencesManager.getString(PREFERENCE_KEY_UPDATE_TOKEN)).thenReturn("some encrypted token");
+        DefaultAppCenterFuture<List<CryptoUtils.DecryptedData>> future = new DefaultAppCenterFuture<>();
+        when(mCryptoUtils.decryptAsync(anyCollectionOf(String.class), anyBoolean())).thenReturn(future);
+        start();
+        Distribute.getInstance().onActivityResumed(mActivity);
+
+        /* Disable then complete decryption: no call. */
+        Distribute.setEnabled(false);
+        future.complete(Collections.singletonList(new CryptoUtils.DecryptedData("some token", "some better encrypted token")));
+        verify(mHttpClient, never()).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        verifyStatic(never());
+        SharedPreferencesManager.putString(PREFERENCE_KEY_UPDATE_TOKEN, "some better encrypted token");
+    }
+
     @Test
     public void useMobileCenterFailOverForDecryptAndReleaseDetailsPrivate() {
         when(mMobileCenterPreferencesStorage.getString(PREFERENCE_KEY_UPDATE_TOKEN, null)).thenReturn("some token MC");
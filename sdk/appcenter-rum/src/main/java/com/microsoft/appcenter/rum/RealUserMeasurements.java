@@ -179,7 +179,7 @@ public class RealUserMeasurements extends AbstractAppCenterService {
      * All unique identifiers used in Rum don't have dashes...
      */
     private static String rumUniqueId() {
-        return UUIDUtils.randomUUID().toString().replace("-", "");
+        return UUIDUtils.fastRandomUUID().toString().replace("-", "");
     }
 
     /**
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.ingestion.models.Device;
+import com.microsoft.appcenter.ingestion.models.Model;
+import com.microsoft.appcenter.ingestion.models.one.AppExtension;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.OsExtension;
+import com.microsoft.appcenter.ingestion.models.one.UserExtension;
+
+import org.json.JSONException;
+import org.json.JSONStringer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@SuppressWarnings("unused")
+public class SplicingJSONStringerAndroidTest {
+
+    private static final ModelFactory<Device> DEVICE_FACTORY = new ModelFactory<Device>() {
+
+        @Override
+        public Device create() {
+            return new Device();
+        }
+
+        @Override
+        public List<Device> createList(int capacity) {
+            return new ArrayList<>(capacity);
+        }
+    };
+
+    private static String write(JSONStringer writer, List<? extends Model> models) throws JSONException {
+        writer.object();
+        JSONUtils.writeArray(writer, "models", models);
+        writer.endObject();
+        return writer.toString();
+    }
+
+    @Test
+    public void sameOutputAsRegularWriter() throws JSONException {
+        Map<Class<? extends Model>, SerializedModelCache> caches = new HashMap<>();
+        caches.put(Device.class, new SerializedModelCache(DEVICE_FACTORY));
+
+        /* Logs sharing a device, and one with another device. */
+        List<MockLog> logs = new ArrayList<>();
+        MockLog log = AndroidTestUtils.generateMockLog();
+        logs.add(log);
+        MockLog other = AndroidTestUtils.generateMockLog();
+        other.setDevice(log.getDevice());
+        logs.add(other);
+        logs.add(AndroidTestUtils.generateMockLog());
+        MockLog noDevice = new MockLog();
+        noDevice.setTimestamp(new Date());
+        logs.add(noDevice);
+        String expected = write(new JSONStringer(), logs);
+        assertEquals(expected, write(new SplicingJSONStringer(caches), logs));
+
+        /* Again with populated cache. */
+        assertEquals(expected, write(new SplicingJSONStringer(caches), logs));
+
+        /* Nothing to splice or nothing written. */
+        assertEquals(write(new JSONStringer(), Collections.<Model>emptyList()), write(new SplicingJSONStringer(caches), Collections.<Model>emptyList()));
+        assertNull(new SplicingJSONStringer(caches).toString());
+    }
+
+    @Test
+    public void extensions() throws JSONException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        MockCommonSchemaLog log = new MockCommonSchemaLog();
+        log.setVer("3.0");
+        log.setName("test");
+        log.setTimestamp(new Date());
+        Extensions ext = new Extensions();
+        ext.setUser(new UserExtension());
+        ext.getUser().setLocalId("u");
+        ext.setOs(new OsExtension());
+        ext.getOs().setName("Android");
+        ext.getOs().setVer("9");
+        ext.setApp(new AppExtension());
+        ext.getApp().setId("a:com.contoso");
+        ext.getApp().setVer("1.0");
+        log.setExt(ext);
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        log.write(writer);
+        writer.endObject();
+        assertEquals(writer.toString(), serializer.serializeLog(log));
+        assertEquals(writer.toString(), serializer.serializeLog(log));
+    }
+
+    @Test
+    public void cacheUpdatedWhenModelChanges() throws JSONException {
+        SerializedModelCache cache = new SerializedModelCache(DEVICE_FACTORY);
+        Device device = AndroidTestUtils.generateMockLog().getDevice();
+        String json = cache.get(device);
+
+        /* Equal model hits cache. */
+        Device copy = DEVICE_FACTORY.create();
+        copy.read(new org.json.JSONObject(json));
+        assertSame(json, cache.get(copy));
+
+        /* Modifying the instance that was cached is detected. */
+        device.setWrapperSdkName("changed");
+        String changed = cache.get(device);
+        assertNotEquals(json, changed);
+        assertSame(changed, cache.get(device));
+
+        /* Clear. */
+        cache.clear();
+        String cleared = cache.get(device);
+        assertEquals(changed, cleared);
+    }
+
+    @Test
+    public void cacheVariantsPerTarget() throws JSONException {
+        SerializedModelCache cache = new SerializedModelCache(DEVICE_FACTORY);
+
+        /* Variants of the same device, like app versions overridden per transmission target, stay cached. */
+        List<Device> devices = new ArrayList<>();
+        List<String> jsons = new ArrayList<>();
+        String deviceJson = cache.get(AndroidTestUtils.generateMockLog().getDevice());
+        for (int i = 0; i < SerializedModelCache.MAX_ENTRIES; i++) {
+            Device variant = DEVICE_FACTORY.create();
+            variant.read(new org.json.JSONObject(deviceJson));
+            variant.setAppVersion("version" + i);
+            devices.add(variant);
+            jsons.add(cache.get(variant));
+        }
+        for (int i = 0; i < devices.size(); i++) {
+            assertSame(jsons.get(i), cache.get(devices.get(i)));
+        }
+
+        /* Invalidation drops all entries. */
+        SerializedModelCache.invalidateAll();
+        String json = cache.get(devices.get(0));
+        assertEquals(jsons.get(0), json);
+        assertNotSame(jsons.get(0), json);
+    }
+}
@@ -49,7 +49,7 @@ public class CommonSchemaDataUtilsAndroidTest {
     @Test
     public void nullProperties() {
         MockCommonSchemaLog log = new MockCommonSchemaLog();
-        CommonSchemaDataUtils.addCommonSchemaData(null, log);
+        CommonSchemaDataUtils.addCommonSchemaData((List<TypedProperty>) null, log);
         assertNull(log.getData());
         assertNull(log.getExt());
     }
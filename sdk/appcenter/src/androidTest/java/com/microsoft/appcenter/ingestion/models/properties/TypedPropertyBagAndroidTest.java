@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.properties;
+
+import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("unused")
+public class TypedPropertyBagAndroidTest {
+
+    /**
+     * Build 20 properties, the maximum allowed per event, mixing all types.
+     */
+    private static List<TypedProperty> generateProperties() {
+        List<TypedProperty> properties = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            BooleanTypedProperty booleanTypedProperty = new BooleanTypedProperty();
+            booleanTypedProperty.setName("boolean" + i);
+            booleanTypedProperty.setValue(i % 2 == 0);
+            properties.add(booleanTypedProperty);
+            DateTimeTypedProperty dateTimeTypedProperty = new DateTimeTypedProperty();
+            dateTimeTypedProperty.setName("date" + i);
+            dateTimeTypedProperty.setValue(new Date(i * 1000L));
+            properties.add(dateTimeTypedProperty);
+            DoubleTypedProperty doubleTypedProperty = new DoubleTypedProperty();
+            doubleTypedProperty.setName("double" + i);
+            doubleTypedProperty.setValue(i + 0.5);
+            properties.add(doubleTypedProperty);
+            LongTypedProperty longTypedProperty = new LongTypedProperty();
+            longTypedProperty.setName("long" + i);
+            longTypedProperty.setValue(Long.MAX_VALUE - i);
+            properties.add(longTypedProperty);
+            StringTypedProperty stringTypedProperty = new StringTypedProperty();
+            stringTypedProperty.setName("string" + i);
+            stringTypedProperty.setValue("value" + i);
+            properties.add(stringTypedProperty);
+        }
+        return properties;
+    }
+
+    @Test
+    public void writeSameFormatAsTypedPropertyList() throws JSONException {
+        List<TypedProperty> properties = generateProperties();
+
+        /* Write list. */
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        JSONUtils.writeArray(writer, "typedProperties", properties);
+        writer.endObject();
+        String expected = writer.toString();
+
+        /* Write bag. */
+        writer = new JSONStringer();
+        writer.object();
+        TypedPropertyBag bag = TypedPropertyBag.fromTypedProperties(properties);
+        bag.write(writer);
+        writer.endObject();
+        assertEquals(expected, writer.toString());
+
+        /* Read back. */
+        JSONObject object = new JSONObject(expected);
+        assertEquals(bag, TypedPropertyBag.read(object));
+        assertEquals(properties, TypedPropertyUtils.read(object));
+    }
+
+    @Test
+    public void readMissingArray() throws JSONException {
+        assertNull(TypedPropertyBag.read(new JSONObject()));
+    }
+
+    @Test(expected = JSONException.class)
+    public void readUnknownType() throws JSONException {
+        TypedPropertyBag.read(new JSONObject("{\"typedProperties\":[{\"type\":\"unknown\",\"name\":\"a\",\"value\":1}]}"));
+    }
+
+    @Test
+    public void writeNullDateFails() {
+        TypedPropertyBag bag = new TypedPropertyBag();
+        bag.set("a", (Date) null);
+        JSONStringer writer = new JSONStringer();
+        try {
+            writer.object();
+            bag.write(writer);
+            fail("null date should not be serializable");
+        } catch (JSONException ignore) {
+        }
+    }
+}
@@ -9,6 +9,8 @@ import android.annotation.SuppressLint;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
@@ -27,8 +29,10 @@ import com.microsoft.appcenter.ingestion.models.json.MockLog;
 import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.Data;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
 import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
+import com.microsoft.appcenter.ingestion.models.one.SdkExtension;
 import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
 import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
@@ -58,6 +62,7 @@ import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
 import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
 import static com.microsoft.appcenter.persistence.DatabasePersistence.SCHEMA;
 import static com.microsoft.appcenter.test.TestUtils.generateString;
+import static com.microsoft.appcenter.utils.storage.DatabaseManager.PRIMARY_KEY;
 import static org.hamcrest.CoreMatchers.hasItems;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.Assert.assertEquals;
@@ -109,7 +114,7 @@ public class DatabasePersistenceAndroidTest {
         SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
         builder.appendWhere(DatabasePersistence.COLUMN_GROUP + " = ?");
         String[] selectionArgs = new String[]{group};
-        Cursor cursor = persistence.mDatabaseManager.getCursor(builder, null, selectionArgs, null);
+        Cursor cursor = persistence.mDatabaseManager.getCursor(builder, DatabasePersistence.GET_COLUMNS, selectionArgs, null);
         ContentValues values = persistence.mDatabaseManager.nextValues(cursor);
         assertNotNull(values);
         return values;
@@ -938,9 +943,17 @@ public class DatabasePersistenceAndroidTest {
             expectedLogs.add(log3);
 
             /* Get logs and check order. */
+            assertEquals(2, persistence.countCriticalLogs("test"));
             List<Log> actualLogs = new ArrayList<>();
-            persistence.getLogs("test", Collections.<String>emptyList(), expectedLogs.size(), actualLogs, null);
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), expectedLogs.size(), actualLogs, null);
             assertEquals(expectedLogs, actualLogs);
+
+            /* Critical logs are counted in the batch until deleted. */
+            assertNotNull(batchId);
+            assertEquals(2, persistence.countCriticalLogs("test", batchId));
+            persistence.deleteLogs("test", batchId);
+            assertEquals(0, persistence.countCriticalLogs("test", batchId));
+            assertEquals(0, persistence.countCriticalLogs("test"));
         } finally {
 
             //noinspection ThrowFromFinallyBlock
@@ -1011,6 +1024,188 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void putCommonSchemaLogsSharingPayload() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Same event converted for 3 targets. */
+            Data data = new Data();
+            data.getProperties().put("a", "b");
+            Date timestamp = new Date();
+            List<CommonSchemaLog> logs = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                CommonSchemaLog log = new MockCommonSchemaLog();
+                log.setVer("3.0");
+                log.setName("test");
+                log.setTimestamp(timestamp);
+                log.setIKey("o:key" + i);
+                log.setFlags((long) PERSISTENCE_NORMAL);
+                log.setExt(new Extensions());
+                log.getExt().setSdk(new SdkExtension());
+                log.getExt().getSdk().setSeq((long) i + 1);
+                log.setData(data);
+                log.addTransmissionTarget("key" + i + "-token");
+                persistence.putLog(log, "test/one", PERSISTENCE_NORMAL);
+                logs.add(log);
+            }
+
+            /* Another event is stored as is. */
+            CommonSchemaLog otherLog = new MockCommonSchemaLog();
+            otherLog.setVer("3.0");
+            otherLog.setName("other");
+            otherLog.setTimestamp(timestamp);
+            otherLog.setIKey("o:key0");
+            otherLog.addTransmissionTarget("key0-token");
+            persistence.putLog(otherLog, "test/one", PERSISTENCE_NORMAL);
+            logs.add(otherLog);
+
+            /* First log has full payload, the next ones only target specific fields. */
+            Cursor cursor = persistence.mDatabaseManager.getCursor(null, null, null, PRIMARY_KEY);
+            try {
+                for (int i = 0; i < logs.size(); i++) {
+                    ContentValues values = persistence.mDatabaseManager.nextValues(cursor);
+                    assertNotNull(values);
+                    String payload = values.getAsString(DatabasePersistence.COLUMN_LOG);
+                    if (i == 1 || i == 2) {
+                        assertNotNull(values.getAsLong(DatabasePersistence.COLUMN_PAYLOAD_ID));
+                        assertFalse(payload.contains("\"data\""));
+                        assertTrue(payload.contains("o:key" + i));
+                    } else {
+                        assertNull(values.getAsLong(DatabasePersistence.COLUMN_PAYLOAD_ID));
+                        assertTrue(payload.contains("\"name\""));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+
+            /* All logs are read back as they were stored. */
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test/one", Collections.<String>emptyList(), 10, outputLogs, null);
+            assertEquals(logs, outputLogs);
+
+            /* Shared payload is deleted with the last log using it. */
+            persistence.deleteLogs("test/one", batchId);
+            assertEquals(0, persistence.countLogs("test/one"));
+            SQLiteDatabase database = sContext.openOrCreateDatabase(DatabasePersistence.DATABASE, Context.MODE_PRIVATE, null);
+            try {
+                assertEquals(0, DatabaseUtils.queryNumEntries(database, DatabasePersistence.PAYLOADS_TABLE));
+            } finally {
+                database.close();
+            }
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putCommonSchemaLogCopyAfterSharedPayloadDeleted() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Same event converted for 3 targets. */
+            Data data = new Data();
+            data.getProperties().put("a", "b");
+            Date timestamp = new Date();
+            List<CommonSchemaLog> logs = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                CommonSchemaLog log = new MockCommonSchemaLog();
+                log.setVer("3.0");
+                log.setName("test");
+                log.setTimestamp(timestamp);
+                log.setIKey("o:key" + i);
+                log.setData(data);
+                log.addTransmissionTarget("key" + i + "-token");
+                logs.add(log);
+            }
+            persistence.putLog(logs.get(0), "test/one", PERSISTENCE_NORMAL);
+            persistence.putLog(logs.get(1), "test/one", PERSISTENCE_NORMAL);
+
+            /* Delete the stored logs like when storage is full, the shared payload is deleted with them. */
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test/one", Collections.<String>emptyList(), 10, outputLogs, null);
+            assertEquals(2, outputLogs.size());
+            persistence.deleteLogs("test/one", batchId);
+
+            /* Next copy is stored with its full payload. */
+            persistence.putLog(logs.get(2), "test/one", PERSISTENCE_NORMAL);
+            outputLogs.clear();
+            persistence.getLogs("test/one", Collections.<String>emptyList(), 10, outputLogs, null);
+            assertEquals(Collections.<Log>singletonList(logs.get(2)), outputLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putCommonSchemaLogsStoringTargetTokenOnce() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Logs of the same target share the same target token row. */
+            generateCsLogsWithIKey(persistence, "o:key1", 3);
+            generateCsLogsWithIKey(persistence, "o:key2", 2);
+            assertEquals(2, getTargetTokenCount());
+        } finally {
+            persistence.close();
+        }
+
+        /* Target tokens are reused after restart. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            generateCsLogsWithIKey(persistence, "o:key1", 1);
+            assertEquals(2, getTargetTokenCount());
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 10, outputLogs, null);
+            assertEquals(6, outputLogs.size());
+            for (Log log : outputLogs) {
+                assertEquals(Collections.singleton(((CommonSchemaLog) log).getIKey().substring(2) + "-token"), log.getTransmissionTargetTokens());
+            }
+
+            /* Delete logs of a target. */
+            persistence.deleteLogs("test");
+            generateCsLogsWithIKey(persistence, "o:key2", 1);
+        } finally {
+            persistence.close();
+        }
+
+        /* Unused target tokens are deleted after restart. */
+        persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            generateCsLogsWithIKey(persistence, "o:key2", 1);
+            assertEquals(1, getTargetTokenCount());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    private static long getTargetTokenCount() {
+        SQLiteDatabase database = sContext.openOrCreateDatabase(DatabasePersistence.DATABASE, Context.MODE_PRIVATE, null);
+        try {
+            return DatabaseUtils.queryNumEntries(database, DatabasePersistence.TARGET_TOKENS_TABLE);
+        } finally {
+            database.close();
+        }
+    }
+
     /**
      * Utility for getLogsFilteringOutPausedTargetKeys test.
      */
@@ -1168,6 +1363,8 @@ public class DatabasePersistenceAndroidTest {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_PAYLOAD_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN);
         oldSchema.remove(DatabasePersistence.COLUMN_DATA_TYPE);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_KEY);
@@ -1235,9 +1432,10 @@ public class DatabasePersistenceAndroidTest {
             assertEquals(1, outputLogs.size());
             assertEquals(commonSchemaLog, outputLogs.get(0));
 
-            /* Verify target token is encrypted. */
+            /* Verify target token is encrypted in the target tokens table. */
             ContentValues values = getContentValues(persistence, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            assertNull(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN));
+            String token = values.getAsString(DatabasePersistence.COLUMN_STORED_TARGET_TOKEN);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -1258,6 +1456,8 @@ public class DatabasePersistenceAndroidTest {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_PAYLOAD_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_KEY);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
@@ -1325,9 +1525,10 @@ public class DatabasePersistenceAndroidTest {
             assertEquals(1, outputLogs.size());
             assertEquals(commonSchemaLog, outputLogs.get(0));
 
-            /* Verify target token is encrypted. */
+            /* Verify target token is encrypted in the target tokens table. */
             ContentValues values = getContentValues(persistence, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            assertNull(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN));
+            String token = values.getAsString(DatabasePersistence.COLUMN_STORED_TARGET_TOKEN);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -1351,6 +1552,8 @@ public class DatabasePersistenceAndroidTest {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_PAYLOAD_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TARGET_KEY, oldSchema, mock(DatabaseManager.Listener.class));
@@ -1417,9 +1620,10 @@ public class DatabasePersistenceAndroidTest {
             assertEquals(1, outputLogs.size());
             assertEquals(commonSchemaLog, outputLogs.get(0));
 
-            /* Verify target token is encrypted. */
+            /* Verify target token is encrypted in the target tokens table. */
             ContentValues values = getContentValues(persistence, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            assertNull(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN));
+            String token = values.getAsString(DatabasePersistence.COLUMN_STORED_TARGET_TOKEN);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -1443,6 +1647,8 @@ public class DatabasePersistenceAndroidTest {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_PAYLOAD_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_PRIORITY_KEY, oldSchema, mock(DatabaseManager.Listener.class));
 
@@ -1509,9 +1715,10 @@ public class DatabasePersistenceAndroidTest {
             assertEquals(1, outputLogs.size());
             assertEquals(commonSchemaLog, outputLogs.get(0));
 
-            /* Verify target token is encrypted. */
+            /* Verify target token is encrypted in the target tokens table. */
             ContentValues values = getContentValues(persistence, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            assertNull(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN));
+            String token = values.getAsString(DatabasePersistence.COLUMN_STORED_TARGET_TOKEN);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -1529,4 +1736,49 @@ public class DatabasePersistenceAndroidTest {
             persistence.close();
         }
     }
+
+    @Test
+    public void upgradeFromVersion5to6() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old schema. */
+        ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_PAYLOAD_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TIMESTAMP, oldSchema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, MOCK_LOG_TYPE);
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, PERSISTENCE_NORMAL);
+            contentValues.put(DatabasePersistence.COLUMN_TIMESTAMP, oldLog.getTimestamp().getTime());
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade and get old data. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        try {
+            assertEquals(1, persistence.countLogs("test"));
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null);
+            assertEquals(1, outputLogs.size());
+            assertEquals(oldLog, outputLogs.get(0));
+
+            /* Delete triggers work on old logs. */
+            persistence.deleteLogs("test", batchId);
+            assertEquals(0, persistence.countLogs("test"));
+        } finally {
+            persistence.close();
+        }
+    }
 }
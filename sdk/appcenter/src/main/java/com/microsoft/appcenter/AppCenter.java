@@ -32,10 +32,12 @@ import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.IdHelper;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
 import com.microsoft.appcenter.utils.PrefStorageConstants;
+import com.microsoft.appcenter.utils.StartupTracer;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
 import com.microsoft.appcenter.utils.async.DefaultAppCenterFuture;
 import com.microsoft.appcenter.utils.context.SessionContext;
 import com.microsoft.appcenter.utils.context.UserIdContext;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.FileManager;
 import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
@@ -73,6 +75,11 @@ public class AppCenter {
     @VisibleForTesting
     static final long MINIMUM_STORAGE_SIZE = 24 * 1024;
 
+    /**
+     * Component name of startup trace spans of this class.
+     */
+    private static final String TRACE_COMPONENT = "AppCenter";
+
     /**
      * Group for sending logs.
      */
@@ -404,6 +411,28 @@ public class AppCenter {
         return getInstance().getInstanceInstallIdAsync();
     }
 
+    /**
+     * Enable or disable tracing of the SDK startup, disabled by default.
+     * Must be called before {@link #start(Application, String, Class[])} to trace configuration.
+     * Each phase of the configuration and each service {@code onStarting} and {@code onStarted}
+     * are recorded as spans, and the report is logged at debug level once services are started.
+     *
+     * @param enabled true to trace startup.
+     */
+    public static void setStartupTracingEnabled(boolean enabled) {
+        StartupTracer.setEnabled(enabled);
+    }
+
+    /**
+     * Get the startup trace, including phases queued in background before this call.
+     *
+     * @return future with result being the spans in the order they ended, empty if tracing is disabled.
+     * @see #setStartupTracingEnabled(boolean)
+     */
+    public static AppCenterFuture<List<StartupTracer.Span>> getStartupTrace() {
+        return getInstance().getInstanceStartupTraceAsync();
+    }
+
     /**
      * Set the SQLite database storage size. Returns true if the operation succeeded. If the new size
      * is smaller than the previous size (database is shrinking) and the capacity is greater than
@@ -636,9 +665,11 @@ public class AppCenter {
         mApplication = application;
 
         /* Start looper. */
+        long beginTime = StartupTracer.begin();
         mHandlerThread = new HandlerThread("AppCenter.Looper");
         mHandlerThread.start();
         mHandler = new Handler(mHandlerThread.getLooper());
+        StartupTracer.end(TRACE_COMPONENT, "startHandlerThread", beginTime);
         mAppCenterHandler = new AppCenterHandler() {
 
             @Override
@@ -743,16 +774,25 @@ public class AppCenter {
 
     @WorkerThread
     private void finishConfiguration(boolean configureFromApp) {
+        long finishConfigurationBeginTime = StartupTracer.begin();
 
         /* Load some global constants. */
+        long beginTime = StartupTracer.begin();
         Constants.loadFromContext(mApplication);
+        StartupTracer.end("Constants", "loadFromContext", beginTime);
 
         /* If parameters are valid, init context related resources. */
+        beginTime = StartupTracer.begin();
         FileManager.initialize(mApplication);
+        StartupTracer.end("FileManager", "initialize", beginTime);
+        beginTime = StartupTracer.begin();
         SharedPreferencesManager.initialize(mApplication);
+        StartupTracer.end("SharedPreferencesManager", "initialize", beginTime);
 
         /* Initialize session storage. */
+        beginTime = StartupTracer.begin();
         SessionContext.getInstance();
+        StartupTracer.end("SessionContext", "getInstance", beginTime);
 
         /* Get enabled state. */
         boolean enabled = isInstanceEnabled();
@@ -761,7 +801,9 @@ public class AppCenter {
         mLogSerializer = new DefaultLogSerializer();
         mLogSerializer.addLogFactory(StartServiceLog.TYPE, new StartServiceLogFactory());
         mLogSerializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        beginTime = StartupTracer.begin();
         mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, mHandler);
+        StartupTracer.end("DefaultChannel", "init", beginTime);
 
         /* Complete set maximum storage size future if starting from app. */
         if (configureFromApp) {
@@ -793,6 +835,18 @@ public class AppCenter {
         if (enabled) {
             mUncaughtExceptionHandler.register();
         }
+
+        /* Load key store after already queued work such as starting services, so that later crypto calls do not pay it. */
+        mHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                long beginTime = StartupTracer.begin();
+                CryptoUtils.getInstance(mApplication);
+                StartupTracer.end("CryptoUtils", "getInstance", beginTime);
+            }
+        });
+        StartupTracer.end(TRACE_COMPONENT, "finishConfiguration", finishConfigurationBeginTime);
         AppCenterLog.debug(LOG_TAG, "App Center initialized.");
     }
 
@@ -887,7 +941,9 @@ public class AppCenter {
             AppCenterLog.debug(LOG_TAG, "Instrumentation variable to disable service has been set; not starting service " + serviceName + ".");
             return false;
         } else {
+            long beginTime = StartupTracer.begin();
             serviceInstance.onStarting(mAppCenterHandler);
+            StartupTracer.end(serviceName, "onStarting", beginTime);
             mApplication.registerActivityLifecycleCallbacks(serviceInstance);
             mServices.add(serviceInstance);
             startedServices.add(serviceInstance);
@@ -897,6 +953,7 @@ public class AppCenter {
 
     @WorkerThread
     private void finishStartServices(Iterable<AppCenterService> updatedServices, Iterable<AppCenterService> startedServices, boolean startFromApp) {
+        long finishStartServicesBeginTime = StartupTracer.begin();
 
         /* Update existing services with app secret and/or transmission target. */
         for (AppCenterService service : updatedServices) {
@@ -916,6 +973,7 @@ public class AppCenter {
             if (!enabled && service.isInstanceEnabled()) {
                 service.setInstanceEnabled(false);
             }
+            long beginTime = StartupTracer.begin();
             if (startFromApp) {
                 service.onStarted(mApplication, mChannel, mAppSecret, mTransmissionTargetToken, true);
                 AppCenterLog.info(LOG_TAG, service.getClass().getSimpleName() + " service started from application.");
@@ -923,6 +981,7 @@ public class AppCenter {
                 service.onStarted(mApplication, mChannel, null, null, false);
                 AppCenterLog.info(LOG_TAG, service.getClass().getSimpleName() + " service started from library.");
             }
+            StartupTracer.end(service.getServiceName(), "onStarted", beginTime);
         }
 
         /* If starting from a library, we will send start service log later when app starts with an app secret. */
@@ -935,6 +994,10 @@ public class AppCenter {
             }
             sendStartServiceLog();
         }
+        StartupTracer.end(TRACE_COMPONENT, "finishStartServices", finishStartServicesBeginTime);
+        if (StartupTracer.isEnabled()) {
+            AppCenterLog.debug(LOG_TAG, "Startup trace:\n" + StartupTracer.getReport());
+        }
     }
 
     /**
@@ -1094,6 +1157,27 @@ public class AppCenter {
         return future;
     }
 
+    /**
+     * Implements {@link #getStartupTrace()}.
+     */
+    private synchronized AppCenterFuture<List<StartupTracer.Span>> getInstanceStartupTraceAsync() {
+        final DefaultAppCenterFuture<List<StartupTracer.Span>> future = new DefaultAppCenterFuture<>();
+
+        /* Wait for phases already queued in background, whether enabled or not. */
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    future.complete(StartupTracer.getSpans());
+                }
+            });
+        } else {
+            future.complete(StartupTracer.getSpans());
+        }
+        return future;
+    }
+
     /**
      * Implements {@link #getInstallId()}.
      */
@@ -47,6 +47,17 @@ public interface Channel {
      */
     void addGroup(String groupName, int maxLogsPerBatch, long batchTimeInterval, int maxParallelBatches, Ingestion ingestion, GroupListener groupListener);
 
+    /**
+     * Batch logs of a group by target key, so that a batch does not mix too many transmission targets.
+     *
+     * @param groupName             the name of a group.
+     * @param maxTargetKeysPerBatch maximum number of distinct target keys per batch.
+     * @param maxLogsPerTargetKey   maximum number of logs of a target key per batch.
+     * @param fanOut                true to send as many batches in parallel as the group allows when triggered,
+     *                              false to send one batch at a time.
+     */
+    void setTargetKeyBatching(String groupName, int maxTargetKeysPerBatch, int maxLogsPerTargetKey, boolean fanOut);
+
     /**
      * Remove a group for logs.
      *
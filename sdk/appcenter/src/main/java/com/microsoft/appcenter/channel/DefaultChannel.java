@@ -12,14 +12,17 @@ import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogWithDeferredData;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.SerializedModelCache;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.persistence.DatabasePersistence;
 import com.microsoft.appcenter.persistence.Persistence;
@@ -27,6 +30,7 @@ import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.IdHelper;
+import com.microsoft.appcenter.utils.StartupTracer;
 import com.microsoft.appcenter.utils.context.AuthTokenContext;
 
 import java.io.IOException;
@@ -53,6 +57,13 @@ public class DefaultChannel implements Channel {
     @VisibleForTesting
     static final int CLEAR_BATCH_SIZE = 100;
 
+    /**
+     * Maximum number of batches of critical logs sent in parallel across all groups,
+     * on top of the parallel batches of each group.
+     */
+    @VisibleForTesting
+    static final int MAX_PARALLEL_CRITICAL_BATCHES = 2;
+
     /**
      * Application context.
      */
@@ -120,6 +131,21 @@ public class DefaultChannel implements Channel {
      */
     private int mCurrentState;
 
+    /**
+     * Number of batches being sent in the critical lane, across all groups.
+     */
+    private int mSendingCriticalBatchCount;
+
+    /**
+     * Queueing delay of critical logs.
+     */
+    private final QueueingDelayStats mCriticalQueueingDelay = new QueueingDelayStats();
+
+    /**
+     * Queueing delay of normal logs.
+     */
+    private final QueueingDelayStats mNormalQueueingDelay = new QueueingDelayStats();
+
     /**
      * Creates and initializes a new instance.
      *
@@ -160,8 +186,10 @@ public class DefaultChannel implements Channel {
      * Init Persistence for default constructor.
      */
     private static Persistence buildDefaultPersistence(@NonNull Context context, @NonNull LogSerializer logSerializer) {
+        long beginTime = StartupTracer.begin();
         Persistence persistence = new DatabasePersistence(context);
         persistence.setLogSerializer(logSerializer);
+        StartupTracer.end("DatabasePersistence", "init", beginTime);
         return persistence;
     }
 
@@ -212,6 +240,7 @@ public class DefaultChannel implements Channel {
 
         /* Count pending logs. */
         groupState.mPendingLogCount = mPersistence.countLogs(groupName);
+        groupState.mPendingCriticalLogCount = mPersistence.countCriticalLogs(groupName);
 
         /*
          * If no app secret, don't resume sending App Center logs from storage.
@@ -230,6 +259,17 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    @Override
+    public synchronized void setTargetKeyBatching(String groupName, int maxTargetKeysPerBatch, int maxLogsPerTargetKey, boolean fanOut) {
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState != null) {
+            AppCenterLog.debug(LOG_TAG, "setTargetKeyBatching(" + groupName + ", " + maxTargetKeysPerBatch + ", " + maxLogsPerTargetKey + ", " + fanOut + ")");
+            groupState.mMaxTargetKeysPerBatch = maxTargetKeysPerBatch;
+            groupState.mMaxLogsPerTargetKey = maxLogsPerTargetKey;
+            groupState.mFanOut = fanOut;
+        }
+    }
+
     @Override
     public synchronized void removeGroup(String groupName) {
         AppCenterLog.debug(LOG_TAG, "removeGroup(" + groupName + ")");
@@ -283,6 +323,7 @@ public class DefaultChannel implements Channel {
                      */
                     AppCenterLog.debug(LOG_TAG, "resumeGroup(" + groupName + ", " + targetKey + ")");
                     groupState.mPendingLogCount = mPersistence.countLogs(groupName);
+                    groupState.mPendingCriticalLogCount = mPersistence.countCriticalLogs(groupName);
                     checkPendingLogs(groupState);
                 }
             } else if (groupState.mPaused) {
@@ -352,6 +393,7 @@ public class DefaultChannel implements Channel {
         }
         AppCenterLog.debug(LOG_TAG, "clear(" + groupName + ")");
         mPersistence.deleteLogs(groupName);
+        mGroupStates.get(groupName).mPendingCriticalLogCount = 0;
 
         /* Call listeners so that they can react on group clearing. */
         for (Listener listener : mListeners) {
@@ -362,6 +404,7 @@ public class DefaultChannel implements Channel {
     @Override
     public synchronized void invalidateDeviceCache() {
         mDevice = null;
+        SerializedModelCache.invalidateAll();
     }
 
     /**
@@ -374,8 +417,12 @@ public class DefaultChannel implements Channel {
         mEnabled = false;
         mDiscardLogs = deleteLogs;
         mCurrentState++;
+        mSendingCriticalBatchCount = 0;
         for (GroupState groupState : mGroupStates.values()) {
             cancelTimer(groupState);
+            groupState.mSendingCriticalBatches.clear();
+            groupState.mSendingCriticalLogCounts.clear();
+            groupState.mPostponeStartTime = 0;
 
             /* Delete all other batches and call callback method that are currently in progress. */
             for (Iterator<Map.Entry<String, List<Log>>> iterator = groupState.mSendingBatches.entrySet().iterator(); iterator.hasNext(); ) {
@@ -404,6 +451,11 @@ public class DefaultChannel implements Channel {
             }
         } else {
             mPersistence.clearPendingLogState();
+
+            /* Critical logs of batches being sent are pending again. */
+            for (GroupState groupState : mGroupStates.values()) {
+                groupState.mPendingCriticalLogCount = mPersistence.countCriticalLogs(groupState.mName);
+            }
         }
     }
 
@@ -420,6 +472,7 @@ public class DefaultChannel implements Channel {
             deleteLogsOnSuspended(groupState);
         } else {
             mPersistence.deleteLogs(groupState.mName);
+            groupState.mPendingCriticalLogCount = 0;
         }
     }
 
@@ -448,25 +501,162 @@ public class DefaultChannel implements Channel {
         AppCenterLog.debug(LOG_TAG, "triggerIngestion(" + groupState.mName + ") pendingLogCount=" + pendingLogCount);
         cancelTimer(groupState);
 
+        /* Critical logs are sorted first in storage, send them right away in their own lane. */
+        boolean criticalSent = false;
+        while (mEnabled && groupState.mPendingCriticalLogCount > 0 && mSendingCriticalBatchCount < MAX_PARALLEL_CRITICAL_BATCHES) {
+            if (!ingestBatch(groupState, Math.min(groupState.mPendingCriticalLogCount, groupState.mMaxLogsPerBatch), true)) {
+                break;
+            }
+            criticalSent = true;
+            maxFetch = Math.min(groupState.mPendingLogCount, groupState.mMaxLogsPerBatch);
+        }
+        if (criticalSent && maxFetch <= 0) {
+            return;
+        }
+
+        /* Other logs wait for the channel to be enabled again if sending failed. */
+        if (!mEnabled) {
+            return;
+        }
+
+        /*
+         * Other logs also wait for critical batches to complete, for at most one batch interval at a time
+         * so that a critical request that never completes does not hold them forever.
+         */
+        if (mSendingCriticalBatchCount > 0 && groupState.mPendingCriticalLogCount == 0) {
+            long now = System.currentTimeMillis();
+            if (groupState.mPostponeStartTime == 0) {
+                groupState.mPostponeStartTime = now;
+            }
+            if (now >= groupState.mPostponeStartTime && now - groupState.mPostponeStartTime < groupState.mBatchTimeInterval) {
+                AppCenterLog.debug(LOG_TAG, "Critical logs are being sent, postpone " + groupState.mName + " batch.");
+                groupState.mScheduled = true;
+                mAppCenterHandler.postDelayed(groupState.mRunnable, groupState.mBatchTimeInterval);
+                return;
+            }
+            AppCenterLog.debug(LOG_TAG, "Critical logs are still being sent, stop postponing " + groupState.mName + " batch.");
+        }
+        groupState.mPostponeStartTime = 0;
+
         /* Check if we have reached the maximum number of pending batches, log to LogCat and don't trigger another sending. */
-        if (groupState.mSendingBatches.size() == groupState.mMaxParallelBatches) {
+        if (getNormalSendingBatchCount(groupState) >= groupState.mMaxParallelBatches) {
             AppCenterLog.debug(LOG_TAG, "Already sending " + groupState.mMaxParallelBatches + " batches of analytics data to the server.");
             return;
         }
 
+        /* Send a batch, or fill every parallel batch slot at once when fanning out. */
+        while (ingestBatch(groupState, maxFetch, false) && groupState.mFanOut) {
+            maxFetch = Math.min(groupState.mPendingLogCount, groupState.mMaxLogsPerBatch);
+            if (maxFetch <= 0 || getNormalSendingBatchCount(groupState) >= groupState.mMaxParallelBatches) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Load data kept outside storage now that logs are being sent.
+     * Logs failing to load are removed from the batch, deleted from persistence and reported as failed.
+     *
+     * @param groupState the group state.
+     * @param batch      logs read from persistence.
+     * @param batchId    batch identifier.
+     */
+    private void loadDeferredData(@NonNull GroupState groupState, @NonNull List<Log> batch, @NonNull String batchId) {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            Log log = batch.get(i);
+            if (log instanceof LogWithDeferredData) {
+                try {
+                    ((LogWithDeferredData) log).loadData();
+                } catch (IOException e) {
+                    AppCenterLog.error(LOG_TAG, "Failed to load data of a log of type " + log.getType() + ", it will not be sent.", e);
+
+                    /* Going backwards keeps the index of the logs not checked yet. */
+                    batch.remove(i);
+                    mPersistence.deleteLog(groupState.mName, batchId, i);
+                    if (groupState.mListener != null) {
+                        groupState.mListener.onBeforeSending(log);
+                        groupState.mListener.onFailure(log, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of batches of a group being sent outside the critical lane.
+     *
+     * @param groupState the group state.
+     * @return number of batches.
+     */
+    private static int getNormalSendingBatchCount(@NonNull GroupState groupState) {
+        return groupState.mSendingBatches.size() - groupState.mSendingCriticalBatches.size();
+    }
+
+    /**
+     * Get a batch from persistence and send it.
+     *
+     * @param groupState the group state.
+     * @param maxFetch   maximum number of logs in the batch.
+     * @param critical   true to send the batch in the critical lane.
+     * @return true if a batch is being sent, false if there was no log to send.
+     */
+    private boolean ingestBatch(final @NonNull GroupState groupState, int maxFetch, boolean critical) {
+
         /* Get a batch from Persistence. */
         final List<Log> batch = new ArrayList<>(maxFetch);
         final int stateSnapshot = mCurrentState;
-        final String batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, batch, null);
+        final String batchId;
+        if (groupState.mMaxTargetKeysPerBatch > 0) {
+            batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, batch, null, groupState.mMaxTargetKeysPerBatch, groupState.mMaxLogsPerTargetKey);
+        } else {
+            batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, batch, null);
+        }
 
-        /* Decrement counter. */
-        groupState.mPendingLogCount -= maxFetch;
+        /*
+         * Decrement counter. Batches split by target key can be smaller than requested
+         * while more logs are pending, only count what we got in that case.
+         */
+        groupState.mPendingLogCount -= batchId != null && groupState.mMaxTargetKeysPerBatch > 0 ? batch.size() : maxFetch;
 
         /* Nothing more to do if no logs. */
         if (batchId == null) {
-            return;
+            groupState.mPendingCriticalLogCount = 0;
+            return false;
+        }
+
+        /*
+         * Critical logs are first in the batch as storage sorts by priority. When a batch read for
+         * critical logs has none, the remaining ones are being sent or excluded by paused target keys.
+         */
+        int criticalLogCount = groupState.mPendingCriticalLogCount > 0 ? Math.min(batch.size(), mPersistence.countCriticalLogs(groupState.mName, batchId)) : 0;
+        if (critical && criticalLogCount == 0) {
+            groupState.mPendingCriticalLogCount = 0;
+        } else {
+            groupState.mPendingCriticalLogCount = Math.max(0, groupState.mPendingCriticalLogCount - criticalLogCount);
+        }
+
+        /* Logs failing to load their data are deleted right away so that retries do not fail them again. */
+        loadDeferredData(groupState, batch, batchId);
+        if (batch.isEmpty()) {
+            mPersistence.deleteLogs(groupState.mName, batchId);
+            return true;
+        }
+        criticalLogCount = Math.min(criticalLogCount, batch.size());
+        if (criticalLogCount > 0) {
+            groupState.mSendingCriticalLogCounts.put(batchId, criticalLogCount);
+        }
+        if (critical) {
+            groupState.mSendingCriticalBatches.add(batchId);
+            mSendingCriticalBatchCount++;
         }
-        AppCenterLog.debug(LOG_TAG, "ingestLogs(" + groupState.mName + "," + batchId + ") pendingLogCount=" + groupState.mPendingLogCount);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < batch.size(); i++) {
+            Date timestamp = batch.get(i).getTimestamp();
+            if (timestamp != null) {
+                (i < criticalLogCount ? mCriticalQueueingDelay : mNormalQueueingDelay).record(now - timestamp.getTime());
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "ingestLogs(" + groupState.mName + "," + batchId + ") pendingLogCount=" + groupState.mPendingLogCount + " criticalLogCount=" + criticalLogCount);
 
         /* Call group listener before sending logs to ingestion service. */
         if (groupState.mListener != null) {
@@ -498,6 +688,7 @@ public class DefaultChannel implements Channel {
                 sendLogs(groupState, stateSnapshot, batch, batchId);
             }
         });
+        return true;
     }
 
     /**
@@ -567,6 +758,7 @@ public class DefaultChannel implements Channel {
     private synchronized void handleSendingSuccess(@NonNull GroupState groupState, @NonNull String batchId) {
         List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
         if (removedLogsForBatchId != null) {
+            groupState.mSendingCriticalLogCounts.remove(batchId);
             mPersistence.deleteLogs(groupState.mName, batchId);
             GroupListener groupListener = groupState.mListener;
             if (groupListener != null) {
@@ -574,8 +766,28 @@ public class DefaultChannel implements Channel {
                     groupListener.onSuccess(log);
                 }
             }
-            checkPendingLogs(groupState);
+            if (!releaseCriticalLane(groupState, batchId)) {
+                checkPendingLogs(groupState);
+            }
+        }
+    }
+
+    /**
+     * Release the critical lane slot used by a batch, if any.
+     * When the lane becomes idle, the batches of other groups that were postponed are resumed.
+     *
+     * @param groupState the group state.
+     * @param batchId    the batch ID.
+     * @return true if all groups were checked for pending logs.
+     */
+    private boolean releaseCriticalLane(@NonNull GroupState groupState, @NonNull String batchId) {
+        if (groupState.mSendingCriticalBatches.remove(batchId) && --mSendingCriticalBatchCount == 0) {
+            for (GroupState state : mGroupStates.values()) {
+                checkPendingLogs(state);
+            }
+            return true;
         }
+        return false;
     }
 
     /**
@@ -593,8 +805,12 @@ public class DefaultChannel implements Channel {
         if (removedLogsForBatchId != null) {
             AppCenterLog.error(LOG_TAG, "Sending logs groupName=" + groupName + " id=" + batchId + " failed", e);
             boolean recoverableError = HttpUtils.isRecoverableError(e);
+            Integer criticalLogCount = groupState.mSendingCriticalLogCounts.remove(batchId);
             if (recoverableError) {
                 groupState.mPendingLogCount += removedLogsForBatchId.size();
+                if (criticalLogCount != null) {
+                    groupState.mPendingCriticalLogCount += criticalLogCount;
+                }
             } else {
                 GroupListener groupListener = groupState.mListener;
                 if (groupListener != null) {
@@ -698,6 +914,9 @@ public class DefaultChannel implements Channel {
 
             /* Increment counters and schedule ingestion if we are enabled. */
             groupState.mPendingLogCount++;
+            if (Flags.getPersistenceFlag(flags, false) == Flags.PERSISTENCE_CRITICAL) {
+                groupState.mPendingCriticalLogCount++;
+            }
             AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
             if (mEnabled) {
                 checkPendingLogs(groupState);
@@ -720,7 +939,7 @@ public class DefaultChannel implements Channel {
         }
         long pendingLogCount = groupState.mPendingLogCount;
         AppCenterLog.debug(LOG_TAG, "checkPendingLogs(" + groupState.mName + ") pendingLogCount=" + pendingLogCount);
-        if (pendingLogCount >= groupState.mMaxLogsPerBatch) {
+        if (pendingLogCount >= groupState.mMaxLogsPerBatch || groupState.mPendingCriticalLogCount > 0) {
             triggerIngestion(groupState);
         } else if (pendingLogCount > 0 && !groupState.mScheduled) {
             groupState.mScheduled = true;
@@ -728,6 +947,17 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * Get the queueing delay of logs sent since the channel was created,
+     * measured from log timestamp to the time the log is read from storage to be sent.
+     *
+     * @param priority {@link Flags#PERSISTENCE_CRITICAL} or {@link Flags#PERSISTENCE_NORMAL}.
+     * @return queueing delay statistics.
+     */
+    public QueueingDelayStats getQueueingDelayStats(int priority) {
+        return priority == Flags.PERSISTENCE_CRITICAL ? mCriticalQueueingDelay : mNormalQueueingDelay;
+    }
+
     @VisibleForTesting
     GroupState getGroupState(@SuppressWarnings("SameParameterValue") String groupName) {
         return mGroupStates.get(groupName);
@@ -794,11 +1024,31 @@ public class DefaultChannel implements Channel {
          */
         int mPendingLogCount;
 
+        /**
+         * Pending critical log count not part of a batch yet, included in {@link #mPendingLogCount}.
+         */
+        int mPendingCriticalLogCount;
+
+        /**
+         * Identifiers of batches being sent in the critical lane.
+         */
+        final Set<String> mSendingCriticalBatches = new HashSet<>();
+
+        /**
+         * Number of critical logs by batch identifier, for batches being sent that contain critical logs.
+         */
+        final Map<String, Integer> mSendingCriticalLogCounts = new HashMap<>();
+
         /**
          * Is timer scheduled.
          */
         boolean mScheduled;
 
+        /**
+         * Time the sending of other logs started to be postponed while critical logs are being sent, 0 if not postponed.
+         */
+        long mPostponeStartTime;
+
         /**
          * Indicates if the group is paused.
          */
@@ -809,6 +1059,21 @@ public class DefaultChannel implements Channel {
          */
         final Collection<String> mPausedTargetKeys = new HashSet<>();
 
+        /**
+         * Maximum number of distinct target keys per batch, 0 if batches are not split by target key.
+         */
+        int mMaxTargetKeysPerBatch;
+
+        /**
+         * Maximum number of logs of a target key per batch.
+         */
+        int mMaxLogsPerTargetKey = Integer.MAX_VALUE;
+
+        /**
+         * Whether to fill every parallel batch slot when triggering ingestion.
+         */
+        boolean mFanOut;
+
         /**
          * Runnable that triggers ingestion of this group data
          * and triggers itself in {@link #mBatchTimeInterval} ms.
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
+
+/**
+ * Memory mapped file that persists One Collector epochs and sequence numbers by iKey.
+ * Saving a sequence number is a memory write, the system flushes the page to disk
+ * even if the process is killed, so no I/O is done per log.
+ */
+class EpochAndSeqFile {
+
+    /**
+     * File name relative to the files directory.
+     */
+    @VisibleForTesting
+    static final String FILE_NAME = "/appcenter/one_collector_seq";
+
+    /**
+     * Maximum number of iKeys persisted, others use a new epoch on every process start.
+     */
+    @VisibleForTesting
+    static final int MAX_IKEYS = 64;
+
+    /**
+     * Maximum iKey length in bytes.
+     */
+    private static final int MAX_IKEY_LENGTH = 94;
+
+    /**
+     * Marks a formatted file.
+     */
+    private static final int MAGIC = 0x41435351;
+
+    /**
+     * Header: magic and number of used slots.
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Slot: iKey length and bytes, epoch UUID and sequence number.
+     */
+    private static final int SLOT_SIZE = 128;
+
+    private static final int EPOCH_OFFSET = 2 + MAX_IKEY_LENGTH;
+
+    private static final int SEQ_OFFSET = EPOCH_OFFSET + 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * File, null to keep epochs and sequence numbers in memory only.
+     */
+    private final File mFile;
+
+    /**
+     * Mapped file content, null if not opened or failed to open.
+     */
+    private volatile MappedByteBuffer mBuffer;
+
+    /**
+     * Number of used slots.
+     */
+    private int mSlotCount;
+
+    /**
+     * Incremented on every {@link #clear()} so that slots handed out before are no longer written.
+     */
+    private int mGeneration;
+
+    /**
+     * Init.
+     *
+     * @param file file, null to keep epochs and sequence numbers in memory only.
+     */
+    EpochAndSeqFile(@Nullable File file) {
+        mFile = file;
+    }
+
+    /**
+     * Map the file and read the persisted epochs and sequence numbers.
+     *
+     * @return epochs and sequence numbers by iKey, empty if the file is new or cannot be read.
+     */
+    @NonNull
+    synchronized Map<String, OneCollectorChannelListener.EpochAndSeq> open() {
+        Map<String, OneCollectorChannelListener.EpochAndSeq> epochsAndSeqs = new HashMap<>();
+        if (mFile == null) {
+            return epochsAndSeqs;
+        }
+        RandomAccessFile randomAccessFile = null;
+        try {
+            File parent = mFile.getParentFile();
+            if (parent != null) {
+
+                /* noinspection ResultOfMethodCallIgnored */
+                parent.mkdirs();
+            }
+            randomAccessFile = new RandomAccessFile(mFile, "rw");
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + MAX_IKEYS * SLOT_SIZE);
+            int slotCount = buffer.getInt(4);
+            if (buffer.getInt(0) != MAGIC || slotCount < 0 || slotCount > MAX_IKEYS) {
+                buffer.putInt(0, MAGIC);
+                slotCount = 0;
+                buffer.putInt(4, slotCount);
+            }
+            for (int slot = 0; slot < slotCount; slot++) {
+                int offset = HEADER_SIZE + slot * SLOT_SIZE;
+                byte[] iKey = new byte[Math.min(buffer.getShort(offset), MAX_IKEY_LENGTH)];
+                for (int i = 0; i < iKey.length; i++) {
+                    iKey[i] = buffer.get(offset + 2 + i);
+                }
+                UUID epoch = new UUID(buffer.getLong(offset + EPOCH_OFFSET), buffer.getLong(offset + EPOCH_OFFSET + 8));
+                epochsAndSeqs.put(new String(iKey, UTF_8), new OneCollectorChannelListener.EpochAndSeq(epoch.toString(), buffer.getLong(offset + SEQ_OFFSET), slot, mGeneration));
+            }
+            mSlotCount = slotCount;
+            mBuffer = buffer;
+            AppCenterLog.debug(LOG_TAG, "Restored " + slotCount + " One Collector sequence numbers.");
+        } catch (IOException | RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Cannot open One Collector sequence numbers file, they will restart on next launch.", e);
+            epochsAndSeqs.clear();
+        } finally {
+
+            /* The mapping stays valid after closing the file. */
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+        return epochsAndSeqs;
+    }
+
+    /**
+     * Allocate a slot for a new iKey.
+     *
+     * @param iKey  iKey.
+     * @param epoch epoch.
+     * @return slot index or -1 if not persisted.
+     */
+    synchronized int add(@NonNull String iKey, @NonNull UUID epoch) {
+        MappedByteBuffer buffer = mBuffer;
+        byte[] iKeyBytes = iKey.getBytes(UTF_8);
+        if (buffer == null || mSlotCount >= MAX_IKEYS || iKeyBytes.length > MAX_IKEY_LENGTH) {
+            return -1;
+        }
+        int slot = mSlotCount;
+        int offset = HEADER_SIZE + slot * SLOT_SIZE;
+        buffer.putShort(offset, (short) iKeyBytes.length);
+        for (int i = 0; i < iKeyBytes.length; i++) {
+            buffer.put(offset + 2 + i, iKeyBytes[i]);
+        }
+        buffer.putLong(offset + EPOCH_OFFSET, epoch.getMostSignificantBits());
+        buffer.putLong(offset + EPOCH_OFFSET + 8, epoch.getLeastSignificantBits());
+        buffer.putLong(offset + SEQ_OFFSET, 0);
+
+        /* Count slot last so that a partially written slot is never read. */
+        mSlotCount++;
+        buffer.putInt(4, mSlotCount);
+        return slot;
+    }
+
+    /**
+     * Get the generation of the slots currently handed out by {@link #open()} and {@link #add}.
+     *
+     * @return generation.
+     */
+    synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Save the last sequence number used for a slot.
+     *
+     * @param slot       slot index returned by {@link #add}, ignored if negative.
+     * @param generation generation the slot was allocated in, ignored if cleared since.
+     * @param seq        sequence number.
+     */
+    synchronized void saveSeq(int slot, int generation, long seq) {
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer != null && slot >= 0 && generation == mGeneration) {
+            buffer.putLong(HEADER_SIZE + slot * SLOT_SIZE + SEQ_OFFSET, seq);
+        }
+    }
+
+    /**
+     * Forget all epochs and sequence numbers.
+     */
+    synchronized void clear() {
+        mSlotCount = 0;
+        mGeneration++;
+        MappedByteBuffer buffer = mBuffer;
+        if (buffer != null) {
+            buffer.putInt(4, 0);
+        }
+    }
+}
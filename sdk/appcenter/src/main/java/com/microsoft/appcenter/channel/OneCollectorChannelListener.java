@@ -9,6 +9,7 @@ import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.OneCollectorIngestion;
 import com.microsoft.appcenter.ingestion.models.Log;
@@ -18,10 +19,11 @@ import com.microsoft.appcenter.ingestion.models.one.SdkExtension;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
+import java.io.File;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
 
@@ -74,10 +76,35 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
      */
     private final Ingestion mIngestion;
 
+    /**
+     * Maximum number of transmission targets per batch, 0 if logs are not batched by transmission target.
+     */
+    private int mMaxTargetKeysPerBatch;
+
+    /**
+     * Maximum number of logs of a transmission target per batch.
+     */
+    private int mMaxLogsPerTargetKey = ONE_COLLECTOR_TRIGGER_COUNT;
+
+    /**
+     * Whether to send batches of different transmission targets in parallel.
+     */
+    private boolean mFanOut;
+
     /**
      * Epochs and sequences grouped by iKey.
      */
-    private final Map<String, EpochAndSeq> mEpochsAndSeqsByIKey = new HashMap<>();
+    private final Map<String, EpochAndSeq> mEpochsAndSeqsByIKey = new ConcurrentHashMap<>();
+
+    /**
+     * Persists epochs and sequences so that they continue after a restart.
+     */
+    private final EpochAndSeqFile mEpochAndSeqFile;
+
+    /**
+     * Whether epochs and sequences were read from file.
+     */
+    private boolean mEpochsAndSeqsRestored;
 
     /**
      * Init with channel.
@@ -97,6 +124,7 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
         mLogSerializer = logSerializer;
         mInstallId = installId;
         mIngestion = ingestion;
+        mEpochAndSeqFile = new EpochAndSeqFile(Constants.FILES_PATH == null ? null : new File(Constants.FILES_PATH + EpochAndSeqFile.FILE_NAME));
     }
 
     /**
@@ -108,6 +136,22 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
         mIngestion.setLogUrl(logUrl);
     }
 
+    /**
+     * Configure how logs of different transmission targets are batched together.
+     * Applies to groups added after this call. By default, logs are batched in storage order
+     * regardless of their transmission target. A limit of 10 transmission targets per batch
+     * bounds the API key header size when an application logs to many transmission targets.
+     *
+     * @param maxTargetKeysPerBatch maximum number of transmission targets per batch, 1 to send each target separately.
+     * @param maxLogsPerTargetKey   maximum number of logs of a transmission target per batch.
+     * @param fanOut                true to send batches of different transmission targets in parallel.
+     */
+    public void setTargetKeyBatching(int maxTargetKeysPerBatch, int maxLogsPerTargetKey, boolean fanOut) {
+        mMaxTargetKeysPerBatch = maxTargetKeysPerBatch;
+        mMaxLogsPerTargetKey = maxLogsPerTargetKey;
+        mFanOut = fanOut;
+    }
+
     @Override
     public void onGroupAdded(@NonNull String groupName, Channel.GroupListener groupListener) {
         if (isOneCollectorGroup(groupName)) {
@@ -115,6 +159,9 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
         }
         String oneCollectorGroupName = getOneCollectorGroupName(groupName);
         mChannel.addGroup(oneCollectorGroupName, ONE_COLLECTOR_TRIGGER_COUNT, ONE_COLLECTOR_TRIGGER_INTERVAL, ONE_COLLECTOR_TRIGGER_MAX_PARALLEL_REQUESTS, mIngestion, groupListener);
+        if (mMaxTargetKeysPerBatch > 0) {
+            mChannel.setTargetKeyBatching(oneCollectorGroupName, mMaxTargetKeysPerBatch, mMaxLogsPerTargetKey, mFanOut);
+        }
     }
 
     @Override
@@ -150,14 +197,10 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
             commonSchemaLog.setFlags((long) flags);
 
             /* Add SDK extension missing fields: installId, epoch and seq. libVer is already set. */
-            EpochAndSeq epochAndSeq = mEpochsAndSeqsByIKey.get(commonSchemaLog.getIKey());
-            if (epochAndSeq == null) {
-                epochAndSeq = new EpochAndSeq(UUIDUtils.randomUUID().toString());
-                mEpochsAndSeqsByIKey.put(commonSchemaLog.getIKey(), epochAndSeq);
-            }
+            EpochAndSeq epochAndSeq = getEpochAndSeq(commonSchemaLog.getIKey());
             SdkExtension sdk = commonSchemaLog.getExt().getSdk();
             sdk.setEpoch(epochAndSeq.epoch);
-            sdk.setSeq(++epochAndSeq.seq);
+            sdk.setSeq(epochAndSeq.nextSeq(mEpochAndSeqFile));
             sdk.setInstallId(mInstallId);
         }
 
@@ -168,6 +211,32 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
         }
     }
 
+    /**
+     * Get epoch and sequence of an iKey, restoring them from file the first time.
+     *
+     * @param iKey iKey.
+     * @return epoch and sequence.
+     */
+    @NonNull
+    private EpochAndSeq getEpochAndSeq(@NonNull String iKey) {
+        EpochAndSeq epochAndSeq = mEpochsAndSeqsByIKey.get(iKey);
+        if (epochAndSeq == null) {
+            synchronized (this) {
+                if (!mEpochsAndSeqsRestored) {
+                    mEpochsAndSeqsByIKey.putAll(mEpochAndSeqFile.open());
+                    mEpochsAndSeqsRestored = true;
+                }
+                epochAndSeq = mEpochsAndSeqsByIKey.get(iKey);
+                if (epochAndSeq == null) {
+                    UUID epoch = UUIDUtils.fastRandomUUID();
+                    epochAndSeq = new EpochAndSeq(epoch.toString(), 0, mEpochAndSeqFile.add(iKey, epoch), mEpochAndSeqFile.getGeneration());
+                    mEpochsAndSeqsByIKey.put(iKey, epochAndSeq);
+                }
+            }
+        }
+        return epochAndSeq;
+    }
+
     @Override
     public boolean shouldFilter(@NonNull Log log) {
 
@@ -232,30 +301,57 @@ public class OneCollectorChannelListener extends AbstractChannelListener {
     @Override
     public void onGloballyEnabled(boolean isEnabled) {
         if (!isEnabled) {
-            mEpochsAndSeqsByIKey.clear();
+            synchronized (this) {
+                mEpochsAndSeqsByIKey.clear();
+                mEpochAndSeqFile.clear();
+            }
         }
     }
 
     /**
      * Epoch and sequence number for logs.
      */
-    private static class EpochAndSeq {
+    static class EpochAndSeq {
 
         /**
          * Epoch.
          */
         final String epoch;
 
+        /**
+         * Slot in file, -1 if not persisted.
+         */
+        final int slot;
+
+        /**
+         * File generation the slot belongs to.
+         */
+        final int generation;
+
         /**
          * Sequence number.
          */
-        long seq;
+        private long seq;
 
         /**
          * Init.
          */
-        EpochAndSeq(String epoch) {
+        EpochAndSeq(String epoch, long seq, int slot, int generation) {
             this.epoch = epoch;
+            this.seq = seq;
+            this.slot = slot;
+            this.generation = generation;
+        }
+
+        /**
+         * Increment and persist sequence number, atomically per iKey.
+         *
+         * @param file file to persist sequence number to.
+         * @return new sequence number.
+         */
+        synchronized long nextSeq(EpochAndSeqFile file) {
+            file.saveSeq(slot, generation, ++seq);
+            return seq;
         }
     }
 }
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+/**
+ * Time spent by logs of a priority class between being created and being sent.
+ */
+public class QueueingDelayStats {
+
+    /**
+     * Number of logs sent.
+     */
+    private long mCount;
+
+    /**
+     * Sum of delays in milliseconds.
+     */
+    private long mTotalDelay;
+
+    /**
+     * Longest delay in milliseconds.
+     */
+    private long mMaxDelay;
+
+    /**
+     * Record the delay of a log being sent.
+     *
+     * @param delay delay in milliseconds.
+     */
+    synchronized void record(long delay) {
+        delay = Math.max(0, delay);
+        mCount++;
+        mTotalDelay += delay;
+        mMaxDelay = Math.max(mMaxDelay, delay);
+    }
+
+    /**
+     * Get the number of logs sent.
+     *
+     * @return number of logs sent.
+     */
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * Get the average delay.
+     *
+     * @return average delay in milliseconds, 0 if no log was sent.
+     */
+    public synchronized long getAverageDelay() {
+        return mCount == 0 ? 0 : mTotalDelay / mCount;
+    }
+
+    /**
+     * Get the longest delay.
+     *
+     * @return longest delay in milliseconds.
+     */
+    public synchronized long getMaxDelay() {
+        return mMaxDelay;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "count=" + mCount + " averageDelay=" + getAverageDelay() + " maxDelay=" + mMaxDelay;
+    }
+}
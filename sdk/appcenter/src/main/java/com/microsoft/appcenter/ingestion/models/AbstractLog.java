@@ -166,11 +166,7 @@ public abstract class AbstractLog implements Log {
         JSONUtils.write(writer, SID, getSid());
         JSONUtils.write(writer, DISTRIBUTION_GROUP_ID, getDistributionGroupId());
         JSONUtils.write(writer, USER_ID, getUserId());
-        if (getDevice() != null) {
-            writer.key(DEVICE).object();
-            getDevice().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, DEVICE, getDevice());
     }
 
     @Override
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models;
+
+import java.io.IOException;
+
+/**
+ * Log with data kept outside storage, like in a file, until the log is sent.
+ */
+public interface LogWithDeferredData extends Log {
+
+    /**
+     * Load data kept outside storage. Called by the channel only when the log is about to be sent.
+     *
+     * @throws IOException if data cannot be loaded, the log is then failed instead of being sent.
+     */
+    void loadData() throws IOException;
+}
@@ -7,9 +7,14 @@ package com.microsoft.appcenter.ingestion.models.json;
 
 import android.support.annotation.NonNull;
 
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.Model;
+import com.microsoft.appcenter.ingestion.models.one.AppExtension;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.DeviceExtension;
+import com.microsoft.appcenter.ingestion.models.one.OsExtension;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -30,6 +35,62 @@ public class DefaultLogSerializer implements LogSerializer {
 
     private final Map<String, LogFactory> mLogFactories = new HashMap<>();
 
+    /**
+     * Serialized form of models that are the same in most logs, by model class.
+     */
+    private final Map<Class<? extends Model>, SerializedModelCache> mSerializedModelCaches = new HashMap<>();
+
+    public DefaultLogSerializer() {
+        mSerializedModelCaches.put(Device.class, new SerializedModelCache(new ModelFactory<Device>() {
+
+            @Override
+            public Device create() {
+                return new Device();
+            }
+
+            @Override
+            public List<Device> createList(int capacity) {
+                return new ArrayList<>(capacity);
+            }
+        }));
+        mSerializedModelCaches.put(DeviceExtension.class, new SerializedModelCache(new ModelFactory<DeviceExtension>() {
+
+            @Override
+            public DeviceExtension create() {
+                return new DeviceExtension();
+            }
+
+            @Override
+            public List<DeviceExtension> createList(int capacity) {
+                return new ArrayList<>(capacity);
+            }
+        }));
+        mSerializedModelCaches.put(OsExtension.class, new SerializedModelCache(new ModelFactory<OsExtension>() {
+
+            @Override
+            public OsExtension create() {
+                return new OsExtension();
+            }
+
+            @Override
+            public List<OsExtension> createList(int capacity) {
+                return new ArrayList<>(capacity);
+            }
+        }));
+        mSerializedModelCaches.put(AppExtension.class, new SerializedModelCache(new ModelFactory<AppExtension>() {
+
+            @Override
+            public AppExtension create() {
+                return new AppExtension();
+            }
+
+            @Override
+            public List<AppExtension> createList(int capacity) {
+                return new ArrayList<>(capacity);
+            }
+        }));
+    }
+
     @NonNull
     private JSONStringer writeLog(JSONStringer writer, Log log) throws JSONException {
         writer.object();
@@ -55,7 +116,7 @@ public class DefaultLogSerializer implements LogSerializer {
     @NonNull
     @Override
     public String serializeLog(@NonNull Log log) throws JSONException {
-        return writeLog(new JSONStringer(), log).toString();
+        return writeLog(new SplicingJSONStringer(mSerializedModelCaches), log).toString();
     }
 
     @NonNull
@@ -74,7 +135,7 @@ public class DefaultLogSerializer implements LogSerializer {
     public String serializeContainer(@NonNull LogContainer logContainer) throws JSONException {
 
         /* Init JSON serializer. */
-        JSONStringer writer = new JSONStringer();
+        JSONStringer writer = new SplicingJSONStringer(mSerializedModelCaches);
 
         /* Start writing JSON. */
         writer.object();
@@ -94,6 +94,19 @@ public final class JSONUtils {
         }
     }
 
+    public static void writeObject(JSONStringer writer, String key, Model value) throws JSONException {
+        if (value != null) {
+
+            /* Reuse the cached serialized form when the writer supports it. */
+            if (writer instanceof SplicingJSONStringer && ((SplicingJSONStringer) writer).splice(key, value)) {
+                return;
+            }
+            writer.key(key).object();
+            value.write(writer);
+            writer.endObject();
+        }
+    }
+
     public static void writeMap(JSONStringer writer, String key, Map<String, String> value) throws JSONException {
         if (value != null) {
             writer.key(key).object();
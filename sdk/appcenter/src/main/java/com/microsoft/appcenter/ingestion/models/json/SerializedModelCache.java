@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.ingestion.models.Model;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the serialized form of models that are the same for most logs (like device properties)
+ * so that they are written once instead of field by field in every log.
+ * <p>
+ * A few entries are kept by content: logs sent to several transmission targets carry one variant of
+ * the model per target, each of them stays cached.
+ */
+public class SerializedModelCache {
+
+    /**
+     * Maximum number of serialized models kept per cache.
+     */
+    @VisibleForTesting
+    static final int MAX_ENTRIES = 8;
+
+    /**
+     * Incremented by {@link #invalidateAll()}, caches drop their entries when they see a new value.
+     */
+    private static final AtomicInteger sGeneration = new AtomicInteger();
+
+    /**
+     * Factory used to make a private copy of the cached model.
+     */
+    private final ModelFactory<? extends Model> mFactory;
+
+    /**
+     * Serialized models by content hash code, least recently used first.
+     */
+    private final Map<Integer, Entry> mEntries = new LinkedHashMap<Integer, Entry>(MAX_ENTRIES, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Value of {@link #sGeneration} when entries were last cleared.
+     */
+    private int mGeneration = sGeneration.get();
+
+    /**
+     * Init.
+     *
+     * @param factory factory of the model type to cache.
+     */
+    public SerializedModelCache(@NonNull ModelFactory<? extends Model> factory) {
+        mFactory = factory;
+    }
+
+    /**
+     * Drop the entries of all caches.
+     * Called when the models they hold are known to be obsolete, like when device properties
+     * or wrapper SDK information change, so that stale entries do not wait to be evicted.
+     */
+    public static void invalidateAll() {
+        sGeneration.incrementAndGet();
+    }
+
+    /**
+     * Get the serialized JSON object of a model, serializing it only if it is not cached yet.
+     *
+     * @param model model to serialize.
+     * @return JSON object as a string.
+     * @throws JSONException if model cannot be serialized.
+     */
+    @NonNull
+    public String get(@NonNull Model model) throws JSONException {
+        int hashCode = model.hashCode();
+        synchronized (this) {
+            int generation = sGeneration.get();
+            if (generation != mGeneration) {
+                mEntries.clear();
+                mGeneration = generation;
+            }
+            Entry entry = mEntries.get(hashCode);
+            if (entry != null && entry.model.equals(model)) {
+                return entry.json;
+            }
+        }
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        model.write(writer);
+        writer.endObject();
+        String json = writer.toString();
+
+        /*
+         * Compare future models to a copy read back from JSON: models are mutable
+         * and the instance we were given could be modified after this call.
+         * If the copy is not equal (lossy serialization), don't cache at all.
+         */
+        Model snapshot = mFactory.create();
+        snapshot.read(new JSONObject(json));
+        if (snapshot.equals(model)) {
+            synchronized (this) {
+                mEntries.put(hashCode, new Entry(snapshot, json));
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Forget the cached serialized models.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Immutable pair of model and its serialized form.
+     */
+    private static class Entry {
+
+        final Model model;
+
+        final String json;
+
+        Entry(Model model, String json) {
+            this.model = model;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import com.microsoft.appcenter.ingestion.models.Model;
+
+import org.json.JSONException;
+import org.json.JSONStringer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * JSON writer that copies the cached serialized form of some models as is in the output
+ * instead of writing them field by field.
+ * <p>
+ * {@link JSONStringer} cannot append raw JSON, so a placeholder string value is written in place
+ * of each cached model and replaced by the cached JSON object in {@link #toString()}.
+ */
+public class SplicingJSONStringer extends JSONStringer {
+
+    /**
+     * Placeholder value, random per process so that it cannot collide with a real string value.
+     */
+    private static final String PLACEHOLDER = "appcenter-" + UUID.randomUUID();
+
+    /**
+     * Placeholder as it appears in the output.
+     */
+    private static final String QUOTED_PLACEHOLDER = "\"" + PLACEHOLDER + "\"";
+
+    /**
+     * Caches by model class.
+     */
+    private final Map<Class<? extends Model>, SerializedModelCache> mCaches;
+
+    /**
+     * Serialized models to copy in output, in the order placeholders were written.
+     */
+    private final List<String> mSplices = new ArrayList<>();
+
+    /**
+     * Total length of serialized models to copy, used to size the output.
+     */
+    private int mSplicesLength;
+
+    /**
+     * Init.
+     *
+     * @param caches caches by model class, models of other classes are written normally.
+     */
+    public SplicingJSONStringer(@NonNull Map<Class<? extends Model>, SerializedModelCache> caches) {
+        mCaches = caches;
+    }
+
+    /**
+     * Write a key and a model value using its cached serialized form if its class is cached.
+     *
+     * @param key   key.
+     * @param model model to write as value.
+     * @return true if the model was written, false if its class is not cached.
+     * @throws JSONException if the model cannot be serialized.
+     */
+    boolean splice(String key, Model model) throws JSONException {
+        SerializedModelCache cache = mCaches.get(model.getClass());
+        if (cache == null) {
+            return false;
+        }
+        String json = cache.get(model);
+        key(key).value(PLACEHOLDER);
+        mSplices.add(json);
+        mSplicesLength += json.length();
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        String json = super.toString();
+        if (json == null || mSplices.isEmpty()) {
+            return json;
+        }
+        StringBuilder builder = new StringBuilder(json.length() + mSplicesLength);
+        int start = 0;
+        for (String splice : mSplices) {
+            int index = json.indexOf(QUOTED_PLACEHOLDER, start);
+            builder.append(json, start, index).append(splice);
+            start = index + QUOTED_PLACEHOLDER.length();
+        }
+        builder.append(json, start, json.length());
+        return builder.toString();
+    }
+}
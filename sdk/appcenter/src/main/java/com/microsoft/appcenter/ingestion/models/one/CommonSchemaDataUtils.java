@@ -8,17 +8,14 @@ package com.microsoft.appcenter.ingestion.models.one;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
-import com.microsoft.appcenter.ingestion.models.properties.BooleanTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.DateTimeTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.DoubleTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.LongTypedProperty;
-import com.microsoft.appcenter.ingestion.models.properties.StringTypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
+import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyBag;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 
@@ -51,6 +48,16 @@ public class CommonSchemaDataUtils {
      * @param dest       destination common schema log.
      */
     public static void addCommonSchemaData(List<TypedProperty> properties, CommonSchemaLog dest) {
+        addCommonSchemaData(TypedPropertyBag.fromTypedProperties(properties), dest);
+    }
+
+    /**
+     * Adds part B and part C properties to a log and Part A metadata.
+     *
+     * @param properties custom properties as source of data.
+     * @param dest       destination common schema log.
+     */
+    public static void addCommonSchemaData(TypedPropertyBag properties, CommonSchemaLog dest) {
         if (properties == null) {
             return;
         }
@@ -62,22 +69,22 @@ public class CommonSchemaDataUtils {
 
             /* We also build Part A metadata extension at the same time to reflect the data. */
             MetadataExtension metadata = new MetadataExtension();
-            for (TypedProperty property : properties) {
+            for (int index = 0; index < properties.size(); index++) {
 
                 /* Validate property and get type. */
                 Object value;
                 try {
-                    value = validateProperty(property);
+                    value = validateProperty(properties, index);
                 } catch (IllegalArgumentException e) {
                     AppCenterLog.warn(LOG_TAG, e.getMessage());
                     continue;
                 }
 
                 /* Get metadata type. */
-                Integer metadataType = getMetadataType(property);
+                Integer metadataType = getMetadataType(properties.getType(index));
 
                 /* Split property name by dot. */
-                String key = property.getName();
+                String key = properties.getKey(index);
                 String[] keys = key.split("\\.", -1);
                 int lastIndex = keys.length - 1;
 
@@ -152,21 +159,23 @@ public class CommonSchemaDataUtils {
     /**
      * Validate typed property.
      *
-     * @param property typed property.
+     * @param properties typed properties.
+     * @param index      index of the property to validate.
      * @return property value.
      * @throws IllegalArgumentException if the property is invalid.
      * @throws JSONException            if JSON date formatting fails (never happens).
      */
-    private static Object validateProperty(TypedProperty property) throws IllegalArgumentException, JSONException {
+    private static Object validateProperty(TypedPropertyBag properties, int index) throws IllegalArgumentException, JSONException {
 
         /* Validate key not null. */
-        String key = property.getName();
+        String key = properties.getKey(index);
         if (key == null) {
             throw new IllegalArgumentException("Property key cannot be null.");
         }
 
         /* Validate baseType. */
-        if (key.equals(BASE_TYPE) && !(property instanceof StringTypedProperty)) {
+        int type = properties.getType(index);
+        if (key.equals(BASE_TYPE) && type != TypedPropertyBag.TYPE_STRING) {
             throw new IllegalArgumentException("baseType must be a string.");
         }
         if (key.startsWith(BASE_TYPE + ".")) {
@@ -178,50 +187,50 @@ public class CommonSchemaDataUtils {
             throw new IllegalArgumentException("baseData must be an object.");
         }
 
-        /* Get value from property. */
-        Object value;
-        if (property instanceof StringTypedProperty) {
-            StringTypedProperty stringTypedProperty = (StringTypedProperty) property;
-            value = stringTypedProperty.getValue();
-        } else if (property instanceof LongTypedProperty) {
-            LongTypedProperty longTypedProperty = (LongTypedProperty) property;
-            value = longTypedProperty.getValue();
-        } else if (property instanceof DoubleTypedProperty) {
-            DoubleTypedProperty doubleTypedProperty = (DoubleTypedProperty) property;
-            value = doubleTypedProperty.getValue();
-        } else if (property instanceof DateTimeTypedProperty) {
-            value = JSONDateUtils.toString(((DateTimeTypedProperty) property).getValue());
-        } else if (property instanceof BooleanTypedProperty) {
-            BooleanTypedProperty booleanTypedProperty = (BooleanTypedProperty) property;
-            value = booleanTypedProperty.getValue();
-        } else {
-            throw new IllegalArgumentException("Unsupported property type: " + property.getType());
-        }
-
         /* Validate value not null. */
-        if (value == null) {
+        if (properties.isNull(index)) {
             throw new IllegalArgumentException("Value of property with key '" + key + "' cannot be null.");
         }
-        return value;
+
+        /* Get value from property. */
+        switch (type) {
+            case TypedPropertyBag.TYPE_STRING:
+                return properties.getString(index);
+
+            case TypedPropertyBag.TYPE_LONG:
+                return properties.getLong(index);
+
+            case TypedPropertyBag.TYPE_DOUBLE:
+                return properties.getDouble(index);
+
+            case TypedPropertyBag.TYPE_DATETIME:
+                return JSONDateUtils.toString(new Date(properties.getDateTime(index)));
+
+            default:
+                return properties.getBoolean(index);
+        }
     }
 
     /**
-     * Get metadata type for the specified value.
+     * Get metadata type for the specified property type.
      *
-     * @param property property to check type.
+     * @param type property type tag.
      * @return metadata type or null if the type is a default one.
      */
-    private static Integer getMetadataType(TypedProperty property) {
-        if (property instanceof LongTypedProperty) {
-            return DATA_TYPE_INT64;
-        }
-        if (property instanceof DoubleTypedProperty) {
-            return DATA_TYPE_DOUBLE;
-        }
-        if (property instanceof DateTimeTypedProperty) {
-            return DATA_TYPE_DATETIME;
+    private static Integer getMetadataType(int type) {
+        switch (type) {
+            case TypedPropertyBag.TYPE_LONG:
+                return DATA_TYPE_INT64;
+
+            case TypedPropertyBag.TYPE_DOUBLE:
+                return DATA_TYPE_DOUBLE;
+
+            case TypedPropertyBag.TYPE_DATETIME:
+                return DATA_TYPE_DATETIME;
+
+            default:
+                return null;
         }
-        return null;
     }
 
     /**
@@ -6,6 +6,7 @@
 package com.microsoft.appcenter.ingestion.models.one;
 
 import com.microsoft.appcenter.ingestion.models.Model;
+import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -341,67 +342,31 @@ public class Extensions implements Model {
     public void write(JSONStringer writer) throws JSONException {
 
         /* Metadata. */
-        if (getMetadata() != null) {
-            writer.key(METADATA).object();
-            getMetadata().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, METADATA, getMetadata());
 
         /* Protocol. */
-        if (getProtocol() != null) {
-            writer.key(PROTOCOL).object();
-            getProtocol().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, PROTOCOL, getProtocol());
 
         /* User. */
-        if (getUser() != null) {
-            writer.key(USER).object();
-            getUser().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, USER, getUser());
 
         /* Device. */
-        if (getDevice() != null) {
-            writer.key(DEVICE).object();
-            getDevice().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, DEVICE, getDevice());
 
         /* Os. */
-        if (getOs() != null) {
-            writer.key(OS).object();
-            getOs().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, OS, getOs());
 
         /* App. */
-        if (getApp() != null) {
-            writer.key(APP).object();
-            getApp().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, APP, getApp());
 
         /* Net. */
-        if (getNet() != null) {
-            writer.key(NET).object();
-            getNet().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, NET, getNet());
 
         /* SDK. */
-        if (getSdk() != null) {
-            writer.key(SDK).object();
-            getSdk().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, SDK, getSdk());
 
         /* Loc. */
-        if (getLoc() != null) {
-            writer.key(LOC).object();
-            getLoc().write(writer);
-            writer.endObject();
-        }
+        JSONUtils.writeObject(writer, LOC, getLoc());
     }
 
     @Override
@@ -119,4 +119,46 @@ public class PartAUtils {
         /* Add device extension. */
         dest.getExt().setDevice(new DeviceExtension());
     }
+
+    /**
+     * Adds part A to a common schema log by copying the one converted for another transmission target
+     * of the same source log. Extensions that can be changed per target are copied, the others are shared.
+     *
+     * @param src                common schema log already converted for another transmission target.
+     * @param dest               destination common schema log.
+     * @param transmissionTarget transmission target to use.
+     */
+    public static void copyPartAFromLog(CommonSchemaLog src, CommonSchemaLog dest, String transmissionTarget) {
+
+        /* Add top level part A fields. */
+        dest.setVer(src.getVer());
+        dest.setTimestamp(src.getTimestamp());
+        dest.setIKey("o" + COMMON_SCHEMA_PREFIX_SEPARATOR + getTargetKey(transmissionTarget));
+        dest.addTransmissionTarget(transmissionTarget);
+        Extensions srcExt = src.getExt();
+        Extensions ext = new Extensions();
+        dest.setExt(ext);
+
+        /* Protocol tickets, user, app and device can be overridden per transmission target. */
+        ext.setProtocol(new ProtocolExtension());
+        ext.getProtocol().setDevModel(srcExt.getProtocol().getDevModel());
+        ext.getProtocol().setDevMake(srcExt.getProtocol().getDevMake());
+        ext.setUser(new UserExtension());
+        ext.getUser().setLocalId(srcExt.getUser().getLocalId());
+        ext.getUser().setLocale(srcExt.getUser().getLocale());
+        ext.setApp(new AppExtension());
+        ext.getApp().setVer(srcExt.getApp().getVer());
+        ext.getApp().setId(srcExt.getApp().getId());
+        ext.setDevice(new DeviceExtension());
+
+        /* Epoch and sequence are per transmission target. */
+        ext.setSdk(new SdkExtension());
+        ext.getSdk().setLibVer(srcExt.getSdk().getLibVer());
+
+        /* Other extensions are only read after conversion. */
+        ext.setOs(srcExt.getOs());
+        ext.setNet(srcExt.getNet());
+        ext.setLoc(srcExt.getLoc());
+        ext.setMetadata(srcExt.getMetadata());
+    }
 }
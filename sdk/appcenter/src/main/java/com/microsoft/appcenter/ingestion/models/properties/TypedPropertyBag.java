@@ -0,0 +1,711 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.properties;
+
+import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static com.microsoft.appcenter.ingestion.models.CommonProperties.NAME;
+import static com.microsoft.appcenter.ingestion.models.CommonProperties.TYPE;
+import static com.microsoft.appcenter.ingestion.models.CommonProperties.TYPED_PROPERTIES;
+import static com.microsoft.appcenter.ingestion.models.CommonProperties.VALUE;
+import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
+
+/**
+ * Typed properties stored in parallel arrays instead of one {@link TypedProperty} instance per entry.
+ * <p>
+ * Keys are kept in insertion order, numeric and boolean values are stored unboxed in primitive slots,
+ * dates are stored as milliseconds since epoch.
+ * <p>
+ * This class is not thread safe.
+ */
+public class TypedPropertyBag {
+
+    /**
+     * Boolean type tag.
+     */
+    public static final int TYPE_BOOLEAN = 1;
+
+    /**
+     * Date time type tag.
+     */
+    public static final int TYPE_DATETIME = 2;
+
+    /**
+     * Double type tag.
+     */
+    public static final int TYPE_DOUBLE = 3;
+
+    /**
+     * Long type tag.
+     */
+    public static final int TYPE_LONG = 4;
+
+    /**
+     * String type tag.
+     */
+    public static final int TYPE_STRING = 5;
+
+    /**
+     * Flag added to the type tag of a date time or string entry whose value is null.
+     */
+    private static final byte NULL_VALUE_FLAG = 0x10;
+
+    /**
+     * Mask to extract the type tag.
+     */
+    private static final byte TYPE_MASK = 0x0F;
+
+    /**
+     * Initial capacity when not specified.
+     */
+    private static final int DEFAULT_CAPACITY = 8;
+
+    /**
+     * Property keys.
+     */
+    private String[] mKeys;
+
+    /**
+     * Type tags, possibly combined with {@link #NULL_VALUE_FLAG}.
+     */
+    private byte[] mTypes;
+
+    /**
+     * Long, boolean (0 or 1) and date time (milliseconds) values.
+     */
+    private long[] mLongs;
+
+    /**
+     * Double values.
+     */
+    private double[] mDoubles;
+
+    /**
+     * String values.
+     */
+    private String[] mStrings;
+
+    /**
+     * Number of entries.
+     */
+    private int mSize;
+
+    /**
+     * Init an empty bag.
+     */
+    public TypedPropertyBag() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Init an empty bag able to hold the specified number of entries without resizing.
+     *
+     * @param capacity initial capacity.
+     */
+    public TypedPropertyBag(int capacity) {
+        capacity = Math.max(capacity, 1);
+        mKeys = new String[capacity];
+        mTypes = new byte[capacity];
+        mLongs = new long[capacity];
+        mDoubles = new double[capacity];
+        mStrings = new String[capacity];
+    }
+
+    /**
+     * Init a copy of another bag.
+     *
+     * @param other bag to copy.
+     */
+    public TypedPropertyBag(TypedPropertyBag other) {
+        this(other.mSize);
+        copyEntries(other, 0, this, 0, other.mSize);
+        mSize = other.mSize;
+    }
+
+    /**
+     * Convert a list of typed properties. Duplicate keys are kept as is, like in the list.
+     * Properties of unknown type are skipped.
+     *
+     * @param properties typed properties, can be null.
+     * @return converted bag or null if properties are null.
+     */
+    public static TypedPropertyBag fromTypedProperties(List<TypedProperty> properties) {
+        if (properties == null) {
+            return null;
+        }
+        TypedPropertyBag bag = new TypedPropertyBag(properties.size());
+        for (TypedProperty property : properties) {
+            bag.add(property);
+        }
+        return bag;
+    }
+
+    /**
+     * Read the typed properties array of a JSON object.
+     *
+     * @param object JSON object containing the typed properties array.
+     * @return bag or null if the object has no typed properties.
+     * @throws JSONException if JSON is invalid.
+     */
+    public static TypedPropertyBag read(JSONObject object) throws JSONException {
+        JSONArray jArray = object.optJSONArray(TYPED_PROPERTIES);
+        if (jArray == null) {
+            return null;
+        }
+        TypedPropertyBag bag = new TypedPropertyBag(jArray.length());
+        for (int i = 0; i < jArray.length(); i++) {
+            JSONObject jsonObject = jArray.getJSONObject(i);
+            String type = jsonObject.getString(TYPE);
+            String key = jsonObject.getString(NAME);
+            int index = bag.append(key);
+            if (BooleanTypedProperty.TYPE.equals(type)) {
+                bag.putBoolean(index, jsonObject.getBoolean(VALUE));
+            } else if (DateTimeTypedProperty.TYPE.equals(type)) {
+                bag.putDateTime(index, JSONDateUtils.toDate(jsonObject.getString(VALUE)));
+            } else if (DoubleTypedProperty.TYPE.equals(type)) {
+                bag.putDouble(index, jsonObject.getDouble(VALUE));
+            } else if (LongTypedProperty.TYPE.equals(type)) {
+                bag.putLong(index, jsonObject.getLong(VALUE));
+            } else if (StringTypedProperty.TYPE.equals(type)) {
+                bag.putString(index, jsonObject.getString(VALUE));
+            } else {
+                throw new JSONException("Unsupported type: " + type);
+            }
+        }
+        return bag;
+    }
+
+    /**
+     * Write the typed properties array, in the same format as a list of {@link TypedProperty}.
+     *
+     * @param writer JSON writer.
+     * @throws JSONException if a date time value is null.
+     */
+    public void write(JSONStringer writer) throws JSONException {
+        writer.key(TYPED_PROPERTIES).array();
+        for (int i = 0; i < mSize; i++) {
+            writer.object();
+            writer.key(TYPE).value(getTypeName(i));
+            writer.key(NAME).value(mKeys[i]);
+            writer.key(VALUE);
+            switch (getType(i)) {
+                case TYPE_BOOLEAN:
+                    writer.value(getBoolean(i));
+                    break;
+
+                case TYPE_DATETIME:
+                    writer.value(JSONDateUtils.toString(isNull(i) ? null : new Date(mLongs[i])));
+                    break;
+
+                case TYPE_DOUBLE:
+                    writer.value(mDoubles[i]);
+                    break;
+
+                case TYPE_LONG:
+                    writer.value(mLongs[i]);
+                    break;
+
+                default:
+                    writer.value(mStrings[i]);
+            }
+            writer.endObject();
+        }
+        writer.endArray();
+    }
+
+    /**
+     * Get the number of entries.
+     *
+     * @return number of entries.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Check if bag is empty.
+     *
+     * @return true if empty.
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Get index of the first entry with the specified key.
+     *
+     * @param key key, can be null.
+     * @return index or -1 if not found.
+     */
+    public int indexOf(String key) {
+        for (int i = 0; i < mSize; i++) {
+            String k = mKeys[i];
+            if (key == null ? k == null : key.equals(k)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if an entry exists for the specified key.
+     *
+     * @param key key.
+     * @return true if an entry exists.
+     */
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Set a boolean value, replacing any existing value for the same key.
+     *
+     * @param key   key.
+     * @param value value.
+     */
+    public void set(String key, boolean value) {
+        putBoolean(indexForSet(key), value);
+    }
+
+    /**
+     * Set a date time value, replacing any existing value for the same key.
+     *
+     * @param key   key.
+     * @param value value.
+     */
+    public void set(String key, Date value) {
+        putDateTime(indexForSet(key), value);
+    }
+
+    /**
+     * Set a double value, replacing any existing value for the same key.
+     *
+     * @param key   key.
+     * @param value value.
+     */
+    public void set(String key, double value) {
+        putDouble(indexForSet(key), value);
+    }
+
+    /**
+     * Set a long value, replacing any existing value for the same key.
+     *
+     * @param key   key.
+     * @param value value.
+     */
+    public void set(String key, long value) {
+        putLong(indexForSet(key), value);
+    }
+
+    /**
+     * Set a string value, replacing any existing value for the same key.
+     *
+     * @param key   key.
+     * @param value value.
+     */
+    public void set(String key, String value) {
+        putString(indexForSet(key), value);
+    }
+
+    /**
+     * Append a typed property. Unknown types are skipped.
+     *
+     * @param property property to append.
+     */
+    public void add(TypedProperty property) {
+        if (property instanceof BooleanTypedProperty) {
+            putBoolean(append(property.getName()), ((BooleanTypedProperty) property).getValue());
+        } else if (property instanceof DateTimeTypedProperty) {
+            putDateTime(append(property.getName()), ((DateTimeTypedProperty) property).getValue());
+        } else if (property instanceof DoubleTypedProperty) {
+            putDouble(append(property.getName()), ((DoubleTypedProperty) property).getValue());
+        } else if (property instanceof LongTypedProperty) {
+            putLong(append(property.getName()), ((LongTypedProperty) property).getValue());
+        } else if (property instanceof StringTypedProperty) {
+            putString(append(property.getName()), ((StringTypedProperty) property).getValue());
+        } else {
+            AppCenterLog.warn(LOG_TAG, "Unsupported property type: " + property.getType());
+        }
+    }
+
+    /**
+     * Copy all entries of another bag, replacing existing values for the same keys.
+     *
+     * @param other bag to copy from.
+     */
+    public void putAll(TypedPropertyBag other) {
+        for (int i = 0; i < other.mSize; i++) {
+            copyEntries(other, i, this, indexForSet(other.mKeys[i]), 1);
+        }
+    }
+
+    /**
+     * Copy entries of another bag whose keys are not already present in this bag.
+     *
+     * @param other bag to copy from.
+     */
+    public void putAllIfAbsent(TypedPropertyBag other) {
+        for (int i = 0; i < other.mSize; i++) {
+            if (indexOf(other.mKeys[i]) < 0) {
+                copyEntries(other, i, this, append(other.mKeys[i]), 1);
+            }
+        }
+    }
+
+    /**
+     * Remove the entry with the specified key if present.
+     *
+     * @param key key.
+     */
+    public void remove(String key) {
+        int index = indexOf(key);
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    /**
+     * Remove entry at the specified index.
+     *
+     * @param index index.
+     */
+    public void removeAt(int index) {
+        int moved = mSize - index - 1;
+        if (moved > 0) {
+            copyEntries(this, index + 1, this, index, moved);
+        }
+        mSize--;
+        mKeys[mSize] = null;
+        mStrings[mSize] = null;
+    }
+
+    /**
+     * Truncate to the specified number of entries.
+     *
+     * @param size new size, if greater than current size, nothing happens.
+     */
+    public void truncate(int size) {
+        for (int i = size; i < mSize; i++) {
+            mKeys[i] = null;
+            mStrings[i] = null;
+        }
+        mSize = Math.min(mSize, size);
+    }
+
+    /**
+     * Get key at the specified index.
+     *
+     * @param index index.
+     * @return key.
+     */
+    public String getKey(int index) {
+        return mKeys[index];
+    }
+
+    /**
+     * Replace key at the specified index.
+     *
+     * @param index index.
+     * @param key   new key.
+     */
+    public void setKey(int index, String key) {
+        mKeys[index] = key;
+    }
+
+    /**
+     * Get type tag at the specified index.
+     *
+     * @param index index.
+     * @return one of the TYPE_ constants.
+     */
+    public int getType(int index) {
+        return mTypes[index] & TYPE_MASK;
+    }
+
+    /**
+     * Get type name at the specified index, as used in {@link TypedProperty#getType()}.
+     *
+     * @param index index.
+     * @return type name.
+     */
+    public String getTypeName(int index) {
+        switch (getType(index)) {
+            case TYPE_BOOLEAN:
+                return BooleanTypedProperty.TYPE;
+
+            case TYPE_DATETIME:
+                return DateTimeTypedProperty.TYPE;
+
+            case TYPE_DOUBLE:
+                return DoubleTypedProperty.TYPE;
+
+            case TYPE_LONG:
+                return LongTypedProperty.TYPE;
+
+            default:
+                return StringTypedProperty.TYPE;
+        }
+    }
+
+    /**
+     * Check if the date time or string value at the specified index is null.
+     *
+     * @param index index.
+     * @return true if value is null.
+     */
+    public boolean isNull(int index) {
+        return (mTypes[index] & NULL_VALUE_FLAG) != 0;
+    }
+
+    /**
+     * Get boolean value at the specified index.
+     *
+     * @param index index.
+     * @return value.
+     */
+    public boolean getBoolean(int index) {
+        return mLongs[index] != 0;
+    }
+
+    /**
+     * Get date time value at the specified index, in milliseconds since epoch.
+     *
+     * @param index index.
+     * @return value.
+     */
+    public long getDateTime(int index) {
+        return mLongs[index];
+    }
+
+    /**
+     * Get double value at the specified index.
+     *
+     * @param index index.
+     * @return value.
+     */
+    public double getDouble(int index) {
+        return mDoubles[index];
+    }
+
+    /**
+     * Get long value at the specified index.
+     *
+     * @param index index.
+     * @return value.
+     */
+    public long getLong(int index) {
+        return mLongs[index];
+    }
+
+    /**
+     * Get string value at the specified index.
+     *
+     * @param index index.
+     * @return value.
+     */
+    public String getString(int index) {
+        return mStrings[index];
+    }
+
+    /**
+     * Replace the string value at the specified index, type becomes string.
+     *
+     * @param index index.
+     * @param value value.
+     */
+    public void setString(int index, String value) {
+        putString(index, value);
+    }
+
+    /**
+     * Get the entry with the specified key as a typed property.
+     *
+     * @param key key.
+     * @return typed property or null if not found.
+     */
+    public TypedProperty get(String key) {
+        int index = indexOf(key);
+        return index < 0 ? null : toTypedProperty(index);
+    }
+
+    /**
+     * Convert the entry at the specified index to a typed property.
+     *
+     * @param index index.
+     * @return new typed property instance.
+     */
+    public TypedProperty toTypedProperty(int index) {
+        TypedProperty property;
+        switch (getType(index)) {
+            case TYPE_BOOLEAN: {
+                BooleanTypedProperty typedProperty = new BooleanTypedProperty();
+                typedProperty.setValue(getBoolean(index));
+                property = typedProperty;
+                break;
+            }
+
+            case TYPE_DATETIME: {
+                DateTimeTypedProperty typedProperty = new DateTimeTypedProperty();
+                typedProperty.setValue(isNull(index) ? null : new Date(mLongs[index]));
+                property = typedProperty;
+                break;
+            }
+
+            case TYPE_DOUBLE: {
+                DoubleTypedProperty typedProperty = new DoubleTypedProperty();
+                typedProperty.setValue(mDoubles[index]);
+                property = typedProperty;
+                break;
+            }
+
+            case TYPE_LONG: {
+                LongTypedProperty typedProperty = new LongTypedProperty();
+                typedProperty.setValue(mLongs[index]);
+                property = typedProperty;
+                break;
+            }
+
+            default: {
+                StringTypedProperty typedProperty = new StringTypedProperty();
+                typedProperty.setValue(mStrings[index]);
+                property = typedProperty;
+            }
+        }
+        property.setName(mKeys[index]);
+        return property;
+    }
+
+    /**
+     * Convert all entries to typed properties.
+     *
+     * @return new list of typed properties.
+     */
+    public List<TypedProperty> toTypedProperties() {
+        List<TypedProperty> properties = new ArrayList<>(mSize);
+        for (int i = 0; i < mSize; i++) {
+            properties.add(toTypedProperty(i));
+        }
+        return properties;
+    }
+
+    private int indexForSet(String key) {
+        int index = indexOf(key);
+        return index < 0 ? append(key) : index;
+    }
+
+    private int append(String key) {
+        if (mSize == mKeys.length) {
+            int capacity = mSize * 2;
+            mKeys = Arrays.copyOf(mKeys, capacity);
+            mTypes = Arrays.copyOf(mTypes, capacity);
+            mLongs = Arrays.copyOf(mLongs, capacity);
+            mDoubles = Arrays.copyOf(mDoubles, capacity);
+            mStrings = Arrays.copyOf(mStrings, capacity);
+        }
+        mKeys[mSize] = key;
+        return mSize++;
+    }
+
+    private void putBoolean(int index, boolean value) {
+        mTypes[index] = TYPE_BOOLEAN;
+        mLongs[index] = value ? 1 : 0;
+        mStrings[index] = null;
+    }
+
+    private void putDateTime(int index, Date value) {
+        mTypes[index] = (byte) (value == null ? TYPE_DATETIME | NULL_VALUE_FLAG : TYPE_DATETIME);
+        mLongs[index] = value == null ? 0 : value.getTime();
+        mStrings[index] = null;
+    }
+
+    private void putDouble(int index, double value) {
+        mTypes[index] = TYPE_DOUBLE;
+        mDoubles[index] = value;
+        mStrings[index] = null;
+    }
+
+    private void putLong(int index, long value) {
+        mTypes[index] = TYPE_LONG;
+        mLongs[index] = value;
+        mStrings[index] = null;
+    }
+
+    private void putString(int index, String value) {
+        mTypes[index] = (byte) (value == null ? TYPE_STRING | NULL_VALUE_FLAG : TYPE_STRING);
+        mStrings[index] = value;
+    }
+
+    private static void copyEntries(TypedPropertyBag source, int sourceIndex, TypedPropertyBag destination, int destinationIndex, int length) {
+        System.arraycopy(source.mKeys, sourceIndex, destination.mKeys, destinationIndex, length);
+        System.arraycopy(source.mTypes, sourceIndex, destination.mTypes, destinationIndex, length);
+        System.arraycopy(source.mLongs, sourceIndex, destination.mLongs, destinationIndex, length);
+        System.arraycopy(source.mDoubles, sourceIndex, destination.mDoubles, destinationIndex, length);
+        System.arraycopy(source.mStrings, sourceIndex, destination.mStrings, destinationIndex, length);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        TypedPropertyBag that = (TypedPropertyBag) o;
+        if (mSize != that.mSize) return false;
+        for (int i = 0; i < mSize; i++) {
+            if (!equalsEntry(that, i)) return false;
+        }
+        return true;
+    }
+
+    private boolean equalsEntry(TypedPropertyBag that, int i) {
+        if (mTypes[i] != that.mTypes[i]) return false;
+        if (mKeys[i] != null ? !mKeys[i].equals(that.mKeys[i]) : that.mKeys[i] != null) return false;
+        switch (getType(i)) {
+            case TYPE_DOUBLE:
+                return Double.compare(mDoubles[i], that.mDoubles[i]) == 0;
+
+            case TYPE_STRING:
+                return mStrings[i] != null ? mStrings[i].equals(that.mStrings[i]) : that.mStrings[i] == null;
+
+            default:
+                return mLongs[i] == that.mLongs[i];
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < mSize; i++) {
+            result = 31 * result + mTypes[i];
+            result = 31 * result + (mKeys[i] != null ? mKeys[i].hashCode() : 0);
+            switch (getType(i)) {
+                case TYPE_DOUBLE: {
+                    long bits = Double.doubleToLongBits(mDoubles[i]);
+                    result = 31 * result + (int) (bits ^ (bits >>> 32));
+                    break;
+                }
+
+                case TYPE_STRING:
+                    result = 31 * result + (mStrings[i] != null ? mStrings[i].hashCode() : 0);
+                    break;
+
+                default:
+                    result = 31 * result + (int) (mLongs[i] ^ (mLongs[i] >>> 32));
+            }
+        }
+        return result;
+    }
+}
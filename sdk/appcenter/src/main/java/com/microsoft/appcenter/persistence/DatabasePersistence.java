@@ -19,15 +19,17 @@ import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
-import com.microsoft.appcenter.utils.UUIDUtils;
-import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
 import com.microsoft.appcenter.utils.storage.FileManager;
 import com.microsoft.appcenter.utils.storage.SQLiteUtils;
 
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
 
 import java.io.File;
 import java.io.IOException;
@@ -68,6 +70,19 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final int VERSION_PRIORITY_KEY = 4;
 
+    /**
+     * Version of the schema that introduced timestamp for logs.
+     */
+    @VisibleForTesting
+    static final int VERSION_TIMESTAMP = 5;
+
+    /**
+     * Version of the schema that introduced payloads shared by common schema logs
+     * and the target tokens table.
+     */
+    @VisibleForTesting
+    static final int VERSION_SHARED_PAYLOAD = 6;
+
     /**
      * Table name.
      */
@@ -116,11 +131,42 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final String COLUMN_PRIORITY = "priority";
 
+    /**
+     * Identifier of the payload shared with other logs, in the shared payloads table.
+     */
+    @VisibleForTesting
+    static final String COLUMN_PAYLOAD_ID = "payload_id";
+
+    /**
+     * Table of payloads shared by the common schema logs of an event sent to several targets.
+     */
+    @VisibleForTesting
+    static final String PAYLOADS_TABLE = "payloads";
+
+    /**
+     * Name of payload column in the shared payloads table.
+     */
+    @VisibleForTesting
+    static final String COLUMN_PAYLOAD = "payload";
+
+    /**
+     * Identifier of the target token in the target tokens table.
+     * Logs stored before that table existed have their encrypted target token in {@link #COLUMN_TARGET_TOKEN}.
+     */
+    @VisibleForTesting
+    static final String COLUMN_TARGET_TOKEN_ID = "target_token_id";
+
+    /**
+     * Table of encrypted target tokens, each distinct target token is encrypted and stored once.
+     */
+    @VisibleForTesting
+    static final String TARGET_TOKENS_TABLE = "target_tokens";
+
     /**
      * Table schema for Persistence.
      */
     @VisibleForTesting
-    static final ContentValues SCHEMA = getContentValues("", "", "", "", "", 0, 0L);
+    static final ContentValues SCHEMA = getContentValues("", "", "", "", "", 0, 0L, 0L, 0L);
 
     /**
      * Database name.
@@ -131,13 +177,76 @@ public class DatabasePersistence extends Persistence {
     /**
      * Current version of the schema.
      */
-    private static final int VERSION = 5;
+    private static final int VERSION = VERSION_SHARED_PAYLOAD;
 
     /**
      * Priority index.
      */
     private static final String INDEX_PRIORITY = "ix_" + TABLE + "_" + COLUMN_PRIORITY;
 
+    /**
+     * Payload identifier index.
+     */
+    private static final String INDEX_PAYLOAD_ID = "ix_" + TABLE + "_" + COLUMN_PAYLOAD_ID;
+
+    /**
+     * Trigger deleting a shared payload with its last log.
+     */
+    private static final String TRIGGER_DELETE_PAYLOAD = "tr_" + TABLE + "_delete_" + COLUMN_PAYLOAD;
+
+    /**
+     * Separator between the group name and the batch identifier in pending batch keys.
+     */
+    private static final char BATCH_KEY_SEPARATOR = '/';
+
+    /**
+     * Name of the selected column with the shared payload of a log.
+     */
+    private static final String COLUMN_SHARED_PAYLOAD = "shared_" + COLUMN_PAYLOAD;
+
+    /**
+     * Name of the selected column with the encrypted target token of a log from the target tokens table.
+     */
+    @VisibleForTesting
+    static final String COLUMN_STORED_TARGET_TOKEN = "stored_" + COLUMN_TARGET_TOKEN;
+
+    /**
+     * Columns to select logs: all columns, the shared payload and the stored target token if any.
+     */
+    @VisibleForTesting
+    static final String[] GET_COLUMNS = {
+            "*",
+            "(SELECT " + COLUMN_PAYLOAD + " FROM " + PAYLOADS_TABLE + " WHERE " + PAYLOADS_TABLE + "." + PRIMARY_KEY + " = " + TABLE + "." + COLUMN_PAYLOAD_ID + ") AS " + COLUMN_SHARED_PAYLOAD,
+            "(SELECT " + COLUMN_TARGET_TOKEN + " FROM " + TARGET_TOKENS_TABLE + " WHERE " + TARGET_TOKENS_TABLE + "." + PRIMARY_KEY + " = " + TABLE + "." + COLUMN_TARGET_TOKEN_ID + ") AS " + COLUMN_STORED_TARGET_TOKEN
+    };
+
+    /**
+     * Common schema instrumentation key field.
+     */
+    private static final String COMMON_SCHEMA_IKEY = "iKey";
+
+    /**
+     * Common schema flags field.
+     */
+    private static final String COMMON_SCHEMA_FLAGS = "flags";
+
+    /**
+     * Common schema extensions field.
+     */
+    private static final String COMMON_SCHEMA_EXT = "ext";
+
+    /**
+     * Common schema fields that differ between the logs of an event sent to several targets.
+     * Other fields are stored once in the shared payload.
+     */
+    private static final String[] COMMON_SCHEMA_TARGET_FIELDS = {COMMON_SCHEMA_IKEY, COMMON_SCHEMA_FLAGS, COMMON_SCHEMA_EXT};
+
+    /**
+     * Columns to select logs grouped by target key, before reading the payloads of selected logs.
+     */
+    @VisibleForTesting
+    static final String[] GET_TARGET_KEY_COLUMNS = {PRIMARY_KEY, COLUMN_TARGET_KEY};
+
     /**
      * Order by clause to select logs.
      */
@@ -166,27 +275,56 @@ public class DatabasePersistence extends Persistence {
     final DatabaseManager mDatabaseManager;
 
     /**
-     * Pending log groups. Key is a UUID and value is a list of database identifiers.
+     * Pending log groups. Key is built by {@link #getBatchKey} and value is a list of database identifiers.
      */
     @VisibleForTesting
     final Map<String, List<Long>> mPendingDbIdentifiersGroups;
 
     /**
-     * Pending logs across all groups.
+     * Number of critical logs of pending log groups, only for groups having critical logs. Key is built by {@link #getBatchKey}.
      */
     @VisibleForTesting
-    final Set<Long> mPendingDbIdentifiers;
+    final Map<String, Integer> mPendingCriticalLogCounts;
 
     /**
-     * Application context.
+     * Pending logs across all groups.
      */
-    private final Context mContext;
+    @VisibleForTesting
+    final Set<Long> mPendingDbIdentifiers;
 
     /**
      * Base directory to store large payloads outside of SQLite.
      */
     private final File mLargePayloadDirectory;
 
+    /**
+     * Encrypted target tokens, so that crypto is not done for every log.
+     */
+    @VisibleForTesting
+    final TargetTokenCache mTargetTokenCache;
+
+    /**
+     * Identifiers in the target tokens table by clear text target token, null until loaded.
+     */
+    private Map<String, Long> mTargetTokenIds;
+
+    /**
+     * Last batch identifier returned by {@link #getLogs}. Batch identifiers never leave the process
+     * so a counter is enough, there is no need for a random UUID.
+     */
+    private long mLastBatchId;
+
+    /**
+     * First common schema log stored for the last event. The logs of an event sent to several
+     * targets share the same part B and C instance, which tells when to store the shared payload.
+     */
+    private CommonSchemaLog mLastCommonSchemaLog;
+
+    /**
+     * Identifier of the shared payload of the last event sent to several targets, -1 if not stored.
+     */
+    private long mLastSharedPayloadId = -1;
+
     /**
      * Initializes variables with default values.
      *
@@ -204,18 +342,38 @@ public class DatabasePersistence extends Persistence {
      * @param schema  schema.
      */
     DatabasePersistence(Context context, int version, ContentValues schema) {
-        mContext = context;
         mPendingDbIdentifiersGroups = new HashMap<>();
+        mPendingCriticalLogCounts = new HashMap<>();
         mPendingDbIdentifiers = new HashSet<>();
+        mTargetTokenCache = new TargetTokenCache(context);
         mDatabaseManager = new DatabaseManager(context, DATABASE, TABLE, version, schema, new DatabaseManager.Listener() {
 
             private void createPriorityIndex(SQLiteDatabase db) {
                 db.execSQL("CREATE INDEX `" + INDEX_PRIORITY + "` ON " + TABLE + " (`" + COLUMN_PRIORITY + "`)");
             }
 
+            private void createPayloadsTable(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `" + PAYLOADS_TABLE + "` (" + PRIMARY_KEY + " INTEGER PRIMARY KEY AUTOINCREMENT, `" + COLUMN_PAYLOAD + "` TEXT)");
+                db.execSQL("CREATE INDEX IF NOT EXISTS `" + INDEX_PAYLOAD_ID + "` ON " + TABLE + " (`" + COLUMN_PAYLOAD_ID + "`)");
+
+                /* Whatever deletes logs (sent, cleared or evicted when full), delete payloads no longer used. */
+                db.execSQL("CREATE TRIGGER IF NOT EXISTS `" + TRIGGER_DELETE_PAYLOAD + "` AFTER DELETE ON " + TABLE +
+                        " WHEN old." + COLUMN_PAYLOAD_ID + " IS NOT NULL AND NOT EXISTS (SELECT 1 FROM " + TABLE + " WHERE " + COLUMN_PAYLOAD_ID + " = old." + COLUMN_PAYLOAD_ID + ")" +
+                        " BEGIN DELETE FROM " + PAYLOADS_TABLE + " WHERE " + PRIMARY_KEY + " = old." + COLUMN_PAYLOAD_ID + "; END");
+            }
+
+            private void createTargetTokensTable(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `" + TARGET_TOKENS_TABLE + "` (" + PRIMARY_KEY + " INTEGER PRIMARY KEY AUTOINCREMENT, `" + COLUMN_TARGET_TOKEN + "` TEXT)");
+            }
+
             @Override
             public void onCreate(SQLiteDatabase db) {
                 createPriorityIndex(db);
+                createPayloadsTable(db);
+                createTargetTokensTable(db);
+
+                /* When the logs table is dropped after a failed upgrade, the other tables are kept: drop their unused rows. */
+                db.execSQL("DELETE FROM `" + PAYLOADS_TABLE + "`");
             }
 
             @Override
@@ -232,8 +390,16 @@ public class DatabasePersistence extends Persistence {
                 if (oldVersion < VERSION_PRIORITY_KEY) {
                     db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_PRIORITY + "` INTEGER DEFAULT " + PERSISTENCE_NORMAL);
                 }
-                db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TIMESTAMP + "` INTEGER DEFAULT 0");
-                createPriorityIndex(db);
+                if (oldVersion < VERSION_TIMESTAMP) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TIMESTAMP + "` INTEGER DEFAULT 0");
+                    createPriorityIndex(db);
+                }
+                if (oldVersion < VERSION_SHARED_PAYLOAD) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_PAYLOAD_ID + "` INTEGER");
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TARGET_TOKEN_ID + "` INTEGER");
+                    createPayloadsTable(db);
+                    createTargetTokensTable(db);
+                }
                 return true;
             }
         });
@@ -248,12 +414,15 @@ public class DatabasePersistence extends Persistence {
      *
      * @param group       The group of the storage for the log.
      * @param logJ        The JSON string for a log.
-     * @param targetToken The target token if the log is common schema.
-     * @param targetKey   The project identifier part of the target token in clear text.
-     * @param priority    The persistence priority.
+     * @param targetToken   The encrypted target token if the log is common schema and the target token is not in the target tokens table.
+     * @param targetKey     The project identifier part of the target token in clear text.
+     * @param priority      The persistence priority.
+     * @param timestamp     The log timestamp.
+     * @param payloadId     The shared payload identifier if the log payload only has the target specific fields.
+     * @param targetTokenId The target token identifier in the target tokens table.
      * @return A {@link ContentValues} instance.
      */
-    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, String targetToken, String type, String targetKey, int priority, Long timestamp) {
+    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, String targetToken, String type, String targetKey, int priority, Long timestamp, Long payloadId, Long targetTokenId) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_GROUP, group);
         values.put(COLUMN_LOG, logJ);
@@ -262,6 +431,8 @@ public class DatabasePersistence extends Persistence {
         values.put(COLUMN_TARGET_KEY, targetKey);
         values.put(COLUMN_PRIORITY, priority);
         values.put(COLUMN_TIMESTAMP, timestamp);
+        values.put(COLUMN_PAYLOAD_ID, payloadId);
+        values.put(COLUMN_TARGET_TOKEN_ID, targetTokenId);
         return values;
     }
 
@@ -282,13 +453,23 @@ public class DatabasePersistence extends Persistence {
             boolean isLargePayload = payloadSize >= PAYLOAD_MAX_SIZE;
             String targetKey;
             String targetToken;
+            String databasePayload = payload;
+            Long payloadId = null;
+            Long targetTokenId = null;
             if (log instanceof CommonSchemaLog) {
                 if (isLargePayload) {
                     throw new PersistenceException("Log is larger than " + PAYLOAD_MAX_SIZE + " bytes, cannot send to OneCollector.");
                 }
                 targetToken = log.getTransmissionTargetTokens().iterator().next();
                 targetKey = PartAUtils.getTargetKey(targetToken);
-                targetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+                targetTokenId = getTargetTokenId(targetToken);
+                targetToken = targetTokenId == null ? mTargetTokenCache.encrypt(targetToken) : null;
+
+                /* Store only target specific fields if the same event was just stored for another target. */
+                payloadId = getSharedPayloadId((CommonSchemaLog) log);
+                if (payloadId != null) {
+                    databasePayload = serializeCommonSchemaTargetFields((CommonSchemaLog) log);
+                }
             } else {
                 targetKey = null;
                 targetToken = null;
@@ -301,8 +482,18 @@ public class DatabasePersistence extends Persistence {
                 throw new PersistenceException("Log is too large (" + payloadSize + " bytes) to store in database. " +
                         "Current maximum database size is " + maxSize + " bytes.");
             }
-            contentValues = getContentValues(group, isLargePayload ? null : payload, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false), log.getTimestamp().getTime());
+            contentValues = getContentValues(group, isLargePayload ? null : databasePayload, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false), log.getTimestamp().getTime(), payloadId, targetTokenId);
             long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY);
+            if (databaseId != -1 && payloadId != null && !isSharedPayloadStored(payloadId)) {
+
+                /* Storage was full and the other logs of the event were deleted with the shared payload. */
+                mDatabaseManager.delete(databaseId);
+                mLastCommonSchemaLog = null;
+                mLastSharedPayloadId = -1;
+                contentValues.put(COLUMN_LOG, payload);
+                contentValues.putNull(COLUMN_PAYLOAD_ID);
+                databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY);
+            }
             if (databaseId == -1) {
                 throw new PersistenceException("Failed to store a log to the Persistence database for log type " + log.getType() + ".");
             }
@@ -332,6 +523,195 @@ public class DatabasePersistence extends Persistence {
         }
     }
 
+    /**
+     * Get the identifier of a target token in the target tokens table, storing it encrypted the first time it is seen.
+     *
+     * @param targetToken clear text target token.
+     * @return identifier or null if the target token cannot be stored in the table.
+     */
+    @Nullable
+    private Long getTargetTokenId(@NonNull String targetToken) {
+        if (mTargetTokenIds == null) {
+            mTargetTokenIds = loadTargetTokenIds();
+        }
+        Long id = mTargetTokenIds.get(targetToken);
+        if (id == null) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_TARGET_TOKEN, mTargetTokenCache.encrypt(targetToken));
+            long insertedId = mDatabaseManager.insert(TARGET_TOKENS_TABLE, values);
+            if (insertedId == -1) {
+                return null;
+            }
+            id = insertedId;
+            mTargetTokenIds.put(targetToken, id);
+        }
+        return id;
+    }
+
+    /**
+     * Load the target tokens table, deleting target tokens no longer used by any log first.
+     * Rows are never deleted afterwards so that loaded identifiers stay valid.
+     * Each row is decrypted once, which also fills the cache used when reading logs back.
+     *
+     * @return identifiers by clear text target token.
+     */
+    @NonNull
+    private Map<String, Long> loadTargetTokenIds() {
+        Map<String, Long> targetTokenIds = new HashMap<>();
+        mDatabaseManager.delete(TARGET_TOKENS_TABLE, PRIMARY_KEY + " NOT IN (SELECT " + COLUMN_TARGET_TOKEN_ID + " FROM " + TABLE + " WHERE " + COLUMN_TARGET_TOKEN_ID + " IS NOT NULL)", null);
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(TARGET_TOKENS_TABLE, null, new String[]{PRIMARY_KEY, COLUMN_TARGET_TOKEN}, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    String encryptedToken = cursor.getString(1);
+                    String targetToken = encryptedToken == null ? null : mTargetTokenCache.decrypt(encryptedToken);
+                    if (targetToken != null && !targetToken.equals(encryptedToken) && !targetTokenIds.containsKey(targetToken)) {
+                        targetTokenIds.put(targetToken, cursor.getLong(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to load target tokens: ", e);
+        }
+        return targetTokenIds;
+    }
+
+    /**
+     * Get the shared payload identifier of a common schema log if it is a copy of the last one for another target.
+     * The first time a copy is seen, the shared part is stored in the shared payloads table.
+     *
+     * @param log common schema log.
+     * @return shared payload identifier, or null to store the payload as is.
+     * @throws JSONException if the shared part cannot be serialized.
+     */
+    @Nullable
+    private Long getSharedPayloadId(CommonSchemaLog log) throws JSONException {
+        CommonSchemaLog lastLog = mLastCommonSchemaLog;
+        if (lastLog == null || log.getData() == null || log.getData() != lastLog.getData() || !hasSameSharedFields(log, lastLog)) {
+            mLastCommonSchemaLog = log;
+            mLastSharedPayloadId = -1;
+            return null;
+        }
+        if (mLastSharedPayloadId == -1) {
+
+            /* The first log of the event keeps its full payload, store the shared part for the next ones. */
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_PAYLOAD, serializeCommonSchemaSharedFields(log));
+            mLastSharedPayloadId = mDatabaseManager.insert(PAYLOADS_TABLE, values);
+            if (mLastSharedPayloadId == -1) {
+                return null;
+            }
+            AppCenterLog.debug(LOG_TAG, "Stored a shared payload with databaseId=" + mLastSharedPayloadId);
+        }
+        return mLastSharedPayloadId;
+    }
+
+    /**
+     * Check if the shared payload is still stored, it's deleted with the last log using it.
+     */
+    private boolean isSharedPayloadStored(long payloadId) {
+        try {
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(PRIMARY_KEY + " = ?");
+            Cursor cursor = mDatabaseManager.getCursor(PAYLOADS_TABLE, builder, SELECT_PRIMARY_KEY, new String[]{String.valueOf(payloadId)}, null);
+            try {
+                return cursor.moveToNext();
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to check shared payload: ", e);
+            return false;
+        }
+    }
+
+    private static boolean hasSameSharedFields(CommonSchemaLog log, CommonSchemaLog otherLog) {
+        return equals(log.getVer(), otherLog.getVer()) &&
+                equals(log.getName(), otherLog.getName()) &&
+                equals(log.getTimestamp(), otherLog.getTimestamp()) &&
+                equals(log.getPopSample(), otherLog.getPopSample()) &&
+                equals(log.getCV(), otherLog.getCV());
+    }
+
+    private static boolean equals(Object object, Object otherObject) {
+        return object == null ? otherObject == null : object.equals(otherObject);
+    }
+
+    /**
+     * Serialize the fields of a common schema log that are not target specific.
+     * Target specific fields are cleared while serializing so that the log writes itself.
+     *
+     * @param log common schema log.
+     * @return shared part of the payload.
+     * @throws JSONException if JSON cannot be serialized.
+     */
+    private String serializeCommonSchemaSharedFields(CommonSchemaLog log) throws JSONException {
+        String iKey = log.getIKey();
+        Long flags = log.getFlags();
+        Extensions ext = log.getExt();
+        log.setIKey(null);
+        log.setFlags(null);
+        log.setExt(null);
+        try {
+            return getLogSerializer().serializeLog(log);
+        } finally {
+            log.setIKey(iKey);
+            log.setFlags(flags);
+            log.setExt(ext);
+        }
+    }
+
+    /**
+     * Serialize the target specific fields of a common schema log.
+     *
+     * @param log common schema log.
+     * @return target specific part of the payload.
+     * @throws JSONException if JSON cannot be serialized.
+     */
+    private static String serializeCommonSchemaTargetFields(CommonSchemaLog log) throws JSONException {
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        JSONUtils.write(writer, COMMON_SCHEMA_IKEY, log.getIKey());
+        JSONUtils.write(writer, COMMON_SCHEMA_FLAGS, log.getFlags());
+        if (log.getExt() != null) {
+            writer.key(COMMON_SCHEMA_EXT).object();
+            log.getExt().write(writer);
+            writer.endObject();
+        }
+        writer.endObject();
+        return writer.toString();
+    }
+
+    /**
+     * Merge the target specific fields of a common schema log in its shared payload.
+     *
+     * @param sharedPayload shared part of the payload.
+     * @param targetPayload target specific part of the payload.
+     * @return full payload.
+     * @throws JSONException if JSON cannot be parsed.
+     */
+    private static String mergeCommonSchemaPayload(String sharedPayload, String targetPayload) throws JSONException {
+        JSONObject json = new JSONObject(sharedPayload);
+        JSONObject targetJson = new JSONObject(targetPayload);
+        for (String field : COMMON_SCHEMA_TARGET_FIELDS) {
+            Object value = targetJson.opt(field);
+            if (value != null) {
+                json.put(field, value);
+            }
+        }
+        return json.toString();
+    }
+
+    /**
+     * Get the key of a pending batch, the separator prevents collisions like "a1" + "1" and "a" + "11".
+     */
+    @NonNull
+    private static String getBatchKey(@NonNull String group, @NonNull String id) {
+        return group + BATCH_KEY_SEPARATOR + id;
+    }
+
     @NonNull
     @VisibleForTesting
     File getLargePayloadGroupDirectory(String group) {
@@ -358,7 +738,8 @@ public class DatabasePersistence extends Persistence {
         AppCenterLog.debug(LOG_TAG, "Deleting logs from the Persistence database for " + group + " with " + id);
         AppCenterLog.debug(LOG_TAG, "The IDs for deleting log(s) is/are:");
 
-        List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.remove(group + id);
+        List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.remove(getBatchKey(group, id));
+        mPendingCriticalLogCounts.remove(getBatchKey(group, id));
         File directory = getLargePayloadGroupDirectory(group);
         if (dbIdentifiers != null) {
             for (Long dbIdentifier : dbIdentifiers) {
@@ -369,6 +750,17 @@ public class DatabasePersistence extends Persistence {
         }
     }
 
+    @Override
+    public void deleteLog(@NonNull String group, @NonNull String id, int index) {
+        List<Long> dbIdentifiers = mPendingDbIdentifiersGroups.get(getBatchKey(group, id));
+        if (dbIdentifiers != null && index >= 0 && index < dbIdentifiers.size()) {
+            Long dbIdentifier = dbIdentifiers.remove(index);
+            AppCenterLog.debug(LOG_TAG, "Deleting log " + dbIdentifier + " from the Persistence database for " + group + " with " + id);
+            deleteLog(getLargePayloadGroupDirectory(group), dbIdentifier);
+            mPendingDbIdentifiers.remove(dbIdentifier);
+        }
+    }
+
     @Override
     public void deleteLogs(String group) {
 
@@ -395,8 +787,11 @@ public class DatabasePersistence extends Persistence {
         /* Delete from pending state. */
         for (Iterator<String> iterator = mPendingDbIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
             String key = iterator.next();
-            if (key.startsWith(group)) {
+
+            /* Batch identifiers have no separator so the last one ends the group name. */
+            if (key.lastIndexOf(BATCH_KEY_SEPARATOR) == group.length() && key.startsWith(group)) {
                 iterator.remove();
+                mPendingCriticalLogCounts.remove(key);
             }
         }
     }
@@ -422,9 +817,44 @@ public class DatabasePersistence extends Persistence {
         return count;
     }
 
+    @Override
+    public int countCriticalLogs(@NonNull String group) {
+
+        /* Query database and get scanner. */
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.appendWhere(COLUMN_GROUP + " = ?");
+        builder.appendWhere(" AND ");
+        builder.appendWhere(COLUMN_PRIORITY + " = ?");
+        int count = 0;
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(builder, new String[]{"COUNT(*)"}, new String[]{group, String.valueOf(Flags.PERSISTENCE_CRITICAL)}, null);
+            try {
+                cursor.moveToNext();
+                count = cursor.getInt(0);
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to get critical logs count: ", e);
+        }
+        return count;
+    }
+
+    @Override
+    public int countCriticalLogs(@NonNull String group, @NonNull String id) {
+        Integer count = mPendingCriticalLogCounts.get(getBatchKey(group, id));
+        return count == null ? 0 : count;
+    }
+
     @Override
     @Nullable
     public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date timestamp) {
+        return getLogs(group, pausedTargetKeys, limit, outLogs, timestamp, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date timestamp, @IntRange(from = 1) int maxTargetKeys, @IntRange(from = 1) int maxLogsPerTargetKey) {
 
         /* Log. */
         AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the Persistence database for " + group);
@@ -451,17 +881,35 @@ public class DatabasePersistence extends Persistence {
             builder.appendWhere(COLUMN_TIMESTAMP + " <= ?");
             selectionArgs.add(String.valueOf(timestamp.getTime()));
         }
+        String[] selectionArgsArray = selectionArgs.toArray(new String[0]);
+
+        /* When grouping by target key, select identifiers first so that payloads of skipped logs are not read. */
+        if (maxTargetKeys != Integer.MAX_VALUE || maxLogsPerTargetKey != Integer.MAX_VALUE) {
+            List<String> dbIdentifiers = getTargetKeyBatchIds(builder, selectionArgsArray, limit, maxTargetKeys, maxLogsPerTargetKey);
+            if (dbIdentifiers.isEmpty()) {
+                AppCenterLog.debug(LOG_TAG, "No logs found in the Persistence database at the moment");
+                return null;
+            }
+            StringBuilder filter = new StringBuilder();
+            for (int i = 0; i < dbIdentifiers.size(); i++) {
+                filter.append("?,");
+            }
+            filter.deleteCharAt(filter.length() - 1);
+            builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(PRIMARY_KEY + " IN (" + filter.toString() + ")");
+            selectionArgsArray = dbIdentifiers.toArray(new String[0]);
+        }
 
         /* Add logs to output parameter after deserialization if logs are not already sent. */
         int count = 0;
         Map<Long, Log> candidates = new LinkedHashMap<>();
+        int criticalCount = 0;
         List<Long> failedDbIdentifiers = new ArrayList<>();
         File largePayloadGroupDirectory = getLargePayloadGroupDirectory(group);
-        String[] selectionArgsArray = selectionArgs.toArray(new String[0]);
         Cursor cursor = null;
         ContentValues values;
         try {
-            cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER);
+            cursor = mDatabaseManager.getCursor(builder, GET_COLUMNS, selectionArgsArray, GET_SORT_ORDER);
         } catch (RuntimeException e) {
             AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
         }
@@ -506,20 +954,32 @@ public class DatabasePersistence extends Persistence {
                             throw new JSONException("Log payload is null and not stored as a file.");
                         }
                     } else {
-                        logPayload = databasePayload;
+
+                        /* If the shared payload is missing, the target specific part alone fails to deserialize. */
+                        String sharedPayload = values.getAsString(COLUMN_SHARED_PAYLOAD);
+                        logPayload = sharedPayload == null ? databasePayload : mergeCommonSchemaPayload(sharedPayload, databasePayload);
                     }
                     String databasePayloadType = values.getAsString(COLUMN_DATA_TYPE);
                     Log log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
 
                     /* Restore target token. */
                     String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
+                    if (targetToken == null && values.containsKey(COLUMN_TARGET_TOKEN_ID)) {
+                        targetToken = values.getAsString(COLUMN_STORED_TARGET_TOKEN);
+                        if (targetToken == null) {
+                            throw new JSONException("Target token is missing from the target tokens table.");
+                        }
+                    }
                     if (targetToken != null) {
-                        CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(targetToken, false);
-                        log.addTransmissionTarget(data.getDecryptedData());
+                        log.addTransmissionTarget(mTargetTokenCache.decrypt(targetToken));
                     }
 
                     /* Add log to list and count. */
                     candidates.put(dbIdentifier, log);
+                    Integer priority = values.getAsInteger(COLUMN_PRIORITY);
+                    if (priority != null && priority == Flags.PERSISTENCE_CRITICAL) {
+                        criticalCount++;
+                    }
                     count++;
                 } catch (JSONException e) {
 
@@ -553,7 +1013,7 @@ public class DatabasePersistence extends Persistence {
         }
 
         /* Generate an ID. */
-        String id = UUIDUtils.randomUUID().toString();
+        String id = String.valueOf(++mLastBatchId);
 
         /* Log. */
         AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
@@ -576,7 +1036,10 @@ public class DatabasePersistence extends Persistence {
         }
 
         /* Update pending IDs. */
-        mPendingDbIdentifiersGroups.put(group + id, pendingDbIdentifiersGroup);
+        mPendingDbIdentifiersGroups.put(getBatchKey(group, id), pendingDbIdentifiersGroup);
+        if (criticalCount > 0) {
+            mPendingCriticalLogCounts.put(getBatchKey(group, id), criticalCount);
+        }
         return id;
     }
 
@@ -584,6 +1047,7 @@ public class DatabasePersistence extends Persistence {
     public void clearPendingLogState() {
         mPendingDbIdentifiers.clear();
         mPendingDbIdentifiersGroups.clear();
+        mPendingCriticalLogCounts.clear();
         AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
     }
 
@@ -592,6 +1056,41 @@ public class DatabasePersistence extends Persistence {
         mDatabaseManager.close();
     }
 
+    /**
+     * Select the identifiers of a batch grouped by target key, reading only identifiers and target keys.
+     * Logs are selected in storage order but logs of a target key are skipped once the batch
+     * contains {@code maxTargetKeys} target keys, or {@code maxLogsPerTargetKey} logs of this key.
+     */
+    @NonNull
+    private List<String> getTargetKeyBatchIds(SQLiteQueryBuilder builder, String[] selectionArgs, int limit, int maxTargetKeys, int maxLogsPerTargetKey) {
+        List<String> dbIdentifiers = new ArrayList<>();
+        Map<String, Integer> countsByTargetKey = new HashMap<>();
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(builder, GET_TARGET_KEY_COLUMNS, selectionArgs, GET_SORT_ORDER);
+            try {
+                ContentValues values;
+                while (dbIdentifiers.size() < limit && (values = mDatabaseManager.nextValues(cursor)) != null) {
+                    Long dbIdentifier = values.getAsLong(PRIMARY_KEY);
+                    if (dbIdentifier == null || mPendingDbIdentifiers.contains(dbIdentifier)) {
+                        continue;
+                    }
+                    String targetKey = values.getAsString(COLUMN_TARGET_KEY);
+                    Integer targetKeyCount = countsByTargetKey.get(targetKey);
+                    if (targetKeyCount == null ? countsByTargetKey.size() >= maxTargetKeys : targetKeyCount >= maxLogsPerTargetKey) {
+                        continue;
+                    }
+                    countsByTargetKey.put(targetKey, targetKeyCount == null ? 1 : targetKeyCount + 1);
+                    dbIdentifiers.add(String.valueOf(dbIdentifier));
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
+        }
+        return dbIdentifiers;
+    }
+
     private List<Long> getCorruptedIds(SQLiteQueryBuilder builder, String[] selectionArgs) {
         List<Long> result = new ArrayList<>();
         try {
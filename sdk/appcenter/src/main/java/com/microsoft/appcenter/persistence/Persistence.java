@@ -48,6 +48,18 @@ public abstract class Persistence implements Closeable {
      */
     public abstract void deleteLogs(@NonNull String group, @NonNull String id);
 
+    /**
+     * Deletes a single log of a batch returned by {@link #getLogs(String, Collection, int, List, Date)},
+     * the other logs of the batch stay pending.
+     * The default implementation does nothing and the log is deleted with the rest of the batch.
+     *
+     * @param group The group of the storage for logs.
+     * @param id    The ID returned by getLogs.
+     * @param index The index of the log in the list returned by getLogs, logs after it shift by one.
+     */
+    public void deleteLog(@NonNull String group, @NonNull String id, int index) {
+    }
+
     /**
      * Deletes all logs for the given {@code group}.
      *
@@ -63,6 +75,30 @@ public abstract class Persistence implements Closeable {
      */
     public abstract int countLogs(@NonNull String group);
 
+    /**
+     * Gets the number of logs stored with {@link com.microsoft.appcenter.Flags#PERSISTENCE_CRITICAL} for the given {@code group}.
+     * The default implementation does not track priorities and returns 0.
+     *
+     * @param group The group of the storage for logs.
+     * @return The number of critical logs for the given {@code group}.
+     */
+    public int countCriticalLogs(@NonNull String group) {
+        return 0;
+    }
+
+    /**
+     * Gets the number of logs stored with {@link com.microsoft.appcenter.Flags#PERSISTENCE_CRITICAL}
+     * in a batch returned by {@link #getLogs(String, Collection, int, List, Date)} and not deleted yet.
+     * The default implementation does not track priorities and returns 0.
+     *
+     * @param group The group of the storage for logs.
+     * @param id    The ID returned by getLogs.
+     * @return The number of critical logs in the batch.
+     */
+    public int countCriticalLogs(@NonNull String group, @NonNull String id) {
+        return 0;
+    }
+
     /**
      * Gets an array of logs for the given {@code group}.
      *
@@ -76,6 +112,26 @@ public abstract class Persistence implements Closeable {
     @Nullable
     public abstract String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date timestamp);
 
+    /**
+     * Gets an array of logs for the given {@code group}, grouped by target key.
+     * Logs are selected in storage order but logs of a target key are skipped once the batch
+     * contains {@code maxTargetKeys} target keys, or {@code maxLogsPerTargetKey} logs of this key.
+     * The default implementation ignores target keys.
+     *
+     * @param group               The group of the storage for logs.
+     * @param pausedTargetKeys    List of target token keys to exclude from the log query.
+     * @param limit               The max number of logs to be returned.
+     * @param outLogs             A list to receive {@link Log} objects.
+     * @param timestamp           A time to select only logs with time before specified.
+     * @param maxTargetKeys       The max number of distinct target keys in the batch.
+     * @param maxLogsPerTargetKey The max number of logs per target key in the batch.
+     * @return An ID for {@code outLogs}. {@code null} if no logs exist.
+     */
+    @Nullable
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date timestamp, @IntRange(from = 1) int maxTargetKeys, @IntRange(from = 1) int maxLogsPerTargetKey) {
+        return getLogs(group, pausedTargetKeys, limit, outLogs, timestamp);
+    }
+
     /**
      * Clears all associations between logs of the {@code group} and ids returned by {@link #getLogs(String, Collection, int, List, Date)}}.
      */
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers encrypted target tokens so that crypto runs once per distinct token
+ * instead of once per persisted log. Applications use a handful of target tokens,
+ * the same encrypted value is stored for every log of a given token.
+ */
+class TargetTokenCache {
+
+    /**
+     * Maximum number of tokens remembered in each direction.
+     */
+    @VisibleForTesting
+    static final int MAX_SIZE = 32;
+
+    /**
+     * Application context.
+     */
+    private final Context mContext;
+
+    /**
+     * Encrypted target token by clear text target token.
+     */
+    private final Map<String, String> mEncryptedTokens = newLruMap();
+
+    /**
+     * Clear text target token by encrypted target token.
+     */
+    private final Map<String, String> mDecryptedTokens = newLruMap();
+
+    /**
+     * Init.
+     *
+     * @param context application context.
+     */
+    TargetTokenCache(@NonNull Context context) {
+        mContext = context;
+    }
+
+    private static Map<String, String> newLruMap() {
+        return new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > MAX_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Get encrypted target token, encrypting it only the first time.
+     *
+     * @param targetToken clear text target token.
+     * @return encrypted target token.
+     */
+    String encrypt(@NonNull String targetToken) {
+        String encryptedToken = mEncryptedTokens.get(targetToken);
+        if (encryptedToken == null) {
+            encryptedToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+            mEncryptedTokens.put(targetToken, encryptedToken);
+            mDecryptedTokens.put(encryptedToken, targetToken);
+        }
+        return encryptedToken;
+    }
+
+    /**
+     * Get clear text target token, decrypting it only the first time.
+     * Failures are not remembered: crypto returns data as is in that case.
+     *
+     * @param encryptedToken encrypted target token.
+     * @return clear text target token.
+     */
+    String decrypt(@NonNull String encryptedToken) {
+        String targetToken = mDecryptedTokens.get(encryptedToken);
+        if (targetToken == null) {
+            targetToken = CryptoUtils.getInstance(mContext).decrypt(encryptedToken, false).getDecryptedData();
+            if (targetToken != null && !targetToken.equals(encryptedToken)) {
+                mDecryptedTokens.put(encryptedToken, targetToken);
+            }
+        }
+        return targetToken;
+    }
+}
@@ -20,6 +20,7 @@ import android.view.WindowManager;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.WrapperSdk;
+import com.microsoft.appcenter.ingestion.models.json.SerializedModelCache;
 
 import java.util.Locale;
 import java.util.TimeZone;
@@ -175,6 +176,7 @@ public class DeviceInfoHelper {
      */
     public static synchronized void setWrapperSdk(WrapperSdk wrapperSdk) {
         sWrapperSdk = wrapperSdk;
+        SerializedModelCache.invalidateAll();
     }
 
     /**
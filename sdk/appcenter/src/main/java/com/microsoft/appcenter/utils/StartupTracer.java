@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.utils;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Records how long each phase of the SDK startup takes.
+ * When disabled, beginning and ending a span only reads a volatile field.
+ */
+public class StartupTracer {
+
+    /**
+     * Value returned by {@link #begin()} when tracing is disabled.
+     */
+    public static final long DISABLED = Long.MIN_VALUE;
+
+    /**
+     * Maximum number of spans kept, tracing is meant for startup only.
+     */
+    @VisibleForTesting
+    static final int MAX_SPANS = 256;
+
+    /**
+     * Current trace, null when disabled.
+     */
+    private static volatile StartupTracer sInstance;
+
+    /**
+     * Time tracing was enabled in nanoseconds, span start times are relative to it.
+     */
+    private final long mStartTime = System.nanoTime();
+
+    /**
+     * Recorded spans, in the order they ended.
+     */
+    private final List<Span> mSpans = new ArrayList<>();
+
+    /**
+     * Enable or disable tracing, enabling again starts a new trace.
+     *
+     * @param enabled true to record spans.
+     */
+    public static synchronized void setEnabled(boolean enabled) {
+        sInstance = enabled ? new StartupTracer() : null;
+    }
+
+    /**
+     * @return true if spans are recorded.
+     */
+    public static boolean isEnabled() {
+        return sInstance != null;
+    }
+
+    /**
+     * Begin a span.
+     *
+     * @return start time to pass to {@link #end(String, String, long)}, {@link #DISABLED} when tracing is disabled.
+     */
+    public static long begin() {
+        return sInstance != null ? System.nanoTime() : DISABLED;
+    }
+
+    /**
+     * End a span. Name parts are joined only when recording to avoid allocating when disabled.
+     *
+     * @param component component of the span, like a class or service name.
+     * @param phase     phase of the span, like a method name.
+     * @param beginTime value returned by {@link #begin()}.
+     */
+    public static void end(@NonNull String component, @NonNull String phase, long beginTime) {
+        StartupTracer tracer = sInstance;
+        if (tracer != null && beginTime != DISABLED) {
+            tracer.add(component + "." + phase, beginTime, System.nanoTime());
+        }
+    }
+
+    /**
+     * Get recorded spans.
+     *
+     * @return spans in the order they ended, empty when disabled.
+     */
+    @NonNull
+    public static List<Span> getSpans() {
+        StartupTracer tracer = sInstance;
+        if (tracer == null) {
+            return new ArrayList<>();
+        }
+        synchronized (tracer) {
+            return new ArrayList<>(tracer.mSpans);
+        }
+    }
+
+    /**
+     * Get a human readable report of recorded spans, one line per span.
+     *
+     * @return report, empty when disabled.
+     */
+    @NonNull
+    public static String getReport() {
+        StringBuilder builder = new StringBuilder();
+        for (Span span : getSpans()) {
+            builder.append(span).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private synchronized void add(String name, long beginTime, long endTime) {
+        if (mSpans.size() < MAX_SPANS) {
+            mSpans.add(new Span(name, Thread.currentThread().getName(), (beginTime - mStartTime) / 1000, (endTime - beginTime) / 1000));
+        }
+    }
+
+    /**
+     * Timing of a startup phase.
+     */
+    public static class Span {
+
+        /**
+         * Name.
+         */
+        private final String mName;
+
+        /**
+         * Name of the thread that ran the phase.
+         */
+        private final String mThreadName;
+
+        /**
+         * Start time in microseconds since tracing was enabled.
+         */
+        private final long mStartTime;
+
+        /**
+         * Duration in microseconds.
+         */
+        private final long mDuration;
+
+        private Span(String name, String threadName, long startTime, long duration) {
+            mName = name;
+            mThreadName = threadName;
+            mStartTime = startTime;
+            mDuration = duration;
+        }
+
+        /**
+         * @return name, component and phase separated by a dot.
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return name of the thread that ran the phase.
+         */
+        public String getThreadName() {
+            return mThreadName;
+        }
+
+        /**
+         * @return start time in microseconds since tracing was enabled.
+         */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        /**
+         * @return duration in microseconds.
+         */
+        public long getDuration() {
+            return mDuration;
+        }
+
+        @Override
+        public String toString() {
+            return mName + " thread=" + mThreadName + " start=" + mStartTime + "us duration=" + mDuration + "us";
+        }
+    }
+}
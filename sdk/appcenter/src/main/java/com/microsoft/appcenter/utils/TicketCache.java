@@ -5,43 +5,202 @@
 
 package com.microsoft.appcenter.utils;
 
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
-import java.util.HashMap;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
 /**
  * Ticket cache for One Collector protocol.
+ * Thread safe: tickets are updated by authentication providers while ingestion reads them.
  */
 public class TicketCache {
 
     /**
-     * Cache backed by a simple map.
+     * Maximum number of tickets, least recently used are evicted first.
+     */
+    @VisibleForTesting
+    static final int MAX_TICKETS = 64;
+
+    /**
+     * Maximum number of serialized headers, least recently used are evicted first.
+     */
+    @VisibleForTesting
+    static final int MAX_HEADERS = 16;
+
+    /**
+     * Tickets by ticket key.
+     */
+    private static final Map<String, Ticket> sTickets = newLruMap(MAX_TICKETS);
+
+    /**
+     * Serialized tickets header by ordered distinct ticket keys.
+     * Invalidated whenever a ticket changes or expires.
      */
-    private static final Map<String, String> sTickets = new HashMap<>();
+    private static final Map<List<String>, Header> sHeaders = newLruMap(MAX_HEADERS);
+
+    /**
+     * Earliest expiry time of cached tickets.
+     */
+    private static long sNextExpiryTime = Long.MAX_VALUE;
+
+    private static <K, V> Map<K, V> newLruMap(final int maxSize) {
+        return new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
 
     /**
      * Get cached ticket.
      *
      * @param key ticket key.
-     * @return token value or null if not in cache.
+     * @return token value or null if not in cache or expired.
      */
-    public static String getTicket(String key) {
-        return sTickets.get(key);
+    public static synchronized String getTicket(String key) {
+        removeExpiredTickets();
+        Ticket ticket = sTickets.get(key);
+        return ticket == null ? null : ticket.mValue;
     }
 
     /**
-     * Insert or update ticket.
+     * Insert or update ticket that does not expire.
      *
      * @param key   ticket key.
      * @param value ticket value.
      */
     public static void putTicket(String key, String value) {
-        sTickets.put(key, value);
+        putTicket(key, value, null);
+    }
+
+    /**
+     * Insert or update ticket.
+     *
+     * @param key        ticket key.
+     * @param value      ticket value.
+     * @param expiryDate date after which the ticket is not sent anymore, null if it does not expire.
+     */
+    public static synchronized void putTicket(String key, String value, @Nullable Date expiryDate) {
+        long expiryTime = expiryDate == null ? Long.MAX_VALUE : expiryDate.getTime();
+        sTickets.put(key, new Ticket(value, expiryTime));
+        sNextExpiryTime = Math.min(sNextExpiryTime, expiryTime);
+        sHeaders.clear();
+    }
+
+    /**
+     * Get the tickets header value for the given ticket keys.
+     * The value is serialized once per distinct key list until a ticket changes.
+     *
+     * @param ticketKeys distinct ticket keys in header order.
+     * @return header value or null if no ticket is available for these keys.
+     */
+    @Nullable
+    public static synchronized String getTicketsHeader(@NonNull Collection<String> ticketKeys) {
+        if (ticketKeys.isEmpty()) {
+            return null;
+        }
+        removeExpiredTickets();
+        List<String> headerKey = new ArrayList<>(ticketKeys);
+        Header header = sHeaders.get(headerKey);
+        if (header == null) {
+            header = new Header(serializeTickets(headerKey));
+            sHeaders.put(headerKey, header);
+        }
+        return header.mValue;
+    }
+
+    private static String serializeTickets(List<String> ticketKeys) {
+        JSONObject tickets = new JSONObject();
+        for (String ticketKey : ticketKeys) {
+            Ticket ticket = sTickets.get(ticketKey);
+            if (ticket != null) {
+                try {
+                    tickets.put(ticketKey, ticket.mValue);
+                } catch (JSONException e) {
+                    AppCenterLog.error(LOG_TAG, "Cannot serialize tickets, sending log anonymously", e);
+                    return null;
+                }
+            }
+        }
+        return tickets.length() > 0 ? tickets.toString() : null;
+    }
+
+    /**
+     * Remove expired tickets and invalidate headers if any expired.
+     */
+    private static void removeExpiredTickets() {
+        long now = System.currentTimeMillis();
+        if (now < sNextExpiryTime) {
+            return;
+        }
+        sNextExpiryTime = Long.MAX_VALUE;
+        Iterator<Ticket> iterator = sTickets.values().iterator();
+        while (iterator.hasNext()) {
+            Ticket ticket = iterator.next();
+            if (ticket.mExpiryTime <= now) {
+                iterator.remove();
+            } else {
+                sNextExpiryTime = Math.min(sNextExpiryTime, ticket.mExpiryTime);
+            }
+        }
+        sHeaders.clear();
     }
 
     @VisibleForTesting
-    public static void clear() {
+    public static synchronized void clear() {
         sTickets.clear();
+        sHeaders.clear();
+        sNextExpiryTime = Long.MAX_VALUE;
+    }
+
+    /**
+     * Cached ticket.
+     */
+    private static class Ticket {
+
+        /**
+         * Ticket value.
+         */
+        final String mValue;
+
+        /**
+         * Expiry time in milliseconds since epoch.
+         */
+        final long mExpiryTime;
+
+        Ticket(String value, long expiryTime) {
+            mValue = value;
+            mExpiryTime = expiryTime;
+        }
+    }
+
+    /**
+     * Cached header value, wrapped to remember a missing header as well.
+     */
+    private static class Header {
+
+        /**
+         * Header value or null.
+         */
+        final String mValue;
+
+        Header(String value) {
+            mValue = value;
+        }
     }
 }
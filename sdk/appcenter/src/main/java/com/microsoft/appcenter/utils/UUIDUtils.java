@@ -31,6 +31,19 @@ public class UUIDUtils {
      */
     private static Random sRandom;
 
+    /**
+     * Per thread generators used by {@link #fastRandomUUID()}, each one seeded once from {@link #randomUUID()}.
+     * Random is only used from its owner thread so its internal compare and set is never contended.
+     */
+    private static final ThreadLocal<Random> sThreadRandom = new ThreadLocal<Random>() {
+
+        @Override
+        protected Random initialValue() {
+            UUID seed = randomUUID();
+            return new Random(seed.getMostSignificantBits() ^ seed.getLeastSignificantBits() ^ System.nanoTime());
+        }
+    };
+
     /**
      * Utils pattern hides constructor.
      */
@@ -50,12 +63,31 @@ public class UUIDUtils {
 
             /* Some devices can crash while allocating a SecureRandom, used by UUID, fall back... */
             initFailOver(e);
-            long highest = (sRandom.nextLong() & -61441L) | 16384L;
-            long lowest = (sRandom.nextLong() & 4611686018427387903L) | -9223372036854775808L;
-            return new UUID(highest, lowest);
+            return toVersion4UUID(sRandom);
         }
     }
 
+    /**
+     * Get a version 4 variant 2 random UUID without going through SecureRandom.
+     * <p>
+     * This is meant for identifiers generated on hot paths such as log identifiers and session identifiers.
+     * Use {@link #randomUUID()} for identifiers that must not be predictable.
+     *
+     * @return random UUID.
+     */
+    public static UUID fastRandomUUID() {
+        return toVersion4UUID(sThreadRandom.get());
+    }
+
+    /**
+     * Build a version 4 variant 2 UUID from the specified generator.
+     */
+    private static UUID toVersion4UUID(Random random) {
+        long highest = (random.nextLong() & -61441L) | 16384L;
+        long lowest = (random.nextLong() & 4611686018427387903L) | -9223372036854775808L;
+        return new UUID(highest, lowest);
+    }
+
     /**
      * Init the fail over random the first time we hit the error.
      */
@@ -8,22 +8,32 @@ package com.microsoft.appcenter.utils.crypto;
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 import android.util.Base64;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.AsyncTaskUtils;
+import com.microsoft.appcenter.utils.async.AppCenterFuture;
+import com.microsoft.appcenter.utils.async.DefaultAppCenterFuture;
 
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.KeyStore;
 import java.security.Provider;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
@@ -113,7 +123,22 @@ public class CryptoUtils {
      * Shared instance.
      */
     @SuppressLint("StaticFieldLeak")
-    private static CryptoUtils sInstance;
+    private static volatile CryptoUtils sInstance;
+
+    /**
+     * Shared instance future, completed once initialized.
+     */
+    private static DefaultAppCenterFuture<CryptoUtils> sInstanceFuture = new DefaultAppCenterFuture<>();
+
+    /**
+     * True once shared instance initialization started in any thread.
+     */
+    private static boolean sInitializing;
+
+    /**
+     * Lock held while initializing shared instance.
+     */
+    private static final Object INITIALIZATION_LOCK = new Object();
 
     /**
      * Supported crypto handlers. Ordered, first one is the preferred one.
@@ -141,6 +166,16 @@ public class CryptoUtils {
      */
     private final KeyStore mKeyStore;
 
+    /**
+     * Key store entries by alias, resolving an entry is an inter process call.
+     */
+    private final Map<String, KeyStore.Entry> mKeyStoreEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Crypto factory reusing ciphers, used for encryption and decryption.
+     */
+    private final CipherCachingFactory mCipherCachingFactory;
+
     /**
      * Init.
      *
@@ -157,6 +192,7 @@ public class CryptoUtils {
         /* Store application context. */
         mContext = context.getApplicationContext();
         mCryptoFactory = cryptoFactory;
+        mCipherCachingFactory = new CipherCachingFactory(cryptoFactory);
         mApiLevel = apiLevel;
 
         /* Load Android secure key store if available. */
@@ -205,10 +241,61 @@ public class CryptoUtils {
      * @return unique instance.
      */
     public static CryptoUtils getInstance(@NonNull Context context) {
-        if (sInstance == null) {
-            sInstance = new CryptoUtils(context);
+        CryptoUtils instance = sInstance;
+        if (instance == null) {
+            DefaultAppCenterFuture<CryptoUtils> future;
+            synchronized (CryptoUtils.class) {
+                sInitializing = true;
+                future = sInstanceFuture;
+            }
+
+            /* Initialize under a distinct lock so that getInstanceAsync never waits for it. */
+            synchronized (INITIALIZATION_LOCK) {
+                if (sInstance == null) {
+                    long startTime = SystemClock.elapsedRealtime();
+                    sInstance = new CryptoUtils(context);
+                    AppCenterLog.debug(LOG_TAG, "Crypto initialized in " + (SystemClock.elapsedRealtime() - startTime) + "ms.");
+                }
+                instance = sInstance;
+            }
+            future.complete(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Get unique instance without blocking the calling thread.
+     * Initialization is started in background unless already started elsewhere,
+     * App Center starts it when configured.
+     *
+     * @param context any context.
+     * @return future completed with the unique instance.
+     */
+    public static AppCenterFuture<CryptoUtils> getInstanceAsync(@NonNull final Context context) {
+        AppCenterFuture<CryptoUtils> future;
+        boolean initialize;
+        synchronized (CryptoUtils.class) {
+            future = sInstanceFuture;
+            initialize = !sInitializing;
+            sInitializing = true;
+        }
+        if (initialize) {
+            executeAsync(new Runnable() {
+
+                @Override
+                public void run() {
+                    getInstance(context);
+                }
+            });
         }
-        return sInstance;
+        return future;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sInstance = null;
+        sInstanceFuture = new DefaultAppCenterFuture<>();
+        sInitializing = false;
     }
 
     @VisibleForTesting
@@ -265,7 +352,22 @@ public class CryptoUtils {
             return null;
         }
         String alias = getAlias(handlerEntry.mCryptoHandler, handlerEntry.mAliasIndex, mobileCenterFailOver);
-        return mKeyStore.getEntry(alias, null);
+        KeyStore.Entry entry = mKeyStoreEntries.get(alias);
+        if (entry == null) {
+            entry = mKeyStore.getEntry(alias, null);
+            if (entry != null) {
+                mKeyStoreEntries.put(alias, entry);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Forget cached key store entry and ciphers after a failure, they will be resolved again next time.
+     */
+    private void invalidateCache(@NonNull CryptoHandlerEntry handlerEntry, boolean mobileCenterFailOver) {
+        mKeyStoreEntries.remove(getAlias(handlerEntry.mCryptoHandler, handlerEntry.mAliasIndex, mobileCenterFailOver));
+        mCipherCachingFactory.clear();
     }
 
     /**
@@ -288,7 +390,13 @@ public class CryptoUtils {
 
                 /* Attempt encryption. */
                 KeyStore.Entry keyStoreEntry = getKeyStoreEntry(handlerEntry, false);
-                byte[] encryptedBytes = handler.encrypt(mCryptoFactory, mApiLevel, keyStoreEntry, data.getBytes(CHARSET));
+                byte[] encryptedBytes;
+                try {
+                    encryptedBytes = handler.encrypt(mCipherCachingFactory, mApiLevel, keyStoreEntry, data.getBytes(CHARSET));
+                } catch (Exception e) {
+                    invalidateCache(handlerEntry, false);
+                    throw e;
+                }
                 String encryptedString = Base64.encodeToString(encryptedBytes, Base64.DEFAULT);
 
                 /*
@@ -303,6 +411,9 @@ public class CryptoUtils {
                 handlerEntry.mAliasIndex ^= 1;
                 String newAlias = getAlias(handler, handlerEntry.mAliasIndex, false);
 
+                /* The new alias entry, if any, is about to be replaced. */
+                mKeyStoreEntries.remove(newAlias);
+
                 /* If this is the second time we switch, we delete the previous key. */
                 if (mKeyStore.containsAlias(newAlias)) {
                     AppCenterLog.debug(LOG_TAG, "Deleting alias: " + newAlias);
@@ -348,7 +459,13 @@ public class CryptoUtils {
                 throw new IllegalStateException("Could not find crypto handler that was used for the specified data.");
             }
             KeyStore.Entry keyStoreEntry = getKeyStoreEntry(handlerEntry, mobileCenterFailOver);
-            byte[] decryptedBytes = cryptoHandler.decrypt(mCryptoFactory, mApiLevel, keyStoreEntry, Base64.decode(dataSplit[1], Base64.DEFAULT));
+            byte[] decryptedBytes;
+            try {
+                decryptedBytes = cryptoHandler.decrypt(mCipherCachingFactory, mApiLevel, keyStoreEntry, Base64.decode(dataSplit[1], Base64.DEFAULT));
+            } catch (Exception e) {
+                invalidateCache(handlerEntry, mobileCenterFailOver);
+                throw e;
+            }
             String decryptedString = new String(decryptedBytes, CHARSET);
             String newEncryptedData = null;
             if (cryptoHandler != mCryptoHandlers.values().iterator().next().mCryptoHandler) {
@@ -363,6 +480,111 @@ public class CryptoUtils {
         }
     }
 
+    /**
+     * Encrypt several values in one pass, the key store entry and cipher are resolved once.
+     *
+     * @param data data to encrypt.
+     * @return encrypted data in the same order, see {@link #encrypt(String)} for each item.
+     */
+    @NonNull
+    public List<String> encryptAll(@NonNull Collection<String> data) {
+        List<String> encryptedData = new ArrayList<>(data.size());
+        for (String item : data) {
+            encryptedData.add(encrypt(item));
+        }
+        return encryptedData;
+    }
+
+    /**
+     * Decrypt several values in one pass, the key store entries and ciphers are resolved once.
+     *
+     * @param data                 data to decrypt.
+     * @param mobileCenterFailOver if true, uses Mobile Center keystore instead of App Center keystore when false.
+     * @return decrypted data in the same order, see {@link #decrypt(String, boolean)} for each item.
+     */
+    @NonNull
+    public List<DecryptedData> decryptAll(@NonNull Collection<String> data, boolean mobileCenterFailOver) {
+        List<DecryptedData> decryptedData = new ArrayList<>(data.size());
+        for (String item : data) {
+            decryptedData.add(decrypt(item, mobileCenterFailOver));
+        }
+        return decryptedData;
+    }
+
+    /**
+     * Encrypt several values in background, so that key store access does not block the calling thread.
+     *
+     * @param data data to encrypt, must not be modified until the future completes.
+     * @return future with encrypted data in the same order.
+     */
+    @NonNull
+    public AppCenterFuture<List<String>> encryptAsync(@NonNull final Collection<String> data) {
+        final DefaultAppCenterFuture<List<String>> future = new DefaultAppCenterFuture<>();
+        executeAsync(new Runnable() {
+
+            @Override
+            public void run() {
+                List<String> encryptedData;
+                try {
+                    encryptedData = encryptAll(data);
+                } catch (RuntimeException e) {
+
+                    /* Same result as an encryption failure: data as is. */
+                    AppCenterLog.error(LOG_TAG, "Failed to encrypt data.", e);
+                    encryptedData = new ArrayList<>(data);
+                }
+                future.complete(encryptedData);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Decrypt several values in background, so that key store access does not block the calling thread.
+     *
+     * @param data                 data to decrypt, must not be modified until the future completes.
+     * @param mobileCenterFailOver if true, uses Mobile Center keystore instead of App Center keystore when false.
+     * @return future with decrypted data in the same order.
+     */
+    @NonNull
+    public AppCenterFuture<List<DecryptedData>> decryptAsync(@NonNull final Collection<String> data, final boolean mobileCenterFailOver) {
+        final DefaultAppCenterFuture<List<DecryptedData>> future = new DefaultAppCenterFuture<>();
+        executeAsync(new Runnable() {
+
+            @Override
+            public void run() {
+                List<DecryptedData> decryptedData;
+                try {
+                    decryptedData = decryptAll(data, mobileCenterFailOver);
+                } catch (RuntimeException e) {
+
+                    /* Same result as a decryption failure: data as is. */
+                    AppCenterLog.error(LOG_TAG, "Failed to decrypt data.", e);
+                    decryptedData = new ArrayList<>(data.size());
+                    for (String item : data) {
+                        decryptedData.add(new DecryptedData(item, null));
+                    }
+                }
+                future.complete(decryptedData);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Run a crypto operation on the async task thread pool.
+     */
+    private static void executeAsync(@NonNull final Runnable operation) {
+        AsyncTaskUtils.execute(LOG_TAG, new AsyncTask<Void, Void, Void>() {
+
+            @Override
+            protected Void doInBackground(Void... params) {
+                operation.run();
+                return null;
+            }
+        });
+    }
+
     /**
      * Crypto factory.
      */
@@ -444,6 +666,57 @@ public class CryptoUtils {
         String getProvider();
     }
 
+    /**
+     * Crypto factory decorator that reuses cipher instances. Ciphers are stateful so they are
+     * confined to the thread using them, handlers always init a cipher before using it.
+     */
+    private static class CipherCachingFactory implements ICryptoFactory {
+
+        /**
+         * Factory creating the ciphers.
+         */
+        private final ICryptoFactory mCryptoFactory;
+
+        /**
+         * Ciphers of the current thread by transformation and provider.
+         */
+        private final ThreadLocal<Map<String, ICipher>> mCiphers = new ThreadLocal<Map<String, ICipher>>() {
+
+            @Override
+            protected Map<String, ICipher> initialValue() {
+                return new HashMap<>();
+            }
+        };
+
+        CipherCachingFactory(@NonNull ICryptoFactory cryptoFactory) {
+            mCryptoFactory = cryptoFactory;
+        }
+
+        @Override
+        public IKeyGenerator getKeyGenerator(String algorithm, String provider) throws Exception {
+            return mCryptoFactory.getKeyGenerator(algorithm, provider);
+        }
+
+        @Override
+        public ICipher getCipher(String transformation, String provider) throws Exception {
+            Map<String, ICipher> ciphers = mCiphers.get();
+            String key = transformation + "/" + provider;
+            ICipher cipher = ciphers.get(key);
+            if (cipher == null) {
+                cipher = mCryptoFactory.getCipher(transformation, provider);
+                ciphers.put(key, cipher);
+            }
+            return cipher;
+        }
+
+        /**
+         * Forget ciphers of the current thread.
+         */
+        void clear() {
+            mCiphers.get().clear();
+        }
+    }
+
     /**
      * Structure for the register handler entries.
      */
@@ -285,6 +285,23 @@ public class DatabaseManager implements Closeable {
         return id;
     }
 
+    /**
+     * Stores an entry in another table of the database, created by the listener.
+     * Unlike {@link #put}, no entry is deleted when storage is full.
+     *
+     * @param table  The table name.
+     * @param values The entry to be stored.
+     * @return If an entry was inserted, the database identifier. Otherwise -1.
+     */
+    public long insert(@NonNull String table, @NonNull ContentValues values) {
+        try {
+            return getDatabase().insertOrThrow(table, null, values);
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, String.format("Failed to insert values (%s) to table %s of database %s.", values.toString(), table, mDatabase), e);
+            return -1L;
+        }
+    }
+
     /**
      * Deletes the entry by the identifier from the database.
      *
@@ -320,10 +337,24 @@ public class DatabaseManager implements Closeable {
      *                    will be bound as Strings.
      */
     public void delete(String whereClause, String[] whereArgs) {
+        delete(mTable, whereClause, whereArgs);
+    }
+
+    /**
+     * Deletes the entries of another table of the database, created by the listener.
+     *
+     * @param table       The table name.
+     * @param whereClause the optional WHERE clause to apply when deleting.
+     *                    Passing null will delete all rows.
+     * @param whereArgs   You may include ?s in the where clause, which
+     *                    will be replaced by the values from whereArgs. The values
+     *                    will be bound as Strings.
+     */
+    public void delete(@NonNull String table, String whereClause, String[] whereArgs) {
         try {
-            getDatabase().delete(mTable, whereClause, whereArgs);
+            getDatabase().delete(table, whereClause, whereArgs);
         } catch (RuntimeException e) {
-            AppCenterLog.error(LOG_TAG, String.format("Failed to delete values that match condition=\"%s\" and values=\"%s\" from database %s.", whereClause, Arrays.toString(whereArgs), mDatabase), e);
+            AppCenterLog.error(LOG_TAG, String.format("Failed to delete values that match condition=\"%s\" and values=\"%s\" from table %s of database %s.", whereClause, Arrays.toString(whereArgs), table, mDatabase), e);
         }
     }
 
@@ -387,10 +418,25 @@ public class DatabaseManager implements Closeable {
      * @throws RuntimeException If an error occurs.
      */
     public Cursor getCursor(@Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws RuntimeException {
+        return getCursor(mTable, queryBuilder, columns, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Gets a cursor for rows of another table of the database, created by the listener.
+     *
+     * @param table         The table name.
+     * @param queryBuilder  The query builder that contains SQL query.
+     * @param columns       Columns to select, null for all.
+     * @param selectionArgs The array of values for selection.
+     * @param sortOrder     Sorting order (ORDER BY clause without ORDER BY itself).
+     * @return A cursor for all rows that matches the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    public Cursor getCursor(@NonNull String table, @Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder) throws RuntimeException {
         if (queryBuilder == null) {
             queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
         }
-        queryBuilder.setTables(mTable);
+        queryBuilder.setTables(table);
         return queryBuilder.query(getDatabase(), columns, null, selectionArgs, null, null, sortOrder);
     }
 
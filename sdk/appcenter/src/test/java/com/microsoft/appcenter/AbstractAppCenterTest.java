@@ -25,6 +25,7 @@ import com.microsoft.appcenter.utils.InstrumentationRegistryHelper;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
 import com.microsoft.appcenter.utils.ShutdownHelper;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
 import com.microsoft.appcenter.utils.storage.FileManager;
 import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
@@ -70,7 +71,8 @@ import static org.powermock.api.mockito.PowerMockito.whenNew;
         ShutdownHelper.class,
         CustomProperties.class,
         InstrumentationRegistryHelper.class,
-        NetworkStateHelper.class
+        NetworkStateHelper.class,
+        CryptoUtils.class
 })
 public class AbstractAppCenterTest {
 
@@ -127,6 +129,7 @@ public class AbstractAppCenterTest {
         mockStatic(DeviceInfoHelper.class);
         mockStatic(InstrumentationRegistryHelper.class);
         mockStatic(NetworkStateHelper.class);
+        mockStatic(CryptoUtils.class);
 
         /* Mock handlers. */
         Handler handler = mock(Handler.class);
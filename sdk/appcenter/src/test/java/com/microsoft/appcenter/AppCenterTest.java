@@ -15,6 +15,8 @@ import com.microsoft.appcenter.ingestion.models.WrapperSdk;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.ShutdownHelper;
+import com.microsoft.appcenter.utils.StartupTracer;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
 
 import org.junit.Test;
@@ -50,6 +52,7 @@ import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Matchers.notNull;
+import static org.mockito.Matchers.startsWith;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -153,6 +156,40 @@ public class AppCenterTest extends AbstractAppCenterTest {
         verify(mStartServiceLog).setServices(eq(services));
     }
 
+    @Test
+    public void warmUpCryptoWhenConfigured() {
+        AppCenter.configure(mApplication, DUMMY_APP_SECRET);
+        verifyStatic();
+        CryptoUtils.getInstance(mApplication);
+    }
+
+    @Test
+    public void traceStartup() {
+
+        /* Nothing traced by default. */
+        assertTrue(AppCenter.getStartupTrace().get().isEmpty());
+        StartupTracer.setEnabled(true);
+        try {
+            AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+            List<String> spanNames = new ArrayList<>();
+            for (StartupTracer.Span span : AppCenter.getStartupTrace().get()) {
+                spanNames.add(span.getName());
+            }
+            assertTrue(spanNames.contains("AppCenter.startHandlerThread"));
+            assertTrue(spanNames.contains("FileManager.initialize"));
+            assertTrue(spanNames.contains("SharedPreferencesManager.initialize"));
+            assertTrue(spanNames.contains("DefaultChannel.init"));
+            assertTrue(spanNames.contains("CryptoUtils.getInstance"));
+            assertTrue(spanNames.contains("AppCenter.finishConfiguration"));
+            assertTrue(spanNames.contains("Dummy.onStarting"));
+            assertTrue(spanNames.indexOf("Dummy.onStarted") < spanNames.indexOf("AppCenter.finishStartServices"));
+            verifyStatic();
+            AppCenterLog.debug(eq(LOG_TAG), startsWith("Startup trace:"));
+        } finally {
+            StartupTracer.setEnabled(false);
+        }
+    }
+
     @Test
     public void configureAndStartTwiceTest() {
         AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
@@ -18,12 +18,14 @@ import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.LogWithDeferredData;
 import com.microsoft.appcenter.persistence.Persistence;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.UUIDUtils;
 import com.microsoft.appcenter.utils.context.AuthTokenContext;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -31,6 +33,7 @@ import org.mockito.stubbing.Answer;
 import java.io.IOException;
 import java.net.SocketException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
@@ -40,6 +43,7 @@ import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyListOf;
@@ -261,6 +265,261 @@ public class DefaultChannelTest extends AbstractDefaultChannelTest {
         assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
     }
 
+    @Test
+    public void targetKeyBatching() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+
+        /* Batches split by target key are smaller than requested. */
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), anyInt(), anyInt())).then(getGetLogsAnswer(10));
+
+        /* Init channel with mocks. */
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.setTargetKeyBatching(TEST_GROUP, 1, 20, false);
+        for (int i = 0; i < 30; i++) {
+            channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        }
+
+        /* Trigger timer: only 1 batch is sent and only its logs are no longer pending. */
+        ArgumentCaptor<Runnable> timer = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(timer.capture(), eq(BATCH_TIME_INTERVAL));
+        timer.getValue().run();
+        verify(mockPersistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(30), anyListOf(Log.class), any(Date.class), eq(1), eq(20));
+        verify(mockPersistence, never()).getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class));
+        verify(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(20, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* With fan out, next trigger fills the remaining parallel batch slots. */
+        channel.setTargetKeyBatching(TEST_GROUP, 1, 20, true);
+        verify(mAppCenterHandler, times(2)).postDelayed(timer.capture(), eq(BATCH_TIME_INTERVAL));
+        timer.getValue().run();
+        verify(mockIngestion, times(MAX_PARALLEL_BATCHES)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Unknown group is ignored. */
+        channel.setTargetKeyBatching("other", 1, 1, true);
+    }
+
+    @Test
+    public void criticalLogsLane() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        String otherGroup = "other_group";
+
+        /* Logs were created 1 second before being read from storage. */
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class))).then(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                List<Log> logs = (List<Log>) invocation.getArguments()[3];
+                for (int i = 0; i < (int) invocation.getArguments()[2]; i++) {
+                    Log log = mock(Log.class);
+                    when(log.getTimestamp()).thenReturn(new Date(System.currentTimeMillis() - 1000));
+                    logs.add(log);
+                }
+                return UUIDUtils.randomUUID().toString();
+            }
+        });
+        when(mockPersistence.countCriticalLogs(anyString(), anyString())).thenReturn(1);
+        final List<ServiceCallback> callbacks = new ArrayList<>();
+        when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                callbacks.add((ServiceCallback) invocation.getArguments()[4]);
+                return null;
+            }
+        });
+
+        /* Init channel with 2 groups allowing 1 batch at a time each. */
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, 1, null, null);
+        channel.addGroup(otherGroup, 50, BATCH_TIME_INTERVAL, 1, null, null);
+
+        /* Fill the other group connection budget. */
+        for (int i = 0; i < 50; i++) {
+            channel.enqueue(mock(Log.class), otherGroup, Flags.DEFAULTS);
+        }
+        verify(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+
+        /* A critical log is sent immediately without waiting for the timer, only the other group used one. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.PERSISTENCE_CRITICAL);
+        verify(mockPersistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(1), anyListOf(Log.class), any(Date.class));
+        verify(mockIngestion, times(2)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), anyLong());
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* A critical log is sent even if the group has no connection left. */
+        channel.enqueue(mock(Log.class), otherGroup, Flags.PERSISTENCE_CRITICAL);
+        verify(mockIngestion, times(3)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+
+        /* Normal logs are postponed while critical logs are being sent. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        ArgumentCaptor<Runnable> timer = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler, times(2)).postDelayed(timer.capture(), eq(BATCH_TIME_INTERVAL));
+        timer.getValue().run();
+        verify(mockIngestion, times(3)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* When critical batches complete, postponed batches are scheduled again. */
+        callbacks.get(1).onCallSucceeded("", null);
+        callbacks.get(2).onCallSucceeded("", null);
+        verify(mAppCenterHandler, times(3)).postDelayed(timer.capture(), eq(BATCH_TIME_INTERVAL));
+        timer.getValue().run();
+        verify(mockPersistence, times(2)).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(1), anyListOf(Log.class), any(Date.class));
+        verify(mockIngestion, times(4)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Check queueing delays. */
+        QueueingDelayStats critical = channel.getQueueingDelayStats(Flags.PERSISTENCE_CRITICAL);
+        assertEquals(2, critical.getCount());
+        assertTrue(critical.getAverageDelay() >= 1000);
+        assertTrue(critical.getMaxDelay() >= 1000);
+        QueueingDelayStats normal = channel.getQueueingDelayStats(Flags.PERSISTENCE_NORMAL);
+        assertEquals(51, normal.getCount());
+        assertTrue(normal.toString().contains("count=51"));
+    }
+
+    @Test
+    public void normalLogsNotHeldByCriticalBatchNeverCompleting() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        String otherGroup = "other_group";
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class))).then(getGetLogsAnswer());
+        when(mockPersistence.countCriticalLogs(eq(otherGroup), anyString())).thenReturn(1);
+
+        /* Critical batch of another group never completes. */
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, 1, null, null);
+        channel.addGroup(otherGroup, 50, BATCH_TIME_INTERVAL, 1, null, null);
+        channel.enqueue(mock(Log.class), otherGroup, Flags.PERSISTENCE_CRITICAL);
+        verify(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+
+        /* Normal logs are postponed with the timer scheduled again. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        ArgumentCaptor<Runnable> timer = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(timer.capture(), eq(BATCH_TIME_INTERVAL));
+        timer.getValue().run();
+        verify(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mAppCenterHandler, times(2)).postDelayed(timer.capture(), eq(BATCH_TIME_INTERVAL));
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Sent anyway once postponed for a batch interval. */
+        channel.getGroupState(TEST_GROUP).mPostponeStartTime -= BATCH_TIME_INTERVAL;
+        timer.getValue().run();
+        verify(mockIngestion, times(2)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPostponeStartTime);
+    }
+
+    @Test
+    public void criticalLogsRetriedAfterRecoverableError() throws Persistence.PersistenceException {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class))).then(getGetLogsAnswer());
+        when(mockPersistence.countCriticalLogs(anyString(), anyString())).thenReturn(1);
+        when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new SocketException()));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Critical log fails to be sent and is counted again from storage. */
+        when(mockPersistence.countCriticalLogs(TEST_GROUP)).thenReturn(1);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.PERSISTENCE_CRITICAL);
+        assertFalse(channel.isEnabled());
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingCriticalLogCount);
+
+        /* Sent again immediately when enabled. */
+        when(mockIngestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        channel.setEnabled(true);
+        verify(mockIngestion, times(2)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        verify(mockPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingCriticalLogCount);
+
+        /* No log is left when storage has none. */
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class))).thenReturn(null);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.PERSISTENCE_CRITICAL);
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingCriticalLogCount);
+        verify(mockIngestion, times(2)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void deferredDataLoadedOnlyWhenSending() throws IOException {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        Channel.GroupListener mockListener = mock(Channel.GroupListener.class);
+        final LogWithDeferredData loadedLog = mock(LogWithDeferredData.class);
+        final LogWithDeferredData failedLog = mock(LogWithDeferredData.class);
+        doThrow(new IOException()).when(failedLog).loadData();
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class))).then(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                List<Log> logs = (List<Log>) invocation.getArguments()[3];
+                logs.add(loadedLog);
+                logs.add(failedLog);
+                return "1";
+            }
+        });
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mockListener);
+
+        /* Log failing to load is failed instead of being sent. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(loadedLog).loadData();
+        verify(mockListener).onBeforeSending(loadedLog);
+        verify(mockListener).onBeforeSending(failedLog);
+        verify(mockListener).onFailure(eq(failedLog), any(IOException.class));
+        verify(mockPersistence).deleteLog(TEST_GROUP, "1", 1);
+        ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+        verify(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+        assertEquals(Collections.<Log>singletonList(loadedLog), container.getValue().getLogs());
+
+        /* Data is not loaded when logs are discarded. */
+        channel.setEnabled(false);
+        verify(loadedLog).loadData();
+        verify(failedLog).loadData();
+
+        /* Batch with only logs failing to load is deleted without being sent. */
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class))).then(new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                ((List<Log>) invocation.getArguments()[3]).add(failedLog);
+                return "2";
+            }
+        });
+        channel.setEnabled(true);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mockPersistence).deleteLog(TEST_GROUP, "2", 0);
+        verify(mockPersistence).deleteLogs(TEST_GROUP, "2");
+        verify(mockIngestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void criticalLogsRestoredFromStorage() {
+        Persistence mockPersistence = mock(Persistence.class);
+        AppCenterIngestion mockIngestion = mock(AppCenterIngestion.class);
+        when(mockPersistence.countLogs(TEST_GROUP)).thenReturn(3);
+        when(mockPersistence.countCriticalLogs(TEST_GROUP)).thenReturn(2);
+        when(mockPersistence.getLogs(any(String.class), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class))).then(getGetLogsAnswer());
+
+        /* Only one critical log is read, the other one is in a paused target key. */
+        when(mockPersistence.countCriticalLogs(anyString(), anyString())).thenReturn(1, 0);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUIDUtils.randomUUID().toString(), mockPersistence, mockIngestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Critical logs stored by a previous launch are sent without waiting for the timer. */
+        verify(mockPersistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(2), anyListOf(Log.class), any(Date.class));
+        verify(mockPersistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(1), anyListOf(Log.class), any(Date.class));
+        verify(mockIngestion, times(2)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingCriticalLogCount);
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
     @Test
     public void maxRequestsInitial() throws Persistence.PersistenceException {
         Persistence mockPersistence = mock(Persistence.class);
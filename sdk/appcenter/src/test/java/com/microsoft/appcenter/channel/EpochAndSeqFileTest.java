@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EpochAndSeqFileTest {
+
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void restoreAfterRestart() {
+        File file = new File(mTemporaryFolder.getRoot(), "dir/seq");
+        EpochAndSeqFile epochAndSeqFile = new EpochAndSeqFile(file);
+        assertTrue(epochAndSeqFile.open().isEmpty());
+        UUID epoch1 = UUID.randomUUID();
+        UUID epoch2 = UUID.randomUUID();
+        int slot1 = epochAndSeqFile.add("o:key1", epoch1);
+        int slot2 = epochAndSeqFile.add("o:key2", epoch2);
+        assertEquals(0, slot1);
+        assertEquals(1, slot2);
+        epochAndSeqFile.saveSeq(slot1, 0, 42);
+        epochAndSeqFile.saveSeq(slot2, 0, 7);
+
+        /* Simulate restart. */
+        Map<String, OneCollectorChannelListener.EpochAndSeq> epochsAndSeqs = new EpochAndSeqFile(file).open();
+        assertEquals(2, epochsAndSeqs.size());
+        OneCollectorChannelListener.EpochAndSeq epochAndSeq = epochsAndSeqs.get("o:key1");
+        assertEquals(epoch1.toString(), epochAndSeq.epoch);
+        assertEquals(slot1, epochAndSeq.slot);
+        assertEquals(43, epochAndSeq.nextSeq(epochAndSeqFile));
+        epochAndSeq = epochsAndSeqs.get("o:key2");
+        assertEquals(epoch2.toString(), epochAndSeq.epoch);
+        assertEquals(8, epochAndSeq.nextSeq(epochAndSeqFile));
+
+        /* Clear. */
+        epochAndSeqFile.clear();
+        assertTrue(new EpochAndSeqFile(file).open().isEmpty());
+        assertEquals(0, epochAndSeqFile.add("o:key3", epoch1));
+    }
+
+    @Test
+    public void ignoreSeqOfPreviousGenerationAfterClear() {
+        File file = new File(mTemporaryFolder.getRoot(), "seq");
+        EpochAndSeqFile epochAndSeqFile = new EpochAndSeqFile(file);
+        epochAndSeqFile.open();
+        OneCollectorChannelListener.EpochAndSeq stale = new OneCollectorChannelListener.EpochAndSeq("epoch", 0, epochAndSeqFile.add("o:key1", UUID.randomUUID()), epochAndSeqFile.getGeneration());
+
+        /* Slot is handed to another iKey after clear. */
+        epochAndSeqFile.clear();
+        int slot = epochAndSeqFile.add("o:key2", UUID.randomUUID());
+        assertEquals(stale.slot, slot);
+        epochAndSeqFile.saveSeq(slot, epochAndSeqFile.getGeneration(), 5);
+
+        /* Stale writer still increments in memory but does not corrupt the new iKey. */
+        assertEquals(1, stale.nextSeq(epochAndSeqFile));
+        Map<String, OneCollectorChannelListener.EpochAndSeq> epochsAndSeqs = new EpochAndSeqFile(file).open();
+        assertEquals(1, epochsAndSeqs.size());
+        assertEquals(6, epochsAndSeqs.get("o:key2").nextSeq(new EpochAndSeqFile(null)));
+    }
+
+    @Test
+    public void inMemoryOnly() {
+        EpochAndSeqFile epochAndSeqFile = new EpochAndSeqFile(null);
+        assertTrue(epochAndSeqFile.open().isEmpty());
+        assertEquals(-1, epochAndSeqFile.add("o:key", UUID.randomUUID()));
+
+        /* Nothing happens. */
+        epochAndSeqFile.saveSeq(-1, 0, 1);
+        epochAndSeqFile.saveSeq(0, 0, 1);
+        epochAndSeqFile.clear();
+    }
+
+    @Test
+    public void limits() {
+        EpochAndSeqFile epochAndSeqFile = new EpochAndSeqFile(new File(mTemporaryFolder.getRoot(), "seq"));
+        epochAndSeqFile.open();
+
+        /* Too long key is not persisted. */
+        assertEquals(-1, epochAndSeqFile.add(new String(new char[95]), UUID.randomUUID()));
+
+        /* Too many keys. */
+        for (int i = 0; i < EpochAndSeqFile.MAX_IKEYS; i++) {
+            assertEquals(i, epochAndSeqFile.add("o:key" + i, UUID.randomUUID()));
+        }
+        assertEquals(-1, epochAndSeqFile.add("o:other", UUID.randomUUID()));
+    }
+
+    @Test
+    public void invalidFileIsReset() throws IOException {
+        File file = mTemporaryFolder.newFile();
+        FileOutputStream outputStream = new FileOutputStream(file);
+        outputStream.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9});
+        outputStream.close();
+        EpochAndSeqFile epochAndSeqFile = new EpochAndSeqFile(file);
+        assertTrue(epochAndSeqFile.open().isEmpty());
+        assertEquals(0, epochAndSeqFile.add("o:key", UUID.randomUUID()));
+    }
+
+    @Test
+    public void cannotOpenFile() throws IOException {
+
+        /* Parent is a file. */
+        File file = new File(mTemporaryFolder.newFile(), "seq");
+        EpochAndSeqFile epochAndSeqFile = new EpochAndSeqFile(file);
+        assertTrue(epochAndSeqFile.open().isEmpty());
+        assertEquals(-1, epochAndSeqFile.add("o:key", UUID.randomUUID()));
+    }
+}
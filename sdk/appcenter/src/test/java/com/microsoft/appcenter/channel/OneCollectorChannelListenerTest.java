@@ -7,6 +7,7 @@ package com.microsoft.appcenter.channel;
 
 import android.content.Context;
 
+import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.OneCollectorIngestion;
 import com.microsoft.appcenter.ingestion.models.Log;
@@ -17,7 +18,9 @@ import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.SdkExtension;
 import com.microsoft.appcenter.utils.UUIDUtils;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentMatcher;
 
 import java.util.Arrays;
@@ -53,6 +56,9 @@ import static org.mockito.Mockito.when;
 
 public class OneCollectorChannelListenerTest {
 
+    @Rule
+    public final TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
     @Test
     public void addCorrespondingGroup() {
         Channel channel = mock(Channel.class);
@@ -76,6 +82,19 @@ public class OneCollectorChannelListenerTest {
         verifyNoMoreInteractions(channel);
     }
 
+    @Test
+    public void addCorrespondingGroupWithTargetKeyBatching() {
+        Channel channel = mock(Channel.class);
+        OneCollectorChannelListener listener = new OneCollectorChannelListener(mock(Context.class), channel, mock(LogSerializer.class), UUIDUtils.randomUUID());
+        listener.setTargetKeyBatching(1, 20, true);
+
+        /* Mock group added. */
+        listener.onGroupAdded(TEST_GROUP, mock(Channel.GroupListener.class));
+
+        /* Verify batching configured on one collector group. */
+        verify(channel).setTargetKeyBatching(TEST_GROUP + ONE_COLLECTOR_GROUP_NAME_SUFFIX, 1, 20, true);
+    }
+
     @Test
     public void removeCorrespondingGroup() {
         Channel channel = mock(Channel.class);
@@ -185,6 +204,45 @@ public class OneCollectorChannelListenerTest {
         assertNotEquals(log3.getExt().getSdk().getEpoch(), log4.getExt().getSdk().getEpoch());
     }
 
+    @Test
+    public void continueSeqAfterRestart() throws Exception {
+        Constants.FILES_PATH = mTemporaryFolder.getRoot().getAbsolutePath();
+        try {
+            Log originalLog = mock(Log.class);
+            when(originalLog.getTransmissionTargetTokens()).thenReturn(new HashSet<>(Collections.singletonList("t1")));
+            LogSerializer logSerializer = mock(LogSerializer.class);
+            CommonSchemaLog log1 = new MockCommonSchemaLog();
+            log1.setIKey("t1");
+            log1.setExt(new Extensions());
+            log1.getExt().setSdk(new SdkExtension());
+            when(logSerializer.toCommonSchemaLog(any(Log.class))).thenReturn(Collections.singletonList(log1));
+            OneCollectorChannelListener listener = new OneCollectorChannelListener(mock(Context.class), mock(Channel.class), logSerializer, UUIDUtils.randomUUID());
+            listener.onPreparedLog(originalLog, TEST_GROUP, DEFAULTS);
+            listener.onPreparedLog(originalLog, TEST_GROUP, DEFAULTS);
+            assertEquals(Long.valueOf(2), log1.getExt().getSdk().getSeq());
+
+            /* Simulate restart: same epoch and next seq. */
+            CommonSchemaLog log2 = new MockCommonSchemaLog();
+            log2.setIKey("t1");
+            log2.setExt(new Extensions());
+            log2.getExt().setSdk(new SdkExtension());
+            when(logSerializer.toCommonSchemaLog(any(Log.class))).thenReturn(Collections.singletonList(log2));
+            listener = new OneCollectorChannelListener(mock(Context.class), mock(Channel.class), logSerializer, UUIDUtils.randomUUID());
+            listener.onPreparedLog(originalLog, TEST_GROUP, DEFAULTS);
+            assertEquals(log1.getExt().getSdk().getEpoch(), log2.getExt().getSdk().getEpoch());
+            assertEquals(Long.valueOf(3), log2.getExt().getSdk().getSeq());
+
+            /* Disabling resets persisted values too. */
+            listener.onGloballyEnabled(false);
+            listener = new OneCollectorChannelListener(mock(Context.class), mock(Channel.class), logSerializer, UUIDUtils.randomUUID());
+            listener.onPreparedLog(originalLog, TEST_GROUP, DEFAULTS);
+            assertNotEquals(log1.getExt().getSdk().getEpoch(), log2.getExt().getSdk().getEpoch());
+            assertEquals(Long.valueOf(1), log2.getExt().getSdk().getSeq());
+        } finally {
+            Constants.FILES_PATH = null;
+        }
+    }
+
     @Test
     public void validateCommonSchemaLogs() {
 
@@ -76,7 +76,8 @@ import static org.powermock.api.mockito.PowerMockito.whenNew;
         AppCenterLog.class,
         JSONObject.class,
         OneCollectorIngestion.class,
-        HttpUtils.class
+        HttpUtils.class,
+        TicketCache.class
 })
 public class OneCollectorIngestionTest {
 
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.properties;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+
+@PrepareForTest(AppCenterLog.class)
+public class TypedPropertyBagTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Test
+    public void setAllTypes() {
+        Date date = new Date(1000);
+        TypedPropertyBag bag = new TypedPropertyBag(1);
+        bag.set("a", true);
+        bag.set("b", date);
+        bag.set("c", 1.5);
+        bag.set("d", 2L);
+        bag.set("e", "f");
+        assertEquals(5, bag.size());
+        assertFalse(bag.isEmpty());
+
+        /* Check columns. */
+        assertEquals(TypedPropertyBag.TYPE_BOOLEAN, bag.getType(0));
+        assertTrue(bag.getBoolean(0));
+        assertEquals(TypedPropertyBag.TYPE_DATETIME, bag.getType(1));
+        assertEquals(1000, bag.getDateTime(1));
+        assertEquals(TypedPropertyBag.TYPE_DOUBLE, bag.getType(2));
+        assertEquals(1.5, bag.getDouble(2), 0);
+        assertEquals(TypedPropertyBag.TYPE_LONG, bag.getType(3));
+        assertEquals(2, bag.getLong(3));
+        assertEquals(TypedPropertyBag.TYPE_STRING, bag.getType(4));
+        assertEquals("f", bag.getString(4));
+        for (int i = 0; i < bag.size(); i++) {
+            assertFalse(bag.isNull(i));
+        }
+
+        /* Check conversion to typed properties keeps insertion order. */
+        List<TypedProperty> properties = bag.toTypedProperties();
+        assertEquals(5, properties.size());
+        BooleanTypedProperty booleanTypedProperty = new BooleanTypedProperty();
+        booleanTypedProperty.setName("a");
+        booleanTypedProperty.setValue(true);
+        assertEquals(booleanTypedProperty, properties.get(0));
+        DateTimeTypedProperty dateTimeTypedProperty = new DateTimeTypedProperty();
+        dateTimeTypedProperty.setName("b");
+        dateTimeTypedProperty.setValue(date);
+        assertEquals(dateTimeTypedProperty, properties.get(1));
+        DoubleTypedProperty doubleTypedProperty = new DoubleTypedProperty();
+        doubleTypedProperty.setName("c");
+        doubleTypedProperty.setValue(1.5);
+        assertEquals(doubleTypedProperty, properties.get(2));
+        LongTypedProperty longTypedProperty = new LongTypedProperty();
+        longTypedProperty.setName("d");
+        longTypedProperty.setValue(2);
+        assertEquals(longTypedProperty, properties.get(3));
+        StringTypedProperty stringTypedProperty = new StringTypedProperty();
+        stringTypedProperty.setName("e");
+        stringTypedProperty.setValue("f");
+        assertEquals(stringTypedProperty, properties.get(4));
+        assertEquals(stringTypedProperty, bag.get("e"));
+        assertNull(bag.get("g"));
+
+        /* Round trip. */
+        assertEquals(bag, TypedPropertyBag.fromTypedProperties(properties));
+        assertEquals(bag.hashCode(), TypedPropertyBag.fromTypedProperties(properties).hashCode());
+    }
+
+    @Test
+    public void replaceKeepsPositionAndChangesType() {
+        TypedPropertyBag bag = new TypedPropertyBag();
+        bag.set("a", "1");
+        bag.set("b", "2");
+        bag.set("a", 3L);
+        assertEquals(2, bag.size());
+        assertEquals("a", bag.getKey(0));
+        assertEquals(TypedPropertyBag.TYPE_LONG, bag.getType(0));
+        assertEquals(3, bag.getLong(0));
+        assertNull(bag.getString(0));
+        assertEquals("b", bag.getKey(1));
+    }
+
+    @Test
+    public void nullValuesAndKeys() {
+        TypedPropertyBag bag = new TypedPropertyBag();
+        bag.set(null, (String) null);
+        bag.set("d", (Date) null);
+        assertEquals(2, bag.size());
+        assertEquals(0, bag.indexOf(null));
+        assertTrue(bag.isNull(0));
+        assertTrue(bag.isNull(1));
+        assertEquals(TypedPropertyBag.TYPE_STRING, bag.getType(0));
+        assertEquals(TypedPropertyBag.TYPE_DATETIME, bag.getType(1));
+        assertNull(((StringTypedProperty) bag.toTypedProperty(0)).getValue());
+        assertNull(((DateTimeTypedProperty) bag.toTypedProperty(1)).getValue());
+        bag.setString(0, "v");
+        assertFalse(bag.isNull(0));
+    }
+
+    @Test
+    public void removeAndTruncate() {
+        TypedPropertyBag bag = new TypedPropertyBag();
+        for (int i = 0; i < 10; i++) {
+            bag.set("k" + i, i);
+        }
+        bag.remove("k0");
+        bag.remove("missing");
+        bag.removeAt(8);
+        assertEquals(8, bag.size());
+        assertEquals("k1", bag.getKey(0));
+        assertEquals(1, bag.getLong(0));
+        assertEquals("k8", bag.getKey(7));
+        bag.truncate(20);
+        assertEquals(8, bag.size());
+        bag.truncate(3);
+        assertEquals(3, bag.size());
+        assertFalse(bag.containsKey("k4"));
+        assertTrue(bag.containsKey("k3"));
+        bag.setKey(0, "renamed");
+        assertEquals(0, bag.indexOf("renamed"));
+    }
+
+    @Test
+    public void merge() {
+        TypedPropertyBag bag = new TypedPropertyBag();
+        bag.set("a", "1");
+        bag.set("b", "2");
+        TypedPropertyBag other = new TypedPropertyBag();
+        other.set("b", 3L);
+        other.set("c", true);
+
+        /* If absent keeps existing values. */
+        TypedPropertyBag merged = new TypedPropertyBag(bag);
+        merged.putAllIfAbsent(other);
+        assertEquals(3, merged.size());
+        assertEquals("2", merged.getString(1));
+        assertTrue(merged.getBoolean(2));
+
+        /* Put all overrides. */
+        merged = new TypedPropertyBag(bag);
+        merged.putAll(other);
+        assertEquals(3, merged.size());
+        assertEquals(3, merged.getLong(1));
+        assertTrue(merged.getBoolean(2));
+
+        /* Copy did not change source. */
+        assertEquals(2, bag.size());
+        assertEquals("2", bag.getString(1));
+    }
+
+    @Test
+    public void fromTypedPropertiesKeepsDuplicatesAndSkipsUnknownTypes() {
+        mockStatic(AppCenterLog.class);
+        assertNull(TypedPropertyBag.fromTypedProperties(null));
+        List<TypedProperty> properties = new ArrayList<>();
+        StringTypedProperty first = new StringTypedProperty();
+        first.setName("a");
+        first.setValue("1");
+        properties.add(first);
+        StringTypedProperty second = new StringTypedProperty();
+        second.setName("a");
+        second.setValue("2");
+        properties.add(second);
+        properties.add(new TypedProperty() {
+
+            @Override
+            public String getType() {
+                return "unknown";
+            }
+        });
+        TypedPropertyBag bag = TypedPropertyBag.fromTypedProperties(properties);
+        assertEquals(2, bag.size());
+        assertEquals("1", bag.getString(0));
+        assertEquals("2", bag.getString(1));
+        verifyStatic();
+        AppCenterLog.warn(anyString(), anyString());
+    }
+
+    @Test
+    public void equalsHashCode() {
+        TypedPropertyBag a = new TypedPropertyBag();
+        TypedPropertyBag b = new TypedPropertyBag();
+        assertEquals(a, a);
+        assertEquals(a, b);
+        assertNotEquals(a, null);
+        assertNotEquals(a, Collections.emptyList());
+        a.set("a", 1.0);
+        assertNotEquals(a, b);
+        b.set("a", 1.0);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        b.set("a", 2.0);
+        assertNotEquals(a, b);
+        b.set("a", 1L);
+        assertNotEquals(a, b);
+        a.set("a", 1L);
+        assertEquals(a, b);
+        a.set("s", "x");
+        b.set("s", "y");
+        assertNotEquals(a, b);
+        b.set("s", "x");
+        assertEquals(a, b);
+        b.setKey(1, "t");
+        assertNotEquals(a, b);
+    }
+}
@@ -28,20 +28,23 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import static com.microsoft.appcenter.Flags.PERSISTENCE_NORMAL;
+import static com.microsoft.appcenter.utils.storage.DatabaseManager.SELECT_PRIMARY_KEY;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
-import static org.mockito.Matchers.isNotNull;
-import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -137,6 +140,73 @@ public class DatabasePersistenceTest {
         assertEquals(0, persistence.mPendingDbIdentifiers.size());
     }
 
+    @Test
+    public void deleteSingleLogOfBatch() throws Exception {
+
+        /* Mock 3 logs. */
+        List<ContentValues> logs = new ArrayList<>();
+        for (long i = 1; i <= 3; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+            logs.add(values);
+        }
+        DatabaseManager mockDatabaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(mockDatabaseManager);
+        when(mockDatabaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        MockCursor mockCursor = new MockCursor(logs);
+        mockCursor.mockBuildValues(mockDatabaseManager);
+        when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{"test"}), anyString())).thenReturn(mockCursor);
+        LogSerializer mockLogSerializer = mock(LogSerializer.class);
+        when(mockLogSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(mockLogSerializer);
+        String id = persistence.getLogs("test", Collections.<String>emptyList(), 3, new ArrayList<Log>(), null);
+        assertNotNull(id);
+
+        /* Only the log at the index is deleted, the rest of the batch stays pending. */
+        persistence.deleteLog("test", id, 1);
+        verify(mockDatabaseManager).delete(2L);
+        assertEquals(Arrays.asList(1L, 3L), persistence.mPendingDbIdentifiersGroups.values().iterator().next());
+        assertEquals(2, persistence.mPendingDbIdentifiers.size());
+
+        /* Invalid index or batch is ignored. */
+        persistence.deleteLog("test", id, 2);
+        persistence.deleteLog("test", "unknown", 0);
+        verify(mockDatabaseManager).delete(anyLong());
+    }
+
+    @Test
+    public void deleteLogsDoesNotMatchGroupPrefix() throws Exception {
+
+        /* Mock one log per group. */
+        DatabaseManager mockDatabaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(mockDatabaseManager);
+        when(mockDatabaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        String[] groups = {"foo", "foo1"};
+        for (int i = 0; i < groups.length; i++) {
+            ContentValues values = mock(ContentValues.class);
+            when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn((long) i);
+            when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+            MockCursor mockCursor = new MockCursor(Collections.singletonList(values));
+            mockCursor.mockBuildValues(mockDatabaseManager);
+            when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{groups[i]}), anyString()))
+                    .thenReturn(mockCursor);
+        }
+        LogSerializer mockLogSerializer = mock(LogSerializer.class);
+        when(mockLogSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(mockLogSerializer);
+        for (String group : groups) {
+            assertNotNull(persistence.getLogs(group, Collections.<String>emptyList(), 1, new ArrayList<Log>(), null));
+        }
+        assertEquals(2, persistence.mPendingDbIdentifiersGroups.size());
+
+        /* Deleting a group keeps the batches of groups it is a prefix of. */
+        persistence.deleteLogs("foo");
+        assertEquals(1, persistence.mPendingDbIdentifiersGroups.size());
+    }
+
     @Test
     public void getLogsWithGetCursorException() throws Exception {
 
@@ -202,12 +272,12 @@ public class DatabasePersistenceTest {
         /* Mock log sequence retrieved from cursor. */
         MockCursor mockCursor = new MockCursor(fieldValues);
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), any(String[].class), anyString())).thenReturn(mockCursor);
 
         /* Mock second cursor with identifiers only. */
         Cursor failingCursor = mock(Cursor.class);
         when(failingCursor.moveToNext()).thenThrow(new SQLiteDiskIOException());
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNotNull(String[].class), any(String[].class), anyString())).thenReturn(failingCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(SELECT_PRIMARY_KEY), any(String[].class), anyString())).thenReturn(failingCursor);
 
         /* Get logs and verify we get only non corrupted logs. */
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
@@ -220,6 +290,93 @@ public class DatabasePersistenceTest {
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void getLogsGroupedByTargetKey() throws Exception {
+
+        /* Mock logs of several target keys, type is the identifier to simplify checking. */
+        String[] targetKeys = {"a", "b", "a", "c", "a", "b"};
+        List<ContentValues> fieldValues = new ArrayList<>();
+        for (int i = 0; i < targetKeys.length; i++) {
+            ContentValues contentValues = mock(ContentValues.class);
+            when(contentValues.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn((long) i);
+            when(contentValues.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn(String.valueOf(i));
+            when(contentValues.getAsString(DatabasePersistence.COLUMN_TARGET_KEY)).thenReturn(targetKeys[i]);
+            fieldValues.add(contentValues);
+        }
+        final DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        final List<ContentValues> allValues = fieldValues;
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_TARGET_KEY_COLUMNS), any(String[].class), anyString())).thenAnswer(new Answer<Cursor>() {
+
+            @Override
+            public Cursor answer(InvocationOnMock invocation) {
+                MockCursor mockCursor = new MockCursor(allValues);
+                mockCursor.mockBuildValues(databaseManager);
+                return mockCursor;
+            }
+        });
+
+        /* Payload query returns only the selected identifiers. */
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), any(String[].class), anyString())).thenAnswer(new Answer<Cursor>() {
+
+            @Override
+            public Cursor answer(InvocationOnMock invocation) {
+                List<String> ids = Arrays.asList((String[]) invocation.getArguments()[2]);
+                List<ContentValues> selectedValues = new ArrayList<>();
+                for (ContentValues values : allValues) {
+                    if (ids.contains(String.valueOf(values.getAsLong(DatabaseManager.PRIMARY_KEY)))) {
+                        selectedValues.add(values);
+                    }
+                }
+                MockCursor mockCursor = new MockCursor(selectedValues);
+                mockCursor.mockBuildValues(databaseManager);
+                return mockCursor;
+            }
+        });
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) {
+                Log log = mock(Log.class);
+                when(log.getType()).thenReturn((String) invocation.getArguments()[0]);
+                return log;
+            }
+        });
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* At most 2 target keys and 2 logs per key: third log of "a" and logs of "c" are skipped. */
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("mock", Collections.<String>emptyList(), 50, outLogs, null, 2, 2);
+        assertEquals(4, outLogs.size());
+        assertEquals("0", outLogs.get(0).getType());
+        assertEquals("1", outLogs.get(1).getType());
+        assertEquals("2", outLogs.get(2).getType());
+        assertEquals("5", outLogs.get(3).getType());
+
+        /* Payloads of skipped logs are not read. */
+        verify(logSerializer, never()).deserializeLog(eq("3"), anyString());
+        verify(logSerializer, never()).deserializeLog(eq("4"), anyString());
+
+        /* Skipped logs are returned next. */
+        outLogs = new ArrayList<>();
+        persistence.getLogs("mock", Collections.<String>emptyList(), 50, outLogs, null, 1, 50);
+        assertEquals(1, outLogs.size());
+        assertEquals("3", outLogs.get(0).getType());
+
+        outLogs = new ArrayList<>();
+        persistence.getLogs("mock", Collections.<String>emptyList(), 50, outLogs, null, 1, 50);
+        assertEquals(1, outLogs.size());
+        assertEquals("4", outLogs.get(0).getType());
+
+        /* Nothing left when all logs are pending. */
+        outLogs = new ArrayList<>();
+        assertNull(persistence.getLogs("mock", Collections.<String>emptyList(), 50, outLogs, null, 1, 50));
+        assertEquals(0, outLogs.size());
+    }
+
     @Test
     public void getLogsWithCorruption() throws Exception {
 
@@ -255,7 +412,7 @@ public class DatabasePersistenceTest {
         /* Mock log sequence retrieved from cursor. */
         MockCursor mockCursor = new MockCursor(fieldValues);
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), any(String[].class), anyString())).thenReturn(mockCursor);
 
         /* Mock second cursor with identifiers only. */
         List<ContentValues> idValues = new ArrayList<>(logCount);
@@ -266,7 +423,7 @@ public class DatabasePersistenceTest {
         }
         MockCursor mockIdCursor = new MockCursor(idValues);
         mockIdCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNotNull(String[].class), any(String[].class), anyString())).thenReturn(mockIdCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(SELECT_PRIMARY_KEY), any(String[].class), anyString())).thenReturn(mockIdCursor);
 
         /* Mock serializer and eventually the database. */
         LogSerializer logSerializer = mock(LogSerializer.class);
@@ -344,7 +501,7 @@ public class DatabasePersistenceTest {
             }
         };
         mockCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(DatabasePersistence.GET_COLUMNS), any(String[].class), anyString())).thenReturn(mockCursor);
         idValues = new ArrayList<>(4);
 
         /* Here the id cursor will also skip the new corrupted log which id would be 3. */
@@ -363,7 +520,7 @@ public class DatabasePersistenceTest {
             }
         };
         mockIdCursor.mockBuildValues(databaseManager);
-        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNotNull(String[].class), any(String[].class), anyString())).thenReturn(mockIdCursor);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(SELECT_PRIMARY_KEY), any(String[].class), anyString())).thenReturn(mockIdCursor);
 
         /* Verify next call is only the new valid log as others are marked pending. */
         outLogs = new ArrayList<>();
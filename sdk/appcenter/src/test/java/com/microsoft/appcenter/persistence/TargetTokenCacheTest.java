@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@PrepareForTest(CryptoUtils.class)
+public class TargetTokenCacheTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Mock
+    private CryptoUtils mCryptoUtils;
+
+    private TargetTokenCache mTargetTokenCache;
+
+    @Before
+    public void setUp() {
+        mockStatic(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(mCryptoUtils);
+        mTargetTokenCache = new TargetTokenCache(mock(Context.class));
+    }
+
+    @Test
+    public void encryptOncePerToken() {
+        when(mCryptoUtils.encrypt("token1")).thenReturn("encrypted1");
+        when(mCryptoUtils.encrypt("token2")).thenReturn("encrypted2");
+        for (int i = 0; i < 3; i++) {
+            assertEquals("encrypted1", mTargetTokenCache.encrypt("token1"));
+            assertEquals("encrypted2", mTargetTokenCache.encrypt("token2"));
+        }
+        verify(mCryptoUtils).encrypt("token1");
+        verify(mCryptoUtils).encrypt("token2");
+
+        /* Values we encrypted do not need decryption. */
+        assertEquals("token1", mTargetTokenCache.decrypt("encrypted1"));
+        verify(mCryptoUtils, never()).decrypt(anyString(), anyBoolean());
+    }
+
+    @Test
+    public void decryptOncePerToken() {
+        when(mCryptoUtils.decrypt("encrypted", false)).thenReturn(new CryptoUtils.DecryptedData("token", null));
+        when(mCryptoUtils.decrypt("old", false)).thenReturn(new CryptoUtils.DecryptedData("token", "new"));
+        for (int i = 0; i < 3; i++) {
+            assertEquals("token", mTargetTokenCache.decrypt("encrypted"));
+            assertEquals("token", mTargetTokenCache.decrypt("old"));
+        }
+        verify(mCryptoUtils).decrypt("encrypted", false);
+        verify(mCryptoUtils).decrypt("old", false);
+    }
+
+    @Test
+    public void decryptFailureNotCached() {
+        when(mCryptoUtils.decrypt("invalid", false)).thenReturn(new CryptoUtils.DecryptedData("invalid", null));
+        assertEquals("invalid", mTargetTokenCache.decrypt("invalid"));
+        assertEquals("invalid", mTargetTokenCache.decrypt("invalid"));
+        verify(mCryptoUtils, times(2)).decrypt("invalid", false);
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        for (int i = 0; i <= TargetTokenCache.MAX_SIZE; i++) {
+            when(mCryptoUtils.encrypt("token" + i)).thenReturn("encrypted" + i);
+            mTargetTokenCache.encrypt("token" + i);
+        }
+
+        /* Most recent tokens are kept. */
+        mTargetTokenCache.encrypt("token" + TargetTokenCache.MAX_SIZE);
+        verify(mCryptoUtils).encrypt("token" + TargetTokenCache.MAX_SIZE);
+
+        /* Eldest was evicted. */
+        mTargetTokenCache.encrypt("token0");
+        verify(mCryptoUtils, times(2)).encrypt("token0");
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.utils;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StartupTracerTest {
+
+    @After
+    public void tearDown() {
+        StartupTracer.setEnabled(false);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        assertFalse(StartupTracer.isEnabled());
+        long beginTime = StartupTracer.begin();
+        assertEquals(StartupTracer.DISABLED, beginTime);
+        StartupTracer.end("A", "b", beginTime);
+        assertTrue(StartupTracer.getSpans().isEmpty());
+        assertEquals("", StartupTracer.getReport());
+    }
+
+    @Test
+    public void recordSpans() throws InterruptedException {
+        StartupTracer.setEnabled(true);
+        assertTrue(StartupTracer.isEnabled());
+        long outerBeginTime = StartupTracer.begin();
+        long innerBeginTime = StartupTracer.begin();
+        Thread.sleep(5);
+        StartupTracer.end("A", "inner", innerBeginTime);
+        StartupTracer.end("A", "outer", outerBeginTime);
+
+        /* Span begun while disabled is ignored. */
+        StartupTracer.end("A", "ignored", StartupTracer.DISABLED);
+        List<StartupTracer.Span> spans = StartupTracer.getSpans();
+        assertEquals(2, spans.size());
+        StartupTracer.Span inner = spans.get(0);
+        StartupTracer.Span outer = spans.get(1);
+        assertEquals("A.inner", inner.getName());
+        assertEquals("A.outer", outer.getName());
+        assertEquals(Thread.currentThread().getName(), inner.getThreadName());
+        assertTrue(inner.getDuration() >= 5000);
+        assertTrue(outer.getDuration() >= inner.getDuration());
+        assertTrue(inner.getStartTime() >= outer.getStartTime());
+        assertTrue(StartupTracer.getReport().startsWith("A.inner thread=" + Thread.currentThread().getName() + " start="));
+
+        /* Enabling again starts a new trace. */
+        StartupTracer.setEnabled(true);
+        assertTrue(StartupTracer.getSpans().isEmpty());
+
+        /* Disabling drops the trace, even for spans begun before. */
+        long beginTime = StartupTracer.begin();
+        StartupTracer.setEnabled(false);
+        StartupTracer.end("A", "b", beginTime);
+        assertTrue(StartupTracer.getSpans().isEmpty());
+    }
+
+    @Test
+    public void boundedSpans() {
+        StartupTracer.setEnabled(true);
+        for (int i = 0; i <= StartupTracer.MAX_SPANS; i++) {
+            StartupTracer.end("A", "b", StartupTracer.begin());
+        }
+        assertEquals(StartupTracer.MAX_SPANS, StartupTracer.getSpans().size());
+    }
+}
@@ -5,18 +5,85 @@
 
 package com.microsoft.appcenter.utils;
 
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
 
+@PrepareForTest({AppCenterLog.class, TicketCache.class})
 public class TicketCacheTest {
 
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
     @Before
-    public void setUp() {
+    public void setUp() throws Exception {
         TicketCache.clear();
+
+        /* Serialize tickets as a list of key value pairs in insertion order. */
+        whenNew(JSONObject.class).withNoArguments().thenAnswer(new Answer<JSONObject>() {
+
+            @Override
+            public JSONObject answer(InvocationOnMock invocation) throws Throwable {
+                final List<String> pairs = new ArrayList<>();
+                JSONObject json = mock(JSONObject.class);
+                when(json.put(anyString(), anyString())).thenAnswer(new Answer<JSONObject>() {
+
+                    @Override
+                    public JSONObject answer(InvocationOnMock invocation) throws JSONException {
+                        if (invocation.getArguments()[0] == null) {
+                            throw new JSONException("Names must be non-null");
+                        }
+                        pairs.add(String.format("\"%s\":\"%s\"", invocation.getArguments()[0], invocation.getArguments()[1]));
+                        return null;
+                    }
+                });
+                when(json.length()).thenAnswer(new Answer<Integer>() {
+
+                    @Override
+                    public Integer answer(InvocationOnMock invocation) {
+                        return pairs.size();
+                    }
+                });
+                when(json.toString()).thenAnswer(new Answer<String>() {
+
+                    @Override
+                    public String answer(InvocationOnMock invocation) {
+                        StringBuilder builder = new StringBuilder("{");
+                        for (String pair : pairs) {
+                            builder.append(builder.length() > 1 ? "," : "").append(pair);
+                        }
+                        return builder.append("}").toString();
+                    }
+                });
+                return json;
+            }
+        });
     }
 
     @After
@@ -40,4 +107,62 @@ public class TicketCacheTest {
         assertEquals("2", TicketCache.getTicket("key1"));
         assertEquals("1", TicketCache.getTicket("key2"));
     }
+
+    @Test
+    public void ticketsExpire() {
+        mockStatic(System.class);
+        when(System.currentTimeMillis()).thenReturn(1000L);
+        TicketCache.putTicket("key1", "1", new Date(2000));
+        TicketCache.putTicket("key2", "2", new Date(3000));
+        TicketCache.putTicket("key3", "3");
+        assertEquals("{\"key1\":\"1\",\"key2\":\"2\",\"key3\":\"3\"}", TicketCache.getTicketsHeader(Arrays.asList("key1", "key2", "key3")));
+
+        /* First ticket expires. */
+        when(System.currentTimeMillis()).thenReturn(2000L);
+        assertNull(TicketCache.getTicket("key1"));
+        assertEquals("2", TicketCache.getTicket("key2"));
+        assertEquals("{\"key2\":\"2\",\"key3\":\"3\"}", TicketCache.getTicketsHeader(Arrays.asList("key1", "key2", "key3")));
+
+        /* Second one expires. */
+        when(System.currentTimeMillis()).thenReturn(3000L);
+        assertEquals("{\"key3\":\"3\"}", TicketCache.getTicketsHeader(Arrays.asList("key1", "key2", "key3")));
+        assertNull(TicketCache.getTicketsHeader(Arrays.asList("key1", "key2")));
+    }
+
+    @Test
+    public void ticketsAreBounded() {
+        for (int i = 0; i <= TicketCache.MAX_TICKETS; i++) {
+            TicketCache.putTicket("key" + i, "value" + i);
+        }
+        assertNull(TicketCache.getTicket("key0"));
+        assertEquals("value1", TicketCache.getTicket("key1"));
+        assertEquals("value" + TicketCache.MAX_TICKETS, TicketCache.getTicket("key" + TicketCache.MAX_TICKETS));
+    }
+
+    @Test
+    public void headerSerializedOncePerKeys() throws Exception {
+        assertNull(TicketCache.getTicketsHeader(Collections.<String>emptyList()));
+        assertNull(TicketCache.getTicketsHeader(Collections.singletonList("key1")));
+        TicketCache.putTicket("key1", "1");
+        TicketCache.putTicket("key2", "2");
+        String header = TicketCache.getTicketsHeader(Arrays.asList("key1", "key2"));
+        assertEquals("{\"key1\":\"1\",\"key2\":\"2\"}", header);
+        assertSame(header, TicketCache.getTicketsHeader(Arrays.asList("key1", "key2")));
+        assertEquals("{\"key2\":\"2\",\"key1\":\"1\"}", TicketCache.getTicketsHeader(Arrays.asList("key2", "key1")));
+        verifyNew(JSONObject.class, times(3)).withNoArguments();
+
+        /* Updating a ticket invalidates headers. */
+        TicketCache.putTicket("key2", "3");
+        assertEquals("{\"key1\":\"1\",\"key2\":\"3\"}", TicketCache.getTicketsHeader(Arrays.asList("key1", "key2")));
+    }
+
+    @Test
+    public void headerFailsToSerialize() {
+        mockStatic(AppCenterLog.class);
+        TicketCache.putTicket(null, "1");
+        TicketCache.putTicket("key2", "2");
+        assertNull(TicketCache.getTicketsHeader(Arrays.asList("key2", null)));
+        verifyStatic();
+        AppCenterLog.error(anyString(), anyString(), any(JSONException.class));
+    }
 }
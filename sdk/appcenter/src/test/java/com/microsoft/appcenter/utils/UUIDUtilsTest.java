@@ -7,9 +7,15 @@ package com.microsoft.appcenter.utils;
 
 import org.junit.Test;
 
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.when;
 
@@ -38,4 +44,70 @@ public class UUIDUtilsTest {
             assertEquals(2, uuid.variant());
         }
     }
+
+    @Test
+    public void fastRandom() {
+        Set<UUID> uuids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            UUID uuid = UUIDUtils.fastRandomUUID();
+            assertEquals(4, uuid.version());
+            assertEquals(2, uuid.variant());
+            assertTrue(uuids.add(uuid));
+        }
+    }
+
+    @Test
+    public void fastRandomWithSecurityExceptionOnSeed() throws InterruptedException {
+        UUIDUtils.sImplementation = mock(UUIDUtils.Implementation.class);
+        when(UUIDUtils.sImplementation.randomUUID()).thenThrow(new SecurityException("mock"));
+
+        /* Use a new thread so that the thread local generator gets seeded with the mock. */
+        final UUID[] uuid = new UUID[1];
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                uuid[0] = UUIDUtils.fastRandomUUID();
+            }
+        };
+        thread.start();
+        thread.join();
+        assertEquals(4, uuid[0].version());
+        assertEquals(2, uuid[0].variant());
+    }
+
+    @Test
+    public void fastRandomFromManyProducerThreads() throws InterruptedException {
+        int threadCount = 32;
+        final int uuidsPerThread = 2000;
+        final Set<UUID> uuids = Collections.newSetFromMap(new ConcurrentHashMap<UUID, Boolean>());
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < uuidsPerThread; j++) {
+                        uuids.add(UUIDUtils.fastRandomUUID());
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(threadCount * uuidsPerThread, uuids.size());
+        for (UUID uuid : uuids) {
+            assertEquals(4, uuid.version());
+            assertEquals(2, uuid.variant());
+        }
+    }
 }
@@ -7,10 +7,14 @@ package com.microsoft.appcenter.utils.crypto;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.security.keystore.KeyGenParameterSpec;
 import android.util.Base64;
 
+import com.microsoft.appcenter.utils.AsyncTaskUtils;
+import com.microsoft.appcenter.utils.async.AppCenterFuture;
+
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -23,6 +27,7 @@ import org.powermock.core.classloader.annotations.PowerMockIgnore;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.lang.reflect.Method;
 import java.math.BigInteger;
 import java.security.KeyPairGenerator;
 import java.security.KeyStore;
@@ -30,8 +35,11 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateExpiredException;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 
 import javax.crypto.BadPaddingException;
 import javax.security.auth.x500.X500Principal;
@@ -46,10 +54,14 @@ import static com.microsoft.appcenter.utils.crypto.CryptoConstants.KEYSTORE_ALIA
 import static com.microsoft.appcenter.utils.crypto.CryptoConstants.KEYSTORE_ALIAS_PREFIX_MOBILE_CENTER;
 import static com.microsoft.appcenter.utils.crypto.CryptoConstants.RSA_KEY_SIZE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
@@ -60,13 +72,14 @@ import static org.mockito.Mockito.verify;
 import static org.powermock.api.mockito.PowerMockito.doThrow;
 import static org.powermock.api.mockito.PowerMockito.mock;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.spy;
 import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @SuppressLint("NewApi")
 @PowerMockIgnore({"javax.security.auth.x500.*"})
-@PrepareForTest({KeyStore.class, KeyPairGenerator.class, Base64.class, CryptoUtils.class, CryptoRsaHandler.class, CryptoAesHandler.class})
+@PrepareForTest({AsyncTaskUtils.class, KeyStore.class, KeyPairGenerator.class, Base64.class, CryptoUtils.class, CryptoRsaHandler.class, CryptoAesHandler.class})
 public class CryptoTest {
 
     @Rule
@@ -345,7 +358,9 @@ public class CryptoTest {
         assertEquals(alias0, alias.getAllValues().get(2));
         verify(mKeyStore).deleteEntry(alias0);
         verify(mKeyStore, times(alias0count + 1)).getEntry(alias0, null);
-        verify(mKeyStore, times(3)).getEntry(alias1, null);
+
+        /* The expired alias1 entry was cached, it's not resolved again. */
+        verify(mKeyStore, times(2)).getEntry(alias1, null);
 
         /* Check that it will reload alias0 again after restart. */
         calendar.add(Calendar.YEAR, 1);
@@ -354,7 +369,7 @@ public class CryptoTest {
         encrypted = cryptoUtils.encrypt("anything");
         assertEquals(CIPHER_RSA + "/" + RSA_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "anything", encrypted);
         verify(mKeyStore, times(alias0count + 2)).getEntry(alias0, null);
-        verify(mKeyStore, times(3)).getEntry(alias1, null);
+        verify(mKeyStore, times(2)).getEntry(alias1, null);
     }
 
     @Test
@@ -398,6 +413,169 @@ public class CryptoTest {
         assertTrue(alias.getValue().contains(CIPHER_AES));
     }
 
+    @Test
+    public void keyStoreEntryAndCipherReused() throws Exception {
+        final CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        for (int i = 0; i < 3; i++) {
+            String encrypted = cryptoUtils.encrypt("anything");
+            assertEquals("anything", cryptoUtils.decrypt(encrypted, false).getDecryptedData());
+        }
+        verify(mKeyStore).getEntry(argThat(new ArgumentMatcher<String>() {
+
+            @Override
+            public boolean matches(Object argument) {
+                return String.valueOf(argument).contains(CIPHER_AES);
+            }
+        }), any(KeyStore.ProtectionParameter.class));
+        verify(mCryptoFactory).getCipher(anyString(), anyString());
+
+        /* Another thread gets its own cipher. */
+        Thread thread = new Thread() {
+
+            @Override
+            public void run() {
+                cryptoUtils.encrypt("anything");
+            }
+        };
+        thread.start();
+        thread.join();
+        verify(mCryptoFactory, times(2)).getCipher(anyString(), anyString());
+    }
+
+    @Test
+    public void keyStoreEntryAndCipherResolvedAgainAfterFailure() throws Exception {
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        String encrypted = cryptoUtils.encrypt("anything");
+        doThrow(new BadPaddingException()).when(mCipher).doFinal(any(byte[].class), anyInt(), anyInt());
+        assertEquals(encrypted, cryptoUtils.decrypt(encrypted, false).getDecryptedData());
+        cryptoUtils.encrypt("anything");
+        verify(mKeyStore, times(2)).getEntry(argThat(new ArgumentMatcher<String>() {
+
+            @Override
+            public boolean matches(Object argument) {
+                return String.valueOf(argument).contains(CIPHER_AES);
+            }
+        }), any(KeyStore.ProtectionParameter.class));
+        verify(mCryptoFactory, times(2)).getCipher(anyString(), anyString());
+    }
+
+    private static void runInBackground(AsyncTask task) throws Exception {
+        Method doInBackground = task.getClass().getDeclaredMethod("doInBackground", Void[].class);
+        doInBackground.setAccessible(true);
+        doInBackground.invoke(task, new Object[]{new Void[0]});
+    }
+
+    @Test
+    public void getInstanceAsync() throws Exception {
+        CryptoUtils.unsetInstance();
+        mockStatic(AsyncTaskUtils.class);
+
+        /* Initialization starts once in background. */
+        AppCenterFuture<CryptoUtils> future = CryptoUtils.getInstanceAsync(mContext);
+        assertSame(future, CryptoUtils.getInstanceAsync(mContext));
+        assertFalse(future.isDone());
+        ArgumentCaptor<AsyncTask> task = ArgumentCaptor.forClass(AsyncTask.class);
+        verifyStatic();
+        AsyncTaskUtils.execute(anyString(), task.capture());
+        runInBackground(task.getValue());
+        assertTrue(future.isDone());
+        assertSame(CryptoUtils.getInstance(mContext), future.get());
+        CryptoUtils.unsetInstance();
+    }
+
+    @Test
+    public void getInstanceCompletesFuture() {
+        CryptoUtils.unsetInstance();
+        mockStatic(AsyncTaskUtils.class);
+
+        /* Initializing synchronously completes the future without starting a background task. */
+        CryptoUtils cryptoUtils = CryptoUtils.getInstance(mContext);
+        assertSame(cryptoUtils, CryptoUtils.getInstance(mContext));
+        AppCenterFuture<CryptoUtils> future = CryptoUtils.getInstanceAsync(mContext);
+        assertTrue(future.isDone());
+        assertSame(cryptoUtils, future.get());
+        verifyStatic(never());
+        AsyncTaskUtils.execute(anyString(), any(AsyncTask.class));
+        CryptoUtils.unsetInstance();
+    }
+
+    @Test
+    public void batchEncryptAndDecrypt() throws Exception {
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        List<String> encrypted = cryptoUtils.encryptAll(Arrays.asList("a", null, "b"));
+        String prefix = CIPHER_AES + "/" + AES_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "IV";
+        assertEquals(Arrays.asList(prefix + "a", null, prefix + "b"), encrypted);
+        List<CryptoUtils.DecryptedData> decrypted = cryptoUtils.decryptAll(encrypted, false);
+        assertEquals(3, decrypted.size());
+        assertEquals("a", decrypted.get(0).getDecryptedData());
+        assertNull(decrypted.get(1).getDecryptedData());
+        assertEquals("b", decrypted.get(2).getDecryptedData());
+
+        /* Key and cipher resolved once. */
+        verify(mKeyStore).getEntry(argThat(new ArgumentMatcher<String>() {
+
+            @Override
+            public boolean matches(Object argument) {
+                return String.valueOf(argument).contains(CIPHER_AES);
+            }
+        }), any(KeyStore.ProtectionParameter.class));
+        verify(mCryptoFactory).getCipher(anyString(), anyString());
+        assertTrue(cryptoUtils.encryptAll(Collections.<String>emptyList()).isEmpty());
+        assertTrue(cryptoUtils.decryptAll(Collections.<String>emptyList(), false).isEmpty());
+    }
+
+    @Test
+    public void batchEncryptAndDecryptAsync() throws Exception {
+
+        /* Run async tasks synchronously. */
+        mockStatic(AsyncTaskUtils.class);
+        when(AsyncTaskUtils.execute(anyString(), any(AsyncTask.class))).then(new Answer<AsyncTask>() {
+
+            @Override
+            public AsyncTask answer(InvocationOnMock invocation) throws Throwable {
+                AsyncTask task = (AsyncTask) invocation.getArguments()[1];
+                runInBackground(task);
+                return task;
+            }
+        });
+        CryptoUtils cryptoUtils = new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M);
+        AppCenterFuture<List<String>> encryptFuture = cryptoUtils.encryptAsync(Collections.singletonList("a"));
+        assertTrue(encryptFuture.isDone());
+        String encrypted = CIPHER_AES + "/" + AES_KEY_SIZE + ALGORITHM_DATA_SEPARATOR + "IV" + "a";
+        assertEquals(Collections.singletonList(encrypted), encryptFuture.get());
+        AppCenterFuture<List<CryptoUtils.DecryptedData>> decryptFuture = cryptoUtils.decryptAsync(encryptFuture.get(), false);
+        assertTrue(decryptFuture.isDone());
+        assertEquals("a", decryptFuture.get().get(0).getDecryptedData());
+    }
+
+    @Test
+    public void batchEncryptAndDecryptAsyncFailure() throws Exception {
+
+        /* Run async tasks synchronously. */
+        mockStatic(AsyncTaskUtils.class);
+        when(AsyncTaskUtils.execute(anyString(), any(AsyncTask.class))).then(new Answer<AsyncTask>() {
+
+            @Override
+            public AsyncTask answer(InvocationOnMock invocation) throws Throwable {
+                AsyncTask task = (AsyncTask) invocation.getArguments()[1];
+                runInBackground(task);
+                return task;
+            }
+        });
+        CryptoUtils cryptoUtils = spy(new CryptoUtils(mContext, mCryptoFactory, Build.VERSION_CODES.M));
+        doThrow(new IllegalStateException()).when(cryptoUtils).encryptAll(anyCollectionOf(String.class));
+        doThrow(new IllegalStateException()).when(cryptoUtils).decryptAll(anyCollectionOf(String.class), anyBoolean());
+
+        /* Futures complete with data as is, like when crypto fails. */
+        AppCenterFuture<List<String>> encryptFuture = cryptoUtils.encryptAsync(Collections.singletonList("a"));
+        assertTrue(encryptFuture.isDone());
+        assertEquals(Collections.singletonList("a"), encryptFuture.get());
+        AppCenterFuture<List<CryptoUtils.DecryptedData>> decryptFuture = cryptoUtils.decryptAsync(Collections.singletonList("b"), false);
+        assertTrue(decryptFuture.isDone());
+        assertEquals("b", decryptFuture.get().get(0).getDecryptedData());
+        assertNull(decryptFuture.get().get(0).getNewEncryptedData());
+    }
+
     @Test
     public void registerHandlerWithOldMCKeyStore() throws Exception {
 
@@ -71,6 +71,24 @@ public class DatabaseManagerTest {
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void insertFailed() {
+        DatabaseManager databaseManagerMock = getDatabaseManagerMock();
+        assertEquals(-1L, databaseManagerMock.insert("other", new ContentValues()));
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
+    }
+
+    @Test
+    public void insertInOtherTable() {
+        DatabaseManager databaseManager = spy(new DatabaseManager(null, "database", "table", 1, null, null));
+        SQLiteDatabase database = mock(SQLiteDatabase.class);
+        when(databaseManager.getDatabase()).thenReturn(database);
+        ContentValues values = new ContentValues();
+        when(database.insertOrThrow("other", null, values)).thenReturn(42L);
+        assertEquals(42L, databaseManager.insert("other", values));
+    }
+
     @Test
     public void upsertFailed() {
         DatabaseManager databaseManagerMock = getDatabaseManagerMock();